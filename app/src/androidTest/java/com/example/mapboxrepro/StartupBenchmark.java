@@ -0,0 +1,93 @@
+package com.example.mapboxrepro;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Launches {@link MainActivity} over and over and reports how long it takes to its first frame, to
+ * the route and until the map can be tapped, from the {@code startup.warm.*} metrics the activity
+ * records itself. The results show up in the instrumentation status, e.g. with
+ * {@code adb shell am instrument -w -e class com.example.mapboxrepro.StartupBenchmark ...}.
+ * <p>
+ * The process is already running for these, so the cold start numbers come from a real launch
+ * instead: {@code adb shell am start -W} after {@code am force-stop}, then the {@code startup.cold.*}
+ * lines in the metrics file.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+    private static final String TAG = "StartupBenchmark";
+    private static final int WARMUP_LAUNCHES = 2;
+    private static final int LAUNCHES = 10;
+    // The route comes from the network unless there are route fixtures on the device
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final String[] MILESTONES = {
+            StartupPipeline.FIRST_FRAME, StartupPipeline.MAP_READY, StartupPipeline.ROUTE,
+            StartupPipeline.STYLE_LOADED, StartupPipeline.INTERACTIVE
+    };
+
+    @Test
+    public void warmStart() throws InterruptedException {
+        ReproApplication application = ApplicationProvider.getApplicationContext();
+        Metrics metrics = application.getMetrics();
+        // The first launch of the process measures a cold start, whatever the test does before it
+        application.takeProcessStartNanos();
+
+        for (int i = 0; i < WARMUP_LAUNCHES; i++) {
+            launchUntilInteractive(metrics);
+        }
+        for (String milestone : MILESTONES) {
+            histogramOf(metrics, milestone).reset();
+        }
+        for (int i = 0; i < LAUNCHES; i++) {
+            launchUntilInteractive(metrics);
+        }
+
+        Bundle results = new Bundle();
+        for (String milestone : MILESTONES) {
+            LatencyHistogram histogram = histogramOf(metrics, milestone);
+            results.putDouble(milestone + "_p50_ms", millis(histogram.getValueAtPercentile(50)));
+            results.putDouble(milestone + "_p90_ms", millis(histogram.getValueAtPercentile(90)));
+            Log.i(TAG, String.format(Locale.US, "%s: p50 %.1f ms, p90 %.1f ms, max %.1f ms", milestone,
+                    millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getMax())));
+        }
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+        assertEquals(LAUNCHES, histogramOf(metrics, StartupPipeline.INTERACTIVE).getCount());
+    }
+
+    private static void launchUntilInteractive(Metrics metrics) throws InterruptedException {
+        LatencyHistogram interactive = histogramOf(metrics, StartupPipeline.INTERACTIVE);
+        long before = interactive.getCount();
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            while (interactive.getCount() == before) {
+                assertTrue("No route and map within " + TIMEOUT_MILLIS + " ms",
+                        SystemClock.elapsedRealtime() < deadline);
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static LatencyHistogram histogramOf(Metrics metrics, String milestone) {
+        return metrics.histogram("startup.warm." + milestone);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.mapboxrepro;
+
+import android.app.PendingIntent;
+import android.location.Location;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.android.core.location.LocationEngine;
+import com.mapbox.android.core.location.LocationEngineCallback;
+import com.mapbox.android.core.location.LocationEngineRequest;
+import com.mapbox.android.core.location.LocationEngineResult;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps the {@link LocationEngine} of the navigation session so its update interval follows the
+ * {@link AdaptiveUpdateScheduler} instead of the fixed one the SDK asks for. When the interval
+ * changes, the wrapped engine is asked again with the new one, which is what lets the GPS sleep.
+ * Sources that don't honour the interval, like a {@link TraceLocationEngine} or the route replay the
+ * session simulates with, are thinned out here; the dropped updates are counted in
+ * {@code location.dropped}.
+ */
+public class AdaptiveLocationEngine implements LocationEngine, AdaptiveUpdateScheduler.Listener {
+    // Fixes come in with some jitter, don't drop one for being a few milliseconds early
+    private static final double EARLY_TOLERANCE = 0.8;
+
+    private final LocationEngine delegate;
+    private final LongAdder dropped;
+    private final LongAdder delivered;
+    private final Map<LocationEngineCallback<LocationEngineResult>, Registration> registrations =
+            new IdentityHashMap<>();
+    private long intervalMillis;
+
+    private final class Registration implements LocationEngineCallback<LocationEngineResult> {
+        final LocationEngineCallback<LocationEngineResult> callback;
+        final LocationEngineRequest request;
+        final Looper looper;
+        // Only touched on the looper
+        long lastDeliveredNanos = -1;
+
+        Registration(LocationEngineCallback<LocationEngineResult> callback, LocationEngineRequest request,
+                     Looper looper) {
+            this.callback = callback;
+            this.request = request;
+            this.looper = looper;
+        }
+
+        @Override
+        public void onSuccess(LocationEngineResult result) {
+            Location location = result.getLastLocation();
+            long nowNanos = location != null ? location.getElapsedRealtimeNanos() : SystemClock.elapsedRealtimeNanos();
+            long minGapNanos = (long) (TimeUnit.MILLISECONDS.toNanos(getIntervalMillis()) * EARLY_TOLERANCE);
+            if (lastDeliveredNanos >= 0 && nowNanos - lastDeliveredNanos < minGapNanos) {
+                dropped.increment();
+                return;
+            }
+            lastDeliveredNanos = nowNanos;
+            delivered.increment();
+            callback.onSuccess(result);
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception exception) {
+            callback.onFailure(exception);
+        }
+    }
+
+    public AdaptiveLocationEngine(@NonNull LocationEngine delegate, long intervalMillis, @NonNull Metrics metrics) {
+        this.delegate = delegate;
+        this.intervalMillis = intervalMillis;
+        this.dropped = metrics.counter("location.dropped");
+        this.delivered = metrics.counter("location.delivered");
+    }
+
+    @Override
+    public void getLastLocation(@NonNull LocationEngineCallback<LocationEngineResult> callback) {
+        delegate.getLastLocation(callback);
+    }
+
+    @Override
+    public void requestLocationUpdates(@NonNull LocationEngineRequest request,
+                                       @NonNull LocationEngineCallback<LocationEngineResult> callback,
+                                       @Nullable Looper looper) {
+        Registration registration = new Registration(callback, request, looper);
+        Registration replaced;
+        long interval;
+        synchronized (this) {
+            replaced = registrations.put(callback, registration);
+            interval = intervalMillis;
+        }
+        if (replaced != null) {
+            delegate.removeLocationUpdates(replaced);
+        }
+        delegate.requestLocationUpdates(withInterval(request, interval), registration, looper);
+    }
+
+    @Override
+    public void requestLocationUpdates(@NonNull LocationEngineRequest request, PendingIntent pendingIntent) {
+        delegate.requestLocationUpdates(request, pendingIntent);
+    }
+
+    @Override
+    public void removeLocationUpdates(@NonNull LocationEngineCallback<LocationEngineResult> callback) {
+        Registration registration;
+        synchronized (this) {
+            registration = registrations.remove(callback);
+        }
+        if (registration != null) {
+            delegate.removeLocationUpdates(registration);
+        }
+    }
+
+    @Override
+    public void removeLocationUpdates(PendingIntent pendingIntent) {
+        delegate.removeLocationUpdates(pendingIntent);
+    }
+
+    @Override
+    public void onIntervalChanged(long intervalMillis) {
+        Registration[] current;
+        synchronized (this) {
+            if (intervalMillis == this.intervalMillis) {
+                return;
+            }
+            this.intervalMillis = intervalMillis;
+            current = registrations.values().toArray(new Registration[0]);
+        }
+        for (Registration registration : current) {
+            delegate.removeLocationUpdates(registration);
+            delegate.requestLocationUpdates(withInterval(registration.request, intervalMillis), registration,
+                    registration.looper);
+        }
+    }
+
+    private synchronized long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    private static LocationEngineRequest withInterval(LocationEngineRequest request, long intervalMillis) {
+        return new LocationEngineRequest.Builder(intervalMillis)
+                .setPriority(request.getPriority())
+                .setDisplacement(request.getDisplacement())
+                .setFastestInterval(intervalMillis)
+                .setMaxWaitTime(request.getMaxWaitTime())
+                .build();
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Picks the location update interval from what the drive looks like: fast when a maneuver is coming
+ * up, slow on long stretches without one and while the screen is off, the SDK's usual second in
+ * between. Each mode has separate thresholds for entering and leaving it, so driving along a
+ * threshold doesn't make the rate flap.
+ * <p>
+ * Decisions are recorded in metrics: the current interval in {@code location.interval_ms}, the time
+ * spent in each mode in {@code location.mode.<mode>_ms}, and how many updates that saved against a
+ * fixed {@value #BASELINE_INTERVAL_MILLIS} ms cadence in {@code location.updates_saved}. That one
+ * goes negative while maneuvers make it spend more.
+ */
+class AdaptiveUpdateScheduler {
+    static final long BASELINE_INTERVAL_MILLIS = 1000;
+    // Approaching a maneuver within this many meters or seconds
+    private static final double MANEUVER_ENTER_METERS = 250;
+    private static final double MANEUVER_ENTER_SECONDS = 20;
+    private static final double MANEUVER_LEAVE_METERS = 350;
+    private static final double MANEUVER_LEAVE_SECONDS = 30;
+    // The next maneuver at least this far off, both in meters and in seconds
+    private static final double STRAIGHT_ENTER_METERS = 2000;
+    private static final double STRAIGHT_ENTER_SECONDS = 120;
+    private static final double STRAIGHT_LEAVE_METERS = 1500;
+    private static final double STRAIGHT_LEAVE_SECONDS = 90;
+    // Standing or crawling, a maneuver is still a while off even when it is close
+    private static final double MIN_SPEED_METERS_PER_SECOND = 2;
+
+    enum Mode {
+        MANEUVER(500),
+        CRUISE(BASELINE_INTERVAL_MILLIS),
+        STRAIGHT(3000),
+        SCREEN_OFF(5000);
+
+        final long intervalMillis;
+
+        Mode(long intervalMillis) {
+            this.intervalMillis = intervalMillis;
+        }
+    }
+
+    interface Listener {
+        void onIntervalChanged(long intervalMillis);
+    }
+
+    private final LongSupplier clockMillis;
+    private final Listener listener;
+    private final AtomicLong intervalGauge;
+    private final AtomicLong updatesSavedGauge;
+    private final LongAdder modeChanges;
+    private final Map<Mode, LongAdder> modeMillis = new EnumMap<>(Mode.class);
+
+    private Mode mode = Mode.CRUISE;
+    private boolean screenOn = true;
+    private double distanceToManeuver = Double.NaN;
+    private double speed;
+    private long accountedUntilMillis = -1;
+    private double updatesSaved;
+
+    AdaptiveUpdateScheduler(@NonNull Metrics metrics, @Nullable Listener listener) {
+        this(metrics, listener, System::currentTimeMillis);
+    }
+
+    AdaptiveUpdateScheduler(@NonNull Metrics metrics, @Nullable Listener listener, @NonNull LongSupplier clockMillis) {
+        this.clockMillis = clockMillis;
+        this.listener = listener;
+        this.intervalGauge = metrics.gauge("location.interval_ms");
+        this.updatesSavedGauge = metrics.gauge("location.updates_saved");
+        this.modeChanges = metrics.counter("location.mode_changes");
+        for (Mode each : Mode.values()) {
+            modeMillis.put(each, metrics.counter("location.mode." + each.name().toLowerCase(Locale.US) + "_ms"));
+        }
+        intervalGauge.set(mode.intervalMillis);
+    }
+
+    /**
+     * @param distanceToManeuver meters to the end of the current step
+     * @param speed              meters per second, 0 if unknown
+     */
+    void onProgress(double distanceToManeuver, double speed) {
+        this.distanceToManeuver = distanceToManeuver;
+        this.speed = speed;
+        update();
+    }
+
+    void setScreenOn(boolean screenOn) {
+        this.screenOn = screenOn;
+        update();
+    }
+
+    @NonNull
+    Mode getMode() {
+        return mode;
+    }
+
+    long getIntervalMillis() {
+        return mode.intervalMillis;
+    }
+
+    /**
+     * Books the time since the last update to the current mode, e.g. before the metrics are reported.
+     */
+    void account() {
+        long now = clockMillis.getAsLong();
+        if (accountedUntilMillis >= 0 && now > accountedUntilMillis) {
+            long elapsed = now - accountedUntilMillis;
+            modeMillis.get(mode).add(elapsed);
+            updatesSaved += elapsed * (1.0 / BASELINE_INTERVAL_MILLIS - 1.0 / mode.intervalMillis);
+            updatesSavedGauge.set(Math.round(updatesSaved));
+        }
+        accountedUntilMillis = now;
+    }
+
+    private void update() {
+        account();
+        Mode next = nextMode();
+        if (next == mode) {
+            return;
+        }
+        mode = next;
+        modeChanges.increment();
+        intervalGauge.set(next.intervalMillis);
+        if (listener != null) {
+            listener.onIntervalChanged(next.intervalMillis);
+        }
+    }
+
+    private Mode nextMode() {
+        if (Double.isNaN(distanceToManeuver)) {
+            return screenOn ? Mode.CRUISE : Mode.SCREEN_OFF;
+        }
+        double seconds = distanceToManeuver / Math.max(speed, MIN_SPEED_METERS_PER_SECOND);
+        // With the screen off, being near a maneuver means cruising
+        boolean wasNear = mode == Mode.MANEUVER || !screenOn && mode == Mode.CRUISE;
+        boolean nearManeuver = wasNear
+                ? distanceToManeuver <= MANEUVER_LEAVE_METERS || seconds <= MANEUVER_LEAVE_SECONDS
+                : distanceToManeuver <= MANEUVER_ENTER_METERS || seconds <= MANEUVER_ENTER_SECONDS;
+        if (!screenOn) {
+            // Voice instructions still have to come on time
+            return nearManeuver ? Mode.CRUISE : Mode.SCREEN_OFF;
+        }
+        if (nearManeuver) {
+            return Mode.MANEUVER;
+        }
+        boolean straight = mode == Mode.STRAIGHT
+                ? distanceToManeuver >= STRAIGHT_LEAVE_METERS && seconds >= STRAIGHT_LEAVE_SECONDS
+                : distanceToManeuver >= STRAIGHT_ENTER_METERS && seconds >= STRAIGHT_ENTER_SECONDS;
+        return straight ? Mode.STRAIGHT : Mode.CRUISE;
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.api.directions.v5.models.LegStep;
+import com.mapbox.api.directions.v5.models.RouteLeg;
+import com.mapbox.api.directions.v5.models.RouteOptions;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.utils.PolylineUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static com.mapbox.core.constants.Constants.PRECISION_6;
+
+/**
+ * Routes requests with more stops than the Directions API takes at once, for multi-stop jobs:
+ * <ul>
+ * <li>every leg, i.e. pair of consecutive waypoints, that was routed in the last few minutes is taken
+ * from a cache, so editing one stop of a job only fetches the legs on either side of it, and a reroute
+ * only fetches the way back to the next stop</li>
+ * <li>the remaining legs are split into requests of at most {@link #MAX_WAYPOINTS_PER_REQUEST}
+ * waypoints, with neighbouring requests sharing the waypoint between them</li>
+ * <li>those are fetched from the delegate in parallel, a limited number at a time</li>
+ * <li>the legs are stitched back into one route on the worker executor</li>
+ * </ul>
+ * A request that comes down to a single fetch gets the delegate's route as it is. Either way the
+ * callback is called on the worker executor.
+ */
+public class BatchRoutePlanner implements RouteSource, MemoryPressureManager.Trimmable {
+    // The Directions API's limit for the driving profile
+    static final int MAX_WAYPOINTS_PER_REQUEST = 25;
+    // Route options need a request UUID, but a stitched route didn't come from any single request, so
+    // it mustn't look like the first leg's, e.g. to a route refresh
+    static final String STITCHED_REQUEST_UUID = "stitched";
+    private static final int MAX_CACHED_LEGS = 256;
+    // Long enough to edit a job, short enough for the durations to still reflect traffic
+    private static final long LEG_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private final RouteSource delegate;
+    private final int maxWaypointsPerRequest;
+    private final int maxConcurrentRequests;
+    private final Executor worker;
+    private final Metrics metrics;
+    private final LongSupplier clock;
+    private final Map<RouteRequest, CachedLeg> legCache = new LinkedHashMap<RouteRequest, CachedLeg>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RouteRequest, CachedLeg> eldest) {
+            return size() > MAX_CACHED_LEGS;
+        }
+    };
+
+    public BatchRoutePlanner(@NonNull RouteSource delegate, int maxConcurrentRequests,
+                             @NonNull Executor worker, @NonNull Metrics metrics) {
+        this(delegate, MAX_WAYPOINTS_PER_REQUEST, maxConcurrentRequests, worker, metrics,
+                System::currentTimeMillis);
+    }
+
+    BatchRoutePlanner(@NonNull RouteSource delegate, int maxWaypointsPerRequest, int maxConcurrentRequests,
+                      @NonNull Executor worker, @NonNull Metrics metrics, @NonNull LongSupplier clock) {
+        if (maxWaypointsPerRequest < 2) {
+            throw new IllegalArgumentException("A request needs room for at least two waypoints");
+        }
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("At least one request has to be allowed at a time");
+        }
+        this.delegate = delegate;
+        this.maxWaypointsPerRequest = maxWaypointsPerRequest;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.worker = worker;
+        this.metrics = metrics;
+        this.clock = clock;
+    }
+
+    @Override
+    public void fetchRoute(@NonNull RouteRequest request, @NonNull Callback callback) {
+        List<Point> waypoints = request.getWaypoints();
+        CachedLeg[] legs = new CachedLeg[waypoints.size() - 1];
+        int reused = 0;
+        long now = clock.getAsLong();
+        synchronized (legCache) {
+            for (int i = 0; i < legs.length; i++) {
+                RouteRequest key = legRequest(waypoints, i);
+                CachedLeg leg = legCache.get(key);
+                if (leg != null && now - leg.cachedAtMillis > LEG_MAX_AGE_MILLIS) {
+                    legCache.remove(key);
+                    leg = null;
+                }
+                legs[i] = leg;
+                if (leg != null) {
+                    reused++;
+                }
+            }
+        }
+        metrics.counter("batch.legs_reused").add(reused);
+        List<Chunk> chunks = chunksOf(legs, maxWaypointsPerRequest);
+        if (chunks.size() == 1 && chunks.get(0).legCount == legs.length) {
+            // Nothing to stitch, which keeps the route exactly as the Directions API returned it
+            fetchWhole(request, callback);
+            return;
+        }
+        new Batch(waypoints, legs, chunks, callback).start();
+    }
+
+    @Override
+    public void trimMemory(@NonNull MemoryPressureManager.Tier tier) {
+        long now = clock.getAsLong();
+        synchronized (legCache) {
+            if (tier == MemoryPressureManager.Tier.LIGHT) {
+                legCache.values().removeIf(leg -> now - leg.cachedAtMillis > LEG_MAX_AGE_MILLIS);
+            } else {
+                legCache.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the runs of legs that aren't cached, split so no request has more than the given number
+     * of waypoints
+     */
+    static List<Chunk> chunksOf(CachedLeg[] legs, int maxWaypointsPerRequest) {
+        int maxLegs = maxWaypointsPerRequest - 1;
+        List<Chunk> chunks = new ArrayList<>();
+        int leg = 0;
+        while (leg < legs.length) {
+            if (legs[leg] != null) {
+                leg++;
+                continue;
+            }
+            int first = leg;
+            while (leg < legs.length && legs[leg] == null && leg - first < maxLegs) {
+                leg++;
+            }
+            chunks.add(new Chunk(first, leg - first));
+        }
+        return chunks;
+    }
+
+    /**
+     * @return one route over all the legs, with the options, e.g. the profile and language, of the
+     * route the first leg came from
+     */
+    @NonNull
+    static DirectionsRoute stitch(@NonNull List<Point> waypoints, @NonNull CachedLeg[] legs) {
+        List<RouteLeg> routeLegs = new ArrayList<>(legs.length);
+        List<Point> line = new ArrayList<>();
+        double distance = 0;
+        double duration = 0;
+        double weight = 0;
+        for (CachedLeg leg : legs) {
+            routeLegs.add(leg.leg);
+            distance += valueOf(leg.leg.distance());
+            duration += valueOf(leg.leg.duration());
+            if (leg.leg.steps() == null) {
+                continue;
+            }
+            for (LegStep step : leg.leg.steps()) {
+                weight += step.weight();
+                if (step.geometry() == null) {
+                    throw new IllegalStateException("Can't stitch legs without step geometries");
+                }
+                for (Point point : PolylineUtils.decode(step.geometry(), PRECISION_6)) {
+                    // Every step starts where the previous one ended
+                    if (line.isEmpty() || !point.equals(line.get(line.size() - 1))) {
+                        line.add(point);
+                    }
+                }
+            }
+        }
+        DirectionsRoute template = legs[0].template;
+        DirectionsRoute.Builder builder = template.toBuilder()
+                .legs(routeLegs)
+                .geometry(PolylineUtils.encode(line, PRECISION_6))
+                .distance(distance)
+                .duration(duration)
+                .weight(weight);
+        RouteOptions options = template.routeOptions();
+        if (options != null) {
+            // Without the per waypoint options, like bearings, which don't line up with all the waypoints
+            builder.routeOptions(RouteOptions.builder()
+                    .baseUrl(options.baseUrl())
+                    .user(options.user())
+                    .profile(options.profile())
+                    .coordinates(waypoints)
+                    .alternatives(options.alternatives())
+                    .language(options.language())
+                    .continueStraight(options.continueStraight())
+                    .roundaboutExits(options.roundaboutExits())
+                    .geometries(options.geometries())
+                    .overview(options.overview())
+                    .steps(options.steps())
+                    .annotations(options.annotations())
+                    .exclude(options.exclude())
+                    .voiceInstructions(options.voiceInstructions())
+                    .bannerInstructions(options.bannerInstructions())
+                    .voiceUnits(options.voiceUnits())
+                    .accessToken(options.accessToken())
+                    .requestUuid(STITCHED_REQUEST_UUID)
+                    .walkingOptions(options.walkingOptions())
+                    .build());
+        }
+        return builder.build();
+    }
+
+    private void fetchWhole(RouteRequest request, Callback callback) {
+        metrics.counter("batch.requests").increment();
+        delegate.fetchRoute(request, new Callback() {
+            @Override
+            public void onRoute(@NonNull DirectionsRoute route) {
+                if (route.legs() != null && route.legs().size() == request.getWaypoints().size() - 1) {
+                    cache(request.getWaypoints(), 0, route);
+                }
+                worker.execute(() -> callback.onRoute(route));
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable throwable) {
+                worker.execute(() -> callback.onFailure(throwable));
+            }
+        });
+    }
+
+    /**
+     * Caches the legs of a route for the waypoints starting at {@code firstWaypoint}.
+     *
+     * @return the cached legs
+     */
+    private CachedLeg[] cache(List<Point> waypoints, int firstWaypoint, DirectionsRoute route) {
+        DirectionsRoute template = route.toBuilder().legs(null).geometry(null).build();
+        List<RouteLeg> routeLegs = route.legs();
+        CachedLeg[] cached = new CachedLeg[routeLegs.size()];
+        long now = clock.getAsLong();
+        synchronized (legCache) {
+            for (int i = 0; i < cached.length; i++) {
+                cached[i] = new CachedLeg(routeLegs.get(i), template, now);
+                legCache.put(legRequest(waypoints, firstWaypoint + i), cached[i]);
+            }
+        }
+        return cached;
+    }
+
+    private static RouteRequest legRequest(List<Point> waypoints, int leg) {
+        return new RouteRequest(waypoints.get(leg), waypoints.get(leg + 1));
+    }
+
+    private static double valueOf(@Nullable Double value) {
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * A leg as it came back from the Directions API, with the route it was part of minus its legs and
+     * geometry, for the options every stitched route needs.
+     */
+    static final class CachedLeg {
+        final RouteLeg leg;
+        final DirectionsRoute template;
+        final long cachedAtMillis;
+
+        CachedLeg(@NonNull RouteLeg leg, @NonNull DirectionsRoute template, long cachedAtMillis) {
+            this.leg = leg;
+            this.template = template;
+            this.cachedAtMillis = cachedAtMillis;
+        }
+    }
+
+    static final class Chunk {
+        final int firstLeg;
+        final int legCount;
+
+        Chunk(int firstLeg, int legCount) {
+            this.firstLeg = firstLeg;
+            this.legCount = legCount;
+        }
+    }
+
+    /**
+     * The fetches for one request, which is answered once every chunk is in or fails with the first
+     * chunk that failed.
+     */
+    private final class Batch {
+        private final List<Point> waypoints;
+        private final CachedLeg[] legs;
+        private final Queue<Chunk> queued;
+        private final Callback callback;
+        private int pending;
+        private boolean failed;
+
+        Batch(List<Point> waypoints, CachedLeg[] legs, List<Chunk> chunks, Callback callback) {
+            this.waypoints = waypoints;
+            this.legs = legs;
+            this.queued = new ArrayDeque<>(chunks);
+            this.callback = callback;
+            this.pending = chunks.size();
+        }
+
+        void start() {
+            if (pending == 0) {
+                worker.execute(this::deliver);
+                return;
+            }
+            for (int i = 0; i < maxConcurrentRequests; i++) {
+                fetchNext();
+            }
+        }
+
+        private void fetchNext() {
+            Chunk chunk;
+            synchronized (this) {
+                if (failed || queued.isEmpty()) {
+                    return;
+                }
+                chunk = queued.remove();
+            }
+            metrics.counter("batch.requests").increment();
+            RouteRequest request = new RouteRequest(
+                    waypoints.subList(chunk.firstLeg, chunk.firstLeg + chunk.legCount + 1));
+            delegate.fetchRoute(request, new Callback() {
+                @Override
+                public void onRoute(@NonNull DirectionsRoute route) {
+                    if (route.legs() == null || route.legs().size() != chunk.legCount) {
+                        onFailure(new IllegalStateException("Expected " + chunk.legCount + " legs"));
+                        return;
+                    }
+                    CachedLeg[] fetched = cache(waypoints, chunk.firstLeg, route);
+                    boolean done;
+                    synchronized (Batch.this) {
+                        System.arraycopy(fetched, 0, legs, chunk.firstLeg, fetched.length);
+                        done = --pending == 0 && !failed;
+                    }
+                    if (done) {
+                        worker.execute(Batch.this::deliver);
+                    } else {
+                        fetchNext();
+                    }
+                }
+
+                @Override
+                public void onFailure(@NonNull Throwable throwable) {
+                    synchronized (Batch.this) {
+                        if (failed) {
+                            return;
+                        }
+                        failed = true;
+                    }
+                    metrics.counter("batch.failures").increment();
+                    worker.execute(() -> callback.onFailure(throwable));
+                }
+            });
+        }
+
+        private void deliver() {
+            CachedLeg[] stitched;
+            synchronized (this) {
+                stitched = Arrays.copyOf(legs, legs.length);
+            }
+            DirectionsRoute route;
+            try {
+                route = stitch(waypoints, stitched);
+            } catch (RuntimeException exception) {
+                callback.onFailure(exception);
+                return;
+            }
+            callback.onRoute(route);
+        }
+    }
+}
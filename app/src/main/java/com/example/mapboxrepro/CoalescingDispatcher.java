@@ -0,0 +1,92 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands the newest of a stream of updates to its listeners at most once per frame. Updates can be
+ * submitted from any thread and simply replace whatever hasn't been dispatched yet; {@link #dispatch}
+ * is called from the frame callback and delivers the latest one. Each listener can also ask for a
+ * minimum interval between deliveries, in which case it gets the latest update once that interval
+ * has passed.
+ */
+class CoalescingDispatcher<T> {
+    static final long NONE_WAITING = Long.MAX_VALUE;
+
+    interface Listener<T> {
+        void onUpdate(@NonNull T update);
+    }
+
+    private final AtomicReference<T> latest = new AtomicReference<>();
+    private final CopyOnWriteArrayList<Registration<T>> registrations = new CopyOnWriteArrayList<>();
+
+    void addListener(@NonNull Listener<T> listener, long minIntervalMillis) {
+        registrations.add(new Registration<>(listener, TimeUnit.MILLISECONDS.toNanos(minIntervalMillis)));
+    }
+
+    void removeListener(@NonNull Listener<T> listener) {
+        for (Registration<T> registration : registrations) {
+            if (registration.listener == listener) {
+                registrations.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * @return true if there was nothing pending, meaning the caller needs to schedule a frame
+     */
+    boolean submit(@NonNull T update) {
+        return latest.getAndSet(update) == null;
+    }
+
+    /**
+     * Delivers the latest update to every listener which is due.
+     *
+     * @return the frame time from which a rate limited listener's waiting update is due, so the caller
+     * can schedule a frame for then, or {@link #NONE_WAITING}
+     */
+    long dispatch(long frameTimeNanos) {
+        T update = latest.getAndSet(null);
+        long nextDueNanos = NONE_WAITING;
+        for (Registration<T> registration : registrations) {
+            if (update != null) {
+                registration.pending = update;
+            }
+            if (registration.pending == null) {
+                continue;
+            }
+            if (registration.lastDispatchNanos == Long.MIN_VALUE
+                    || frameTimeNanos - registration.lastDispatchNanos >= registration.minIntervalNanos) {
+                T pending = registration.pending;
+                registration.pending = null;
+                registration.lastDispatchNanos = frameTimeNanos;
+                registration.listener.onUpdate(pending);
+            } else {
+                nextDueNanos = Math.min(nextDueNanos, registration.lastDispatchNanos + registration.minIntervalNanos);
+            }
+        }
+        return nextDueNanos;
+    }
+
+    /**
+     * @return true if an update was submitted since the last {@link #dispatch}
+     */
+    boolean hasPending() {
+        return latest.get() != null;
+    }
+
+    private static class Registration<T> {
+        final Listener<T> listener;
+        final long minIntervalNanos;
+        T pending;
+        long lastDispatchNanos = Long.MIN_VALUE;
+
+        Registration(Listener<T> listener, long minIntervalNanos) {
+            this.listener = listener;
+            this.minIntervalNanos = minIntervalNanos;
+        }
+    }
+}
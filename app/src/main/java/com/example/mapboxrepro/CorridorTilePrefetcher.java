@@ -0,0 +1,243 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.geojson.Point;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Headers;
+
+/**
+ * Downloads the map tiles along a route into a {@link TileCache} ahead of time, on a small fixed
+ * pool of background threads, starting with the tiles nearest the start of the route. Tiles that
+ * are already cached are skipped, and starting a new prefetch cancels whatever is left of the last.
+ * <p>
+ * Tiles are cached under the key {@link #tileKey(String)} derives from their URL, which is how
+ * {@link TileCacheInterceptor} finds them again when the map asks for the same tile.
+ */
+public class CorridorTilePrefetcher implements MemoryPressureManager.Trimmable {
+    // e.g. https://api.mapbox.com/v4/mapbox.mapbox-streets-v8/16/18355/25393.vector.pbf?access_token=...
+    private static final Pattern TILE_URL =
+            Pattern.compile("/v4/([^/?]+)/(\\d+)/(\\d+)/(\\d+)(@2x)?\\.([a-z.]+)(\\?.*)?$");
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int READ_TIMEOUT_MILLIS = 20_000;
+
+    private final TileCache cache;
+    private final Metrics metrics;
+    private final ExecutorService executor;
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * @param threads how many tiles may be downloading at once
+     */
+    public CorridorTilePrefetcher(@NonNull TileCache cache, int threads, @NonNull Metrics metrics) {
+        this.cache = cache;
+        this.metrics = metrics;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "TilePrefetch");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    /**
+     * @return the cache key for a tile URL, or null if the URL isn't for a tile; the key ignores the
+     * query, so the access token and SKU don't matter
+     */
+    @Nullable
+    static String tileKey(@NonNull String url) {
+        Matcher matcher = TILE_URL.matcher(url);
+        if (!matcher.find()) {
+            return null;
+        }
+        String tileset = matcher.group(1).replaceAll("[^A-Za-z0-9.-]", "_");
+        String retina = matcher.group(5) != null ? "@2x" : "";
+        return tileset + "_" + matcher.group(2) + "_" + matcher.group(3) + "_" + matcher.group(4)
+                + retina + "." + matcher.group(6);
+    }
+
+    @NonNull
+    static String tileUrl(@NonNull String urlTemplate, long tile) {
+        return urlTemplate
+                .replace("{z}", Integer.toString(TileCover.zoomOf(tile)))
+                .replace("{x}", Integer.toString(TileCover.xOf(tile)))
+                .replace("{y}", Integer.toString(TileCover.yOf(tile)));
+    }
+
+    /**
+     * Cancels the prefetch in progress when memory is about to run out; the tiles it didn't get to
+     * are downloaded by the map as usual.
+     */
+    @Override
+    public void trimMemory(@NonNull MemoryPressureManager.Tier tier) {
+        if (tier == MemoryPressureManager.Tier.CRITICAL) {
+            generation.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queues the tiles within {@code bufferTiles} of the route line at each zoom level from
+     * {@code minZoom} to {@code maxZoom}, cancelling any earlier prefetch.
+     *
+     * @param urlTemplates tile URLs with {z}, {x} and {y} placeholders, one for each source of the style
+     */
+    @NonNull
+    public Prefetch prefetch(@NonNull List<Point> line, @NonNull List<String> urlTemplates, int minZoom,
+                             int maxZoom, int bufferTiles) {
+        int current = generation.incrementAndGet();
+        List<Long> tiles = new ArrayList<>();
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            tiles.addAll(TileCover.corridor(line, zoom, bufferTiles));
+        }
+        Prefetch prefetch = new Prefetch(tiles.size() * urlTemplates.size());
+        metrics.gauge("tiles.prefetch.queued").set(prefetch.getTileCount());
+        for (long tile : tiles) {
+            for (String urlTemplate : urlTemplates) {
+                executor.execute(() -> {
+                    if (generation.get() != current) {
+                        prefetch.finish(prefetch.cancelled);
+                        return;
+                    }
+                    fetch(tileUrl(urlTemplate, tile), prefetch);
+                });
+            }
+        }
+        return prefetch;
+    }
+
+    public void cancel() {
+        generation.incrementAndGet();
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private void fetch(String url, Prefetch prefetch) {
+        String key = tileKey(url);
+        if (key == null || cache.contains(key)) {
+            prefetch.finish(prefetch.skipped);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            Download download = download(url);
+            cache.put(key, download.bytes, download.maxAgeMillis);
+            metrics.recordSince("tiles.prefetch.download", startNanos);
+            metrics.counter("tiles.prefetch.downloaded").increment();
+            prefetch.finish(prefetch.downloaded);
+        } catch (IOException exception) {
+            metrics.counter("tiles.prefetch.failures").increment();
+            prefetch.finish(prefetch.failed);
+        }
+    }
+
+    private static Download download(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " for tile");
+            }
+            Headers.Builder headers = new Headers.Builder();
+            for (String name : new String[]{"Cache-Control", "Pragma", "Age"}) {
+                String value = connection.getHeaderField(name);
+                if (value != null) {
+                    headers.add(name, value);
+                }
+            }
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return new Download(out.toByteArray(), TileCacheInterceptor.maxAgeMillis(headers.build()));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static final class Download {
+        final byte[] bytes;
+        final long maxAgeMillis;
+
+        Download(byte[] bytes, long maxAgeMillis) {
+            this.bytes = bytes;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+    }
+
+    /**
+     * Progress of one {@link #prefetch} call.
+     */
+    public static final class Prefetch {
+        final AtomicInteger downloaded = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger cancelled = new AtomicInteger();
+        private final int tileCount;
+        private final CountDownLatch done;
+
+        Prefetch(int tileCount) {
+            this.tileCount = tileCount;
+            this.done = new CountDownLatch(tileCount);
+        }
+
+        void finish(AtomicInteger outcome) {
+            outcome.incrementAndGet();
+            done.countDown();
+        }
+
+        public int getTileCount() {
+            return tileCount;
+        }
+
+        public int getDownloaded() {
+            return downloaded.get();
+        }
+
+        public int getSkipped() {
+            return skipped.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        public int getCancelled() {
+            return cancelled.get();
+        }
+
+        /**
+         * @return whether every tile was dealt with before the timeout
+         */
+        public boolean await(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+            return done.await(timeout, unit);
+        }
+    }
+}
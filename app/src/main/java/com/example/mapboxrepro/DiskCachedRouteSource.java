@@ -0,0 +1,89 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link RouteSource} which answers from a {@link RouteDiskCache} when it has a recent enough route for
+ * the request and otherwise asks the wrapped source, storing what comes back. This is what lets a cold
+ * start reuse the route from the previous run without going to the network.
+ * <p>
+ * The cache is read on the read executor, which on a cold start should be one that doesn't queue
+ * behind other disk and network work, and written on the I/O executor. Callbacks are always delivered
+ * on the callback executor, whichever thread the wrapped source answers on.
+ */
+public class DiskCachedRouteSource implements RouteSource {
+    private final RouteSource delegate;
+    private final RouteDiskCache diskCache;
+    private final long maxAgeMillis;
+    private final Executor readExecutor;
+    private final Executor ioExecutor;
+    private final Executor callbackExecutor;
+    private final LongSupplier clock;
+
+    public DiskCachedRouteSource(@NonNull RouteSource delegate, @NonNull RouteDiskCache diskCache,
+                                 long maxAgeMillis, @NonNull Executor readExecutor, @NonNull Executor ioExecutor,
+                                 @NonNull Executor callbackExecutor) {
+        this(delegate, diskCache, maxAgeMillis, readExecutor, ioExecutor, callbackExecutor,
+                System::currentTimeMillis);
+    }
+
+    DiskCachedRouteSource(@NonNull RouteSource delegate, @NonNull RouteDiskCache diskCache,
+                          long maxAgeMillis, @NonNull Executor readExecutor, @NonNull Executor ioExecutor,
+                          @NonNull Executor callbackExecutor, @NonNull LongSupplier clock) {
+        this.delegate = delegate;
+        this.diskCache = diskCache;
+        this.maxAgeMillis = maxAgeMillis;
+        this.readExecutor = readExecutor;
+        this.ioExecutor = ioExecutor;
+        this.callbackExecutor = callbackExecutor;
+        this.clock = clock;
+    }
+
+    @Override
+    public void fetchRoute(@NonNull RouteRequest request, @NonNull Callback callback) {
+        String key = RouteDiskCache.keyFor(request);
+        // Files are written whole and renamed into place, so this can read while the I/O executor writes
+        readExecutor.execute(() -> {
+            DirectionsRoute cached = readFresh(key, request);
+            if (cached != null) {
+                callbackExecutor.execute(() -> callback.onRoute(cached));
+                return;
+            }
+            callbackExecutor.execute(() -> delegate.fetchRoute(request, new Callback() {
+                @Override
+                public void onRoute(@NonNull DirectionsRoute route) {
+                    ioExecutor.execute(() -> {
+                        try {
+                            diskCache.put(key, request, route);
+                        } catch (IOException exception) {
+                            // Only costs us the next cold start
+                        }
+                    });
+                    callbackExecutor.execute(() -> callback.onRoute(route));
+                }
+
+                @Override
+                public void onFailure(@NonNull Throwable throwable) {
+                    callbackExecutor.execute(() -> callback.onFailure(throwable));
+                }
+            }));
+        });
+    }
+
+    private DirectionsRoute readFresh(String key, RouteRequest request) {
+        if (clock.getAsLong() - diskCache.lastModified(key) > maxAgeMillis) {
+            return null;
+        }
+        RouteCodec.Record record = diskCache.get(key);
+        if (record == null || !request.equals(record.getRequest())) {
+            return null;
+        }
+        return record.getRoute();
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.geojson.Point;
+
+import java.util.List;
+
+/**
+ * Something that can tell how long it takes to drive between every pair of a list of points, e.g.
+ * the Matrix API or a local stand-in for it.
+ */
+public interface DurationMatrixSource {
+
+    void fetchDurations(@NonNull List<Point> points, @NonNull Callback callback);
+
+    interface Callback {
+        /**
+         * @param seconds the driving time from {@code points.get(i)} to {@code points.get(j)} at
+         *                {@code seconds[i][j]}, positive infinity where there is no route
+         */
+        void onDurations(@NonNull double[][] seconds);
+
+        void onFailure(@NonNull Throwable throwable);
+    }
+}
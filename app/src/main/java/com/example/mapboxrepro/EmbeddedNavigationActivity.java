@@ -1,15 +1,16 @@
 package com.example.mapboxrepro;
 
 import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.IntentFilter;
 import android.content.res.Configuration;
 import android.location.Location;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
-import android.text.SpannableString;
-import android.text.Spanned;
-import android.text.style.AbsoluteSizeSpan;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.View;
 import android.widget.TextView;
 
@@ -18,15 +19,19 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDelegate;
+import androidx.core.content.ContextCompat;
 import androidx.coordinatorlayout.widget.CoordinatorLayout;
 
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.mapbox.android.core.location.LocationEngine;
 import com.mapbox.api.directions.v5.models.BannerInstructions;
 import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.api.directions.v5.models.VoiceInstructions;
 import com.mapbox.geojson.Point;
 import com.mapbox.mapboxsdk.camera.CameraPosition;
 import com.mapbox.mapboxsdk.geometry.LatLng;
+import com.mapbox.mapboxsdk.maps.Style;
 import com.mapbox.services.android.navigation.ui.v5.NavigationView;
 import com.mapbox.services.android.navigation.ui.v5.NavigationViewOptions;
 import com.mapbox.services.android.navigation.ui.v5.OnNavigationReadyCallback;
@@ -34,48 +39,178 @@ import com.mapbox.services.android.navigation.ui.v5.listeners.BannerInstructions
 import com.mapbox.services.android.navigation.ui.v5.listeners.InstructionListListener;
 import com.mapbox.services.android.navigation.ui.v5.listeners.NavigationListener;
 import com.mapbox.services.android.navigation.ui.v5.listeners.RouteListener;
+import com.mapbox.services.android.navigation.ui.v5.listeners.SpeechAnnouncementListener;
+import com.mapbox.services.android.navigation.ui.v5.map.NavigationMapboxMap;
+import com.mapbox.services.android.navigation.ui.v5.voice.SpeechAnnouncement;
+import com.mapbox.services.android.navigation.v5.location.replay.ReplayRouteLocationEngine;
 import com.mapbox.services.android.navigation.v5.routeprogress.ProgressChangeListener;
 import com.mapbox.services.android.navigation.v5.routeprogress.RouteProgress;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.Objects;
+
 public class EmbeddedNavigationActivity extends AppCompatActivity implements
         OnNavigationReadyCallback,
         NavigationListener,
         ProgressChangeListener,
         InstructionListListener,
         RouteListener,
-        BannerInstructionsListener {
+        BannerInstructionsListener,
+        SpeechAnnouncementListener,
+        RerouteEngine.Listener {
+    private static final String TAG = "EmbeddedNavigation";
     private static final int INITIAL_ZOOM = 16;
-    public static final String BUNDLE_CURRENT_ROUTE = "currentRoute";
+    public static final String BUNDLE_ROUTE_HANDLE = "routeHandle";
     public static final String BUNDLE_ROUTE_REQUEST = "routeRequest";
+    public static final String BUNDLE_LAUNCH_TIME_NANOS = "launchTimeNanos";
+    public static final String BUNDLE_TRACE_FILE = "traceFile";
+    public static final String BUNDLE_TRACE_SPEED_FACTOR = "traceSpeedFactor";
+    public static final String BUNDLE_TRACE_INTERVAL_MILLIS = "traceIntervalMillis";
+    public static final String BUNDLE_TRIP_START_MILLIS = "tripStartMillis";
+    public static final String BUNDLE_RESUME_SESSION = "resumeSession";
+    public static final String BUNDLE_RESUME_START_NANOS = "resumeStartNanos";
+    private static final String TRACES_DIRECTORY = "traces";
+    private static final String TRIPS_DIRECTORY = "trips";
+    // About a quarter of an hour of ticks, should the writer ever stall
+    private static final int TRIP_BUFFER_EVENTS = 1024;
+    private static final long TRIP_SEGMENT_MAX_BYTES = 256 * 1024;
+    private static final long TRIPS_MAX_BYTES = 20L * 1024 * 1024;
+    private static final long DISTANCE_GAUGE_INTERVAL_MILLIS = 1000;
+    static final SettingsStore.Key<Integer> NIGHT_MODE =
+            SettingsStore.Key.ofInt("current_night_mode", AppCompatDelegate.MODE_NIGHT_AUTO);
 
     private NavigationView navigationView;
     private View spacer;
     private TextView speedWidget;
+    private SpeedWidgetRenderer speedRenderer;
+    private ProgressDispatcher progressDispatcher;
     private FloatingActionButton fabNightModeToggle;
+    private MapThemeSwitcher mapThemeSwitcher;
+    private boolean nightModeActive;
+    private SettingsStore settings;
 
     private boolean bottomSheetVisible = true;
     private boolean instructionListShown = false;
 
+    private Metrics metrics;
+    private LatencyHistogram progressTickLatency;
+    private LatencyHistogram progressDeliveryLatency;
+    private LatencyHistogram replayLatency;
+    private long createdAtNanos;
+
+    private RouteStore routeStore;
+    private String routeHandle;
     private DirectionsRoute currentRoute;
     private RouteRequest routeRequest;
+    private NavigationViewOptions.Builder navigationOptions;
+    private TraceLocationEngine traceEngine;
+    // Drives the session along the route when there's no trace, in place of the SDK's own simulation
+    private ReplayRouteLocationEngine simulationEngine;
+    // What the SDK gets, the adaptive engine unless a trace was given its own rate
+    private LocationEngine locationEngine;
+    private NavigationSessionCore sessionCore;
+    private SessionJournal sessionJournal;
+    private long resumeStartNanos;
+    private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            sessionCore.setScreenOn(Intent.ACTION_SCREEN_ON.equals(intent.getAction()));
+        }
+    };
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         setTheme(R.style.Theme_AppCompat_Light_NoActionBar);
+        settings = ((ReproApplication) getApplication()).getSettings();
         initNightMode();
         super.onCreate(savedInstanceState);
+        createdAtNanos = System.nanoTime();
+        Intent intent = getIntent();
+        metrics = ((ReproApplication) getApplication()).getMetrics();
+        long launchTimeNanos = intent.getLongExtra(BUNDLE_LAUNCH_TIME_NANOS, 0);
+        if (savedInstanceState == null && launchTimeNanos != 0) {
+            metrics.recordSince("navigation.handoff", launchTimeNanos);
+        }
+        ReproApplication application = (ReproApplication) getApplication();
+        routeStore = application.getRouteStore();
+        sessionJournal = application.getSessionJournal();
+        // Changes to the intent don't survive the process, the saved state has the route it was on
+        routeHandle = savedInstanceState != null && savedInstanceState.containsKey(BUNDLE_ROUTE_HANDLE)
+                ? savedInstanceState.getString(BUNDLE_ROUTE_HANDLE) : intent.getStringExtra(BUNDLE_ROUTE_HANDLE);
+        currentRoute = routeHandle == null ? null : routeStore.get(routeHandle);
+        // Resumed by the instance that saved the state already
+        SessionJournal.Session resumedSession = savedInstanceState != null ? null
+                : (SessionJournal.Session) intent.getSerializableExtra(BUNDLE_RESUME_SESSION);
+        if (currentRoute == null) {
+            Log.e(TAG, "No route for handle " + routeHandle);
+            if (resumedSession != null) {
+                metrics.counter("session.resume_failed").increment();
+            }
+            // Ends the journaled session too, there is no route to go on with
+            finish();
+            return;
+        }
+        routeRequest = (RouteRequest) intent.getSerializableExtra(BUNDLE_ROUTE_REQUEST);
+        nightModeActive = getCurrentNightMode() == Configuration.UI_MODE_NIGHT_YES;
+        mapThemeSwitcher = new MapThemeSwitcher(this, application.getNightModeStyles(),
+                application.getNetworkExecutor());
+        mapThemeSwitcher.prepare();
+        RerouteEngine rerouteEngine = new RerouteEngine(application.getRerouteSource(), application.getScheduler(),
+                ContextCompat.getMainExecutor(this), metrics, this);
+        InstructionPipeline instructionPipeline = new InstructionPipeline(
+                Collections.singletonList(new StreetAbbreviations()), application.getIoExecutor(), metrics);
         setContentView(R.layout.activity_embedded_navigation);
         navigationView = findViewById(R.id.navigationView);
         fabNightModeToggle = findViewById(R.id.fabToggleNightMode);
         speedWidget = findViewById(R.id.speed_limit);
+        speedRenderer = new SpeedWidgetRenderer(speedWidget);
+        progressDispatcher = new ProgressDispatcher();
+        progressDispatcher.addListener(this::setSpeed, 0);
+        progressDispatcher.addListener(this::updateDistanceGauge, DISTANCE_GAUGE_INTERVAL_MILLIS);
+        progressTickLatency = metrics.histogram("progress.tick");
+        progressDeliveryLatency = metrics.histogram("progress.delivery");
+        traceEngine = createTraceEngine(intent);
+        AdaptiveLocationEngine adaptiveEngine = null;
+        if (traceEngine != null) {
+            replayLatency = metrics.histogram("replay.latency");
+        } else {
+            simulationEngine = new ReplayRouteLocationEngine();
+        }
+        if (traceEngine != null && intent.getLongExtra(BUNDLE_TRACE_INTERVAL_MILLIS, 0) > 0) {
+            // The rate asked for is part of what's being reproduced, the decisions only show up in the metrics
+            locationEngine = traceEngine;
+        } else {
+            adaptiveEngine = new AdaptiveLocationEngine(traceEngine != null ? traceEngine : simulationEngine,
+                    AdaptiveUpdateScheduler.BASELINE_INTERVAL_MILLIS, metrics);
+            locationEngine = adaptiveEngine;
+        }
+        AdaptiveUpdateScheduler updateScheduler = new AdaptiveUpdateScheduler(metrics, adaptiveEngine);
+        updateScheduler.setScreenOn(((PowerManager) getSystemService(Context.POWER_SERVICE)).isInteractive());
+        sessionCore = new NavigationSessionCore(rerouteEngine, instructionPipeline, updateScheduler,
+                createTripRecorder(intent, application), sessionJournal, metrics);
+        MemoryPressureManager memoryPressureManager = application.getMemoryPressureManager();
+        memoryPressureManager.register(mapThemeSwitcher);
+        memoryPressureManager.register(sessionCore);
+        IntentFilter screenFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        screenFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(screenReceiver, screenFilter);
+        LatLng initialTarget = new LatLng(routeRequest.getOrigin().latitude(), routeRequest.getOrigin().longitude());
+        if (resumedSession != null) {
+            resumeSession(resumedSession);
+            if (resumedSession.hasLocation()) {
+                initialTarget = new LatLng(resumedSession.latitude, resumedSession.longitude);
+            }
+        } else if (savedInstanceState == null) {
+            sessionJournal.start(routeRequest, routeHandle, intent.getLongExtra(BUNDLE_TRIP_START_MILLIS, 0));
+        } else {
+            // In a new process the journal isn't following the session, progress and reroutes would go nowhere
+            sessionJournal.reattach(routeRequest, routeHandle, intent.getLongExtra(BUNDLE_TRIP_START_MILLIS, 0));
+        }
         spacer = findViewById(R.id.spacer);
         setSpeedWidgetAnchor(R.id.summaryBottomSheet);
-        Intent intent = getIntent();
-        currentRoute = (DirectionsRoute) intent.getSerializableExtra(BUNDLE_CURRENT_ROUTE);
-        routeRequest = (RouteRequest) intent.getSerializableExtra(BUNDLE_ROUTE_REQUEST);
-        Point origin = routeRequest.getOrigin();
         CameraPosition initialPosition = new CameraPosition.Builder()
-                .target(new LatLng(origin.latitude(), origin.longitude()))
+                .target(initialTarget)
                 .zoom(INITIAL_ZOOM)
                 .build();
         navigationView.onCreate(savedInstanceState);
@@ -84,7 +219,14 @@ public class EmbeddedNavigationActivity extends AppCompatActivity implements
 
     @Override
     public void onNavigationReady(boolean isRunning) {
+        metrics.recordSince("navigation.ready", createdAtNanos);
+        long startNanos = System.nanoTime();
         startNavigation();
+        metrics.recordSince("navigation.start", startNanos);
+        if (resumeStartNanos != 0) {
+            metrics.recordSince("session.resume", resumeStartNanos);
+            resumeStartNanos = 0;
+        }
     }
 
     @Override
@@ -97,6 +239,18 @@ public class EmbeddedNavigationActivity extends AppCompatActivity implements
     public void onResume() {
         super.onResume();
         navigationView.onResume();
+        // Whatever memory pressure took away while we were in the background
+        mapThemeSwitcher.prepare();
+        sessionCore.restore();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        boolean nightMode = (newConfig.uiMode & Configuration.UI_MODE_NIGHT_MASK) == Configuration.UI_MODE_NIGHT_YES;
+        if (nightMode != nightModeActive && !applyNightMode(nightMode)) {
+            recreate();
+        }
     }
 
     @Override
@@ -115,6 +269,7 @@ public class EmbeddedNavigationActivity extends AppCompatActivity implements
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
+        outState.putString(BUNDLE_ROUTE_HANDLE, routeHandle);
         navigationView.onSaveInstanceState(outState);
         super.onSaveInstanceState(outState);
     }
@@ -140,9 +295,26 @@ public class EmbeddedNavigationActivity extends AppCompatActivity implements
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        navigationView.onDestroy();
+        if (navigationView != null) {
+            navigationView.onDestroy();
+            progressDispatcher.release();
+            sessionCore.release();
+            MemoryPressureManager memoryPressureManager =
+                    ((ReproApplication) getApplication()).getMemoryPressureManager();
+            memoryPressureManager.unregister(mapThemeSwitcher);
+            memoryPressureManager.unregister(sessionCore);
+            if (traceEngine != null) {
+                traceEngine.release();
+            }
+            unregisterReceiver(screenReceiver);
+        }
         if (isFinishing()) {
-            saveNightModeToPreferences(AppCompatDelegate.MODE_NIGHT_AUTO);
+            sessionJournal.end();
+            if (routeHandle != null) {
+                routeStore.release(routeHandle);
+            }
+            ((ReproApplication) getApplication()).getMetricsReporter().report();
+            settings.set(NIGHT_MODE, AppCompatDelegate.MODE_NIGHT_AUTO);
             AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_AUTO);
         }
     }
@@ -165,7 +337,19 @@ public class EmbeddedNavigationActivity extends AppCompatActivity implements
 
     @Override
     public void onProgressChange(Location location, RouteProgress routeProgress) {
-        setSpeed(location);
+        long startNanos = System.nanoTime();
+        progressDispatcher.onProgressChange(location, routeProgress);
+        sessionCore.onProgress(location.getTime(), location.getLongitude(), location.getLatitude(),
+                location.hasSpeed() ? location.getSpeed() : Double.NaN,
+                location.hasBearing() ? location.getBearing() : Double.NaN,
+                location.hasAccuracy() ? location.getAccuracy() : Double.NaN,
+                routeProgress.legIndex(), routeProgress.currentLegProgress().stepIndex(),
+                routeProgress.currentLegProgress().currentStepProgress().distanceRemaining(),
+                routeProgress.distanceRemaining());
+        progressTickLatency.record(System.nanoTime() - startNanos);
+        if (replayLatency != null && TraceLocationEngine.PROVIDER.equals(location.getProvider())) {
+            replayLatency.record(SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos());
+        }
     }
 
     @Override
@@ -181,23 +365,139 @@ public class EmbeddedNavigationActivity extends AppCompatActivity implements
 
     @Override
     public BannerInstructions willDisplay(BannerInstructions instructions) {
-        return instructions;
+        return sessionCore.banner(instructions);
+    }
+
+    @Override
+    public SpeechAnnouncement willVoice(SpeechAnnouncement announcement) {
+        VoiceInstructions voice = sessionCore.voice(announcement.announcement());
+        if (voice == null || voice.announcement().equals(announcement.announcement())
+                && Objects.equals(voice.ssmlAnnouncement(), announcement.ssmlAnnouncement())) {
+            return announcement;
+        }
+        return SpeechAnnouncement.builder()
+                .announcement(voice.announcement())
+                .ssmlAnnouncement(voice.ssmlAnnouncement())
+                .voiceInstructionMilestone(announcement.voiceInstructionMilestone())
+                .build();
     }
 
     private void startNavigation() {
-        NavigationViewOptions.Builder options =
+        navigationOptions =
                 NavigationViewOptions.builder()
                         .navigationListener(this)
                         .directionsRoute(currentRoute)
-                        .shouldSimulateRoute(true)
                         .progressChangeListener(this)
                         .instructionListListener(this)
                         .routeListener(this)
-                        .bannerInstructionsListener(this);
-        setBottomSheetCallback(options);
+                        .bannerInstructionsListener(this)
+                        .speechAnnouncementListener(this);
+        // Never the SDK's simulation, it would use its own engine and ignore this one
+        navigationOptions.locationEngine(locationEngine).shouldSimulateRoute(false);
+        if (simulationEngine != null) {
+            simulationEngine.assign(currentRoute);
+        }
+        setBottomSheetCallback(navigationOptions);
         setupNightModeFab();
 
-        navigationView.startNavigation(options.build());
+        sessionCore.start(currentRoute);
+        navigationView.startNavigation(navigationOptions.build());
+    }
+
+    /**
+     * Starts a journaled session again from the step it was on, without asking for a new route. The
+     * rest of the route replaces the journaled one, the progress recorded from now on counts from its
+     * start. A recreated activity goes on with that route as it is.
+     */
+    private void resumeSession(SessionJournal.Session session) {
+        resumeStartNanos = getIntent().getLongExtra(BUNDLE_RESUME_START_NANOS, 0);
+        getIntent().removeExtra(BUNDLE_RESUME_SESSION);
+        metrics.counter("session.resumed").increment();
+        DirectionsRoute remaining = RemainingRoute.of(currentRoute, session.legIndex, session.stepIndex);
+        if (remaining != currentRoute) {
+            currentRoute = remaining;
+            replaceRoute(remaining);
+        }
+    }
+
+    /**
+     * The new route goes to disk and into the journal before the old one is dropped, so that the
+     * journal never refers to a route that's gone.
+     */
+    private void replaceRoute(DirectionsRoute route) {
+        String previousHandle = routeHandle;
+        routeHandle = routeStore.put(route);
+        getIntent().putExtra(BUNDLE_ROUTE_HANDLE, routeHandle);
+        sessionJournal.updateRoute(routeHandle);
+        routeStore.release(previousHandle);
+    }
+
+    /**
+     * @param startNanos when resuming started, in {@link System#nanoTime()} terms, for {@code session.resume}
+     * @return an intent that continues the journaled session
+     */
+    static Intent resumeIntent(@NonNull Context context, @NonNull SessionJournal.Session session, long startNanos) {
+        Intent intent = new Intent(context, EmbeddedNavigationActivity.class);
+        intent.putExtra(BUNDLE_ROUTE_HANDLE, session.routeHandle);
+        intent.putExtra(BUNDLE_ROUTE_REQUEST, session.request);
+        intent.putExtra(BUNDLE_RESUME_SESSION, session);
+        intent.putExtra(BUNDLE_RESUME_START_NANOS, startNanos);
+        // The trip recorder carries on with the same trip
+        intent.putExtra(BUNDLE_TRIP_START_MILLIS, session.startedAtMillis);
+        return intent;
+    }
+
+    /**
+     * Replays a recorded drive instead of simulating the route when started with a
+     * {@value #BUNDLE_TRACE_FILE} extra: a GPX, NMEA or JSON file, relative to the
+     * {@value #TRACES_DIRECTORY} directory in the app's external files, e.g. pushed with adb.
+     * {@value #BUNDLE_TRACE_SPEED_FACTOR} speeds it up and {@value #BUNDLE_TRACE_INTERVAL_MILLIS}
+     * interpolates fixes at that interval instead of playing the recorded ones. The main activity
+     * passes them on, e.g. from {@code adb shell am start -n com.example.mapboxrepro/.MainActivity
+     * -e traceFile drive.nmea --ef traceSpeedFactor 4 --el traceIntervalMillis 100}.
+     */
+    @Nullable
+    private TraceLocationEngine createTraceEngine(Intent intent) {
+        String traceFile = intent.getStringExtra(BUNDLE_TRACE_FILE);
+        if (traceFile == null) {
+            return null;
+        }
+        File file = new File(traceFile);
+        if (!file.isAbsolute()) {
+            file = new File(getExternalFilesDir(TRACES_DIRECTORY), traceFile);
+        }
+        return new TraceLocationEngine(this, file, intent.getFloatExtra(BUNDLE_TRACE_SPEED_FACTOR, 1),
+                intent.getLongExtra(BUNDLE_TRACE_INTERVAL_MILLIS, 0), metrics);
+    }
+
+    /**
+     * Trips go to the {@value #TRIPS_DIRECTORY} directory in the app's external files, to be pulled
+     * with adb. A recreated activity continues the trip it was on.
+     */
+    private TripRecorder createTripRecorder(Intent intent, ReproApplication application) {
+        long tripStartMillis = intent.getLongExtra(BUNDLE_TRIP_START_MILLIS, 0);
+        if (tripStartMillis == 0) {
+            tripStartMillis = System.currentTimeMillis();
+            intent.putExtra(BUNDLE_TRIP_START_MILLIS, tripStartMillis);
+        }
+        File directory = getExternalFilesDir(TRIPS_DIRECTORY);
+        if (directory == null) {
+            directory = new File(getFilesDir(), TRIPS_DIRECTORY);
+        }
+        return new TripRecorder(directory, tripStartMillis, TRIP_BUFFER_EVENTS, TRIP_SEGMENT_MAX_BYTES,
+                TRIPS_MAX_BYTES, application.getScheduler(), application.getIoExecutor(), metrics);
+    }
+
+    /**
+     * Passes the trace extras an activity was started with on to the navigation, see
+     * {@link #createTraceEngine}.
+     */
+    static void copyTraceExtras(@NonNull Intent from, @NonNull Intent to) {
+        if (from.hasExtra(BUNDLE_TRACE_FILE)) {
+            to.putExtra(BUNDLE_TRACE_FILE, from.getStringExtra(BUNDLE_TRACE_FILE));
+            to.putExtra(BUNDLE_TRACE_SPEED_FACTOR, from.getFloatExtra(BUNDLE_TRACE_SPEED_FACTOR, 1));
+            to.putExtra(BUNDLE_TRACE_INTERVAL_MILLIS, from.getLongExtra(BUNDLE_TRACE_INTERVAL_MILLIS, 0));
+        }
     }
 
     /**
@@ -250,13 +550,16 @@ public class EmbeddedNavigationActivity extends AppCompatActivity implements
     }
 
     private void toggleNightMode() {
-        int currentNightMode = getCurrentNightMode();
-        alternateNightMode(currentNightMode);
+        boolean nightMode = !nightModeActive;
+        settings.set(NIGHT_MODE, nightMode ? AppCompatDelegate.MODE_NIGHT_YES : AppCompatDelegate.MODE_NIGHT_NO);
+        // Only until the styles have loaded, or if the map isn't up yet
+        if (!applyNightMode(nightMode)) {
+            recreate();
+        }
     }
 
     private void initNightMode() {
-        int nightMode = retrieveNightModeFromPreferences();
-        AppCompatDelegate.setDefaultNightMode(nightMode);
+        AppCompatDelegate.setDefaultNightMode(settings.get(NIGHT_MODE));
     }
 
     private int getCurrentNightMode() {
@@ -264,69 +567,93 @@ public class EmbeddedNavigationActivity extends AppCompatActivity implements
                 & Configuration.UI_MODE_NIGHT_MASK;
     }
 
-    private void alternateNightMode(int currentNightMode) {
-        int newNightMode;
-        if (currentNightMode == Configuration.UI_MODE_NIGHT_YES) {
-            newNightMode = AppCompatDelegate.MODE_NIGHT_NO;
-        } else {
-            newNightMode = AppCompatDelegate.MODE_NIGHT_YES;
+    /**
+     * Switches the running map and views to day or night in place, keeping the navigation session.
+     *
+     * @return false if that isn't possible yet
+     */
+    private boolean applyNightMode(boolean nightMode) {
+        NavigationMapboxMap navigationMap = navigationView.retrieveNavigationMapboxMap();
+        Style style = navigationMap == null ? null : navigationMap.retrieveMap().getStyle();
+        if (style == null || !style.isFullyLoaded() || !mapThemeSwitcher.isPrepared()) {
+            return false;
         }
-        saveNightModeToPreferences(newNightMode);
-        recreate();
-    }
-
-    private int retrieveNightModeFromPreferences() {
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
-        return preferences.getInt(getString(R.string.current_night_mode), AppCompatDelegate.MODE_NIGHT_AUTO);
-    }
-
-    private void saveNightModeToPreferences(int nightMode) {
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
-        SharedPreferences.Editor editor = preferences.edit();
-        editor.putInt(getString(R.string.current_night_mode), nightMode);
-        editor.apply();
+        long startNanos = System.nanoTime();
+        mapThemeSwitcher.applyToMap(style, nightMode);
+        MapThemeSwitcher.ThemeColors colors = mapThemeSwitcher.colorsOf(
+                nightMode ? R.style.NavigationViewDark : R.style.CustomNavigationView);
+        mapThemeSwitcher.applyToViews(findViewById(R.id.summaryBottomSheet), findViewById(R.id.instructionView),
+                colors);
+        speedWidget.setBackgroundColor(colors.getBannerBackground());
+        speedWidget.setTextColor(colors.getBannerText());
+        nightModeActive = nightMode;
+        metrics.recordSince("navigation.night_mode_switch", startNanos);
+        return true;
     }
 
-    private void setSpeed(Location location) {
-        String string = String.format("%d\nMPH", (int) (location.getSpeed() * 2.2369));
-        int mphTextSize = getResources().getDimensionPixelSize(R.dimen.mph_text_size);
-        int speedTextSize = getResources().getDimensionPixelSize(R.dimen.speed_text_size);
-
-        SpannableString spannableString = new SpannableString(string);
-        spannableString.setSpan(new AbsoluteSizeSpan(mphTextSize),
-                string.length() - 4, string.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
-
-        spannableString.setSpan(new AbsoluteSizeSpan(speedTextSize),
-                0, string.length() - 3, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
-
-        speedWidget.setText(spannableString);
+    private void setSpeed(ProgressSnapshot snapshot) {
+        progressDeliveryLatency.record(System.nanoTime() - snapshot.getReceivedAtNanos());
+        speedRenderer.setMilesPerHour(snapshot.getSpeedMilesPerHour());
         if (!instructionListShown) {
             speedWidget.setVisibility(View.VISIBLE);
         }
     }
 
+    private void updateDistanceGauge(ProgressSnapshot snapshot) {
+        metrics.gauge("navigation.distance_remaining_m").set((long) snapshot.getDistanceRemaining());
+    }
+
+    /**
+     * Rerouting is left to the {@link RerouteEngine}, which usually has a route ready already, instead
+     * of the SDK's own reroute request. That also means the SDK doesn't call the other reroute callbacks.
+     */
     @Override
     public boolean allowRerouteFrom(Point offRoutePoint) {
-        return true;
+        sessionCore.onOffRoute(System.currentTimeMillis(), offRoutePoint);
+        return false;
     }
 
     @Override
     public void onOffRoute(Point offRoutePoint) {
-
+// Already recorded in allowRerouteFrom
     }
 
     @Override
     public void onRerouteAlong(DirectionsRoute directionsRoute) {
-
+        sessionCore.onSdkReroute(System.currentTimeMillis(), directionsRoute);
     }
 
     @Override
     public void onFailedReroute(String errorMessage) {
+        sessionCore.onSdkRerouteFailed(System.currentTimeMillis());
+    }
 
+    @Override
+    public void onReroute(@NonNull DirectionsRoute route, boolean prefetched) {
+        if (isFinishing() || navigationOptions == null) {
+            sessionCore.onRerouteDropped();
+            return;
+        }
+        currentRoute = route;
+        // Keep the handle current, so a recreated activity or process resumes on the new route
+        replaceRoute(route);
+        sessionCore.onReroute(System.currentTimeMillis(), route, prefetched);
+        if (simulationEngine != null) {
+            simulationEngine.assign(route);
+        }
+        // Starting again with the same options swaps the route in the running session
+        navigationView.startNavigation(navigationOptions.directionsRoute(route).build());
+    }
+
+    @Override
+    public void onRerouteFailed(@NonNull Throwable throwable) {
+        sessionCore.onRerouteFailed(System.currentTimeMillis());
+        Log.w(TAG, "Reroute failed: " + throwable.getMessage(), throwable);
     }
 
     @Override
     public void onArrival() {
+        sessionCore.onArrival(System.currentTimeMillis());
         Intent resultIntent = new Intent();
         resultIntent.putExtra(BUNDLE_ROUTE_REQUEST, routeRequest);
         setResult(Activity.RESULT_OK, resultIntent);
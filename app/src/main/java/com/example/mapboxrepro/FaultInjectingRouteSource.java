@@ -0,0 +1,55 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a {@link RouteSource} with artificial latency and failures, for load and retry testing.
+ * All decisions come from the given {@link Random} in the order requests are made, so a seeded
+ * random number generator makes a run repeatable.
+ */
+public class FaultInjectingRouteSource implements RouteSource {
+    private final RouteSource delegate;
+    private final ScheduledExecutorService scheduler;
+    private final long latencyMillis;
+    private final int latencyJitterMillis;
+    private final double failureRate;
+    private final Random random;
+
+    /**
+     * @param latencyMillis       delay added before every request
+     * @param latencyJitterMillis up to this much more delay, picked uniformly
+     * @param failureRate         fraction of requests, from 0 to 1, that fail with an {@link IOException}
+     */
+    public FaultInjectingRouteSource(@NonNull RouteSource delegate, @NonNull ScheduledExecutorService scheduler,
+                                     long latencyMillis, int latencyJitterMillis, double failureRate,
+                                     @NonNull Random random) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.failureRate = failureRate;
+        this.random = random;
+    }
+
+    @Override
+    public void fetchRoute(@NonNull RouteRequest request, @NonNull Callback callback) {
+        long delayMillis;
+        boolean fail;
+        synchronized (random) {
+            delayMillis = latencyMillis + (latencyJitterMillis > 0 ? random.nextInt(latencyJitterMillis + 1) : 0);
+            fail = random.nextDouble() < failureRate;
+        }
+        scheduler.schedule(() -> {
+            if (fail) {
+                callback.onFailure(new IOException("Injected failure"));
+            } else {
+                delegate.fetchRoute(request, callback);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.models.DirectionsResponse;
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.geojson.Point;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Local stand-in for the Directions API which answers from recorded {@link DirectionsResponse} JSON
+ * files, so route handling can be tested and measured without a network connection or a token.
+ * <p>
+ * Each request is looked up as a file named after its coordinates (see {@link #fixtureName}); if
+ * there is none, {@value #DEFAULT_FIXTURE} is served instead.
+ */
+public class FixtureRouteSource implements RouteSource {
+    static final String DEFAULT_FIXTURE = "default.json";
+
+    private final File directory;
+    private final Executor executor;
+
+    public FixtureRouteSource(@NonNull File directory, @NonNull Executor executor) {
+        this.directory = directory;
+        this.executor = executor;
+    }
+
+    @Override
+    public void fetchRoute(@NonNull RouteRequest request, @NonNull Callback callback) {
+        executor.execute(() -> {
+            File fixture = new File(directory, fixtureName(request));
+            if (!fixture.isFile()) {
+                fixture = new File(directory, DEFAULT_FIXTURE);
+            }
+            if (!fixture.isFile()) {
+                callback.onFailure(new FileNotFoundException("No fixture for " + fixtureName(request)));
+                return;
+            }
+            DirectionsResponse response;
+            try {
+                response = DirectionsResponse.fromJson(
+                        new String(Files.readAllBytes(fixture.toPath()), StandardCharsets.UTF_8));
+            } catch (IOException | RuntimeException exception) {
+                callback.onFailure(exception);
+                return;
+            }
+            if (response.routes().isEmpty()) {
+                callback.onFailure(new IllegalStateException("No routes found"));
+                return;
+            }
+            callback.onRoute(response.routes().get(0));
+        });
+    }
+
+    /**
+     * Saves a route as the fixture for a request, e.g. to capture what the live API returned.
+     */
+    public void record(@NonNull RouteRequest request, @NonNull DirectionsRoute route) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        DirectionsResponse response = DirectionsResponse.builder()
+                .code("Ok")
+                // The builder stamps each route's index into the list, so it has to be mutable
+                .routes(new ArrayList<>(Collections.singletonList(route)))
+                .build();
+        try (Writer writer = Files.newBufferedWriter(
+                new File(directory, fixtureName(request)).toPath(), StandardCharsets.UTF_8)) {
+            writer.write(response.toJson());
+        }
+    }
+
+    /**
+     * @return e.g. "-77.56594,37.60537_-77.55053,37.46156.json"
+     */
+    @NonNull
+    static String fixtureName(@NonNull RouteRequest request) {
+        StringBuilder name = new StringBuilder();
+        for (Point point : request.getWaypoints()) {
+            if (name.length() > 0) {
+                name.append('_');
+            }
+            name.append(String.format(Locale.US, "%.5f,%.5f", point.longitude(), point.latitude()));
+        }
+        return name.append(".json").toString();
+    }
+}
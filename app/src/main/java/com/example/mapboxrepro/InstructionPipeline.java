@@ -0,0 +1,214 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.api.directions.v5.models.BannerInstructions;
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.api.directions.v5.models.LegStep;
+import com.mapbox.api.directions.v5.models.RouteLeg;
+import com.mapbox.api.directions.v5.models.VoiceInstructions;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the banner and voice instructions of a whole route through a list of {@link Transform}s in
+ * the background as soon as navigation starts, so that showing or speaking one is only a lookup.
+ * <p>
+ * The navigation SDK usually hands back the instruction objects of the route itself, which are found
+ * by identity. Copies, e.g. of a route that went through a {@link RouteCodec} round trip, are found by
+ * their contents. An instruction that isn't prepared yet, because it comes up before the background
+ * pass has finished, is transformed on the spot.
+ * <p>
+ * Lookups are safe from any thread; {@link #prepare} and {@link #invalidate} are meant for the main thread.
+ */
+public class InstructionPipeline implements MemoryPressureManager.Trimmable {
+
+    /**
+     * One customization of the instructions, e.g. abbreviations or localization. Must be thread safe.
+     */
+    public interface Transform {
+        @NonNull
+        default BannerInstructions transform(@NonNull BannerInstructions instructions) {
+            return instructions;
+        }
+
+        @NonNull
+        default VoiceInstructions transform(@NonNull VoiceInstructions instructions) {
+            return instructions;
+        }
+    }
+
+    private final List<Transform> transforms;
+    private final Executor executor;
+    private final Metrics metrics;
+
+    private volatile Prepared prepared = Prepared.EMPTY;
+    private volatile int generation;
+    private boolean trimmed;
+
+    public InstructionPipeline(@NonNull List<Transform> transforms, @NonNull Executor executor,
+                               @NonNull Metrics metrics) {
+        this.transforms = transforms;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Drops what was prepared for the previous route and transforms every instruction of this one
+     * in the background.
+     */
+    public void prepare(@NonNull DirectionsRoute route) {
+        int preparing;
+        synchronized (this) {
+            preparing = ++generation;
+            prepared = Prepared.EMPTY;
+            trimmed = false;
+        }
+        long startNanos = System.nanoTime();
+        executor.execute(() -> {
+            Prepared result = transformAll(route, preparing);
+            synchronized (this) {
+                // Another route may have come along in the meantime
+                if (preparing == generation) {
+                    prepared = result;
+                }
+            }
+            metrics.recordSince("instructions.prepare", startNanos);
+        });
+    }
+
+    /**
+     * Forgets the prepared instructions, e.g. because the route is being replaced.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        prepared = Prepared.EMPTY;
+    }
+
+    /**
+     * Prepares the route again if memory got low since it was last prepared.
+     */
+    public void prepareIfTrimmed(@NonNull DirectionsRoute route) {
+        boolean wasTrimmed;
+        synchronized (this) {
+            wasTrimmed = trimmed;
+        }
+        if (wasTrimmed) {
+            prepare(route);
+        }
+    }
+
+    /**
+     * Banners are only for the screen and go first; the voice instructions are kept until it gets
+     * critical, since they're still spoken in the background.
+     */
+    @Override
+    public synchronized void trimMemory(@NonNull MemoryPressureManager.Tier tier) {
+        if (tier == MemoryPressureManager.Tier.LIGHT) {
+            return;
+        }
+        // Also stops a pass still running from putting everything back
+        generation++;
+        prepared = tier == MemoryPressureManager.Tier.CRITICAL ? Prepared.EMPTY
+                : new Prepared(Collections.emptyMap(), Collections.emptyMap(), prepared.voices);
+        trimmed = true;
+    }
+
+    /**
+     * @return the transformed banner, looked up if it was prepared
+     */
+    @NonNull
+    public BannerInstructions banner(@NonNull BannerInstructions instructions) {
+        Prepared current = prepared;
+        BannerInstructions transformed = current.bannersByIdentity.get(instructions);
+        if (transformed == null) {
+            transformed = current.banners.get(instructions);
+        }
+        if (transformed == null) {
+            metrics.counter("instructions.misses").increment();
+            transformed = transform(instructions);
+        }
+        return transformed;
+    }
+
+    /**
+     * @return the transformed voice instruction for an announcement of the route, looked up by its
+     * text since that's all the SDK passes on when it's about to be spoken, or null if none of the
+     * route's voice instructions has it
+     */
+    @Nullable
+    public VoiceInstructions voice(@NonNull String announcement) {
+        return prepared.voices.get(announcement);
+    }
+
+    @NonNull
+    BannerInstructions transform(@NonNull BannerInstructions instructions) {
+        for (Transform transform : transforms) {
+            instructions = transform.transform(instructions);
+        }
+        return instructions;
+    }
+
+    @NonNull
+    VoiceInstructions transform(@NonNull VoiceInstructions instructions) {
+        for (Transform transform : transforms) {
+            instructions = transform.transform(instructions);
+        }
+        return instructions;
+    }
+
+    private Prepared transformAll(DirectionsRoute route, int preparing) {
+        Map<BannerInstructions, BannerInstructions> bannersByIdentity = new IdentityHashMap<>();
+        Map<BannerInstructions, BannerInstructions> banners = new HashMap<>();
+        Map<String, VoiceInstructions> voices = new HashMap<>();
+        if (route.legs() != null) {
+            for (RouteLeg leg : route.legs()) {
+                if (leg.steps() == null) {
+                    continue;
+                }
+                for (LegStep step : leg.steps()) {
+                    if (preparing != generation) {
+                        return Prepared.EMPTY;
+                    }
+                    if (step.bannerInstructions() != null) {
+                        for (BannerInstructions instructions : step.bannerInstructions()) {
+                            BannerInstructions transformed = transform(instructions);
+                            bannersByIdentity.put(instructions, transformed);
+                            banners.put(instructions, transformed);
+                        }
+                    }
+                    if (step.voiceInstructions() != null) {
+                        for (VoiceInstructions instructions : step.voiceInstructions()) {
+                            if (instructions.announcement() != null) {
+                                voices.put(instructions.announcement(), transform(instructions));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return new Prepared(bannersByIdentity, banners, voices);
+    }
+
+    private static final class Prepared {
+        static final Prepared EMPTY = new Prepared(Collections.emptyMap(), Collections.emptyMap(),
+                Collections.emptyMap());
+
+        final Map<BannerInstructions, BannerInstructions> bannersByIdentity;
+        final Map<BannerInstructions, BannerInstructions> banners;
+        final Map<String, VoiceInstructions> voices;
+
+        Prepared(Map<BannerInstructions, BannerInstructions> bannersByIdentity,
+                 Map<BannerInstructions, BannerInstructions> banners, Map<String, VoiceInstructions> voices) {
+            this.bannersByIdentity = bannersByIdentity;
+            this.banners = banners;
+            this.voices = voices;
+        }
+    }
+}
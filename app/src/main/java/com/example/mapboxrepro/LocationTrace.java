@@ -0,0 +1,199 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A recorded drive: location fixes in the order they came in, with their times relative to the first
+ * one. Read from GPX, NMEA or JSON files (see {@link LocationTraceParser}) and played back by a
+ * {@link TracePlayer}.
+ */
+public class LocationTrace {
+    private final List<Fix> fixes;
+
+    /**
+     * One recorded location. Values that weren't recorded are {@code NaN}.
+     */
+    public static final class Fix {
+        private final long offsetMillis;
+        private final double longitude;
+        private final double latitude;
+        private final double altitude;
+        private final double speed;
+        private final double bearing;
+        private final double accuracy;
+
+        public Fix(long offsetMillis, double longitude, double latitude, double altitude, double speed,
+                   double bearing, double accuracy) {
+            this.offsetMillis = offsetMillis;
+            this.longitude = longitude;
+            this.latitude = latitude;
+            this.altitude = altitude;
+            this.speed = speed;
+            this.bearing = bearing;
+            this.accuracy = accuracy;
+        }
+
+        /**
+         * @return milliseconds since the first fix of the trace
+         */
+        public long getOffsetMillis() {
+            return offsetMillis;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getAltitude() {
+            return altitude;
+        }
+
+        /**
+         * @return meters per second
+         */
+        public double getSpeed() {
+            return speed;
+        }
+
+        /**
+         * @return degrees clockwise from north
+         */
+        public double getBearing() {
+            return bearing;
+        }
+
+        /**
+         * @return horizontal accuracy in meters
+         */
+        public double getAccuracy() {
+            return accuracy;
+        }
+
+        Fix withOffset(long offsetMillis) {
+            return new Fix(offsetMillis, longitude, latitude, altitude, speed, bearing, accuracy);
+        }
+    }
+
+    /**
+     * @param fixes in recorded order, with offsets counting from the first one
+     */
+    public LocationTrace(@NonNull List<Fix> fixes) {
+        if (fixes.isEmpty()) {
+            throw new IllegalArgumentException("A trace needs at least one fix");
+        }
+        this.fixes = Collections.unmodifiableList(new ArrayList<>(fixes));
+    }
+
+    /**
+     * Reads a trace in the format its file extension names: {@code .gpx}, {@code .nmea} or
+     * {@code .json}.
+     */
+    @NonNull
+    public static LocationTrace read(@NonNull File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return read(file.getName(), in);
+        }
+    }
+
+    @NonNull
+    static LocationTrace read(@NonNull String fileName, @NonNull InputStream in) throws IOException {
+        String name = fileName.toLowerCase(Locale.US);
+        if (name.endsWith(".gpx")) {
+            return LocationTraceParser.parseGpx(in);
+        }
+        Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        if (name.endsWith(".nmea") || name.endsWith(".nma")) {
+            return LocationTraceParser.parseNmea(reader);
+        }
+        if (name.endsWith(".json")) {
+            return LocationTraceParser.parseJson(reader);
+        }
+        throw new IOException("Unknown trace format: " + fileName);
+    }
+
+    @NonNull
+    public List<Fix> getFixes() {
+        return fixes;
+    }
+
+    public long getDurationMillis() {
+        return fixes.get(fixes.size() - 1).getOffsetMillis();
+    }
+
+    /**
+     * Where the trace was at a point in time, interpolated between the fixes on either side.
+     *
+     * @param maxGapMillis fixes further apart than this are a loss of signal, e.g. a tunnel, and
+     *                     nothing is returned in between
+     * @return null before the first fix, after the last one, or inside a gap
+     */
+    @Nullable
+    public Fix at(long offsetMillis, long maxGapMillis) {
+        int next = firstAtOrAfter(offsetMillis);
+        if (next == fixes.size()) {
+            return null;
+        }
+        Fix after = fixes.get(next);
+        if (after.getOffsetMillis() == offsetMillis) {
+            return after;
+        }
+        if (next == 0) {
+            return null;
+        }
+        Fix before = fixes.get(next - 1);
+        long span = after.getOffsetMillis() - before.getOffsetMillis();
+        if (span > maxGapMillis) {
+            return null;
+        }
+        double fraction = (double) (offsetMillis - before.getOffsetMillis()) / span;
+        return new Fix(offsetMillis,
+                lerp(before.getLongitude(), after.getLongitude(), fraction),
+                lerp(before.getLatitude(), after.getLatitude(), fraction),
+                lerp(before.getAltitude(), after.getAltitude(), fraction),
+                lerp(before.getSpeed(), after.getSpeed(), fraction),
+                lerpBearing(before.getBearing(), after.getBearing(), fraction),
+                lerp(before.getAccuracy(), after.getAccuracy(), fraction));
+    }
+
+    private int firstAtOrAfter(long offsetMillis) {
+        int low = 0;
+        int high = fixes.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (fixes.get(middle).getOffsetMillis() < offsetMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static double lerp(double from, double to, double fraction) {
+        return from + (to - from) * fraction;
+    }
+
+    private static double lerpBearing(double from, double to, double fraction) {
+        // The short way round, so 350 to 10 goes through 0 and not 180
+        double delta = ((to - from) % 360 + 540) % 360 - 180;
+        double bearing = (from + delta * fraction) % 360;
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+}
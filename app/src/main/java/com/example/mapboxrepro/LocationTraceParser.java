@@ -0,0 +1,286 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Reads the trace formats {@link LocationTrace#read} understands:
+ * <ul>
+ * <li>GPX: the {@code trkpt} (or {@code rtept}) elements, with {@code ele}, {@code time},
+ * {@code speed} and {@code course} where present, including Garmin style extensions.</li>
+ * <li>NMEA 0183: {@code RMC} sentences for position, speed and course, merged with the {@code GGA}
+ * sentence of the same time for altitude and accuracy. Sentences with a bad checksum are skipped.</li>
+ * <li>JSON: an array of objects with {@code time} in epoch milliseconds, {@code latitude} and
+ * {@code longitude}, and optionally {@code altitude}, {@code speed}, {@code bearing} and
+ * {@code accuracy}, in the units of {@link android.location.Location}.</li>
+ * </ul>
+ * Fixes that don't move the clock forward are dropped.
+ */
+final class LocationTraceParser {
+    // GPX from route planners has no times; play those at one point a second
+    private static final long UNTIMED_INTERVAL_MILLIS = 1000;
+    private static final double METERS_PER_SECOND_PER_KNOT = 1852.0 / 3600;
+    // Rough accuracy per unit of HDOP for a consumer receiver
+    private static final double METERS_PER_HDOP = 5;
+
+    private LocationTraceParser() {
+    }
+
+    @NonNull
+    static LocationTrace parseGpx(@NonNull InputStream in) throws IOException {
+        GpxHandler handler = new GpxHandler();
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.newSAXParser().parse(in, handler);
+        } catch (ParserConfigurationException | SAXException | RuntimeException exception) {
+            throw new IOException("Not a GPX trace", exception);
+        }
+        return traceOf(handler.fixes);
+    }
+
+    private static final class GpxHandler extends DefaultHandler {
+        final List<LocationTrace.Fix> fixes = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private boolean inPoint;
+        private double longitude;
+        private double latitude;
+        private double altitude;
+        private double speed;
+        private double bearing;
+        private long timeMillis;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            text.setLength(0);
+            if (localName.equals("trkpt") || localName.equals("rtept")) {
+                inPoint = true;
+                latitude = Double.parseDouble(attributes.getValue("lat"));
+                longitude = Double.parseDouble(attributes.getValue("lon"));
+                altitude = Double.NaN;
+                speed = Double.NaN;
+                bearing = Double.NaN;
+                timeMillis = fixes.size() * UNTIMED_INTERVAL_MILLIS;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (!inPoint) {
+                return;
+            }
+            String value = text.toString().trim();
+            try {
+                switch (localName) {
+                    case "ele":
+                        altitude = Double.parseDouble(value);
+                        break;
+                    case "time":
+                        timeMillis = OffsetDateTime.parse(value).toInstant().toEpochMilli();
+                        break;
+                    case "speed":
+                        speed = Double.parseDouble(value);
+                        break;
+                    case "course":
+                        bearing = Double.parseDouble(value);
+                        break;
+                    case "trkpt":
+                    case "rtept":
+                        fixes.add(new LocationTrace.Fix(timeMillis, longitude, latitude, altitude, speed, bearing,
+                                Double.NaN));
+                        inPoint = false;
+                        break;
+                    default:
+                        break;
+                }
+            } catch (NumberFormatException | DateTimeParseException exception) {
+                throw new SAXException("Bad value in <" + localName + ">: " + value, exception);
+            }
+        }
+    }
+
+    @NonNull
+    static LocationTrace parseNmea(@NonNull Reader reader) throws IOException {
+        // Receivers send a burst of sentences per fix, all with the same time field
+        List<LocationTrace.Fix> fixes = new ArrayList<>();
+        NmeaFix fix = new NmeaFix();
+        String time = null;
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            String[] fields = sentenceFields(line.trim());
+            if (fields == null || fields[0].length() < 5 || fields.length < 2 || fields[1].isEmpty()) {
+                continue;
+            }
+            if (!fields[1].equals(time)) {
+                fix.addTo(fixes);
+                fix = new NmeaFix();
+                time = fields[1];
+            }
+            String type = fields[0].substring(2);
+            try {
+                if (type.equals("RMC") && fields.length > 9 && fields[2].equals("A")) {
+                    fix.valid = true;
+                    fix.latitude = coordinate(fields[3], fields[4]);
+                    fix.longitude = coordinate(fields[5], fields[6]);
+                    fix.speed = fields[7].isEmpty() ? Double.NaN
+                            : Double.parseDouble(fields[7]) * METERS_PER_SECOND_PER_KNOT;
+                    fix.bearing = fields[8].isEmpty() ? Double.NaN : Double.parseDouble(fields[8]);
+                    fix.timeMillis = nmeaTimeMillis(fields[9], fields[1]);
+                } else if (type.equals("GGA") && fields.length > 9 && !fields[6].equals("0")) {
+                    fix.accuracy = fields[8].isEmpty() ? Double.NaN : Double.parseDouble(fields[8]) * METERS_PER_HDOP;
+                    fix.altitude = fields[9].isEmpty() ? Double.NaN : Double.parseDouble(fields[9]);
+                }
+            } catch (NumberFormatException | DateTimeParseException | StringIndexOutOfBoundsException exception) {
+                throw new IOException("Bad NMEA sentence: " + line, exception);
+            }
+        }
+        fix.addTo(fixes);
+        return traceOf(fixes);
+    }
+
+    private static final class NmeaFix {
+        boolean valid;
+        long timeMillis;
+        double longitude;
+        double latitude;
+        double altitude = Double.NaN;
+        double speed = Double.NaN;
+        double bearing = Double.NaN;
+        double accuracy = Double.NaN;
+
+        void addTo(List<LocationTrace.Fix> fixes) {
+            // Only an RMC sentence has the date, and says whether the receiver has a fix at all
+            if (valid) {
+                fixes.add(new LocationTrace.Fix(timeMillis, longitude, latitude, altitude, speed, bearing, accuracy));
+            }
+        }
+    }
+
+    /**
+     * @return the comma separated fields of a sentence, starting with its talker and type, or null
+     * if it isn't one or its checksum doesn't match
+     */
+    static String[] sentenceFields(String line) {
+        if (!line.startsWith("$")) {
+            return null;
+        }
+        int star = line.indexOf('*');
+        String body = line.substring(1, star < 0 ? line.length() : star);
+        if (star >= 0) {
+            int checksum = 0;
+            for (int i = 0; i < body.length(); i++) {
+                checksum ^= body.charAt(i);
+            }
+            try {
+                if (Integer.parseInt(line.substring(star + 1).trim(), 16) != checksum) {
+                    return null;
+                }
+            } catch (NumberFormatException exception) {
+                return null;
+            }
+        }
+        return body.split(",", -1);
+    }
+
+    /**
+     * @param value degrees and minutes, e.g. {@code 4807.038} for 48 degrees 7.038 minutes
+     */
+    private static double coordinate(String value, String hemisphere) {
+        double degreesAndMinutes = Double.parseDouble(value);
+        double degrees = Math.floor(degreesAndMinutes / 100);
+        double coordinate = degrees + (degreesAndMinutes - degrees * 100) / 60;
+        return hemisphere.equals("S") || hemisphere.equals("W") ? -coordinate : coordinate;
+    }
+
+    /**
+     * @param date as {@code ddmmyy}
+     * @param time as {@code hhmmss} with optional fractional seconds
+     */
+    private static long nmeaTimeMillis(String date, String time) {
+        LocalDate day = LocalDate.of(2000 + Integer.parseInt(date.substring(4, 6)),
+                Integer.parseInt(date.substring(2, 4)), Integer.parseInt(date.substring(0, 2)));
+        double seconds = Double.parseDouble(time.substring(4));
+        LocalTime timeOfDay = LocalTime.of(Integer.parseInt(time.substring(0, 2)),
+                Integer.parseInt(time.substring(2, 4)), (int) seconds, (int) Math.round((seconds % 1) * 1e9));
+        return day.atTime(timeOfDay).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    @NonNull
+    static LocationTrace parseJson(@NonNull Reader reader) throws IOException {
+        List<LocationTrace.Fix> fixes = new ArrayList<>();
+        try {
+            JsonArray array = new JsonParser().parse(reader).getAsJsonArray();
+            for (JsonElement element : array) {
+                JsonObject object = element.getAsJsonObject();
+                fixes.add(new LocationTrace.Fix(required(object, "time").getAsLong(),
+                        required(object, "longitude").getAsDouble(), required(object, "latitude").getAsDouble(),
+                        optional(object, "altitude"), optional(object, "speed"), optional(object, "bearing"),
+                        optional(object, "accuracy")));
+            }
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException exception) {
+            throw new IOException("Not a JSON trace", exception);
+        }
+        return traceOf(fixes);
+    }
+
+    private static JsonElement required(JsonObject object, String name) {
+        if (!object.has(name) || object.get(name).isJsonNull()) {
+            throw new JsonParseException("Fix without " + name);
+        }
+        return object.get(name);
+    }
+
+    private static double optional(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element == null || element.isJsonNull() ? Double.NaN : element.getAsDouble();
+    }
+
+    /**
+     * @param fixes with epoch milliseconds as their offsets
+     */
+    private static LocationTrace traceOf(List<LocationTrace.Fix> fixes) throws IOException {
+        if (fixes.isEmpty()) {
+            throw new IOException("No fixes in trace");
+        }
+        long start = fixes.get(0).getOffsetMillis();
+        long last = Long.MIN_VALUE;
+        List<LocationTrace.Fix> relative = new ArrayList<>(fixes.size());
+        for (LocationTrace.Fix fix : fixes) {
+            if (fix.getOffsetMillis() > last) {
+                last = fix.getOffsetMillis();
+                relative.add(fix.withOffset(last - start));
+            }
+        }
+        return new LocationTrace(relative);
+    }
+}
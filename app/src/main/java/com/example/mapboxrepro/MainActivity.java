@@ -2,41 +2,40 @@ package com.example.mapboxrepro;
 
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.graphics.Color;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.Lifecycle;
 
 import com.mapbox.android.core.permissions.PermissionsListener;
 import com.mapbox.android.core.permissions.PermissionsManager;
-import com.mapbox.api.directions.v5.DirectionsCriteria;
-import com.mapbox.api.directions.v5.models.DirectionsResponse;
 import com.mapbox.api.directions.v5.models.DirectionsRoute;
 import com.mapbox.geojson.Point;
+import com.mapbox.mapboxsdk.LibraryLoader;
 import com.mapbox.mapboxsdk.Mapbox;
 import com.mapbox.mapboxsdk.geometry.LatLng;
 import com.mapbox.mapboxsdk.maps.MapView;
 import com.mapbox.mapboxsdk.maps.MapboxMap;
 import com.mapbox.mapboxsdk.maps.OnMapReadyCallback;
 import com.mapbox.mapboxsdk.maps.Style;
-import com.mapbox.mapboxsdk.style.expressions.Expression;
-import com.mapbox.mapboxsdk.style.layers.Property;
-import com.mapbox.mapboxsdk.style.layers.PropertyFactory;
-import com.mapbox.mapboxsdk.style.layers.SymbolLayer;
-import com.mapbox.services.android.navigation.v5.navigation.NavigationRoute;
 
 import java.util.ArrayList;
 import java.util.List;
-
-import retrofit2.Call;
-import retrofit2.Callback;
-import retrofit2.Response;
+import java.util.concurrent.Executor;
 
 import static android.Manifest.permission.WRITE_EXTERNAL_STORAGE;
 
@@ -51,32 +50,138 @@ public class MainActivity extends AppCompatActivity implements
     private static final String SOURCE_ID = "SOURCE_ID";
     private static final String STYLE_URI = "mapbox://styles/mapbox/navigation-guidance-day-v3";
     private static final String LAYER_ID = "LAYER_ID";
+    // Milestones of the startup pipeline only this screen waits for
+    private static final String NATIVE_LIBRARIES = "native_libraries";
+    private static final String MAPBOX = "mapbox";
+    private static final String ENDPOINT_ICON = "endpoint_icon";
 
     private MapView mapView;
     private PermissionsManager permissionsManager;
     private DirectionsRoute currentRoute;
     private RouteRequest routeRequest;
     private boolean navigationIsReady = false;
+    private Metrics metrics;
+    private NavigationWarmup navigationWarmup;
+    private StartupPipeline startup;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    @Nullable
+    private Bundle mapState;
+    private MapboxMap mapboxMap;
+    private Style loadedStyle;
+    // Markers waiting for a fully loaded style to go on
+    @Nullable
+    private List<MarkerSet.Marker> queuedMarkers;
+    private volatile Bitmap endpointIcon;
+    private MarkerLayerController markerController;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        Mapbox.getInstance(this, BuildConfig.MAPBOX_ACCESS_TOKEN);
         super.onCreate(savedInstanceState);
+        ReproApplication application = (ReproApplication) getApplication();
+        metrics = application.getMetrics();
+        long processStartNanos = application.takeProcessStartNanos();
+        startup = processStartNanos >= 0
+                ? new StartupPipeline("startup.cold", processStartNanos, metrics, ContextCompat.getMainExecutor(this))
+                : new StartupPipeline("startup.warm", System.nanoTime(), metrics, ContextCompat.getMainExecutor(this));
         setContentView(R.layout.activity_main);
+        mapState = savedInstanceState;
+        if (processStartNanos >= 0 && savedInstanceState == null) {
+            // A trip the process died in the middle of goes on straight away, with the route it had
+            application.getSessionJournal().recover(ContextCompat.getMainExecutor(this),
+                    session -> resumeSession(session, processStartNanos));
+        }
+
+        // The route doesn't need the map, so it's on its way while the map loads
+        routeRequest = new RouteRequest(ORIGIN, DESTINATION);
+        fetchRoute();
+
+        // The map and everything it needs come after the first frame, off the main thread where they can
+        Executor startupExecutor = application.getStartupExecutor();
+        startup.runInBackground(NATIVE_LIBRARIES, startupExecutor, LibraryLoader::load);
+        startup.runInBackground(ENDPOINT_ICON, startupExecutor, () -> endpointIcon =
+                rasterize(getResources().getDrawable(R.drawable.ic_aap_flag_no_circle_black, null)));
+        onFirstFrame(() -> startup.mark(StartupPipeline.FIRST_FRAME));
+        startup.when(this::checkPermissions, StartupPipeline.FIRST_FRAME);
+        startup.when(this::createMap, StartupPipeline.FIRST_FRAME, NATIVE_LIBRARIES);
+        startup.when(() -> navigationWarmup.warm(currentRoute), MAPBOX, StartupPipeline.ROUTE);
+        startup.when(this::addMarkers, StartupPipeline.STYLE_LOADED, ENDPOINT_ICON);
+        startup.when(() -> {
+            startup.mark(StartupPipeline.INTERACTIVE);
+            reportFullyDrawn();
+        }, StartupPipeline.MAP_READY, StartupPipeline.ROUTE);
+    }
+
+    private void resumeSession(@Nullable SessionJournal.Session session, long startNanos) {
+        if (session == null || isFinishing()) {
+            return;
+        }
+        Intent intent = EmbeddedNavigationActivity.resumeIntent(this, session, startNanos);
+        EmbeddedNavigationActivity.copyTraceExtras(getIntent(), intent);
+        startActivity(intent);
+    }
+
+    private void onFirstFrame(Runnable action) {
+        View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean drawn;
+
+            @Override
+            public void onDraw() {
+                if (drawn) {
+                    return;
+                }
+                drawn = true;
+                // Listeners can't be removed while they are called. Going first in the queue still
+                // runs this right after the frame, before anything else that was posted.
+                mainHandler.postAtFrontOfQueue(() -> {
+                    content.getViewTreeObserver().removeOnDrawListener(this);
+                    action.run();
+                });
+            }
+        });
+    }
+
+    private void createMap() {
+        if (isDestroyed()) {
+            return;
+        }
+        // Cheap by now, the native libraries it loads are already loaded
+        Mapbox.getInstance(this, BuildConfig.MAPBOX_ACCESS_TOKEN);
+        ReproApplication application = (ReproApplication) getApplication();
+        navigationWarmup = new NavigationWarmup(this, application.getRouteStore(), metrics,
+                application.getTilePrefetcher(), application.getNightModeStyles(), application.getIoExecutor(),
+                application.getNetworkExecutor());
+        startup.mark(MAPBOX);
+
+        mapView = new MapView(this);
+        ((ViewGroup) findViewById(R.id.mapContainer)).addView(mapView);
+        mapView.onCreate(mapState);
+        // Catch up with the lifecycle the activity went through without the map
+        Lifecycle.State state = getLifecycle().getCurrentState();
+        if (state.isAtLeast(Lifecycle.State.STARTED)) {
+            mapView.onStart();
+        }
+        if (state.isAtLeast(Lifecycle.State.RESUMED)) {
+            mapView.onResume();
+        }
+        mapView.getMapAsync(this);
+    }
+
+    private static Bitmap rasterize(Drawable drawable) {
+        Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(),
+                Bitmap.Config.ARGB_8888);
+        drawable.setBounds(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        drawable.draw(new Canvas(bitmap));
+        return bitmap;
+    }
 
-        // Check for location permission
+    private void checkPermissions() {
         permissionsManager = new PermissionsManager(this);
         if (!PermissionsManager.areLocationPermissionsGranted(this)) {
             permissionsManager.requestLocationPermissions(this);
         } else {
             requestPermissionIfNotGranted(WRITE_EXTERNAL_STORAGE);
         }
-
-        routeRequest = new RouteRequest(ORIGIN, DESTINATION);
-
-        mapView = (MapView) findViewById(R.id.mapView);
-        mapView.onCreate(savedInstanceState);
-        mapView.getMapAsync(this);
     }
 
     /**
@@ -126,8 +231,11 @@ public class MainActivity extends AppCompatActivity implements
         Log.i(TAG, "Clicked");
         if (navigationIsReady) {
             Intent intent = new Intent(getApplicationContext(), EmbeddedNavigationActivity.class);
-            intent.putExtra(EmbeddedNavigationActivity.BUNDLE_CURRENT_ROUTE, currentRoute);
+            String routeHandle = navigationWarmup.takeRouteHandle(currentRoute);
+            intent.putExtra(EmbeddedNavigationActivity.BUNDLE_ROUTE_HANDLE, routeHandle);
             intent.putExtra(EmbeddedNavigationActivity.BUNDLE_ROUTE_REQUEST, routeRequest);
+            intent.putExtra(EmbeddedNavigationActivity.BUNDLE_LAUNCH_TIME_NANOS, System.nanoTime());
+            EmbeddedNavigationActivity.copyTraceExtras(getIntent(), intent);
             startActivity(intent);
         }
         return true;
@@ -136,98 +244,131 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     public void onMapReady(@NonNull MapboxMap mapboxMap) {
         Log.i("Main", "onMapReady called");
-        fetchRoute();
-
-        Drawable endpointIcon = getResources().getDrawable(R.drawable.ic_aap_flag_no_circle_black, null);
-
-        Style.Builder styleBuilder = new Style.Builder().fromUri(STYLE_URI)
-                .withImage(ENDPOINT_ICON_KEY, endpointIcon)
-                .withLayer(new SymbolLayer(LAYER_ID, SOURCE_ID)
-                        .withProperties(
-                                PropertyFactory.iconImage(Expression.literal(ENDPOINT_ICON_KEY)),
-                                PropertyFactory.iconAllowOverlap(true),
-                                PropertyFactory.iconIgnorePlacement(true),
-                                PropertyFactory.textColor(Color.WHITE),
-                                PropertyFactory.textAnchor(Property.TEXT_ANCHOR_CENTER),
-                                PropertyFactory.textFont(new String[]{"Open Sans Bold"})
-                        )
-                );
-
-        mapboxMap.setStyle(styleBuilder, style -> {
-            fetchRoute();
+        startup.mark(StartupPipeline.MAP_READY);
+        this.mapboxMap = mapboxMap;
+        // The style alone, the endpoint icon and the marker layers are added once both are there
+        mapboxMap.setStyle(new Style.Builder().fromUri(STYLE_URI), style -> {
+            loadedStyle = style;
+            startup.mark(StartupPipeline.STYLE_LOADED);
         });
 
         mapboxMap.addOnMapClickListener(this);
     }
 
+    private void addMarkers() {
+        queuedMarkers = markersOf(routeRequest);
+        applyQueuedMarkers(loadedStyle);
+    }
+
+    private void applyQueuedMarkers(@NonNull Style style) {
+        if (queuedMarkers == null || isDestroyed()) {
+            return;
+        }
+        if (!style.isFullyLoaded()) {
+            // Called again once the style the map is loading now has finished
+            mapboxMap.getStyle(this::applyQueuedMarkers);
+            return;
+        }
+        loadedStyle = style;
+        List<MarkerSet.Marker> markers = queuedMarkers;
+        queuedMarkers = null;
+        style.addImage(ENDPOINT_ICON_KEY, endpointIcon);
+        if (markerController != null) {
+            markerController.release();
+        }
+        markerController = new MarkerLayerController(style, SOURCE_ID, LAYER_ID, metrics);
+        markerController.setMarkers(markers);
+    }
+
+    private static List<MarkerSet.Marker> markersOf(RouteRequest request) {
+        List<Point> waypoints = request.getWaypoints();
+        List<MarkerSet.Marker> markers = new ArrayList<>(waypoints.size());
+        for (int i = 0; i < waypoints.size(); i++) {
+            markers.add(new MarkerSet.Marker("waypoint-" + i, waypoints.get(i), ENDPOINT_ICON_KEY));
+        }
+        return markers;
+    }
+
     private void fetchRoute() {
-        NavigationRoute.Builder routeBuilder = NavigationRoute.builder(getApplicationContext())
-                .accessToken(Mapbox.getAccessToken())
-                .origin(routeRequest.getOrigin());
-
-        routeBuilder.destination(routeRequest.getDestination())
-                .profile(DirectionsCriteria.PROFILE_DRIVING)
-                .build()
-                .getRoute(new Callback<DirectionsResponse>() {
-                    @Override
-                    public void onResponse(Call<DirectionsResponse> call, Response<DirectionsResponse> response) {
-                        if (response.body() == null) {
-                            Log.e(TAG, "No routes found, make sure you set the right user and access token.");
-                            return;
-                        } else if (response.body().routes().size() < 1) {
-                            Log.e(TAG, "No routes found");
-                            return;
-                        }
-                        currentRoute = response.body().routes().get(0);
-                        navigationIsReady = true;
-                    }
-
-                    @Override
-                    public void onFailure(Call<DirectionsResponse> call, Throwable throwable) {
-                        Log.e(TAG, "Error: %s", throwable);
-                    }
-                });
+        RouteRepository routeRepository = ((ReproApplication) getApplication()).getRouteRepository();
+        long startNanos = System.nanoTime();
+        routeRepository.getRoute(routeRequest, new RouteSource.Callback() {
+            @Override
+            public void onRoute(@NonNull DirectionsRoute route) {
+                metrics.recordSince("route.fetch", startNanos);
+                currentRoute = route;
+                navigationIsReady = true;
+                startup.mark(StartupPipeline.ROUTE);
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable throwable) {
+                metrics.counter("route.fetch.failures").increment();
+                Log.e(TAG, "Error: " + throwable.getMessage(), throwable);
+            }
+        });
     }
 
     @Override
     public void onResume() {
         super.onResume();
-        mapView.onResume();
+        if (mapView != null) {
+            mapView.onResume();
+        }
     }
 
     @Override
     protected void onStart() {
         super.onStart();
-        mapView.onStart();
+        if (mapView != null) {
+            mapView.onStart();
+        }
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        mapView.onStop();
+        if (mapView != null) {
+            mapView.onStop();
+        }
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        mapView.onPause();
+        if (mapView != null) {
+            mapView.onPause();
+        }
     }
 
     @Override
     public void onLowMemory() {
         super.onLowMemory();
-        mapView.onLowMemory();
+        if (mapView != null) {
+            mapView.onLowMemory();
+        }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        mapView.onDestroy();
+        startup.cancel();
+        if (markerController != null) {
+            markerController.release();
+        }
+        if (navigationWarmup != null) {
+            navigationWarmup.release();
+        }
+        if (mapView != null) {
+            mapView.onDestroy();
+        }
     }
 
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        mapView.onSaveInstanceState(outState);
+        if (mapView != null) {
+            mapView.onSaveInstanceState(outState);
+        }
     }
 }
\ No newline at end of file
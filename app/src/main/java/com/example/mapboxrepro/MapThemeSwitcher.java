@@ -0,0 +1,244 @@
+package com.example.mapboxrepro;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.StyleRes;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.mapbox.mapboxsdk.maps.Style;
+import com.mapbox.mapboxsdk.style.expressions.Expression;
+import com.mapbox.mapboxsdk.style.layers.Layer;
+import com.mapbox.mapboxsdk.style.layers.PropertyValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Switches a running navigation map between its day and night look without reloading anything:
+ * the layers already on the map get the other style's paint properties, and NavigationView's panels
+ * get the other theme's colors. The route, the navigation session and every tile stay as they are.
+ * <p>
+ * Both styles are converted to ready made property values in the background by {@link #prepare()},
+ * so a switch is only a batch of property updates on the main thread.
+ */
+public class MapThemeSwitcher implements MemoryPressureManager.Trimmable {
+    private static final int[] THEME_COLOR_ATTRIBUTES = {
+            R.attr.navigationViewPrimary,
+            R.attr.navigationViewSecondary,
+            R.attr.navigationViewBannerBackground,
+            R.attr.navigationViewBannerPrimaryText
+    };
+
+    private final Context context;
+    private final NightModeStyles styles;
+    private final Executor networkExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean preparing;
+
+    @Nullable
+    private Map<String, PropertyValue<?>[]> dayPaints;
+    @Nullable
+    private Map<String, PropertyValue<?>[]> nightPaints;
+
+    /**
+     * @param networkExecutor where the styles are loaded, which may mean downloading them
+     */
+    public MapThemeSwitcher(@NonNull Context context, @NonNull NightModeStyles styles,
+                            @NonNull Executor networkExecutor) {
+        this.context = context;
+        this.styles = styles;
+        this.networkExecutor = networkExecutor;
+    }
+
+    /**
+     * Loads and converts both styles in the background, unless that is done or already under way.
+     * Call on the main thread.
+     */
+    public void prepare() {
+        if (isPrepared() || preparing) {
+            return;
+        }
+        preparing = true;
+        networkExecutor.execute(() -> {
+            StylePaints day = styles.load(false);
+            StylePaints night = styles.load(true);
+            Map<String, PropertyValue<?>[]> convertedDay = day != null && night != null ? convert(day) : null;
+            Map<String, PropertyValue<?>[]> convertedNight = day != null && night != null ? convert(night) : null;
+            mainHandler.post(() -> {
+                preparing = false;
+                if (convertedDay != null) {
+                    dayPaints = convertedDay;
+                    nightPaints = convertedNight;
+                }
+            });
+        });
+    }
+
+    /**
+     * Drops the converted styles once the app is in the background; {@link #prepare} loads them
+     * again, from the disk cache.
+     */
+    @Override
+    public void trimMemory(@NonNull MemoryPressureManager.Tier tier) {
+        if (tier != MemoryPressureManager.Tier.LIGHT) {
+            dayPaints = null;
+            nightPaints = null;
+        }
+    }
+
+    /**
+     * @return whether {@link #applyToMap} can switch the map yet
+     */
+    public boolean isPrepared() {
+        return dayPaints != null && nightPaints != null;
+    }
+
+    /**
+     * Sets the paint properties of the day or night style on the layers of the given style, leaving
+     * layers the target style doesn't have alone, like the route line.
+     */
+    public void applyToMap(@NonNull Style style, boolean nightMode) {
+        Map<String, PropertyValue<?>[]> paints = nightMode ? nightPaints : dayPaints;
+        if (paints == null) {
+            return;
+        }
+        for (Map.Entry<String, PropertyValue<?>[]> entry : paints.entrySet()) {
+            Layer layer = style.getLayer(entry.getKey());
+            if (layer != null) {
+                layer.setProperties(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Recolors NavigationView's bottom sheet and instruction banner. NavigationView only reads its
+     * theme when it's inflated, so this goes through the views: plain color backgrounds and text.
+     */
+    public void applyToViews(@Nullable View bottomSheet, @Nullable View instructionView,
+                             @NonNull ThemeColors colors) {
+        if (bottomSheet != null) {
+            recolor(bottomSheet, colors.primary, colors.secondary);
+        }
+        if (instructionView != null) {
+            recolor(instructionView, colors.bannerBackground, colors.bannerText);
+        }
+    }
+
+    @NonNull
+    public ThemeColors colorsOf(@StyleRes int theme) {
+        TypedArray attributes = context.obtainStyledAttributes(theme, THEME_COLOR_ATTRIBUTES);
+        try {
+            return new ThemeColors(attributes.getColor(0, 0), attributes.getColor(1, 0),
+                    attributes.getColor(2, 0), attributes.getColor(3, 0));
+        } finally {
+            attributes.recycle();
+        }
+    }
+
+    /**
+     * @return the map style URL a navigation theme sets, if any
+     */
+    @Nullable
+    static String styleUrlOf(@NonNull Context context, @StyleRes int theme) {
+        TypedArray attributes = context.obtainStyledAttributes(theme, new int[]{R.attr.navigationViewMapStyle});
+        try {
+            return attributes.getString(0);
+        } finally {
+            attributes.recycle();
+        }
+    }
+
+    private static void recolor(View view, int background, int text) {
+        Drawable drawable = view.getBackground();
+        if (drawable instanceof ColorDrawable) {
+            view.setBackgroundColor(background);
+        }
+        if (view instanceof TextView) {
+            ((TextView) view).setTextColor(text);
+        } else if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                recolor(group.getChildAt(i), background, text);
+            }
+        }
+    }
+
+    private static Map<String, PropertyValue<?>[]> convert(StylePaints paints) {
+        Map<String, PropertyValue<?>[]> converted = new HashMap<>();
+        for (String layerId : paints.layerIds()) {
+            List<PropertyValue<?>> values = new ArrayList<>();
+            for (Map.Entry<String, JsonElement> property : paints.paintOf(layerId).entrySet()) {
+                Object value = convert(property.getValue());
+                if (value != null) {
+                    values.add(new PropertyValue<>(property.getKey(), value));
+                }
+            }
+            if (!values.isEmpty()) {
+                converted.put(layerId, values.toArray(new PropertyValue<?>[0]));
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * @return the value as the map SDK takes it, or null for legacy function objects, which have no
+     * equivalent a layer can be given after the style is loaded
+     */
+    @Nullable
+    private static Object convert(JsonElement value) {
+        if (value instanceof JsonArray) {
+            return Expression.Converter.convert((JsonArray) value);
+        }
+        if (value instanceof JsonPrimitive) {
+            JsonPrimitive primitive = (JsonPrimitive) value;
+            if (primitive.isBoolean()) {
+                return primitive.getAsBoolean();
+            }
+            if (primitive.isNumber()) {
+                return primitive.getAsFloat();
+            }
+            return primitive.getAsString();
+        }
+        return null;
+    }
+
+    /**
+     * The colors of a navigation theme that {@link #applyToViews} uses.
+     */
+    public static final class ThemeColors {
+        final int primary;
+        final int secondary;
+        final int bannerBackground;
+        final int bannerText;
+
+        ThemeColors(int primary, int secondary, int bannerBackground, int bannerText) {
+            this.primary = primary;
+            this.secondary = secondary;
+            this.bannerBackground = bannerBackground;
+            this.bannerText = bannerText;
+        }
+
+        public int getBannerBackground() {
+            return bannerBackground;
+        }
+
+        public int getBannerText() {
+            return bannerText;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.mapboxrepro;
+
+import android.graphics.Color;
+import android.view.Choreographer;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import com.mapbox.mapboxsdk.maps.Style;
+import com.mapbox.mapboxsdk.style.expressions.Expression;
+import com.mapbox.mapboxsdk.style.layers.CircleLayer;
+import com.mapbox.mapboxsdk.style.layers.Property;
+import com.mapbox.mapboxsdk.style.layers.PropertyFactory;
+import com.mapbox.mapboxsdk.style.layers.SymbolLayer;
+import com.mapbox.mapboxsdk.style.sources.GeoJsonOptions;
+import com.mapbox.mapboxsdk.style.sources.GeoJsonSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Shows any number of markers, e.g. the stops of a job, through one clustered GeoJSON source and a
+ * data-driven symbol layer that picks each marker's image from its {@value MarkerSet#ICON_PROPERTY}
+ * property. Below zoom {@value #CLUSTER_MAX_ZOOM} markers close to each other are drawn as a circle
+ * with their count.
+ * <p>
+ * Changes can come from any thread. They are diffed against what the source shows on a background
+ * thread, where the new GeoJSON is put together too; changes that leave everything as it was stop
+ * there. The main thread only hands the finished GeoJSON to the source, at most once per frame.
+ * <p>
+ * This version of the map SDK can't update some of a GeoJSON source's features, only replace all of
+ * them, so a diff saves the serializing of unchanged markers and any update that changes nothing,
+ * not the source's own work of indexing the collection. What handing it over costs the main thread
+ * is recorded in {@code markers.apply}, the background work in {@code markers.build}.
+ */
+class MarkerLayerController implements Choreographer.FrameCallback {
+    static final int CLUSTER_MAX_ZOOM = 12;
+    private static final int CLUSTER_RADIUS = 50;
+    private static final String POINT_COUNT = "point_count";
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final CoalescingDispatcher<String> dispatcher = new CoalescingDispatcher<>();
+    private final Choreographer choreographer;
+    private final MarkerSet markers = new MarkerSet();
+    private final GeoJsonSource source;
+    private final Metrics metrics;
+    private final AtomicLong count;
+    private final LongAdder added;
+    private final LongAdder removed;
+    private final LongAdder changed;
+    private final LongAdder unchanged;
+
+    /**
+     * Adds the source and its layers to the style. The images the markers use have to be added to the
+     * style separately.
+     */
+    @MainThread
+    MarkerLayerController(@NonNull Style style, @NonNull String sourceId, @NonNull String layerId,
+                          @NonNull Metrics metrics) {
+        choreographer = Choreographer.getInstance();
+        this.metrics = metrics;
+        count = metrics.gauge("markers.count");
+        added = metrics.counter("markers.added");
+        removed = metrics.counter("markers.removed");
+        changed = metrics.counter("markers.changed");
+        unchanged = metrics.counter("markers.unchanged_updates");
+
+        source = new GeoJsonSource(sourceId, new GeoJsonOptions()
+                .withCluster(true)
+                .withClusterMaxZoom(CLUSTER_MAX_ZOOM)
+                .withClusterRadius(CLUSTER_RADIUS));
+        style.addSource(source);
+        style.addLayer(new SymbolLayer(layerId, sourceId)
+                .withFilter(Expression.not(Expression.has(POINT_COUNT)))
+                .withProperties(
+                        PropertyFactory.iconImage(Expression.get(MarkerSet.ICON_PROPERTY)),
+                        PropertyFactory.iconAllowOverlap(true),
+                        PropertyFactory.iconIgnorePlacement(true),
+                        PropertyFactory.textColor(Color.WHITE),
+                        PropertyFactory.textAnchor(Property.TEXT_ANCHOR_CENTER),
+                        PropertyFactory.textFont(new String[]{"Open Sans Bold"})
+                ));
+        style.addLayer(new CircleLayer(layerId + "_clusters", sourceId)
+                .withFilter(Expression.has(POINT_COUNT))
+                .withProperties(
+                        PropertyFactory.circleColor(Color.parseColor("#3bb2d0")),
+                        PropertyFactory.circleRadius(Expression.step(Expression.get(POINT_COUNT),
+                                Expression.literal(14),
+                                Expression.stop(10, 18),
+                                Expression.stop(100, 24))),
+                        PropertyFactory.circleStrokeColor(Color.WHITE),
+                        PropertyFactory.circleStrokeWidth(2f)
+                ));
+        style.addLayer(new SymbolLayer(layerId + "_cluster_counts", sourceId)
+                .withFilter(Expression.has(POINT_COUNT))
+                .withProperties(
+                        PropertyFactory.textField(Expression.get("point_count_abbreviated")),
+                        PropertyFactory.textSize(12f),
+                        PropertyFactory.textColor(Color.WHITE),
+                        PropertyFactory.textFont(new String[]{"Open Sans Bold"}),
+                        PropertyFactory.textAllowOverlap(true),
+                        PropertyFactory.textIgnorePlacement(true)
+                ));
+        dispatcher.addListener(this::apply, 0);
+    }
+
+    /**
+     * Makes {@code next} the markers on the map.
+     */
+    void setMarkers(@NonNull List<MarkerSet.Marker> next) {
+        List<MarkerSet.Marker> copy = new ArrayList<>(next);
+        submit(() -> {
+            MarkerSet.Diff diff = markers.replaceAll(copy);
+            added.add(diff.added);
+            removed.add(diff.removed);
+            changed.add(diff.changed);
+            return !diff.isEmpty();
+        });
+    }
+
+    /**
+     * Adds a marker, or moves or restyles the one with its id.
+     */
+    void putMarker(@NonNull MarkerSet.Marker marker) {
+        submit(() -> {
+            boolean known = markers.contains(marker.id);
+            if (!markers.put(marker)) {
+                return false;
+            }
+            (known ? changed : added).increment();
+            return true;
+        });
+    }
+
+    void removeMarker(@NonNull String id) {
+        submit(() -> {
+            boolean found = markers.remove(id);
+            if (found) {
+                removed.increment();
+            }
+            return found;
+        });
+    }
+
+    /**
+     * @param change runs on the worker, returning whether the markers are any different now
+     */
+    private void submit(BooleanSupplier change) {
+        if (worker.isShutdown()) {
+            return;
+        }
+        worker.execute(() -> {
+            long startNanos = System.nanoTime();
+            if (!change.getAsBoolean()) {
+                unchanged.increment();
+                return;
+            }
+            String json = markers.toJson();
+            count.set(markers.size());
+            metrics.recordSince("markers.build", startNanos);
+            if (dispatcher.submit(json)) {
+                choreographer.postFrameCallback(this);
+            }
+        });
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!worker.isShutdown()) {
+            dispatcher.dispatch(frameTimeNanos);
+        }
+    }
+
+    private void apply(String json) {
+        long startNanos = System.nanoTime();
+        source.setGeoJson(json);
+        metrics.recordSince("markers.apply", startNanos);
+    }
+
+    /**
+     * Stops updating the source, which stays on the map with the markers it has.
+     */
+    @MainThread
+    void release() {
+        worker.shutdownNow();
+        choreographer.removeFrameCallback(this);
+    }
+}
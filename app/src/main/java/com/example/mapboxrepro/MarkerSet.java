@@ -0,0 +1,177 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.JsonObject;
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.Point;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The markers a GeoJSON source shows, keyed by id. Every marker's GeoJSON is written once, when it
+ * is added or changes, and kept; the source's whole feature collection is then put together from
+ * those pieces. An update that only moves a few of thousands of markers costs a few serializations
+ * and a string copy instead of serializing them all again, and one that changes nothing is noticed
+ * before anything is built.
+ * <p>
+ * Not thread-safe, the owner keeps it on one thread.
+ */
+class MarkerSet {
+    static final String ICON_PROPERTY = "icon";
+
+    static final class Marker {
+        final String id;
+        final Point point;
+        final String icon;
+
+        /**
+         * @param icon the style image to show the marker with
+         */
+        Marker(@NonNull String id, @NonNull Point point, @NonNull String icon) {
+            this.id = id;
+            this.point = point;
+            this.icon = icon;
+        }
+
+        boolean looksLike(@NonNull Marker other) {
+            return point.longitude() == other.point.longitude() && point.latitude() == other.point.latitude()
+                    && icon.equals(other.icon);
+        }
+
+        @NonNull
+        String toJson() {
+            JsonObject properties = new JsonObject();
+            properties.addProperty(ICON_PROPERTY, icon);
+            return Feature.fromGeometry(point, properties, id).toJson();
+        }
+    }
+
+    static final class Diff {
+        final int added;
+        final int removed;
+        final int changed;
+
+        Diff(int added, int removed, int changed) {
+            this.added = added;
+            this.removed = removed;
+            this.changed = changed;
+        }
+
+        boolean isEmpty() {
+            return added == 0 && removed == 0 && changed == 0;
+        }
+    }
+
+    private static final class Entry {
+        final Marker marker;
+        final String json;
+
+        Entry(Marker marker) {
+            this.marker = marker;
+            this.json = marker.toJson();
+        }
+    }
+
+    private static final String PREFIX = "{\"type\":\"FeatureCollection\",\"features\":[";
+    private static final String SUFFIX = "]}";
+
+    private Map<String, Entry> entries = new LinkedHashMap<>();
+    // Length of all features' GeoJSON, to size the collection's buffer in one go
+    private long jsonLength;
+
+    /**
+     * Makes {@code markers} the whole set. Markers whose id was there before keep their GeoJSON
+     * unless they changed. Of several markers with the same id only the first counts.
+     */
+    @NonNull
+    Diff replaceAll(@NonNull Collection<Marker> markers) {
+        Map<String, Entry> next = new LinkedHashMap<>(Math.max(16, markers.size() * 4 / 3 + 1));
+        int added = 0;
+        int changed = 0;
+        int kept = 0;
+        for (Marker marker : markers) {
+            if (next.containsKey(marker.id)) {
+                continue;
+            }
+            Entry previous = entries.get(marker.id);
+            Entry entry;
+            if (previous == null) {
+                entry = new Entry(marker);
+                added++;
+            } else if (!previous.marker.looksLike(marker)) {
+                entry = new Entry(marker);
+                changed++;
+            } else {
+                entry = previous;
+            }
+            if (previous != null) {
+                kept++;
+            }
+            next.put(marker.id, entry);
+        }
+        int removed = entries.size() - kept;
+        entries = next;
+        jsonLength = 0;
+        for (Entry entry : next.values()) {
+            jsonLength += entry.json.length();
+        }
+        return new Diff(added, removed, changed);
+    }
+
+    /**
+     * Adds the marker, or changes the one with its id.
+     *
+     * @return whether that changed anything
+     */
+    boolean put(@NonNull Marker marker) {
+        Entry previous = entries.get(marker.id);
+        if (previous != null && previous.marker.looksLike(marker)) {
+            return false;
+        }
+        Entry entry = new Entry(marker);
+        entries.put(marker.id, entry);
+        jsonLength += entry.json.length() - (previous != null ? previous.json.length() : 0);
+        return true;
+    }
+
+    /**
+     * @return whether there was a marker with that id
+     */
+    boolean remove(@NonNull String id) {
+        Entry previous = entries.remove(id);
+        if (previous == null) {
+            return false;
+        }
+        jsonLength -= previous.json.length();
+        return true;
+    }
+
+    boolean contains(@NonNull String id) {
+        return entries.containsKey(id);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the markers as a GeoJSON feature collection
+     */
+    @NonNull
+    String toJson() {
+        StringBuilder json = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8,
+                PREFIX.length() + jsonLength + entries.size() + SUFFIX.length()));
+        json.append(PREFIX);
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            json.append(iterator.next().json);
+            if (iterator.hasNext()) {
+                json.append(',');
+            }
+        }
+        return json.append(SUFFIX).toString();
+    }
+}
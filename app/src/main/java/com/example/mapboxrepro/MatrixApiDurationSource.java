@@ -0,0 +1,183 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.DirectionsCriteria;
+import com.mapbox.api.matrix.v1.MapboxMatrix;
+import com.mapbox.api.matrix.v1.models.MatrixResponse;
+import com.mapbox.geojson.Point;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * {@link DurationMatrixSource} backed by the Matrix API. A request takes at most
+ * {@value #MAX_COORDINATES} coordinates, so larger matrices are put together from blocks of
+ * {@value #SOURCES_PER_REQUEST} sources by {@value #DESTINATIONS_PER_REQUEST} destinations, at most
+ * {@code maxConcurrentRequests} of them in flight at a time. That's around n^2 / 156 requests for n
+ * points, which the API's rate limit makes slow beyond a hundred or so stops.
+ * <p>
+ * Like {@link StopOrderOptimizer}, which it feeds, it has no callers in the app itself.
+ */
+public class MatrixApiDurationSource implements DurationMatrixSource {
+    static final int MAX_COORDINATES = 25;
+    static final int SOURCES_PER_REQUEST = 12;
+    static final int DESTINATIONS_PER_REQUEST = MAX_COORDINATES - SOURCES_PER_REQUEST;
+
+    private final String accessToken;
+    private final int maxConcurrentRequests;
+
+    public MatrixApiDurationSource(@NonNull String accessToken, int maxConcurrentRequests) {
+        this.accessToken = accessToken;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    @Override
+    public void fetchDurations(@NonNull List<Point> points, @NonNull DurationMatrixSource.Callback callback) {
+        new Fetch(points, blocksOf(points.size()), callback).start();
+    }
+
+    /**
+     * @return the requests that together cover the matrix between {@code pointCount} points, one
+     * for the whole of it if the points fit into a single request
+     */
+    @NonNull
+    static List<Block> blocksOf(int pointCount) {
+        List<Block> blocks = new ArrayList<>();
+        if (pointCount <= MAX_COORDINATES) {
+            blocks.add(new Block(0, pointCount, 0, pointCount));
+            return blocks;
+        }
+        for (int source = 0; source < pointCount; source += SOURCES_PER_REQUEST) {
+            for (int destination = 0; destination < pointCount; destination += DESTINATIONS_PER_REQUEST) {
+                blocks.add(new Block(source, Math.min(SOURCES_PER_REQUEST, pointCount - source),
+                        destination, Math.min(DESTINATIONS_PER_REQUEST, pointCount - destination)));
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Copies the durations of one block's response into its place in the whole matrix, with routes
+     * the API couldn't find as infinitely long.
+     */
+    static void merge(@NonNull double[][] seconds, @NonNull Block block, @NonNull List<Double[]> durations) {
+        for (int i = 0; i < block.sourceCount; i++) {
+            Double[] row = durations.get(i);
+            for (int j = 0; j < block.destinationCount && j < row.length; j++) {
+                seconds[block.firstSource + i][block.firstDestination + j] =
+                        row[j] == null ? Double.POSITIVE_INFINITY : row[j];
+            }
+        }
+    }
+
+    static final class Block {
+        final int firstSource;
+        final int sourceCount;
+        final int firstDestination;
+        final int destinationCount;
+
+        Block(int firstSource, int sourceCount, int firstDestination, int destinationCount) {
+            this.firstSource = firstSource;
+            this.sourceCount = sourceCount;
+            this.firstDestination = firstDestination;
+            this.destinationCount = destinationCount;
+        }
+    }
+
+    /**
+     * The requests for one matrix, which is answered once every block is in or fails with the first
+     * block that failed.
+     */
+    private final class Fetch {
+        private final List<Point> points;
+        private final List<Block> queued;
+        private final DurationMatrixSource.Callback callback;
+        private final double[][] seconds;
+        private int pending;
+        private boolean failed;
+
+        Fetch(List<Point> points, List<Block> blocks, DurationMatrixSource.Callback callback) {
+            this.points = points;
+            this.queued = new ArrayList<>(blocks);
+            this.callback = callback;
+            this.seconds = new double[points.size()][points.size()];
+            this.pending = blocks.size();
+        }
+
+        void start() {
+            for (int i = 0; i < maxConcurrentRequests; i++) {
+                fetchNext();
+            }
+        }
+
+        private void fetchNext() {
+            Block block;
+            synchronized (this) {
+                if (failed || queued.isEmpty()) {
+                    return;
+                }
+                block = queued.remove(queued.size() - 1);
+            }
+            MapboxMatrix.Builder builder = MapboxMatrix.builder()
+                    .accessToken(accessToken)
+                    .profile(DirectionsCriteria.PROFILE_DRIVING);
+            boolean whole = block.sourceCount == points.size() && block.destinationCount == points.size();
+            if (whole) {
+                builder.coordinates(points);
+            } else {
+                List<Point> coordinates = new ArrayList<>(block.sourceCount + block.destinationCount);
+                Integer[] sources = new Integer[block.sourceCount];
+                Integer[] destinations = new Integer[block.destinationCount];
+                for (int i = 0; i < block.sourceCount; i++) {
+                    sources[i] = coordinates.size();
+                    coordinates.add(points.get(block.firstSource + i));
+                }
+                for (int i = 0; i < block.destinationCount; i++) {
+                    destinations[i] = coordinates.size();
+                    coordinates.add(points.get(block.firstDestination + i));
+                }
+                builder.coordinates(coordinates).sources(sources).destinations(destinations);
+            }
+            builder.build().enqueueCall(new retrofit2.Callback<MatrixResponse>() {
+                @Override
+                public void onResponse(Call<MatrixResponse> call, Response<MatrixResponse> response) {
+                    MatrixResponse body = response.body();
+                    if (body == null || body.durations() == null || body.durations().size() != block.sourceCount) {
+                        fail(new IOException("No durations in Matrix API response, code " + response.code()));
+                        return;
+                    }
+                    boolean done;
+                    synchronized (Fetch.this) {
+                        merge(seconds, block, body.durations());
+                        done = --pending == 0 && !failed;
+                    }
+                    if (done) {
+                        callback.onDurations(seconds);
+                    } else {
+                        fetchNext();
+                    }
+                }
+
+                @Override
+                public void onFailure(Call<MatrixResponse> call, Throwable throwable) {
+                    fail(throwable);
+                }
+            });
+        }
+
+        private void fail(Throwable throwable) {
+            synchronized (this) {
+                if (failed) {
+                    return;
+                }
+                failed = true;
+            }
+            callback.onFailure(throwable);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Hands the system's memory warnings on to our own caches, which give back more the more pressing
+ * the warning is. Everything given back can be had again: it is fetched, read from disk or computed
+ * again the next time it is needed, or in {@code onResume} for what the screen needs right away.
+ * <p>
+ * The Java heap in use when a trim comes in and once every cache has finished trimming, including
+ * what they handed to their own threads, is added to {@code memory.heap_before_trim_kb} and
+ * {@code memory.heap_after_trim_kb}, the difference to {@code memory.trim_released_kb}, and
+ * {@code memory.trims_measured} counts the trims in those sums; the limit is in
+ * {@code memory.heap_max_kb}. Memory only shows as released once the garbage collector has taken it
+ * back, so the released sum is a lower bound.
+ */
+public class MemoryPressureManager {
+    // The levels of ComponentCallbacks2
+    static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+    static final int TRIM_MEMORY_RUNNING_LOW = 10;
+    static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+    static final int TRIM_MEMORY_UI_HIDDEN = 20;
+    static final int TRIM_MEMORY_BACKGROUND = 40;
+    static final int TRIM_MEMORY_MODERATE = 60;
+    static final int TRIM_MEMORY_COMPLETE = 80;
+
+    public enum Tier {
+        /**
+         * Memory is getting short or the UI went away: drop what has gone stale anyway.
+         */
+        LIGHT,
+        /**
+         * Memory is low or the app is in the background: drop whatever can be fetched or read again,
+         * including what only the screen needs and alternatives that aren't on it.
+         */
+        MODERATE,
+        /**
+         * The app is about to be killed: keep only what the session in progress can't do without.
+         */
+        CRITICAL
+    }
+
+    public interface Trimmable {
+        /**
+         * Called on the main thread.
+         */
+        void trimMemory(@NonNull Tier tier);
+
+        /**
+         * Runs the task once what the last {@link #trimMemory} started has finished, on whatever
+         * thread finishes it.
+         */
+        default void afterTrim(@NonNull Runnable task) {
+            task.run();
+        }
+    }
+
+    private final List<Trimmable> trimmables = new CopyOnWriteArrayList<>();
+    private final Metrics metrics;
+    private final LongSupplier heapUsedBytes;
+
+    public MemoryPressureManager(@NonNull Metrics metrics) {
+        this(metrics, () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+        metrics.gauge("memory.heap_max_kb").set(Runtime.getRuntime().maxMemory() / 1024);
+    }
+
+    MemoryPressureManager(@NonNull Metrics metrics, @NonNull LongSupplier heapUsedBytes) {
+        this.metrics = metrics;
+        this.heapUsedBytes = heapUsedBytes;
+    }
+
+    public void register(@NonNull Trimmable trimmable) {
+        trimmables.add(trimmable);
+    }
+
+    public void unregister(@NonNull Trimmable trimmable) {
+        trimmables.remove(trimmable);
+    }
+
+    /**
+     * @param level one of the {@code TRIM_MEMORY_} levels of {@code ComponentCallbacks2}
+     */
+    public void onTrimMemory(int level) {
+        trim(tierOf(level));
+    }
+
+    public void onLowMemory() {
+        trim(Tier.CRITICAL);
+    }
+
+    @NonNull
+    static Tier tierOf(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            return Tier.CRITICAL;
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+            return Tier.MODERATE;
+        }
+        return Tier.LIGHT;
+    }
+
+    void trim(@NonNull Tier tier) {
+        long startNanos = System.nanoTime();
+        long beforeBytes = heapUsedBytes.getAsLong();
+        List<Trimmable> trimmed = new ArrayList<>(trimmables);
+        for (Trimmable trimmable : trimmed) {
+            trimmable.trimMemory(tier);
+        }
+        metrics.counter("memory.trims." + tier.name().toLowerCase(Locale.US)).increment();
+        metrics.recordSince("memory.trim", startNanos);
+
+        // Sampled by whoever finishes last, one count each plus one for this thread
+        AtomicInteger pending = new AtomicInteger(trimmed.size() + 1);
+        Runnable sampleAfter = () -> {
+            if (pending.decrementAndGet() == 0) {
+                recordHeap(beforeBytes, heapUsedBytes.getAsLong());
+            }
+        };
+        for (Trimmable trimmable : trimmed) {
+            trimmable.afterTrim(sampleAfter);
+        }
+        sampleAfter.run();
+    }
+
+    private void recordHeap(long beforeBytes, long afterBytes) {
+        metrics.counter("memory.heap_before_trim_kb").add(beforeBytes / 1024);
+        metrics.counter("memory.heap_after_trim_kb").add(afterBytes / 1024);
+        metrics.counter("memory.trim_released_kb").add(Math.max(0, beforeBytes - afterBytes) / 1024);
+        metrics.counter("memory.trims_measured").increment();
+    }
+}
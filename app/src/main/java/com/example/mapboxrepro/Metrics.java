@@ -0,0 +1,81 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of named counters, gauges and latency histograms. Looking a metric up goes through a
+ * concurrent map, so hot paths should look theirs up once and keep the reference; updating one is
+ * lock-free and allocation-free, cheap enough to leave on in release builds.
+ */
+public class Metrics {
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    @NonNull
+    public LongAdder counter(@NonNull String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    @NonNull
+    public AtomicLong gauge(@NonNull String name) {
+        AtomicLong gauge = gauges.get(name);
+        return gauge != null ? gauge : gauges.computeIfAbsent(name, key -> new AtomicLong());
+    }
+
+    /**
+     * @return a histogram of nanosecond latencies
+     */
+    @NonNull
+    public LatencyHistogram histogram(@NonNull String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Records the time since {@code startNanos}, as returned by {@link System#nanoTime()}.
+     */
+    public void recordSince(@NonNull String histogramName, long startNanos) {
+        histogram(histogramName).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Writes every metric on its own line, sorted by name, with latencies in milliseconds.
+     */
+    public void dump(@NonNull Appendable out) throws IOException {
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            out.append("counter ").append(entry.getKey()).append(' ')
+                    .append(Long.toString(entry.getValue().sum())).append('\n');
+        }
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(gauges).entrySet()) {
+            out.append("gauge ").append(entry.getKey()).append(' ')
+                    .append(Long.toString(entry.getValue().get())).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            out.append("histogram ").append(entry.getKey()).append(String.format(Locale.US,
+                    " count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms\n",
+                    histogram.getCount(),
+                    histogram.getMean() / TimeUnit.MILLISECONDS.toNanos(1),
+                    millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getMax())));
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
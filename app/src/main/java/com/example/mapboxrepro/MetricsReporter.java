@@ -0,0 +1,47 @@
+package com.example.mapboxrepro;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.Executor;
+
+/**
+ * Dumps {@link Metrics} to logcat and to a file, off the calling thread.
+ */
+public class MetricsReporter {
+    private static final String TAG = "Metrics";
+
+    private final Metrics metrics;
+    private final File file;
+    private final Executor ioExecutor;
+
+    MetricsReporter(@NonNull Metrics metrics, @NonNull File file, @NonNull Executor ioExecutor) {
+        this.metrics = metrics;
+        this.file = file;
+        this.ioExecutor = ioExecutor;
+    }
+
+    public void report() {
+        ioExecutor.execute(() -> {
+            StringBuilder dump = new StringBuilder();
+            try {
+                metrics.dump(dump);
+            } catch (IOException exception) {
+                // StringBuilder doesn't throw
+            }
+            for (String line : dump.toString().split("\n")) {
+                Log.i(TAG, line);
+            }
+            try (Writer writer = new FileWriter(file)) {
+                writer.write(dump.toString());
+            } catch (IOException exception) {
+                Log.w(TAG, "Could not write " + file, exception);
+            }
+        });
+    }
+}
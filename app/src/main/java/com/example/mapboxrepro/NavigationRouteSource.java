@@ -0,0 +1,63 @@
+package com.example.mapboxrepro;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.DirectionsCriteria;
+import com.mapbox.api.directions.v5.models.DirectionsResponse;
+import com.mapbox.geojson.Point;
+import com.mapbox.services.android.navigation.v5.navigation.NavigationRoute;
+
+import java.util.List;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * {@link RouteSource} backed by the Directions API through {@link NavigationRoute}. A request can
+ * have at most {@link BatchRoutePlanner#MAX_WAYPOINTS_PER_REQUEST} waypoints; put a
+ * {@link BatchRoutePlanner} in front for longer ones.
+ */
+public class NavigationRouteSource implements RouteSource {
+    private final Context context;
+    private final String accessToken;
+
+    NavigationRouteSource(@NonNull Context context, @NonNull String accessToken) {
+        this.context = context.getApplicationContext();
+        this.accessToken = accessToken;
+    }
+
+    @Override
+    public void fetchRoute(@NonNull RouteRequest request, @NonNull RouteSource.Callback callback) {
+        NavigationRoute.Builder builder = NavigationRoute.builder(context)
+                .accessToken(accessToken)
+                .origin(request.getOrigin())
+                .destination(request.getDestination())
+                .profile(DirectionsCriteria.PROFILE_DRIVING);
+        List<Point> waypoints = request.getWaypoints();
+        for (Point stop : waypoints.subList(1, waypoints.size() - 1)) {
+            builder.addWaypoint(stop);
+        }
+        builder.build()
+                .getRoute(new retrofit2.Callback<DirectionsResponse>() {
+                    @Override
+                    public void onResponse(Call<DirectionsResponse> call, Response<DirectionsResponse> response) {
+                        if (response.body() == null) {
+                            callback.onFailure(new IllegalStateException(
+                                    "No routes found, make sure you set the right user and access token."));
+                            return;
+                        } else if (response.body().routes().size() < 1) {
+                            callback.onFailure(new IllegalStateException("No routes found"));
+                            return;
+                        }
+                        callback.onRoute(response.body().routes().get(0));
+                    }
+
+                    @Override
+                    public void onFailure(Call<DirectionsResponse> call, Throwable throwable) {
+                        callback.onFailure(throwable);
+                    }
+                });
+    }
+}
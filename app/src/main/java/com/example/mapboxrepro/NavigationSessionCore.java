@@ -0,0 +1,176 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.api.directions.v5.models.BannerInstructions;
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.api.directions.v5.models.VoiceInstructions;
+import com.mapbox.geojson.Point;
+
+/**
+ * What a navigation session does with the SDK's callbacks, without the UI: progress goes to the
+ * update rate, the off-route check, the trip recording and the session journal; instructions go
+ * through the {@link InstructionPipeline}; reroutes swap the route everywhere. The navigation screen
+ * feeds it from the SDK, the fleet simulator in the benchmark module from synthetic drives.
+ * <p>
+ * Called from one thread at a time. The {@link RerouteEngine}'s listener is whoever owns the session,
+ * which passes reroutes on to {@link #onReroute} after swapping the route in whatever it navigates.
+ */
+public class NavigationSessionCore implements MemoryPressureManager.Trimmable {
+    private final RerouteEngine rerouteEngine;
+    private final InstructionPipeline instructionPipeline;
+    private final AdaptiveUpdateScheduler updateScheduler;
+    @Nullable
+    private final TripRecorder tripRecorder;
+    @Nullable
+    private final SessionJournal sessionJournal;
+    private final Metrics metrics;
+
+    @Nullable
+    private DirectionsRoute route;
+
+    NavigationSessionCore(@NonNull RerouteEngine rerouteEngine, @NonNull InstructionPipeline instructionPipeline,
+                          @NonNull AdaptiveUpdateScheduler updateScheduler, @Nullable TripRecorder tripRecorder,
+                          @Nullable SessionJournal sessionJournal, @NonNull Metrics metrics) {
+        this.rerouteEngine = rerouteEngine;
+        this.instructionPipeline = instructionPipeline;
+        this.updateScheduler = updateScheduler;
+        this.tripRecorder = tripRecorder;
+        this.sessionJournal = sessionJournal;
+        this.metrics = metrics;
+    }
+
+    public void start(@NonNull DirectionsRoute route) {
+        this.route = route;
+        instructionPipeline.prepare(route);
+        rerouteEngine.setRoute(route);
+    }
+
+    @Nullable
+    public DirectionsRoute getRoute() {
+        return route;
+    }
+
+    /**
+     * @param speed                 meters per second, NaN if unknown
+     * @param bearing               degrees, NaN if unknown
+     * @param accuracy              meters, NaN if unknown
+     * @param stepDistanceRemaining meters to the next maneuver
+     * @param distanceRemaining     meters to the end of the route
+     */
+    public void onProgress(long timeMillis, double longitude, double latitude, double speed, double bearing,
+                           double accuracy, int legIndex, int stepIndex, double stepDistanceRemaining,
+                           double distanceRemaining) {
+        updateScheduler.onProgress(stepDistanceRemaining, Double.isNaN(speed) ? 0 : speed);
+        rerouteEngine.onLocation(longitude, latitude, timeMillis);
+        if (tripRecorder != null) {
+            tripRecorder.recordLocation(timeMillis, longitude, latitude, speed, bearing, accuracy, distanceRemaining);
+        }
+        if (sessionJournal != null) {
+            sessionJournal.updateProgress(legIndex, stepIndex, longitude, latitude);
+        }
+    }
+
+    /**
+     * The SDK's own detector says the driver left the route.
+     */
+    public void onOffRoute(long timeMillis, @NonNull Point location) {
+        metrics.counter("navigation.off_route").increment();
+        if (tripRecorder != null) {
+            tripRecorder.recordOffRoute(timeMillis, location.longitude(), location.latitude());
+        }
+        rerouteEngine.onOffRoute(location);
+    }
+
+    @NonNull
+    public BannerInstructions banner(@NonNull BannerInstructions instructions) {
+        return instructionPipeline.banner(instructions);
+    }
+
+    @Nullable
+    public VoiceInstructions voice(@NonNull String announcement) {
+        return instructionPipeline.voice(announcement);
+    }
+
+    /**
+     * The {@link RerouteEngine} found a new route, and the session is on it now.
+     */
+    public void onReroute(long timeMillis, @NonNull DirectionsRoute newRoute, boolean prefetched) {
+        metrics.counter("navigation.reroutes").increment();
+        if (tripRecorder != null) {
+            tripRecorder.recordReroute(timeMillis, newRoute.distance(), prefetched ? TripRecorder.FLAG_PREFETCHED : 0);
+        }
+        start(newRoute);
+    }
+
+    /**
+     * The {@link RerouteEngine} found a new route but the session couldn't switch to it, so it stays
+     * on the old one and can reroute from there again.
+     */
+    public void onRerouteDropped() {
+        rerouteEngine.abandonReroute();
+    }
+
+    public void onRerouteFailed(long timeMillis) {
+        metrics.counter("navigation.failed_reroutes").increment();
+        if (tripRecorder != null) {
+            tripRecorder.recordFailedReroute(timeMillis, 0);
+        }
+    }
+
+    /**
+     * The SDK rerouted by itself, which leaves the instructions prepared for the old route stale.
+     */
+    public void onSdkReroute(long timeMillis, @NonNull DirectionsRoute newRoute) {
+        if (tripRecorder != null) {
+            tripRecorder.recordReroute(timeMillis, newRoute.distance(), TripRecorder.FLAG_SDK);
+        }
+        instructionPipeline.invalidate();
+    }
+
+    public void onSdkRerouteFailed(long timeMillis) {
+        if (tripRecorder != null) {
+            tripRecorder.recordFailedReroute(timeMillis, TripRecorder.FLAG_SDK);
+        }
+    }
+
+    public void onArrival(long timeMillis) {
+        if (tripRecorder != null) {
+            tripRecorder.recordArrival(timeMillis);
+        }
+    }
+
+    public void setScreenOn(boolean screenOn) {
+        updateScheduler.setScreenOn(screenOn);
+    }
+
+    @Override
+    public void trimMemory(@NonNull MemoryPressureManager.Tier tier) {
+        rerouteEngine.trimMemory(tier);
+        instructionPipeline.trimMemory(tier);
+    }
+
+    @Override
+    public void afterTrim(@NonNull Runnable task) {
+        rerouteEngine.afterTrim(task);
+    }
+
+    /**
+     * Brings back what {@link #trimMemory} dropped.
+     */
+    public void restore() {
+        rerouteEngine.restore();
+        if (route != null) {
+            instructionPipeline.prepareIfTrimmed(route);
+        }
+    }
+
+    public void release() {
+        rerouteEngine.release();
+        updateScheduler.account();
+        if (tripRecorder != null) {
+            tripRecorder.close();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.mapboxrepro;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.utils.PolylineUtils;
+import com.mapbox.mapboxsdk.geometry.LatLngBounds;
+import com.mapbox.mapboxsdk.offline.OfflineManager;
+import com.mapbox.mapboxsdk.offline.OfflineRegion;
+import com.mapbox.mapboxsdk.offline.OfflineRegionError;
+import com.mapbox.mapboxsdk.offline.OfflineRegionStatus;
+import com.mapbox.mapboxsdk.offline.OfflineTilePyramidRegionDefinition;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.mapbox.core.constants.Constants.PRECISION_6;
+
+/**
+ * Does the work that used to wait for a tap on the map, as soon as {@link MainActivity} has a route:
+ * <ul>
+ * <li>the route goes into the {@link RouteStore}, so its disk copy is written before it's needed</li>
+ * <li>the route geometry is decoded off the main thread to find the corridor it covers</li>
+ * <li>the NavigationView map style, sprites, glyphs and overview tiles of the corridor's bounds are
+ * downloaded into the map's offline database, so the style loads locally once navigation starts</li>
+ * <li>the tiles along the route at the zoom levels navigation is followed at are prefetched into the
+ * {@link TileCache} by the {@link CorridorTilePrefetcher}</li>
+ * <li>the day and night styles are loaded for {@link MapThemeSwitcher}, on the network executor</li>
+ * </ul>
+ * Only one route is warmed at a time; warming another replaces the previous download.
+ */
+public class NavigationWarmup {
+    private static final String TAG = "NavigationWarmup";
+    private static final byte[] REGION_METADATA = TAG.getBytes(StandardCharsets.UTF_8);
+    private static final int MIN_ZOOM = 10;
+    private static final int MAX_ZOOM = 13;
+    // Around EmbeddedNavigationActivity's initial zoom of 16, the highest zoom the vector tiles have
+    private static final int CORRIDOR_MIN_ZOOM = 14;
+    private static final int CORRIDOR_MAX_ZOOM = 16;
+    private static final int CORRIDOR_BUFFER_TILES = 1;
+    // Well below the 6000 tile limit the SDK puts on offline downloads without a special plan
+    private static final long MAX_TILES = 1500;
+
+    private final Context context;
+    private final OfflineManager offlineManager;
+    private final RouteStore routeStore;
+    private final Metrics metrics;
+    private final CorridorTilePrefetcher tilePrefetcher;
+    private final NightModeStyles nightModeStyles;
+    private final Executor ioExecutor;
+    private final Executor networkExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    @Nullable
+    private DirectionsRoute warmRoute;
+    @Nullable
+    private String warmRouteHandle;
+    @Nullable
+    private OfflineRegion region;
+    private boolean released;
+
+    public NavigationWarmup(@NonNull Context context, @NonNull RouteStore routeStore, @NonNull Metrics metrics,
+                            @NonNull CorridorTilePrefetcher tilePrefetcher,
+                            @NonNull NightModeStyles nightModeStyles, @NonNull Executor ioExecutor,
+                            @NonNull Executor networkExecutor) {
+        this.context = context.getApplicationContext();
+        this.offlineManager = OfflineManager.getInstance(this.context);
+        this.routeStore = routeStore;
+        this.metrics = metrics;
+        this.tilePrefetcher = tilePrefetcher;
+        this.nightModeStyles = nightModeStyles;
+        this.ioExecutor = ioExecutor;
+        this.networkExecutor = networkExecutor;
+    }
+
+    /**
+     * Starts warming up for the route, unless it's the one already being warmed. Call on the main thread.
+     */
+    public void warm(@NonNull DirectionsRoute route) {
+        if (released || route == warmRoute) {
+            return;
+        }
+        releaseHandle();
+        warmRoute = route;
+        warmRouteHandle = routeStore.put(route);
+        long startNanos = System.nanoTime();
+        boolean nightMode = isNightMode();
+        ioExecutor.execute(() -> {
+            List<Point> line = lineOf(route);
+            if (line == null) {
+                return;
+            }
+            LatLngBounds corridor = boundsOf(line);
+            metrics.recordSince("warmup.route", startNanos);
+            mainHandler.post(() -> {
+                if (!released && route == warmRoute) {
+                    downloadCorridor(route, corridor, startNanos);
+                }
+            });
+            networkExecutor.execute(() -> {
+                // The tiles of whatever sources the style navigation is going to load has; loading it
+                // and the other variant also gets both ready for MapThemeSwitcher
+                List<String> tileUrlTemplates = nightModeStyles.tileUrlTemplates(nightMode);
+                nightModeStyles.load(!nightMode);
+                if (tileUrlTemplates.isEmpty()) {
+                    return;
+                }
+                mainHandler.post(() -> {
+                    if (!released && route == warmRoute) {
+                        tilePrefetcher.prefetch(line, tileUrlTemplates, CORRIDOR_MIN_ZOOM, CORRIDOR_MAX_ZOOM,
+                                CORRIDOR_BUFFER_TILES);
+                    }
+                });
+            });
+        });
+    }
+
+    /**
+     * @return a {@link RouteStore} handle for the route, the warmed up one if it's the same route; the
+     * caller owns the handle from then on
+     */
+    @NonNull
+    public String takeRouteHandle(@NonNull DirectionsRoute route) {
+        if (route == warmRoute && warmRouteHandle != null) {
+            String handle = warmRouteHandle;
+            warmRouteHandle = null;
+            return handle;
+        }
+        return routeStore.put(route);
+    }
+
+    /**
+     * Stops any download in progress. Tiles that were already fetched stay in the map's cache.
+     */
+    public void release() {
+        released = true;
+        releaseHandle();
+        warmRoute = null;
+        tilePrefetcher.cancel();
+        if (region != null) {
+            region.setObserver(null);
+            region.setDownloadState(OfflineRegion.STATE_INACTIVE);
+            region = null;
+        }
+    }
+
+    private void releaseHandle() {
+        if (warmRouteHandle != null) {
+            routeStore.release(warmRouteHandle);
+            warmRouteHandle = null;
+        }
+    }
+
+    @Nullable
+    private static List<Point> lineOf(DirectionsRoute route) {
+        String geometry = route.geometry();
+        if (geometry == null) {
+            return null;
+        }
+        List<Point> points = PolylineUtils.decode(geometry, PRECISION_6);
+        return points.size() < 2 ? null : points;
+    }
+
+    private static LatLngBounds boundsOf(List<Point> points) {
+        double south = 90;
+        double west = 180;
+        double north = -90;
+        double east = -180;
+        for (Point point : points) {
+            south = Math.min(south, point.latitude());
+            north = Math.max(north, point.latitude());
+            west = Math.min(west, point.longitude());
+            east = Math.max(east, point.longitude());
+        }
+        return LatLngBounds.from(north, east, south, west);
+    }
+
+    private void downloadCorridor(DirectionsRoute route, LatLngBounds corridor, long startNanos) {
+        int maxZoom = TileCover.maxZoomWithinBudget(corridor.getLatSouth(), corridor.getLonWest(),
+                corridor.getLatNorth(), corridor.getLonEast(), MIN_ZOOM, MAX_ZOOM, MAX_TILES);
+        if (maxZoom < MIN_ZOOM) {
+            Log.i(TAG, "Route corridor is too large to warm up");
+            return;
+        }
+        OfflineTilePyramidRegionDefinition definition = new OfflineTilePyramidRegionDefinition(
+                navigationStyleUrl(), corridor, MIN_ZOOM, maxZoom,
+                context.getResources().getDisplayMetrics().density);
+        replaceRegion(() -> offlineManager.createOfflineRegion(definition, REGION_METADATA,
+                new OfflineManager.CreateOfflineRegionCallback() {
+                    @Override
+                    public void onCreate(OfflineRegion offlineRegion) {
+                        // Released, or a warm up for a newer route got past listing the regions meanwhile
+                        if (released || route != warmRoute) {
+                            offlineRegion.delete(new LoggingDeleteCallback());
+                            return;
+                        }
+                        region = offlineRegion;
+                        offlineRegion.setObserver(new DownloadObserver(offlineRegion, startNanos));
+                        offlineRegion.setDownloadState(OfflineRegion.STATE_ACTIVE);
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        Log.w(TAG, "Could not create offline region: " + error);
+                    }
+                }));
+    }
+
+    /**
+     * Deletes the regions of earlier warm ups, then runs {@code next}. Deleting a region only drops
+     * its tiles from the offline database; anything still in the ambient cache stays there.
+     */
+    private void replaceRegion(Runnable next) {
+        if (region != null) {
+            region.setObserver(null);
+            region.setDownloadState(OfflineRegion.STATE_INACTIVE);
+            region = null;
+        }
+        offlineManager.listOfflineRegions(new OfflineManager.ListOfflineRegionsCallback() {
+            @Override
+            public void onList(OfflineRegion[] offlineRegions) {
+                for (OfflineRegion offlineRegion : offlineRegions) {
+                    if (Arrays.equals(REGION_METADATA, offlineRegion.getMetadata())) {
+                        offlineRegion.delete(new LoggingDeleteCallback());
+                    }
+                }
+                next.run();
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.w(TAG, "Could not list offline regions: " + error);
+                next.run();
+            }
+        });
+    }
+
+    /**
+     * @return the map style NavigationView will load, from the theme it's going to use
+     */
+    private String navigationStyleUrl() {
+        int theme = isNightMode() ? R.style.NavigationViewDark : R.style.CustomNavigationView;
+        String styleUrl = MapThemeSwitcher.styleUrlOf(context, theme);
+        if (styleUrl != null) {
+            return styleUrl;
+        }
+        return theme == R.style.NavigationViewDark
+                ? NightModeStyles.DEFAULT_NIGHT_STYLE_URL : NightModeStyles.DEFAULT_DAY_STYLE_URL;
+    }
+
+    private boolean isNightMode() {
+        int nightMode = context.getResources().getConfiguration().uiMode & Configuration.UI_MODE_NIGHT_MASK;
+        return nightMode == Configuration.UI_MODE_NIGHT_YES;
+    }
+
+    private class DownloadObserver implements OfflineRegion.OfflineRegionObserver {
+        private final OfflineRegion offlineRegion;
+        private final long startNanos;
+
+        DownloadObserver(OfflineRegion offlineRegion, long startNanos) {
+            this.offlineRegion = offlineRegion;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void onStatusChanged(OfflineRegionStatus status) {
+            if (status.isComplete()) {
+                metrics.recordSince("warmup.corridor", startNanos);
+                metrics.gauge("warmup.corridor_tiles").set(status.getCompletedTileCount());
+                offlineRegion.setObserver(null);
+                offlineRegion.setDownloadState(OfflineRegion.STATE_INACTIVE);
+            }
+        }
+
+        @Override
+        public void onError(OfflineRegionError error) {
+            metrics.counter("warmup.corridor.errors").increment();
+            Log.w(TAG, "Corridor download error: " + error.getMessage());
+        }
+
+        @Override
+        public void mapboxTileCountLimitExceeded(long limit) {
+            Log.w(TAG, "Corridor exceeds the offline tile limit of " + limit);
+            offlineRegion.setDownloadState(OfflineRegion.STATE_INACTIVE);
+        }
+    }
+
+    private static class LoggingDeleteCallback implements OfflineRegion.OfflineRegionDeleteCallback {
+        @Override
+        public void onDelete() {
+        }
+
+        @Override
+        public void onError(String error) {
+            Log.w(TAG, "Could not delete offline region: " + error);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Day and night variants of the navigation map style, downloaded once and kept on disk, so switching
+ * night mode mid-drive never waits for the network.
+ * <p>
+ * Loading blocks on the network, so it belongs on the app's network executor rather than the one
+ * disk work waits on. A style that couldn't be downloaded isn't tried again for a while, doubling up
+ * to {@value #MAX_RETRY_DELAY_MILLIS} ms, so that being offline doesn't cost a download attempt on
+ * every screen.
+ */
+public class NightModeStyles {
+    static final String DEFAULT_DAY_STYLE_URL = "mapbox://styles/mapbox/navigation-guidance-day-v4";
+    static final String DEFAULT_NIGHT_STYLE_URL = "mapbox://styles/mapbox/navigation-guidance-night-v4";
+
+    private static final String MAPBOX_STYLE_PREFIX = "mapbox://styles/";
+    private static final String STYLES_API = "https://api.mapbox.com/styles/v1/";
+    private static final String TILES_API = "https://api.mapbox.com/v4/";
+    private static final int TIMEOUT_MILLIS = 15_000;
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+    static final long MIN_RETRY_DELAY_MILLIS = 30_000;
+    static final long MAX_RETRY_DELAY_MILLIS = 15 * 60_000;
+
+    private final File directory;
+    private final String dayUrl;
+    private final String nightUrl;
+    private final String accessToken;
+    private final LongSupplier clockMillis;
+
+    @Nullable
+    private StylePaints day;
+    @Nullable
+    private StylePaints night;
+    // Per variant, day first: when the last download failed, and how long to leave it before the next
+    private final long[] failedAtMillis = {Long.MIN_VALUE, Long.MIN_VALUE};
+    private final long[] retryDelayMillis = {0, 0};
+
+    /**
+     * @param dayUrl   style URL, either mapbox://styles/... or an https URL of the style JSON
+     * @param nightUrl same for the night style
+     */
+    public NightModeStyles(@NonNull File directory, @NonNull String dayUrl, @NonNull String nightUrl,
+                           @NonNull String accessToken) {
+        this(directory, dayUrl, nightUrl, accessToken, System::currentTimeMillis);
+    }
+
+    NightModeStyles(@NonNull File directory, @NonNull String dayUrl, @NonNull String nightUrl,
+                    @NonNull String accessToken, @NonNull LongSupplier clockMillis) {
+        this.directory = directory;
+        this.dayUrl = dayUrl;
+        this.nightUrl = nightUrl;
+        this.accessToken = accessToken;
+        this.clockMillis = clockMillis;
+    }
+
+    /**
+     * @return the style's paints from memory, disk or the network, in that order, or null if it
+     * couldn't be had from any of them; a copy on disk older than a week is still used while the
+     * network is out. Blocks, so call it on the network executor.
+     */
+    @Nullable
+    public synchronized StylePaints load(boolean nightMode) {
+        StylePaints loaded = nightMode ? night : day;
+        if (loaded != null) {
+            return loaded;
+        }
+        String url = nightMode ? nightUrl : dayUrl;
+        File file = new File(directory, fileName(url));
+        int variant = nightMode ? 1 : 0;
+        long now = clockMillis.getAsLong();
+        try {
+            if (file.isFile() && now - file.lastModified() < MAX_AGE_MILLIS) {
+                loaded = StylePaints.parse(read(file));
+            } else {
+                boolean retryDue = failedAtMillis[variant] == Long.MIN_VALUE
+                        || now - failedAtMillis[variant] >= retryDelayMillis[variant];
+                loaded = retryDue ? downloadTo(file, url, variant, now) : null;
+                if (loaded == null) {
+                    // Not kept, so the download is tried again once the delay is up
+                    return file.isFile() ? StylePaints.parse(read(file)) : null;
+                }
+            }
+        } catch (IOException | IllegalArgumentException exception) {
+            file.delete();
+            return null;
+        }
+        if (nightMode) {
+            night = loaded;
+        } else {
+            day = loaded;
+        }
+        return loaded;
+    }
+
+    /**
+     * @return a tile URL with {z}, {x} and {y} placeholders for every vector source of the style, or
+     * none if the style couldn't be loaded; blocks like {@link #load}
+     */
+    @NonNull
+    public List<String> tileUrlTemplates(boolean nightMode) {
+        StylePaints style = load(nightMode);
+        if (style == null) {
+            return Collections.emptyList();
+        }
+        List<String> templates = new ArrayList<>();
+        for (String tilesets : style.vectorTilesets()) {
+            templates.add(tileUrlTemplate(tilesets, accessToken));
+        }
+        return templates;
+    }
+
+    /**
+     * @return e.g. https://api.mapbox.com/v4/mapbox.mapbox-streets-v8/{z}/{x}/{y}.vector.pbf?access_token=...
+     * for mapbox.mapbox-streets-v8, which is where the map gets its tiles from too
+     */
+    @NonNull
+    static String tileUrlTemplate(@NonNull String tilesets, @NonNull String accessToken) {
+        return TILES_API + tilesets + "/{z}/{x}/{y}.vector.pbf?access_token=" + accessToken;
+    }
+
+    /**
+     * @return e.g. https://api.mapbox.com/styles/v1/mapbox/navigation-guidance-night-v4?access_token=...
+     * for mapbox://styles/mapbox/navigation-guidance-night-v4
+     */
+    @NonNull
+    static String httpUrl(@NonNull String styleUrl, @NonNull String accessToken) {
+        if (!styleUrl.startsWith(MAPBOX_STYLE_PREFIX)) {
+            return styleUrl;
+        }
+        return STYLES_API + styleUrl.substring(MAPBOX_STYLE_PREFIX.length()) + "?access_token=" + accessToken;
+    }
+
+    /**
+     * @return the downloaded style, or null if the download failed, which puts off the next attempt
+     */
+    @Nullable
+    private StylePaints downloadTo(File file, String url, int variant, long now) throws IOException {
+        String json;
+        StylePaints downloaded;
+        try {
+            json = download(httpUrl(url, accessToken));
+            downloaded = StylePaints.parse(json);
+        } catch (IOException | IllegalArgumentException exception) {
+            failedAtMillis[variant] = now;
+            retryDelayMillis[variant] = retryDelayMillis[variant] == 0 ? MIN_RETRY_DELAY_MILLIS
+                    : Math.min(retryDelayMillis[variant] * 2, MAX_RETRY_DELAY_MILLIS);
+            return null;
+        }
+        failedAtMillis[variant] = Long.MIN_VALUE;
+        retryDelayMillis[variant] = 0;
+        write(file, json);
+        return downloaded;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static String fileName(String styleUrl) {
+        return styleUrl.replaceAll("[^A-Za-z0-9.-]", "_") + ".json";
+    }
+
+    private void write(File file, String json) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File temp = new File(directory, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not move " + temp + " to " + file);
+        }
+    }
+
+    private static String download(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " for style");
+            }
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
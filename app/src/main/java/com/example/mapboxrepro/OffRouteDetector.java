@@ -0,0 +1,53 @@
+package com.example.mapboxrepro;
+
+/**
+ * Debounces off-route decisions: a single noisy GPS fix far from the route doesn't count, only
+ * staying further away than the threshold for a minimum number of fixes and a minimum time does.
+ * Not thread safe.
+ */
+final class OffRouteDetector {
+    private final double thresholdMeters;
+    private final int minSamples;
+    private final long minDurationMillis;
+
+    private int samplesOff;
+    private long offSinceMillis;
+    private boolean offRoute;
+
+    OffRouteDetector(double thresholdMeters, int minSamples, long minDurationMillis) {
+        this.thresholdMeters = thresholdMeters;
+        this.minSamples = minSamples;
+        this.minDurationMillis = minDurationMillis;
+    }
+
+    double getThresholdMeters() {
+        return thresholdMeters;
+    }
+
+    /**
+     * @return true exactly once per deviation, on the fix that confirms it
+     */
+    boolean update(double distanceMeters, long timeMillis) {
+        if (distanceMeters <= thresholdMeters) {
+            reset();
+            return false;
+        }
+        if (samplesOff++ == 0) {
+            offSinceMillis = timeMillis;
+        }
+        if (!offRoute && samplesOff >= minSamples && timeMillis - offSinceMillis >= minDurationMillis) {
+            offRoute = true;
+            return true;
+        }
+        return false;
+    }
+
+    boolean isOffRoute() {
+        return offRoute;
+    }
+
+    void reset() {
+        samplesOff = 0;
+        offRoute = false;
+    }
+}
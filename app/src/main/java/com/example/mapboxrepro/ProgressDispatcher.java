@@ -0,0 +1,86 @@
+package com.example.mapboxrepro;
+
+import android.location.Location;
+import android.view.Choreographer;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import com.mapbox.services.android.navigation.v5.routeprogress.ProgressChangeListener;
+import com.mapbox.services.android.navigation.v5.routeprogress.RouteProgress;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sits between the navigation SDK's progress updates and the UI. Each update is turned into a
+ * {@link ProgressSnapshot} on a background thread, bursts of updates are coalesced into at most one
+ * delivery per frame, and every listener can be given its own minimum interval. That keeps frame
+ * times flat no matter how fast locations come in, e.g. when the route is simulated.
+ */
+class ProgressDispatcher implements ProgressChangeListener, Choreographer.FrameCallback {
+
+    interface Listener extends CoalescingDispatcher.Listener<ProgressSnapshot> {
+    }
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final CoalescingDispatcher<ProgressSnapshot> dispatcher = new CoalescingDispatcher<>();
+    private final Choreographer choreographer;
+
+    @MainThread
+    ProgressDispatcher() {
+        // Choreographer is per looper, so grab the main thread's one while we are on it
+        choreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * @param minIntervalMillis minimum time between two deliveries to this listener, 0 for every frame
+     */
+    @MainThread
+    void addListener(@NonNull Listener listener, long minIntervalMillis) {
+        dispatcher.addListener(listener, minIntervalMillis);
+    }
+
+    @MainThread
+    void removeListener(@NonNull Listener listener) {
+        dispatcher.removeListener(listener);
+    }
+
+    @Override
+    public void onProgressChange(Location location, RouteProgress routeProgress) {
+        if (worker.isShutdown()) {
+            return;
+        }
+        long receivedAtNanos = System.nanoTime();
+        worker.execute(() -> {
+            if (dispatcher.submit(new ProgressSnapshot(location, routeProgress, receivedAtNanos))) {
+                choreographer.postFrameCallback(this);
+            }
+        });
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // A snapshot that was being built when the activity went away can still post a frame
+        if (worker.isShutdown()) {
+            return;
+        }
+        long nextDueNanos = dispatcher.dispatch(frameTimeNanos);
+        // The worker may have queued another frame meanwhile, keep just the one posted here
+        choreographer.removeFrameCallback(this);
+        if (dispatcher.hasPending()) {
+            choreographer.postFrameCallback(this);
+        } else if (nextDueNanos != CoalescingDispatcher.NONE_WAITING) {
+            // One frame when the rate limited listener is due, rather than polling every frame until then
+            long delayMillis = TimeUnit.NANOSECONDS.toMillis(nextDueNanos - frameTimeNanos);
+            choreographer.postFrameCallbackDelayed(this, Math.max(0, delayMillis));
+        }
+    }
+
+    @MainThread
+    void release() {
+        worker.shutdownNow();
+        choreographer.removeFrameCallback(this);
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.mapboxrepro;
+
+import android.location.Location;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.services.android.navigation.v5.routeprogress.RouteLegProgress;
+import com.mapbox.services.android.navigation.v5.routeprogress.RouteProgress;
+
+/**
+ * A progress update together with the values the UI derives from it, computed off the main thread
+ * by {@link ProgressDispatcher}.
+ */
+class ProgressSnapshot {
+    private final Location location;
+    private final RouteProgress routeProgress;
+    private final long receivedAtNanos;
+    private final int speedMilesPerHour;
+    private final int legIndex;
+    private final int stepIndex;
+    private final double stepDistanceRemaining;
+    private final double distanceRemaining;
+    private final double durationRemaining;
+
+    ProgressSnapshot(@NonNull Location location, @NonNull RouteProgress routeProgress, long receivedAtNanos) {
+        this.location = location;
+        this.routeProgress = routeProgress;
+        this.receivedAtNanos = receivedAtNanos;
+        RouteLegProgress legProgress = routeProgress.currentLegProgress();
+        speedMilesPerHour = SpeedFormatter.toMilesPerHour(location.getSpeed());
+        legIndex = routeProgress.legIndex();
+        stepIndex = legProgress.stepIndex();
+        stepDistanceRemaining = legProgress.currentStepProgress().distanceRemaining();
+        distanceRemaining = routeProgress.distanceRemaining();
+        durationRemaining = routeProgress.durationRemaining();
+    }
+
+    @NonNull
+    Location getLocation() {
+        return location;
+    }
+
+    @NonNull
+    RouteProgress getRouteProgress() {
+        return routeProgress;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at which the SDK handed us this update
+     */
+    long getReceivedAtNanos() {
+        return receivedAtNanos;
+    }
+
+    int getSpeedMilesPerHour() {
+        return speedMilesPerHour;
+    }
+
+    int getLegIndex() {
+        return legIndex;
+    }
+
+    int getStepIndex() {
+        return stepIndex;
+    }
+
+    double getStepDistanceRemaining() {
+        return stepDistanceRemaining;
+    }
+
+    double getDistanceRemaining() {
+        return distanceRemaining;
+    }
+
+    double getDurationRemaining() {
+        return durationRemaining;
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.api.directions.v5.models.LegStep;
+import com.mapbox.api.directions.v5.models.RouteLeg;
+import com.mapbox.api.directions.v5.models.RouteOptions;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.utils.PolylineUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mapbox.core.constants.Constants.PRECISION_6;
+
+/**
+ * Cuts off the part of a route that was already driven, so navigation can pick up a journaled
+ * session from the step the driver was on without asking the Directions API for a new route.
+ */
+final class RemainingRoute {
+
+    private RemainingRoute() {
+    }
+
+    /**
+     * @return the route from the start of the given step on, with its distance, duration and geometry
+     * recomputed from the steps that are left and its options starting from there too, or the route
+     * itself if it can't be cut there
+     */
+    @NonNull
+    static DirectionsRoute of(@NonNull DirectionsRoute route, int legIndex, int stepIndex) {
+        List<RouteLeg> legs = route.legs();
+        if ((legIndex == 0 && stepIndex == 0) || legs == null || legIndex < 0 || legIndex >= legs.size()) {
+            return route;
+        }
+        RouteLeg currentLeg = legs.get(legIndex);
+        List<LegStep> currentSteps = currentLeg.steps();
+        if (currentSteps == null || stepIndex < 0 || stepIndex >= currentSteps.size()) {
+            return route;
+        }
+
+        List<LegStep> remainingSteps = new ArrayList<>(currentSteps.subList(stepIndex, currentSteps.size()));
+        double legDistance = 0;
+        double legDuration = 0;
+        for (LegStep step : remainingSteps) {
+            legDistance += step.distance();
+            legDuration += step.duration();
+        }
+        List<RouteLeg> remainingLegs = new ArrayList<>(legs.size() - legIndex);
+        // The annotations run along the whole leg's geometry and no longer line up with what's left
+        remainingLegs.add(currentLeg.toBuilder()
+                .steps(remainingSteps)
+                .distance(legDistance)
+                .duration(legDuration)
+                .annotation(null)
+                .build());
+        remainingLegs.addAll(legs.subList(legIndex + 1, legs.size()));
+
+        double distance = 0;
+        double duration = 0;
+        List<Point> line = new ArrayList<>();
+        for (RouteLeg leg : remainingLegs) {
+            distance += leg.distance() == null ? 0 : leg.distance();
+            duration += leg.duration() == null ? 0 : leg.duration();
+            List<LegStep> steps = leg.steps();
+            if (steps == null) {
+                return route;
+            }
+            for (LegStep step : steps) {
+                if (step.geometry() == null) {
+                    return route;
+                }
+                List<Point> stepLine = PolylineUtils.decode(step.geometry(), PRECISION_6);
+                // A step starts where the previous one ended
+                int from = !line.isEmpty() && !stepLine.isEmpty()
+                        && stepLine.get(0).equals(line.get(line.size() - 1)) ? 1 : 0;
+                line.addAll(stepLine.subList(from, stepLine.size()));
+            }
+        }
+        if (line.size() < 2) {
+            return route;
+        }
+        return route.toBuilder()
+                .legs(remainingLegs)
+                .distance(distance)
+                .duration(duration)
+                .geometry(PolylineUtils.encode(line, PRECISION_6))
+                .routeOptions(remainingOptions(route.routeOptions(), legIndex, legs.size(), line.get(0)))
+                .build();
+    }
+
+    /**
+     * @return the options with the waypoints already passed replaced by {@code start}, so that they line
+     * up with the remaining legs, or the options as they are if the waypoints don't match the legs
+     */
+    @Nullable
+    private static RouteOptions remainingOptions(@Nullable RouteOptions options, int legIndex, int legCount,
+                                                 Point start) {
+        if (options == null) {
+            return null;
+        }
+        List<Point> coordinates = options.coordinates();
+        int[] waypointIndices = waypointIndicesOf(options);
+        int firstKept;
+        if (waypointIndices != null) {
+            // Only the coordinates listed are waypoints, the ones in between are passed through
+            firstKept = waypointIndices.length == legCount + 1 ? waypointIndices[legIndex + 1] : -1;
+        } else {
+            firstKept = options.waypointIndices() == null && coordinates.size() == legCount + 1 ? legIndex + 1 : -1;
+        }
+        if (firstKept < 1 || firstKept >= coordinates.size()) {
+            return options;
+        }
+        List<Point> remaining = new ArrayList<>(coordinates.size() - firstKept + 1);
+        remaining.add(start);
+        remaining.addAll(coordinates.subList(firstKept, coordinates.size()));
+        String remainingIndices = null;
+        if (waypointIndices != null) {
+            StringBuilder indices = new StringBuilder("0");
+            for (int i = legIndex + 1; i < waypointIndices.length; i++) {
+                indices.append(';').append(waypointIndices[i] - firstKept + 1);
+            }
+            remainingIndices = indices.toString();
+        }
+        return RouteOptions.builder()
+                .baseUrl(options.baseUrl())
+                .user(options.user())
+                .profile(options.profile())
+                .coordinates(remaining)
+                .alternatives(options.alternatives())
+                .language(options.language())
+                .radiuses(remainingOf(options.radiuses(), firstKept, coordinates.size()))
+                .bearings(remainingOf(options.bearings(), firstKept, coordinates.size()))
+                .continueStraight(options.continueStraight())
+                .roundaboutExits(options.roundaboutExits())
+                .geometries(options.geometries())
+                .overview(options.overview())
+                .steps(options.steps())
+                .annotations(options.annotations())
+                .voiceInstructions(options.voiceInstructions())
+                .bannerInstructions(options.bannerInstructions())
+                .voiceUnits(options.voiceUnits())
+                .accessToken(options.accessToken())
+                .requestUuid(options.requestUuid())
+                .exclude(options.exclude())
+                .approaches(remainingOf(options.approaches(), firstKept, coordinates.size()))
+                .waypointIndices(remainingIndices)
+                .waypointNames(remainingOf(options.waypointNames(), firstKept, coordinates.size()))
+                .waypointTargets(remainingOf(options.waypointTargets(), firstKept, coordinates.size()))
+                .walkingOptions(options.walkingOptions())
+                .build();
+    }
+
+    @Nullable
+    private static int[] waypointIndicesOf(RouteOptions options) {
+        if (options.waypointIndices() == null) {
+            return null;
+        }
+        String[] entries = options.waypointIndices().split(";");
+        int[] indices = new int[entries.length];
+        try {
+            for (int i = 0; i < entries.length; i++) {
+                indices[i] = Integer.parseInt(entries[i].trim());
+            }
+        } catch (NumberFormatException exception) {
+            return null;
+        }
+        return indices;
+    }
+
+    /**
+     * @return a per coordinate option, e.g. the bearings, from {@code firstKept} on, with nothing for
+     * the new start, or null if it doesn't have an entry for every coordinate
+     */
+    @Nullable
+    private static String remainingOf(@Nullable String perCoordinate, int firstKept, int coordinateCount) {
+        if (perCoordinate == null) {
+            return null;
+        }
+        String[] entries = perCoordinate.split(";", -1);
+        if (entries.length != coordinateCount) {
+            return null;
+        }
+        StringBuilder remaining = new StringBuilder();
+        for (int i = firstKept; i < entries.length; i++) {
+            remaining.append(';').append(entries[i]);
+        }
+        return remaining.toString();
+    }
+}
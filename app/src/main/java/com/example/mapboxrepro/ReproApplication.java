@@ -0,0 +1,214 @@
+package com.example.mapboxrepro;
+
+import android.app.Application;
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.core.content.ContextCompat;
+
+import com.mapbox.mapboxsdk.module.http.HttpRequestUtil;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * Holds the objects that should outlive a single activity, like the route cache.
+ */
+public class ReproApplication extends Application {
+    private static final long ROUTE_DISK_CACHE_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(12);
+    private static final int ROUTE_FETCH_MAX_ATTEMPTS = 3;
+    private static final long ROUTE_FETCH_INITIAL_BACKOFF_MILLIS = 500;
+    private static final long ROUTE_FETCH_MAX_BACKOFF_MILLIS = 4000;
+    private static final int ROUTE_FETCH_MAX_CONCURRENT_REQUESTS = 4;
+    private static final String ROUTE_FIXTURES_DIRECTORY = "route_fixtures";
+    private static final long TILE_CACHE_MAX_BYTES = 50L * 1024 * 1024;
+    private static final long TILE_CACHE_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int TILE_PREFETCH_THREADS = 3;
+    // A trip interrupted for longer than this isn't picked up again on the next launch
+    private static final long SESSION_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(6);
+    // What the Maps SDK sets on its own client, to match the native HTTP file source's limit
+    private static final int TILE_MAX_REQUESTS_PER_HOST = 20;
+
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // Startup work that shouldn't queue up behind disk and network I/O; the threads go away when idle
+    private final ExecutorService startupExecutor = Executors.newCachedThreadPool();
+    // Blocking downloads, kept off ioExecutor so that disk writes never wait for a network timeout
+    private final ExecutorService networkExecutor = Executors.newSingleThreadExecutor();
+
+    private final Metrics metrics = new Metrics();
+
+    private RouteSource rerouteSource;
+    private RouteRepository routeRepository;
+    private RouteStore routeStore;
+    private MetricsReporter metricsReporter;
+    private CorridorTilePrefetcher tilePrefetcher;
+    private NightModeStyles nightModeStyles;
+    private MemoryPressureManager memoryPressureManager;
+    private SessionJournal sessionJournal;
+    private SettingsStore settings;
+    private long processStartNanos = -1;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        long sinceProcessStartMillis = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        processStartNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(sinceProcessStartMillis);
+        // Loaded first, the navigation screen reads them before it draws anything
+        settings = new SettingsStore(new SharedPreferencesBackend(this), ioExecutor, metrics);
+        settings.load(startupExecutor);
+        // Which source to use is decided on disk, so off the main thread; fetches before that wait for it
+        CompletableFuture<RouteSource> directionsSource =
+                CompletableFuture.supplyAsync(this::createRouteSource, startupExecutor);
+        RouteSource deferredSource = (request, callback) -> directionsSource.whenComplete((source, throwable) -> {
+            if (throwable != null) {
+                callback.onFailure(throwable);
+            } else {
+                source.fetchRoute(request, callback);
+            }
+        });
+        BatchRoutePlanner networkSource = new BatchRoutePlanner(new RetryingRouteSource(deferredSource, scheduler,
+                ROUTE_FETCH_MAX_ATTEMPTS, ROUTE_FETCH_INITIAL_BACKOFF_MILLIS, ROUTE_FETCH_MAX_BACKOFF_MILLIS),
+                ROUTE_FETCH_MAX_CONCURRENT_REQUESTS, ioExecutor, metrics);
+        // Reroutes start wherever the driver happens to be, there's no point caching them on disk. The
+        // engine retries them itself, from wherever the driver is by then, so they skip the retries here
+        BatchRoutePlanner reroutePlanner = new BatchRoutePlanner(deferredSource,
+                ROUTE_FETCH_MAX_CONCURRENT_REQUESTS, ioExecutor, metrics);
+        rerouteSource = reroutePlanner;
+        RouteDiskCache routeDiskCache = new RouteDiskCache(new File(getCacheDir(), "routes"));
+        // Looked up on the startup executor, the first screen waits for it behind nothing else
+        routeRepository = new RouteRepository(new DiskCachedRouteSource(networkSource, routeDiskCache,
+                ROUTE_DISK_CACHE_MAX_AGE_MILLIS, startupExecutor, ioExecutor, ContextCompat.getMainExecutor(this)));
+        routeStore = new RouteStore(new File(getCacheDir(), "route_store"), ioExecutor);
+        sessionJournal = new SessionJournal(new File(getFilesDir(), "session.journal"), SESSION_MAX_AGE_MILLIS,
+                ioExecutor, metrics);
+        metricsReporter = new MetricsReporter(metrics, new File(getFilesDir(), "metrics.txt"), ioExecutor);
+        TileCache tileCache = new TileCache(new File(getCacheDir(), "tiles"), TILE_CACHE_MAX_BYTES,
+                TILE_CACHE_MAX_AGE_MILLIS);
+        // Replaces the Maps SDK's client, so its dispatcher settings have to come along
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(TILE_MAX_REQUESTS_PER_HOST);
+        HttpRequestUtil.setOkHttpClient(new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .addInterceptor(new TileCacheInterceptor(tileCache, metrics))
+                .build());
+        tilePrefetcher = new CorridorTilePrefetcher(tileCache, TILE_PREFETCH_THREADS, metrics);
+        nightModeStyles = new NightModeStyles(new File(getCacheDir(), "styles"),
+                styleUrlOf(R.style.CustomNavigationView, NightModeStyles.DEFAULT_DAY_STYLE_URL),
+                styleUrlOf(R.style.NavigationViewDark, NightModeStyles.DEFAULT_NIGHT_STYLE_URL),
+                BuildConfig.MAPBOX_ACCESS_TOKEN);
+        memoryPressureManager = new MemoryPressureManager(metrics);
+        memoryPressureManager.register(routeRepository);
+        memoryPressureManager.register(routeStore);
+        memoryPressureManager.register(networkSource);
+        memoryPressureManager.register(reroutePlanner);
+        memoryPressureManager.register(tileCache);
+        memoryPressureManager.register(tilePrefetcher);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        memoryPressureManager.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        memoryPressureManager.onLowMemory();
+    }
+
+    private String styleUrlOf(int theme, String fallback) {
+        String styleUrl = MapThemeSwitcher.styleUrlOf(this, theme);
+        return styleUrl != null ? styleUrl : fallback;
+    }
+
+    /**
+     * Debug builds answer from recorded responses instead of the Directions API when there is a
+     * {@value #ROUTE_FIXTURES_DIRECTORY} directory in the app's external files, e.g. pushed with adb.
+     * Looks at the disk, so called on the startup executor.
+     */
+    private RouteSource createRouteSource() {
+        if (BuildConfig.DEBUG) {
+            File fixtures = getExternalFilesDir(ROUTE_FIXTURES_DIRECTORY);
+            if (fixtures != null && new File(fixtures, FixtureRouteSource.DEFAULT_FIXTURE).isFile()) {
+                return new FixtureRouteSource(fixtures, ioExecutor);
+            }
+        }
+        return new NavigationRouteSource(this, BuildConfig.MAPBOX_ACCESS_TOKEN);
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public RouteSource getRerouteSource() {
+        return rerouteSource;
+    }
+
+    public RouteRepository getRouteRepository() {
+        return routeRepository;
+    }
+
+    public Executor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    public Executor getStartupExecutor() {
+        return startupExecutor;
+    }
+
+    public Executor getNetworkExecutor() {
+        return networkExecutor;
+    }
+
+    /**
+     * @return when the process started, in {@link System#nanoTime()} terms, to the first caller only
+     * and -1 after that, so only the screen the process was started for measures a cold start
+     */
+    public long takeProcessStartNanos() {
+        long startNanos = processStartNanos;
+        processStartNanos = -1;
+        return startNanos;
+    }
+
+    public RouteStore getRouteStore() {
+        return routeStore;
+    }
+
+    public SettingsStore getSettings() {
+        return settings;
+    }
+
+    public SessionJournal getSessionJournal() {
+        return sessionJournal;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public CorridorTilePrefetcher getTilePrefetcher() {
+        return tilePrefetcher;
+    }
+
+    public NightModeStyles getNightModeStyles() {
+        return nightModeStyles;
+    }
+
+    public MemoryPressureManager getMemoryPressureManager() {
+        return memoryPressureManager;
+    }
+
+    public MetricsReporter getMetricsReporter() {
+        return metricsReporter;
+    }
+}
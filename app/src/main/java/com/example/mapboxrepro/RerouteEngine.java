@@ -0,0 +1,548 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.api.directions.v5.models.LegStep;
+import com.mapbox.api.directions.v5.models.RouteLeg;
+import com.mapbox.api.directions.v5.models.StepIntersection;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.utils.PolylineUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.mapbox.core.constants.Constants.PRECISION_6;
+
+/**
+ * Handles going off route without waiting on the network where it can:
+ * <ul>
+ * <li>every location is checked against a {@link RouteGeometryIndex} of the route and debounced by
+ * an {@link OffRouteDetector}, so deviations are caught locally</li>
+ * <li>for the decision points within the next couple of kilometers, i.e. intersections with exits the
+ * route doesn't take, a route from a little way down each of those exits to the destination is
+ * fetched in the background</li>
+ * <li>when the driver leaves the route, a prefetched route they're already on is handed over right
+ * away; only if there is none is a new route fetched from where they are, retried with backoff from
+ * wherever they are by then if the network failed. Give it a source that doesn't retry on its own,
+ * or every retry here is several.</li>
+ * </ul>
+ * New routes go through the stops of a multi-stop route that are still ahead, not straight to the
+ * destination.
+ * All state lives on a single worker thread; the listener is called on the callback executor.
+ */
+public class RerouteEngine implements MemoryPressureManager.Trimmable {
+    static final double OFF_ROUTE_THRESHOLD_METERS = 50;
+    static final int OFF_ROUTE_MIN_SAMPLES = 2;
+    static final long OFF_ROUTE_MIN_DURATION_MILLIS = 2000;
+    static final double LOOKAHEAD_METERS = 2000;
+    // So a dense downtown grid doesn't turn into dozens of requests at once
+    static final int LOOKAHEAD_DECISION_POINTS = 3;
+    static final double EXIT_OFFSET_METERS = 25;
+    static final int MAX_ATTEMPTS = 5;
+    static final long INITIAL_BACKOFF_MILLIS = 1000;
+    static final long MAX_BACKOFF_MILLIS = 16000;
+
+    private static final double EARTH_RADIUS_METERS = 6371008.8;
+    // Anything further than this from the route can't be on it, so the index doesn't look further
+    private static final double MAX_SEARCH_METERS = 500;
+    // How far along the route a location is looked for on either side of the last one, on top of how
+    // far the driver could have come since, so a crossing further along doesn't make it jump
+    private static final double SNAP_MARGIN_METERS = 100;
+    private static final double MAX_SPEED_METERS_PER_SECOND = 70;
+
+    public interface Listener {
+        /**
+         * @param prefetched whether the route was ready before the driver left the old one
+         */
+        void onReroute(@NonNull DirectionsRoute route, boolean prefetched);
+
+        void onRerouteFailed(@NonNull Throwable throwable);
+    }
+
+    private final RouteSource source;
+    private final ScheduledExecutorService scheduler;
+    private final Executor callbackExecutor;
+    private final Metrics metrics;
+    private final Listener listener;
+    private final long initialBackoffMillis;
+    private final Executor worker;
+    private volatile boolean released;
+    private final OffRouteDetector detector = new OffRouteDetector(
+            OFF_ROUTE_THRESHOLD_METERS, OFF_ROUTE_MIN_SAMPLES, OFF_ROUTE_MIN_DURATION_MILLIS);
+
+    private RouteGeometryIndex index;
+    private List<Point> stops = new ArrayList<>();
+    private double[] stopDistances = new double[0];
+    private List<DecisionPoint> decisionPoints = new ArrayList<>();
+    private final List<Candidate> candidates = new ArrayList<>();
+    private int routeVersion;
+    private int nextDecisionPoint;
+    private int lookaheadDecisionPoints = LOOKAHEAD_DECISION_POINTS;
+    @Nullable
+    private Point lastLocation;
+    private double lastDistanceAlong;
+    private long lastSnapMillis = -1;
+    private boolean rerouting;
+    private long offRouteAtNanos;
+
+    public RerouteEngine(@NonNull RouteSource source, @NonNull ScheduledExecutorService scheduler,
+                         @NonNull Executor callbackExecutor, @NonNull Metrics metrics,
+                         @NonNull Listener listener) {
+        this(source, scheduler, callbackExecutor, metrics, listener, INITIAL_BACKOFF_MILLIS);
+    }
+
+    RerouteEngine(@NonNull RouteSource source, @NonNull ScheduledExecutorService scheduler,
+                  @NonNull Executor callbackExecutor, @NonNull Metrics metrics, @NonNull Listener listener,
+                  long initialBackoffMillis) {
+        this(source, scheduler, callbackExecutor, metrics, listener, initialBackoffMillis,
+                Executors.newSingleThreadExecutor());
+    }
+
+    /**
+     * @param worker runs one task at a time, in order, e.g. a {@link SerialExecutor} on a pool shared
+     *               by many engines; shut down on {@link #release} if it is an executor service
+     */
+    RerouteEngine(@NonNull RouteSource source, @NonNull ScheduledExecutorService scheduler,
+                  @NonNull Executor callbackExecutor, @NonNull Metrics metrics, @NonNull Listener listener,
+                  long initialBackoffMillis, @NonNull Executor worker) {
+        this.worker = worker;
+        this.source = source;
+        this.scheduler = scheduler;
+        this.callbackExecutor = callbackExecutor;
+        this.metrics = metrics;
+        this.listener = listener;
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Starts following a new route, dropping everything prepared for the previous one.
+     */
+    public void setRoute(@NonNull DirectionsRoute route) {
+        post(() -> {
+            List<Point> line = lineOf(route);
+            if (line == null) {
+                return;
+            }
+            routeVersion++;
+            index = new RouteGeometryIndex(line);
+            stops = stopsOf(route, line.get(line.size() - 1));
+            stopDistances = new double[stops.size()];
+            double previousStop = 0;
+            for (int i = 0; i < stops.size(); i++) {
+                // Each stop comes after the one before, even where the route passes it again later
+                RouteGeometryIndex.Snap snap = index.snap(stops.get(i).longitude(), stops.get(i).latitude(),
+                        MAX_SEARCH_METERS, previousStop, Double.POSITIVE_INFINITY);
+                stopDistances[i] = snap == null ? index.length() : snap.distanceAlong;
+                previousStop = stopDistances[i];
+            }
+            // The destination is always ahead
+            stopDistances[stops.size() - 1] = Double.POSITIVE_INFINITY;
+            lastDistanceAlong = 0;
+            lastSnapMillis = -1;
+            decisionPoints = decisionPointsOf(route, index);
+            candidates.clear();
+            nextDecisionPoint = 0;
+            rerouting = false;
+            detector.reset();
+            prefetchUpcoming(0);
+        });
+    }
+
+    /**
+     * The listener couldn't take the route {@link Listener#onReroute} handed it, so the engine goes
+     * back to watching the current route for the driver leaving it.
+     */
+    public void abandonReroute() {
+        post(() -> {
+            rerouting = false;
+            detector.reset();
+        });
+    }
+
+    /**
+     * Checks a new location against the route, rerouting once the driver is confirmed to have left it.
+     */
+    public void onLocation(double longitude, double latitude, long timeMillis) {
+        post(() -> {
+            if (index == null) {
+                return;
+            }
+            lastLocation = Point.fromLngLat(longitude, latitude);
+            RouteGeometryIndex.Snap snap;
+            if (lastSnapMillis == -1) {
+                snap = index.snap(longitude, latitude, detector.getThresholdMeters());
+            } else {
+                double reach = SNAP_MARGIN_METERS
+                        + MAX_SPEED_METERS_PER_SECOND * Math.max(0, timeMillis - lastSnapMillis) / 1000.0;
+                snap = index.snap(longitude, latitude, detector.getThresholdMeters(),
+                        lastDistanceAlong - SNAP_MARGIN_METERS, lastDistanceAlong + reach);
+            }
+            double distance = snap == null ? Double.POSITIVE_INFINITY : snap.distanceFromRoute;
+            if (detector.update(distance, timeMillis)) {
+                reroute(lastLocation);
+            } else if (snap != null) {
+                lastDistanceAlong = snap.distanceAlong;
+                lastSnapMillis = timeMillis;
+                prefetchUpcoming(snap.distanceAlong);
+            }
+        });
+    }
+
+    /**
+     * Reroutes right away, e.g. because the navigation SDK's own detector decided the driver is off route.
+     */
+    public void onOffRoute(@NonNull Point location) {
+        post(() -> {
+            if (index != null) {
+                lastLocation = location;
+                reroute(location);
+            }
+        });
+    }
+
+    /**
+     * Drops the prefetched routes beyond the next decision point, or all of them when it gets
+     * critical, and only looks that far ahead until {@link #restore}.
+     */
+    @Override
+    public void trimMemory(@NonNull MemoryPressureManager.Tier tier) {
+        if (tier == MemoryPressureManager.Tier.LIGHT) {
+            return;
+        }
+        post(() -> {
+            lookaheadDecisionPoints = tier == MemoryPressureManager.Tier.CRITICAL ? 0 : 1;
+            int last = Math.min(nextDecisionPoint + lookaheadDecisionPoints, decisionPoints.size()) - 1;
+            double keepUpTo = last < nextDecisionPoint ? Double.NEGATIVE_INFINITY
+                    : decisionPoints.get(last).distanceAlong;
+            int dropped = 0;
+            Iterator<Candidate> iterator = candidates.iterator();
+            while (iterator.hasNext()) {
+                Candidate candidate = iterator.next();
+                if (candidate.decisionPoint.distanceAlong > keepUpTo) {
+                    candidate.decisionPoint.prefetched = false;
+                    iterator.remove();
+                    dropped++;
+                }
+            }
+            metrics.counter("reroute.candidates_trimmed").add(dropped);
+        });
+    }
+
+    /**
+     * Queues the task behind the trim on the worker, or runs it right away once released.
+     */
+    @Override
+    public void afterTrim(@NonNull Runnable task) {
+        if (released) {
+            task.run();
+            return;
+        }
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException exception) {
+            task.run();
+        }
+    }
+
+    /**
+     * Looks the whole way ahead again after {@link #trimMemory}; the routes it dropped are fetched
+     * again with the next location.
+     */
+    public void restore() {
+        post(() -> lookaheadDecisionPoints = LOOKAHEAD_DECISION_POINTS);
+    }
+
+    public void release() {
+        released = true;
+        if (worker instanceof ExecutorService) {
+            ((ExecutorService) worker).shutdownNow();
+        }
+    }
+
+    private void post(Runnable task) {
+        if (released) {
+            return;
+        }
+        try {
+            worker.execute(() -> {
+                if (!released) {
+                    task.run();
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            // Released, late network callbacks have nowhere to go
+        }
+    }
+
+    private void reroute(Point location) {
+        if (rerouting) {
+            return;
+        }
+        rerouting = true;
+        offRouteAtNanos = System.nanoTime();
+        Candidate candidate = candidateFor(location);
+        if (candidate != null) {
+            metrics.counter("reroute.prefetched").increment();
+            deliver(candidate.route, true);
+            return;
+        }
+        fetch(routeVersion, 1);
+    }
+
+    @Nullable
+    private Candidate candidateFor(Point location) {
+        Candidate best = null;
+        double bestDistance = OFF_ROUTE_THRESHOLD_METERS;
+        for (Candidate candidate : candidates) {
+            if (candidate.route == null) {
+                continue;
+            }
+            double distance = candidate.index.distanceTo(location.longitude(), location.latitude(), bestDistance);
+            if (distance <= bestDistance) {
+                best = candidate;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private void fetch(int version, int attempt) {
+        metrics.counter("reroute.fetches").increment();
+        RouteRequest request = new RouteRequest(waypointsFrom(lastLocation, lastDistanceAlong));
+        source.fetchRoute(request, new RouteSource.Callback() {
+            @Override
+            public void onRoute(@NonNull DirectionsRoute route) {
+                post(() -> {
+                    if (version == routeVersion) {
+                        deliver(route, false);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable throwable) {
+                post(() -> {
+                    if (version != routeVersion) {
+                        return;
+                    }
+                    metrics.counter("reroute.failures").increment();
+                    // Anything but the network, like there being no route from here, won't be different next time
+                    if (attempt >= MAX_ATTEMPTS || !(throwable instanceof IOException)) {
+                        rerouting = false;
+                        detector.reset();
+                        callbackExecutor.execute(() -> listener.onRerouteFailed(throwable));
+                        return;
+                    }
+                    // Retried from wherever the driver is by then, not from where the first attempt was
+                    long backoff = Math.min(initialBackoffMillis << (attempt - 1), MAX_BACKOFF_MILLIS);
+                    scheduler.schedule(() -> post(() -> {
+                        if (version == routeVersion) {
+                            fetch(version, attempt + 1);
+                        }
+                    }), backoff, TimeUnit.MILLISECONDS);
+                });
+            }
+        });
+    }
+
+    private void deliver(DirectionsRoute route, boolean prefetched) {
+        metrics.recordSince("reroute.latency", offRouteAtNanos);
+        callbackExecutor.execute(() -> listener.onReroute(route, prefetched));
+    }
+
+    /**
+     * Makes sure routes are being fetched for the decision points within the lookahead of the given
+     * distance along the route, and forgets the ones for decision points already passed.
+     */
+    private void prefetchUpcoming(double distanceAlong) {
+        Iterator<Candidate> iterator = candidates.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().decisionPoint.distanceAlong < distanceAlong) {
+                iterator.remove();
+            }
+        }
+        while (nextDecisionPoint < decisionPoints.size()
+                && decisionPoints.get(nextDecisionPoint).distanceAlong < distanceAlong) {
+            nextDecisionPoint++;
+        }
+        int version = routeVersion;
+        for (int i = nextDecisionPoint; i < decisionPoints.size()
+                && i < nextDecisionPoint + lookaheadDecisionPoints
+                && decisionPoints.get(i).distanceAlong <= distanceAlong + LOOKAHEAD_METERS; i++) {
+            DecisionPoint decisionPoint = decisionPoints.get(i);
+            if (decisionPoint.prefetched) {
+                continue;
+            }
+            decisionPoint.prefetched = true;
+            for (Point exit : decisionPoint.exits) {
+                Candidate candidate = new Candidate(decisionPoint);
+                candidates.add(candidate);
+                RouteRequest request = new RouteRequest(waypointsFrom(exit, decisionPoint.distanceAlong));
+                source.fetchRoute(request, new RouteSource.Callback() {
+                    @Override
+                    public void onRoute(@NonNull DirectionsRoute route) {
+                        List<Point> line = lineOf(route);
+                        if (line == null) {
+                            return;
+                        }
+                        // Built off the worker, it's the expensive part
+                        RouteGeometryIndex candidateIndex = new RouteGeometryIndex(line);
+                        post(() -> {
+                            if (version == routeVersion) {
+                                candidate.route = route;
+                                candidate.index = candidateIndex;
+                                metrics.counter("reroute.candidates").increment();
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Throwable throwable) {
+                        // Going off route here just means fetching then
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * @return the given start followed by the stops beyond the given distance along the route
+     */
+    private List<Point> waypointsFrom(Point start, double distanceAlong) {
+        List<Point> waypoints = new ArrayList<>();
+        waypoints.add(start);
+        for (int i = 0; i < stops.size(); i++) {
+            if (stopDistances[i] > distanceAlong) {
+                waypoints.add(stops.get(i));
+            }
+        }
+        return waypoints;
+    }
+
+    /**
+     * @return where each leg of the route ends, i.e. its stops and finally the destination
+     */
+    static List<Point> stopsOf(DirectionsRoute route, Point destination) {
+        List<Point> stops = new ArrayList<>();
+        if (route.legs() != null) {
+            for (RouteLeg leg : route.legs()) {
+                List<LegStep> steps = leg.steps();
+                if (steps != null && !steps.isEmpty()) {
+                    stops.add(steps.get(steps.size() - 1).maneuver().location());
+                }
+            }
+        }
+        if (stops.isEmpty()) {
+            stops.add(destination);
+        } else {
+            // Exactly where the line ends, which may be a little off the last maneuver
+            stops.set(stops.size() - 1, destination);
+        }
+        return stops;
+    }
+
+    /**
+     * @return the intersections along the route with exits the route doesn't take, in route order,
+     * each with how far along the route it is and a point a little way down every such exit
+     */
+    static List<DecisionPoint> decisionPointsOf(DirectionsRoute route, RouteGeometryIndex index) {
+        List<DecisionPoint> decisionPoints = new ArrayList<>();
+        if (route.legs() == null) {
+            return decisionPoints;
+        }
+        double previous = 0;
+        for (RouteLeg leg : route.legs()) {
+            if (leg.steps() == null) {
+                continue;
+            }
+            for (LegStep step : leg.steps()) {
+                if (step.intersections() == null) {
+                    continue;
+                }
+                for (StepIntersection intersection : step.intersections()) {
+                    List<Point> exits = exitsOf(intersection);
+                    if (exits.isEmpty()) {
+                        continue;
+                    }
+                    Point location = intersection.location();
+                    // In route order, so each is looked for from the one before
+                    RouteGeometryIndex.Snap snap = index.snap(location.longitude(), location.latitude(),
+                            MAX_SEARCH_METERS, previous, Double.POSITIVE_INFINITY);
+                    if (snap != null) {
+                        decisionPoints.add(new DecisionPoint(snap.distanceAlong, exits));
+                        previous = Math.max(previous, snap.distanceAlong);
+                    }
+                }
+            }
+        }
+        return decisionPoints;
+    }
+
+    private static List<Point> exitsOf(StepIntersection intersection) {
+        List<Point> exits = new ArrayList<>();
+        List<Integer> bearings = intersection.bearings();
+        List<Boolean> entry = intersection.entry();
+        if (bearings == null || entry == null) {
+            return exits;
+        }
+        Integer out = intersection.out();
+        Integer in = intersection.in();
+        for (int i = 0; i < bearings.size() && i < entry.size(); i++) {
+            boolean taken = out != null && out == i;
+            boolean cameFrom = in != null && in == i;
+            if (entry.get(i) && !taken && !cameFrom) {
+                exits.add(offset(intersection.location(), bearings.get(i), EXIT_OFFSET_METERS));
+            }
+        }
+        return exits;
+    }
+
+    private static Point offset(Point from, double bearingDegrees, double meters) {
+        double bearing = Math.toRadians(bearingDegrees);
+        double latitude = from.latitude() + Math.toDegrees(meters * Math.cos(bearing) / EARTH_RADIUS_METERS);
+        double longitude = from.longitude() + Math.toDegrees(meters * Math.sin(bearing)
+                / (EARTH_RADIUS_METERS * Math.cos(Math.toRadians(from.latitude()))));
+        return Point.fromLngLat(longitude, latitude);
+    }
+
+    @Nullable
+    private static List<Point> lineOf(DirectionsRoute route) {
+        String geometry = route.geometry();
+        if (geometry == null) {
+            return null;
+        }
+        List<Point> line = PolylineUtils.decode(geometry, PRECISION_6);
+        return line.size() < 2 ? null : line;
+    }
+
+    static final class DecisionPoint {
+        final double distanceAlong;
+        final List<Point> exits;
+        boolean prefetched;
+
+        DecisionPoint(double distanceAlong, List<Point> exits) {
+            this.distanceAlong = distanceAlong;
+            this.exits = exits;
+        }
+    }
+
+    private static final class Candidate {
+        final DecisionPoint decisionPoint;
+        DirectionsRoute route;
+        RouteGeometryIndex index;
+
+        Candidate(DecisionPoint decisionPoint) {
+            this.decisionPoint = decisionPoint;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries requests that failed with an {@link IOException}, i.e. network trouble, with exponential
+ * backoff. Other failures, like there being no route at all, are passed on right away.
+ */
+public class RetryingRouteSource implements RouteSource {
+    private final RouteSource delegate;
+    private final ScheduledExecutorService scheduler;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    public RetryingRouteSource(@NonNull RouteSource delegate, @NonNull ScheduledExecutorService scheduler,
+                               int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    @Override
+    public void fetchRoute(@NonNull RouteRequest request, @NonNull Callback callback) {
+        attempt(request, callback, 1);
+    }
+
+    /**
+     * @return how long to wait after the given (1 based) attempt failed
+     */
+    long backoffMillis(int attempt) {
+        long backoff = initialBackoffMillis << Math.min(attempt - 1, 30);
+        return Math.min(backoff, maxBackoffMillis);
+    }
+
+    private void attempt(RouteRequest request, Callback callback, int attempt) {
+        delegate.fetchRoute(request, new Callback() {
+            @Override
+            public void onRoute(@NonNull DirectionsRoute route) {
+                callback.onRoute(route);
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable throwable) {
+                if (attempt >= maxAttempts || !(throwable instanceof IOException)) {
+                    callback.onFailure(throwable);
+                    return;
+                }
+                scheduler.schedule(() -> attempt(request, callback, attempt + 1),
+                        backoffMillis(attempt), TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+}
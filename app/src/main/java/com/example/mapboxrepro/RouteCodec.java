@@ -0,0 +1,812 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.mapbox.api.directions.v5.DirectionsAdapterFactory;
+import com.mapbox.api.directions.v5.WalkingOptionsAdapterFactory;
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.PointAsCoordinatesTypeAdapter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, versioned binary format for a {@link DirectionsRoute} and the {@link RouteRequest} it
+ * answers, used instead of Java serialization when routes are written to disk.
+ * <p>
+ * The route is stored as the JSON its type adapters write, but packed:
+ * <ul>
+ * <li>every key and string value goes into a string table once, so the instruction text repeated
+ * across maneuvers, banners and voice announcements is only stored a single time</li>
+ * <li>numbers are written as variable length integers or short decimals where that is lossless,
+ * which covers nearly all of the leg and step metadata</li>
+ * <li>encoded polylines are unpacked into their delta values and stored as binary varints instead
+ * of five bits per printable character</li>
+ * </ul>
+ * The route's generated type adapters write to and read from the binary form directly through a
+ * {@link JsonWriter} and {@link JsonReader} of its own, so there is neither text nor an intermediate
+ * JSON tree involved.
+ */
+public final class RouteCodec {
+    static final int MAGIC = 0x52544331; // "RTC1"
+    // 3 streams containers with end markers, 2 counted them up front and stored every waypoint of the
+    // request, 1 only its origin and destination
+    static final int VERSION = 3;
+
+    private static final String GEOMETRY_KEY = "geometry";
+    private static final int MAX_DECIMAL_SCALE = 6;
+    private static final double[] POWERS_OF_TEN = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6};
+    private static final long MAX_EXACT_LONG = 1L << 53;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_FALSE = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DECIMAL = 4;
+    private static final byte TAG_DOUBLE = 5;
+    private static final byte TAG_STRING = 6;
+    private static final byte TAG_ARRAY = 7;
+    private static final byte TAG_OBJECT = 8;
+    private static final byte TAG_POLYLINE = 9;
+    // Closes an array; objects are closed by a zero where the next key would be
+    private static final byte TAG_END = 10;
+
+    // Same setup as DirectionsRoute.fromJson() and toJson(), which build a new Gson on every call
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapterFactory(DirectionsAdapterFactory.create())
+            .registerTypeAdapter(Point.class, new PointAsCoordinatesTypeAdapter())
+            .registerTypeAdapterFactory(WalkingOptionsAdapterFactory.create())
+            .create();
+    private static final TypeAdapter<DirectionsRoute> ROUTE_ADAPTER = GSON.getAdapter(DirectionsRoute.class);
+
+    private RouteCodec() {
+    }
+
+    /**
+     * A route read back from its binary form, together with the request it was stored for, if any.
+     */
+    public static final class Record {
+        @Nullable
+        private final RouteRequest request;
+        private final DirectionsRoute route;
+
+        Record(@Nullable RouteRequest request, @NonNull DirectionsRoute route) {
+            this.request = request;
+            this.route = route;
+        }
+
+        @Nullable
+        public RouteRequest getRequest() {
+            return request;
+        }
+
+        @NonNull
+        public DirectionsRoute getRoute() {
+            return route;
+        }
+    }
+
+    @NonNull
+    public static byte[] encode(@Nullable RouteRequest request, @NonNull DirectionsRoute route) {
+        TreeWriter tree = new TreeWriter();
+        try {
+            ROUTE_ADAPTER.write(tree, route);
+        } catch (IOException exception) {
+            // Nothing in the tree writer does I/O
+            throw new IllegalStateException(exception);
+        }
+
+        Writer out = new Writer(tree.out.size() + tree.stringTable.size() * 16 + 64);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        if (request == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            out.writeVarLong(request.getWaypoints().size());
+            for (Point waypoint : request.getWaypoints()) {
+                writePoint(out, waypoint);
+            }
+        }
+        out.writeVarLong(tree.stringTable.size());
+        for (String string : tree.stringTable) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeVarLong(bytes.length);
+            out.writeBytes(bytes, bytes.length);
+        }
+        out.writeBytes(tree.out.buffer, tree.out.size());
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a record starting at the buffer's position, which may be a memory mapped file.
+     *
+     * @throws IOException if the data isn't a route written by a compatible version of this codec
+     */
+    @NonNull
+    public static Record decode(@NonNull ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a route record");
+            }
+            int version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported route record version " + version);
+            }
+            RouteRequest request = null;
+            if (buffer.get() != 0) {
+                int waypointCount = (int) readVarLong(buffer);
+                List<Point> waypoints = new ArrayList<>(waypointCount);
+                for (int i = 0; i < waypointCount; i++) {
+                    waypoints.add(readPoint(buffer));
+                }
+                request = new RouteRequest(waypoints);
+            }
+            String[] stringTable = new String[(int) readVarLong(buffer)];
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < stringTable.length; i++) {
+                int length = (int) readVarLong(buffer);
+                if (scratch.length < length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                buffer.get(scratch, 0, length);
+                stringTable[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+            DirectionsRoute route = ROUTE_ADAPTER.read(new TreeReader(buffer, stringTable));
+            if (route == null) {
+                throw new IOException("Route record without a route");
+            }
+            return new Record(request, route);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | IllegalStateException | JsonParseException exception) {
+            throw new IOException("Corrupt route record", exception);
+        }
+    }
+
+    private static void writePoint(Writer out, Point point) {
+        out.writeDouble(point.longitude());
+        out.writeDouble(point.latitude());
+    }
+
+    private static Point readPoint(ByteBuffer buffer) {
+        double longitude = buffer.getDouble();
+        double latitude = buffer.getDouble();
+        return Point.fromLngLat(longitude, latitude);
+    }
+
+    private static void writeNumber(Writer out, double value) {
+        for (int scale = 0; scale <= MAX_DECIMAL_SCALE; scale++) {
+            double scaled = value * POWERS_OF_TEN[scale];
+            if (Math.abs(scaled) >= MAX_EXACT_LONG) {
+                break;
+            }
+            long unscaled = Math.round(scaled);
+            // Division by an exact power of ten is correctly rounded, so this is what decoding yields
+            if (unscaled / POWERS_OF_TEN[scale] == value) {
+                if (scale == 0) {
+                    out.writeByte(TAG_LONG);
+                    out.writeVarLong(zigZag(unscaled));
+                } else {
+                    out.writeByte(TAG_DECIMAL);
+                    out.writeByte(scale);
+                    out.writeVarLong(zigZag(unscaled));
+                }
+                return;
+            }
+        }
+        out.writeByte(TAG_DOUBLE);
+        out.writeDouble(value);
+    }
+
+    /**
+     * Packs what the type adapters write into tags, string table indices and varints. Names are held
+     * back until their value comes, so that nulls are dropped together with their name, as the text
+     * writer does unless told to serialize nulls.
+     */
+    private static final class TreeWriter extends JsonWriter {
+        final Writer out = new Writer(4096);
+        final List<String> stringTable = new ArrayList<>();
+        private final Map<String, Integer> strings = new HashMap<>();
+        @Nullable
+        private String pendingName;
+
+        TreeWriter() {
+            super(new StringWriter(0));
+            // What Gson.toJson() would set, the writer's own default is to keep them
+            setSerializeNulls(false);
+        }
+
+        @Override
+        public JsonWriter beginArray() {
+            writeName();
+            out.writeByte(TAG_ARRAY);
+            return this;
+        }
+
+        @Override
+        public JsonWriter endArray() {
+            out.writeByte(TAG_END);
+            return this;
+        }
+
+        @Override
+        public JsonWriter beginObject() {
+            writeName();
+            out.writeByte(TAG_OBJECT);
+            return this;
+        }
+
+        @Override
+        public JsonWriter endObject() {
+            pendingName = null;
+            out.writeVarLong(0);
+            return this;
+        }
+
+        @Override
+        public JsonWriter name(String name) {
+            if (name == null) {
+                throw new NullPointerException("name == null");
+            }
+            pendingName = name;
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(String value) {
+            if (value == null) {
+                return nullValue();
+            }
+            long[] polyline = GEOMETRY_KEY.equals(pendingName) ? unpackPolyline(value) : null;
+            writeName();
+            if (polyline != null) {
+                out.writeByte(TAG_POLYLINE);
+                out.writeVarLong(polyline.length);
+                for (long chunkValue : polyline) {
+                    out.writeVarLong(chunkValue);
+                }
+            } else {
+                out.writeByte(TAG_STRING);
+                out.writeVarLong(intern(value));
+            }
+            return this;
+        }
+
+        @Override
+        public JsonWriter jsonValue(String value) throws IOException {
+            if (value == null) {
+                return nullValue();
+            }
+            GSON.getAdapter(JsonElement.class).write(this, GSON.fromJson(value, JsonElement.class));
+            return this;
+        }
+
+        @Override
+        public JsonWriter nullValue() {
+            if (pendingName != null && !getSerializeNulls()) {
+                pendingName = null;
+                return this;
+            }
+            writeName();
+            out.writeByte(TAG_NULL);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(boolean value) {
+            writeName();
+            out.writeByte(value ? TAG_TRUE : TAG_FALSE);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(Boolean value) {
+            return value == null ? nullValue() : value(value.booleanValue());
+        }
+
+        @Override
+        public JsonWriter value(double value) {
+            writeName();
+            writeNumber(out, value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(long value) {
+            writeName();
+            if (Math.abs(value) < MAX_EXACT_LONG) {
+                out.writeByte(TAG_LONG);
+                out.writeVarLong(zigZag(value));
+            } else {
+                writeNumber(out, value);
+            }
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(Number value) {
+            return value == null ? nullValue() : value(value.doubleValue());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void writeName() {
+            if (pendingName != null) {
+                // Zero closes the object, so keys are off by one
+                out.writeVarLong(intern(pendingName) + 1L);
+                pendingName = null;
+            }
+        }
+
+        private int intern(String string) {
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = stringTable.size();
+                strings.put(string, index);
+                stringTable.add(string);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Hands the packed form to the type adapters as if it was text, without building any of it.
+     */
+    private static final class TreeReader extends JsonReader {
+        private static final int UNKNOWN = -1;
+
+        private final ByteBuffer buffer;
+        private final String[] stringTable;
+        private final StringBuilder scratch = new StringBuilder();
+        // Whether each open container is an object
+        private boolean[] objects = new boolean[32];
+        private int depth;
+        // Inside an object, whether its next key or its end comes next rather than a value
+        private boolean expectingName;
+        // The key read ahead by peek() or hasNext(), plus one, zero for the end of the object
+        private int peekedKey = UNKNOWN;
+
+        TreeReader(ByteBuffer buffer, String[] stringTable) {
+            super(new StringReader(""));
+            this.buffer = buffer;
+            this.stringTable = stringTable;
+        }
+
+        @Override
+        public void beginArray() throws IOException {
+            expectTag(TAG_ARRAY);
+            push(false);
+        }
+
+        @Override
+        public void endArray() throws IOException {
+            if (inObject()) {
+                throw new IllegalStateException("Expected the end of an array");
+            }
+            expectTag(TAG_END);
+            depth--;
+            afterValue();
+        }
+
+        @Override
+        public void beginObject() throws IOException {
+            expectTag(TAG_OBJECT);
+            push(true);
+        }
+
+        @Override
+        public void endObject() throws IOException {
+            if (!inObject() || !expectingName || peekKey() != 0) {
+                throw new IllegalStateException("Expected the end of an object");
+            }
+            peekedKey = UNKNOWN;
+            depth--;
+            afterValue();
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            if (inObject() && expectingName) {
+                return peekKey() != 0;
+            }
+            return peekTag() != TAG_END;
+        }
+
+        @Override
+        public JsonToken peek() throws IOException {
+            if (inObject() && expectingName) {
+                return peekKey() == 0 ? JsonToken.END_OBJECT : JsonToken.NAME;
+            }
+            if (depth == 0 && !buffer.hasRemaining()) {
+                return JsonToken.END_DOCUMENT;
+            }
+            byte tag = peekTag();
+            switch (tag) {
+                case TAG_NULL:
+                    return JsonToken.NULL;
+                case TAG_FALSE:
+                case TAG_TRUE:
+                    return JsonToken.BOOLEAN;
+                case TAG_LONG:
+                case TAG_DECIMAL:
+                case TAG_DOUBLE:
+                    return JsonToken.NUMBER;
+                case TAG_STRING:
+                case TAG_POLYLINE:
+                    return JsonToken.STRING;
+                case TAG_ARRAY:
+                    return JsonToken.BEGIN_ARRAY;
+                case TAG_OBJECT:
+                    return JsonToken.BEGIN_OBJECT;
+                case TAG_END:
+                    return JsonToken.END_ARRAY;
+                default:
+                    throw new IOException("Unknown tag " + tag);
+            }
+        }
+
+        @Override
+        public String nextName() throws IOException {
+            if (!inObject() || !expectingName) {
+                throw new IllegalStateException("Expected a name");
+            }
+            int key = peekKey();
+            if (key == 0) {
+                throw new IllegalStateException("Expected a name but the object ended");
+            }
+            peekedKey = UNKNOWN;
+            expectingName = false;
+            return stringTable[key - 1];
+        }
+
+        @Override
+        public String nextString() throws IOException {
+            String value;
+            byte tag = nextTag();
+            switch (tag) {
+                case TAG_STRING:
+                    value = stringTable[(int) readVarLong(buffer)];
+                    break;
+                case TAG_POLYLINE:
+                    scratch.setLength(0);
+                    long count = readVarLong(buffer);
+                    for (long i = 0; i < count; i++) {
+                        appendPolylineValue(scratch, readVarLong(buffer));
+                    }
+                    value = scratch.toString();
+                    break;
+                case TAG_LONG:
+                    value = Long.toString(unZigZag(readVarLong(buffer)));
+                    break;
+                case TAG_DECIMAL:
+                case TAG_DOUBLE:
+                    value = Double.toString(readDouble(tag));
+                    break;
+                default:
+                    throw new IllegalStateException("Expected a string but was tag " + tag);
+            }
+            afterValue();
+            return value;
+        }
+
+        @Override
+        public boolean nextBoolean() throws IOException {
+            byte tag = nextTag();
+            if (tag != TAG_TRUE && tag != TAG_FALSE) {
+                throw new IllegalStateException("Expected a boolean but was tag " + tag);
+            }
+            afterValue();
+            return tag == TAG_TRUE;
+        }
+
+        @Override
+        public void nextNull() throws IOException {
+            expectTag(TAG_NULL);
+            afterValue();
+        }
+
+        @Override
+        public double nextDouble() throws IOException {
+            byte tag = nextTag();
+            double value;
+            if (tag == TAG_LONG) {
+                value = unZigZag(readVarLong(buffer));
+            } else if (tag == TAG_STRING) {
+                value = Double.parseDouble(stringTable[(int) readVarLong(buffer)]);
+            } else {
+                value = readDouble(tag);
+            }
+            afterValue();
+            return value;
+        }
+
+        @Override
+        public long nextLong() throws IOException {
+            byte tag = nextTag();
+            long value;
+            if (tag == TAG_LONG) {
+                value = unZigZag(readVarLong(buffer));
+            } else {
+                double number = tag == TAG_STRING
+                        ? Double.parseDouble(stringTable[(int) readVarLong(buffer)]) : readDouble(tag);
+                value = (long) number;
+                if (value != number) {
+                    throw new NumberFormatException("Expected a long but was " + number);
+                }
+            }
+            afterValue();
+            return value;
+        }
+
+        @Override
+        public int nextInt() throws IOException {
+            long value = nextLong();
+            if ((int) value != value) {
+                throw new NumberFormatException("Expected an int but was " + value);
+            }
+            return (int) value;
+        }
+
+        @Override
+        public void skipValue() throws IOException {
+            if (inObject() && expectingName) {
+                nextName();
+                return;
+            }
+            skip(nextTag());
+            afterValue();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getPath() {
+            return "$";
+        }
+
+        @Override
+        public String toString() {
+            return "RouteCodec.TreeReader at " + buffer.position();
+        }
+
+        private void skip(byte tag) throws IOException {
+            switch (tag) {
+                case TAG_NULL:
+                case TAG_FALSE:
+                case TAG_TRUE:
+                    return;
+                case TAG_LONG:
+                case TAG_STRING:
+                    readVarLong(buffer);
+                    return;
+                case TAG_DECIMAL:
+                    buffer.get();
+                    readVarLong(buffer);
+                    return;
+                case TAG_DOUBLE:
+                    buffer.getDouble();
+                    return;
+                case TAG_POLYLINE:
+                    long count = readVarLong(buffer);
+                    for (long i = 0; i < count; i++) {
+                        readVarLong(buffer);
+                    }
+                    return;
+                case TAG_ARRAY:
+                    for (byte item = buffer.get(); item != TAG_END; item = buffer.get()) {
+                        skip(item);
+                    }
+                    return;
+                case TAG_OBJECT:
+                    while (readVarLong(buffer) != 0) {
+                        skip(buffer.get());
+                    }
+                    return;
+                default:
+                    throw new IOException("Unknown tag " + tag);
+            }
+        }
+
+        private double readDouble(byte tag) throws IOException {
+            if (tag == TAG_DECIMAL) {
+                int scale = buffer.get();
+                return unZigZag(readVarLong(buffer)) / POWERS_OF_TEN[scale];
+            } else if (tag == TAG_DOUBLE) {
+                return buffer.getDouble();
+            }
+            throw new IllegalStateException("Expected a number but was tag " + tag);
+        }
+
+        private boolean inObject() {
+            return depth > 0 && objects[depth - 1];
+        }
+
+        private void push(boolean object) {
+            if (depth == objects.length) {
+                objects = Arrays.copyOf(objects, depth * 2);
+            }
+            objects[depth++] = object;
+            expectingName = object;
+            peekedKey = UNKNOWN;
+        }
+
+        private void afterValue() {
+            expectingName = inObject();
+        }
+
+        private int peekKey() throws IOException {
+            if (peekedKey == UNKNOWN) {
+                peekedKey = (int) readVarLong(buffer);
+            }
+            return peekedKey;
+        }
+
+        private byte peekTag() {
+            return buffer.get(buffer.position());
+        }
+
+        private byte nextTag() {
+            if (inObject() && expectingName) {
+                throw new IllegalStateException("Expected a name");
+            }
+            return buffer.get();
+        }
+
+        private void expectTag(byte expected) {
+            byte tag = nextTag();
+            if (tag != expected) {
+                throw new IllegalStateException("Expected tag " + expected + " but was " + tag);
+            }
+        }
+    }
+
+    /**
+     * Splits an encoded polyline into the (zig-zagged) delta values it is made of, or returns null if
+     * the string isn't a polyline we can reproduce byte for byte.
+     */
+    @Nullable
+    static long[] unpackPolyline(String polyline) {
+        long[] values = new long[polyline.length()];
+        int count = 0;
+        long value = 0;
+        int shift = 0;
+        for (int i = 0; i < polyline.length(); i++) {
+            int chunk = polyline.charAt(i) - 63;
+            if (chunk < 0 || chunk > 63 || shift > 60) {
+                return null;
+            }
+            value |= (long) (chunk & 0x1f) << shift;
+            if (chunk < 0x20) {
+                values[count++] = value;
+                value = 0;
+                shift = 0;
+            } else {
+                shift += 5;
+            }
+        }
+        if (shift != 0) {
+            return null;
+        }
+        long[] result = Arrays.copyOf(values, count);
+        StringBuilder check = new StringBuilder(polyline.length());
+        for (long chunkValue : result) {
+            appendPolylineValue(check, chunkValue);
+        }
+        return polyline.contentEquals(check) ? result : null;
+    }
+
+    private static void appendPolylineValue(StringBuilder out, long value) {
+        while (value >= 0x20) {
+            out.append((char) ((0x20 | (value & 0x1f)) + 63));
+            value >>>= 5;
+        }
+        out.append((char) (value + 63));
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Growable byte buffer, like a ByteArrayOutputStream without the synchronization.
+     */
+    private static final class Writer {
+        byte[] buffer;
+        private int size;
+
+        Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            buffer[size++] = (byte) (value >>> 24);
+            buffer[size++] = (byte) (value >>> 16);
+            buffer[size++] = (byte) (value >>> 8);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            writeInt((int) (bits >>> 32));
+            writeInt((int) bits);
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, 0, buffer, size, length);
+            size += length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(size + extra, buffer.length * 2));
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Directory of routes written with {@link RouteCodec}, one file per key. Files are written to a
+ * temporary name and renamed into place, so a crash mid-write never leaves a half written record
+ * behind, and they are memory mapped when read back.
+ */
+public class RouteDiskCache {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+
+    public RouteDiskCache(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return a file name safe key for a request; {@link #get(String)} callers should check that the
+     * stored request matches, since different requests can share a key
+     */
+    @NonNull
+    public static String keyFor(@NonNull RouteRequest request) {
+        return "request-" + Integer.toHexString(request.hashCode());
+    }
+
+    public void put(@NonNull String key, @Nullable RouteRequest request, @NonNull DirectionsRoute route)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        byte[] bytes = RouteCodec.encode(request, route);
+        File file = fileFor(key);
+        File temp = new File(directory, key + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not move " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * @return the stored record, or null if there is none or it can't be read
+     */
+    @Nullable
+    public RouteCodec.Record get(@NonNull String key) {
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return RouteCodec.decode(buffer);
+        } catch (IOException exception) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * @return when the record for the key was written, or 0 if there is none
+     */
+    public long lastModified(@NonNull String key) {
+        return fileFor(key).lastModified();
+    }
+
+    public void remove(@NonNull String key) {
+        fileFor(key).delete();
+    }
+
+    public void removeOlderThan(long timestampMillis) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.lastModified() < timestampMillis) {
+                file.delete();
+            }
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, key);
+    }
+}
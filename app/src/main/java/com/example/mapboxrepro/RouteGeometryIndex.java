@@ -0,0 +1,294 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.geojson.Point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spatial index over the segments of a route line, for snapping locations to the route without
+ * walking every segment. Distances are measured in meters in a projection local to each segment,
+ * with longitude scaled for the segment's own latitude, so they hold up on a route that runs a long
+ * way north or south. Every segment is filed under the grid cells its bounding box touches, cells
+ * laid out around the line's first point; away from its latitude they are narrower or wider than
+ * nominal, which a query makes up for by widening or narrowing the columns it searches. A nearest
+ * segment query only looks at the cells within its search radius, so it costs the same on a ten
+ * kilometer route as on a thousand kilometer one, and going from a distance along the route back to
+ * a point is a binary search.
+ * <p>
+ * Immutable once built, so it can be queried from any thread.
+ */
+final class RouteGeometryIndex {
+    private static final double EARTH_RADIUS_METERS = 6371008.8;
+    private static final double METERS_PER_DEGREE_LATITUDE = Math.toRadians(EARTH_RADIUS_METERS);
+    private static final double CELL_SIZE_METERS = 100;
+    // Keeps the column range finite next to the poles
+    private static final double MIN_LONGITUDE_SCALE = 0.01;
+
+    private final double originLongitude;
+    private final double originLatitude;
+    private final double originLongitudeScale;
+    private final double[] longitudes;
+    private final double[] latitudes;
+    // Meters per degree of longitude at each segment's middle
+    private final double[] metersPerDegreeLongitude;
+    // Distance along the route to every vertex, in meters
+    private final double[] distances;
+    private final Map<Long, int[]> cells;
+
+    RouteGeometryIndex(@NonNull List<Point> line) {
+        if (line.size() < 2) {
+            throw new IllegalArgumentException("A route line needs at least two points");
+        }
+        originLongitude = line.get(0).longitude();
+        originLatitude = line.get(0).latitude();
+        originLongitudeScale = longitudeScale(originLatitude);
+        longitudes = new double[line.size()];
+        latitudes = new double[line.size()];
+        metersPerDegreeLongitude = new double[line.size() - 1];
+        distances = new double[line.size()];
+        for (int i = 0; i < line.size(); i++) {
+            longitudes[i] = line.get(i).longitude();
+            latitudes[i] = line.get(i).latitude();
+            if (i > 0) {
+                metersPerDegreeLongitude[i - 1] = METERS_PER_DEGREE_LATITUDE
+                        * longitudeScale((latitudes[i - 1] + latitudes[i]) / 2);
+                distances[i] = distances[i - 1] + Math.hypot(
+                        (longitudes[i] - longitudes[i - 1]) * metersPerDegreeLongitude[i - 1],
+                        (latitudes[i] - latitudes[i - 1]) * METERS_PER_DEGREE_LATITUDE);
+            }
+        }
+        Map<Long, List<Integer>> building = new HashMap<>();
+        for (int segment = 0; segment < longitudes.length - 1; segment++) {
+            int minColumn = cell(projectX(Math.min(longitudes[segment], longitudes[segment + 1])));
+            int maxColumn = cell(projectX(Math.max(longitudes[segment], longitudes[segment + 1])));
+            int minRow = cell(projectY(Math.min(latitudes[segment], latitudes[segment + 1])));
+            int maxRow = cell(projectY(Math.max(latitudes[segment], latitudes[segment + 1])));
+            for (int column = minColumn; column <= maxColumn; column++) {
+                for (int row = minRow; row <= maxRow; row++) {
+                    building.computeIfAbsent(cellKey(column, row), key -> new ArrayList<>()).add(segment);
+                }
+            }
+        }
+        cells = new HashMap<>(building.size() * 2);
+        for (Map.Entry<Long, List<Integer>> entry : building.entrySet()) {
+            List<Integer> segments = entry.getValue();
+            int[] packed = new int[segments.size()];
+            for (int i = 0; i < packed.length; i++) {
+                packed[i] = segments.get(i);
+            }
+            cells.put(entry.getKey(), packed);
+        }
+    }
+
+    int segmentCount() {
+        return longitudes.length - 1;
+    }
+
+    /**
+     * @return the length of the route in meters
+     */
+    double length() {
+        return distances[distances.length - 1];
+    }
+
+    /**
+     * @return the location's closest point on the route, or null if the route isn't within
+     * {@code maxDistanceMeters}
+     */
+    @Nullable
+    Snap snap(double longitude, double latitude, double maxDistanceMeters) {
+        return snap(longitude, latitude, maxDistanceMeters, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Like {@link #snap(double, double, double)}, but where the route passes within
+     * {@code maxDistanceMeters} more than once, e.g. at an overpass or where it doubles back, goes
+     * with the closest point between the given distances along the route over one that is closer
+     * but elsewhere. Falls back to the closest point anywhere if there is none in that stretch.
+     */
+    @Nullable
+    Snap snap(double longitude, double latitude, double maxDistanceMeters,
+              double fromDistanceAlong, double toDistanceAlong) {
+        int segment = nearestSegment(longitude, latitude, maxDistanceMeters, fromDistanceAlong, toDistanceAlong);
+        if (segment == -1) {
+            return null;
+        }
+        double fraction = fractionAlong(segment, longitude, latitude);
+        double segmentLength = distances[segment + 1] - distances[segment];
+        return new Snap(segment, fraction, Math.sqrt(distanceSquared(segment, longitude, latitude)),
+                distances[segment] + fraction * segmentLength);
+    }
+
+    /**
+     * @return the segment containing the point the given distance along the route, clamped to the
+     * first and last segment
+     */
+    int segmentAt(double distanceAlong) {
+        int index = Arrays.binarySearch(distances, distanceAlong);
+        int vertex = index >= 0 ? index : -index - 2;
+        return Math.max(0, Math.min(segmentCount() - 1, vertex));
+    }
+
+    /**
+     * @return the point the given distance along the route, e.g. the snapped location plus how far
+     * ahead to look, clamped to the ends of the route
+     */
+    @NonNull
+    Point pointAt(double distanceAlong) {
+        double clamped = Math.max(0, Math.min(length(), distanceAlong));
+        int segment = segmentAt(clamped);
+        double segmentLength = distances[segment + 1] - distances[segment];
+        double fraction = segmentLength == 0 ? 0 : (clamped - distances[segment]) / segmentLength;
+        return Point.fromLngLat(
+                longitudes[segment] + fraction * (longitudes[segment + 1] - longitudes[segment]),
+                latitudes[segment] + fraction * (latitudes[segment + 1] - latitudes[segment]));
+    }
+
+    /**
+     * @return the distance along the route to the start of the segment
+     */
+    double distanceAlong(int segment) {
+        return distances[segment];
+    }
+
+    /**
+     * @return the index of the segment closest to the location, or -1 if none is within
+     * {@code maxDistanceMeters}
+     */
+    int nearestSegment(double longitude, double latitude, double maxDistanceMeters) {
+        return nearestSegment(longitude, latitude, maxDistanceMeters,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @return the index of the closest segment within {@code maxDistanceMeters} that overlaps the
+     * given distances along the route, else the closest one anywhere, or -1 if none is that close
+     */
+    private int nearestSegment(double longitude, double latitude, double maxDistanceMeters,
+                               double fromDistanceAlong, double toDistanceAlong) {
+        double x = projectX(longitude);
+        double y = projectY(latitude);
+        // The cells are as wide as a column of the grid at the first point's latitude, not at this one
+        double halfWidth = maxDistanceMeters * originLongitudeScale / longitudeScale(latitude);
+        int minColumn = cell(x - halfWidth);
+        int maxColumn = cell(x + halfWidth);
+        int minRow = cell(y - maxDistanceMeters);
+        int maxRow = cell(y + maxDistanceMeters);
+        double maxSquared = maxDistanceMeters * maxDistanceMeters;
+        int nearest = -1;
+        double nearestSquared = maxSquared;
+        int nearestInRange = -1;
+        double nearestInRangeSquared = maxSquared;
+        for (int column = minColumn; column <= maxColumn; column++) {
+            for (int row = minRow; row <= maxRow; row++) {
+                int[] segments = cells.get(cellKey(column, row));
+                if (segments == null) {
+                    continue;
+                }
+                for (int segment : segments) {
+                    double distanceSquared = distanceSquared(segment, longitude, latitude);
+                    // Ties go to the earlier segment, e.g. where a route doubles back on itself
+                    if (closer(segment, distanceSquared, nearest, nearestSquared)) {
+                        nearest = segment;
+                        nearestSquared = distanceSquared;
+                    }
+                    if (distances[segment + 1] >= fromDistanceAlong && distances[segment] <= toDistanceAlong
+                            && closer(segment, distanceSquared, nearestInRange, nearestInRangeSquared)) {
+                        nearestInRange = segment;
+                        nearestInRangeSquared = distanceSquared;
+                    }
+                }
+            }
+        }
+        return nearestInRange != -1 ? nearestInRange : nearest;
+    }
+
+    private static boolean closer(int segment, double distanceSquared, int best, double bestSquared) {
+        return distanceSquared < bestSquared || distanceSquared == bestSquared && (best == -1 || segment < best);
+    }
+
+    /**
+     * @return the distance from the location to the closest point of the given segment
+     */
+    double distanceToSegment(int segment, double longitude, double latitude) {
+        return Math.sqrt(distanceSquared(segment, longitude, latitude));
+    }
+
+    /**
+     * @return the distance from the location to the route, or positive infinity if it's more than
+     * {@code maxDistanceMeters}
+     */
+    double distanceTo(double longitude, double latitude, double maxDistanceMeters) {
+        int segment = nearestSegment(longitude, latitude, maxDistanceMeters);
+        return segment == -1 ? Double.POSITIVE_INFINITY : distanceToSegment(segment, longitude, latitude);
+    }
+
+    private double distanceSquared(int segment, double longitude, double latitude) {
+        double fraction = fractionAlong(segment, longitude, latitude);
+        double offsetX = (longitude - longitudes[segment]
+                - fraction * (longitudes[segment + 1] - longitudes[segment])) * metersPerDegreeLongitude[segment];
+        double offsetY = (latitude - latitudes[segment]
+                - fraction * (latitudes[segment + 1] - latitudes[segment])) * METERS_PER_DEGREE_LATITUDE;
+        return offsetX * offsetX + offsetY * offsetY;
+    }
+
+    /**
+     * @return how far along the segment, from 0 to 1, the closest point to the location is
+     */
+    private double fractionAlong(int segment, double longitude, double latitude) {
+        double scale = metersPerDegreeLongitude[segment];
+        double dx = (longitudes[segment + 1] - longitudes[segment]) * scale;
+        double dy = (latitudes[segment + 1] - latitudes[segment]) * METERS_PER_DEGREE_LATITUDE;
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return 0;
+        }
+        double fraction = ((longitude - longitudes[segment]) * scale * dx
+                + (latitude - latitudes[segment]) * METERS_PER_DEGREE_LATITUDE * dy) / lengthSquared;
+        return Math.max(0, Math.min(1, fraction));
+    }
+
+    private double projectX(double longitude) {
+        return (longitude - originLongitude) * METERS_PER_DEGREE_LATITUDE * originLongitudeScale;
+    }
+
+    private double projectY(double latitude) {
+        return (latitude - originLatitude) * METERS_PER_DEGREE_LATITUDE;
+    }
+
+    private static double longitudeScale(double latitude) {
+        return Math.max(MIN_LONGITUDE_SCALE, Math.cos(Math.toRadians(latitude)));
+    }
+
+    private static int cell(double meters) {
+        return (int) Math.floor(meters / CELL_SIZE_METERS);
+    }
+
+    private static long cellKey(int column, int row) {
+        return (long) column << 32 | (row & 0xffffffffL);
+    }
+
+    /**
+     * Where a location lands on the route.
+     */
+    static final class Snap {
+        final int segment;
+        final double fraction;
+        final double distanceFromRoute;
+        final double distanceAlong;
+
+        Snap(int segment, double fraction, double distanceFromRoute, double distanceAlong) {
+            this.segment = segment;
+            this.fraction = fraction;
+            this.distanceFromRoute = distanceFromRoute;
+            this.distanceAlong = distanceAlong;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Sits in front of a {@link RouteSource} and makes sure we only ask it once per {@link RouteRequest}:
+ * concurrent requests for the same route share one in-flight fetch, and finished routes are kept in a
+ * small LRU cache until they are older than the configured time to live.
+ */
+public class RouteRepository implements MemoryPressureManager.Trimmable {
+    static final int DEFAULT_MAX_ENTRIES = 8;
+    static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final RouteSource source;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Map<RouteRequest, CacheEntry> cache;
+    private final Map<RouteRequest, List<RouteSource.Callback>> inFlight = new HashMap<>();
+
+    public RouteRepository(@NonNull RouteSource source) {
+        this(source, DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS,
+                () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    RouteRepository(@NonNull RouteSource source, int maxEntries, long ttlMillis, @NonNull LongSupplier clock) {
+        this.source = source;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.cache = new LinkedHashMap<RouteRequest, CacheEntry>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RouteRequest, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Delivers the route for the given request to the callback, either straight from the cache (on the
+     * calling thread) or once the shared fetch completes (on whatever thread the source calls back on).
+     */
+    public void getRoute(@NonNull RouteRequest request, @NonNull RouteSource.Callback callback) {
+        DirectionsRoute cached;
+        synchronized (this) {
+            cached = peekLocked(request);
+            if (cached == null) {
+                List<RouteSource.Callback> waiting = inFlight.get(request);
+                if (waiting != null) {
+                    waiting.add(callback);
+                    return;
+                }
+                waiting = new ArrayList<>();
+                waiting.add(callback);
+                inFlight.put(request, waiting);
+            }
+        }
+        if (cached != null) {
+            callback.onRoute(cached);
+            return;
+        }
+        source.fetchRoute(request, new RouteSource.Callback() {
+            @Override
+            public void onRoute(@NonNull DirectionsRoute route) {
+                List<RouteSource.Callback> waiting;
+                synchronized (RouteRepository.this) {
+                    cache.put(request, new CacheEntry(route, clock.getAsLong()));
+                    waiting = inFlight.remove(request);
+                }
+                for (RouteSource.Callback waiter : waiting) {
+                    waiter.onRoute(route);
+                }
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable throwable) {
+                List<RouteSource.Callback> waiting;
+                synchronized (RouteRepository.this) {
+                    waiting = inFlight.remove(request);
+                }
+                for (RouteSource.Callback waiter : waiting) {
+                    waiter.onFailure(throwable);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the cached route for the request if there is a fresh one, without touching the source
+     */
+    @Nullable
+    public synchronized DirectionsRoute peek(@NonNull RouteRequest request) {
+        return peekLocked(request);
+    }
+
+    public synchronized void invalidate(@NonNull RouteRequest request) {
+        cache.remove(request);
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public synchronized void trimMemory(@NonNull MemoryPressureManager.Tier tier) {
+        if (tier != MemoryPressureManager.Tier.LIGHT) {
+            cache.clear();
+            return;
+        }
+        long now = clock.getAsLong();
+        cache.values().removeIf(entry -> now - entry.createdAtMillis > ttlMillis);
+    }
+
+    private DirectionsRoute peekLocked(RouteRequest request) {
+        CacheEntry entry = cache.get(request);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.getAsLong() - entry.createdAtMillis > ttlMillis) {
+            cache.remove(request);
+            return null;
+        }
+        return entry.route;
+    }
+
+    private static class CacheEntry {
+        final DirectionsRoute route;
+        final long createdAtMillis;
+
+        CacheEntry(DirectionsRoute route, long createdAtMillis) {
+            this.route = route;
+            this.createdAtMillis = createdAtMillis;
+        }
+    }
+}
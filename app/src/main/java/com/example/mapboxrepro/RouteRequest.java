@@ -5,22 +5,39 @@ import androidx.annotation.NonNull;
 import com.mapbox.geojson.Point;
 
 import java.io.Serializable;
-import java.util.Objects;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A route through an ordered list of waypoints, from the origin through every stop to the destination.
+ */
 public class RouteRequest implements Serializable {
-    private Point origin, destination;
+    private final List<Point> waypoints;
 
     RouteRequest(@NonNull Point origin, @NonNull Point destination) {
-        this.origin = origin;
-        this.destination = destination;
+        this(Arrays.asList(origin, destination));
+    }
+
+    RouteRequest(@NonNull List<Point> waypoints) {
+        if (waypoints.size() < 2) {
+            throw new IllegalArgumentException("A route needs at least two waypoints");
+        }
+        this.waypoints = Collections.unmodifiableList(new ArrayList<>(waypoints));
     }
 
     public Point getOrigin() {
-        return origin;
+        return waypoints.get(0);
     }
 
     public Point getDestination() {
-        return destination;
+        return waypoints.get(waypoints.size() - 1);
+    }
+
+    @NonNull
+    public List<Point> getWaypoints() {
+        return waypoints;
     }
 
     @Override
@@ -28,12 +45,15 @@ public class RouteRequest implements Serializable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         RouteRequest that = (RouteRequest) o;
-        return origin.equals(that.origin) &&
-                destination.equals(that.destination);
+        return waypoints.equals(that.waypoints);
     }
 
+    /**
+     * Same as the origin and destination pair hashed for a two point request, which keeps the keys of
+     * routes cached on disk from before there were stops.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(origin, destination);
+        return waypoints.hashCode();
     }
 }
@@ -0,0 +1,20 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+
+/**
+ * Something that can turn a {@link RouteRequest} into a {@link DirectionsRoute}, e.g. the
+ * Directions API or a local stand-in for it.
+ */
+public interface RouteSource {
+
+    void fetchRoute(@NonNull RouteRequest request, @NonNull Callback callback);
+
+    interface Callback {
+        void onRoute(@NonNull DirectionsRoute route);
+
+        void onFailure(@NonNull Throwable throwable);
+    }
+}
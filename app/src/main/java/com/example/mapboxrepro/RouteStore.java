@@ -0,0 +1,92 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-scoped home for routes that are handed from one activity to another. Activities only pass
+ * the small handle returned by {@link #put(DirectionsRoute)} through their intents; the route itself
+ * stays in memory. Every route is also written to disk in the background so the handle can still be
+ * resolved if the process is killed and the activity is recreated from its intent, or after the
+ * in-memory copy was dropped because memory got low.
+ */
+public class RouteStore implements MemoryPressureManager.Trimmable {
+    private static final long STALE_FILE_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final Map<String, DirectionsRoute> routes = new ConcurrentHashMap<>();
+    // Whether each handle's route made it to disk, so the in-memory copy can go; released handles
+    // have no entry, so a write that finishes after the release can't mark them
+    private final Map<String, Boolean> persisted = new ConcurrentHashMap<>();
+    private final RouteDiskCache diskCache;
+    private final Executor ioExecutor;
+
+    public RouteStore(@NonNull File directory, @NonNull Executor ioExecutor) {
+        this.diskCache = new RouteDiskCache(directory);
+        this.ioExecutor = ioExecutor;
+        ioExecutor.execute(() -> diskCache.removeOlderThan(System.currentTimeMillis() - STALE_FILE_AGE_MILLIS));
+    }
+
+    /**
+     * @return a handle which can be put in an intent and resolved with {@link #get(String)}
+     */
+    @NonNull
+    public String put(@NonNull DirectionsRoute route) {
+        String handle = UUID.randomUUID().toString();
+        routes.put(handle, route);
+        persisted.put(handle, false);
+        ioExecutor.execute(() -> {
+            try {
+                diskCache.put(handle, null, route);
+                // Unless it was released meanwhile, then the file goes with the removal queued behind this
+                persisted.replace(handle, false, true);
+            } catch (IOException exception) {
+                // The in-memory copy is still there, we only lose the process death fallback
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * Resolves a handle, falling back to the copy on disk if this process didn't create it or trimmed
+     * it. That read happens on the calling thread, but only after the process was killed or memory
+     * got low.
+     */
+    @Nullable
+    public DirectionsRoute get(@NonNull String handle) {
+        DirectionsRoute route = routes.get(handle);
+        if (route != null) {
+            return route;
+        }
+        RouteCodec.Record record = diskCache.get(handle);
+        if (record == null) {
+            return null;
+        }
+        route = record.getRoute();
+        routes.put(handle, route);
+        persisted.put(handle, true);
+        return route;
+    }
+
+    @Override
+    public void trimMemory(@NonNull MemoryPressureManager.Tier tier) {
+        if (tier != MemoryPressureManager.Tier.LIGHT) {
+            routes.keySet().removeIf(handle -> persisted.getOrDefault(handle, false));
+        }
+    }
+
+    public void release(@NonNull String handle) {
+        routes.remove(handle);
+        persisted.remove(handle);
+        ioExecutor.execute(() -> diskCache.remove(handle));
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one at a time and in order on a shared executor, so that something written for a single
+ * worker thread, like a {@link RerouteEngine}, doesn't need a thread of its own.
+ */
+final class SerialExecutor implements Executor {
+    private final Executor executor;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final Runnable drain = this::drain;
+    // Guarded by tasks
+    private boolean scheduled;
+
+    SerialExecutor(@NonNull Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable task) {
+        synchronized (tasks) {
+            tasks.add(task);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        try {
+            executor.execute(drain);
+        } catch (RuntimeException exception) {
+            synchronized (tasks) {
+                tasks.clear();
+                scheduled = false;
+            }
+            throw exception;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Runnable task;
+            synchronized (tasks) {
+                task = tasks.poll();
+                if (task == null) {
+                    scheduled = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException exception) {
+                // The rest still runs, after the failure got to the executor's handler
+                executor.execute(drain);
+                throw exception;
+            }
+        }
+    }
+}
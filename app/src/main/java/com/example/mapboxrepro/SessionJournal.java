@@ -0,0 +1,448 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.geojson.Point;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the navigation session in progress, so a process that dies mid-trip can be
+ * started again right where it was: the request, a {@link RouteStore} handle for the route, the leg
+ * and step the driver is on and the last snapped location. Nothing in it needs the network to be
+ * resumed.
+ * <p>
+ * Every change is appended as a record with its length and a CRC32. Reading stops at the first
+ * record that doesn't check out, the one being written when the process died, and cuts it off. After
+ * {@value #COMPACT_AFTER_RECORDS} records the journal is compacted into a new file holding only the
+ * current state, which replaces the old one in a rename. The session ending deletes the journal.
+ * <p>
+ * Writes happen on the I/O executor. Process death doesn't lose what was written before, so records
+ * aren't synced to the disk; only the compacted file is, before it replaces the old one.
+ */
+public class SessionJournal {
+    static final int MAGIC = 0x534a4e31; // "SJN1"
+    static final int VERSION = 1;
+    static final int COMPACT_AFTER_RECORDS = 200;
+    // Progress is written at most this often, unless the driver moved on to another step
+    static final long PROGRESS_INTERVAL_MILLIS = 2000;
+
+    private static final byte START = 1;
+    private static final byte ROUTE = 2;
+    private static final byte PROGRESS = 3;
+
+    /**
+     * A session as it was last recorded.
+     */
+    public static final class Session implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @NonNull
+        public final RouteRequest request;
+        @NonNull
+        public final String routeHandle;
+        public final long startedAtMillis;
+        public final int legIndex;
+        public final int stepIndex;
+        /**
+         * The last snapped location, NaN before the first progress update.
+         */
+        public final double longitude;
+        public final double latitude;
+        public final long updatedAtMillis;
+
+        Session(@NonNull RouteRequest request, @NonNull String routeHandle, long startedAtMillis, int legIndex,
+                int stepIndex, double longitude, double latitude, long updatedAtMillis) {
+            this.request = request;
+            this.routeHandle = routeHandle;
+            this.startedAtMillis = startedAtMillis;
+            this.legIndex = legIndex;
+            this.stepIndex = stepIndex;
+            this.longitude = longitude;
+            this.latitude = latitude;
+            this.updatedAtMillis = updatedAtMillis;
+        }
+
+        public boolean hasLocation() {
+            return !Double.isNaN(longitude);
+        }
+
+        /**
+         * Leg and step start over on the new route, the location is still where the driver was.
+         */
+        Session withRoute(@NonNull String handle) {
+            return new Session(request, handle, startedAtMillis, 0, 0, longitude, latitude, updatedAtMillis);
+        }
+
+        Session withProgress(int leg, int step, double lon, double lat, long timeMillis) {
+            return new Session(request, routeHandle, startedAtMillis, leg, step, lon, lat, timeMillis);
+        }
+    }
+
+    public interface RecoveryCallback {
+        /**
+         * @param session the session that was in progress, null if there was none or it is too old
+         */
+        void onRecovered(@Nullable Session session);
+    }
+
+    private final File file;
+    private final long maxAgeMillis;
+    private final Executor ioExecutor;
+    private final Metrics metrics;
+    private final LongSupplier clockMillis;
+
+    // Only touched on the I/O executor
+    @Nullable
+    private Session session;
+    @Nullable
+    private DataOutputStream out;
+    private int records;
+
+    // Only touched by the thread reporting progress
+    private int lastLegIndex = -1;
+    private int lastStepIndex = -1;
+    private long lastProgressMillis;
+
+    /**
+     * @param maxAgeMillis sessions not updated for longer than this aren't resumed
+     */
+    public SessionJournal(@NonNull File file, long maxAgeMillis, @NonNull Executor ioExecutor,
+                          @NonNull Metrics metrics) {
+        this(file, maxAgeMillis, ioExecutor, metrics, System::currentTimeMillis);
+    }
+
+    SessionJournal(@NonNull File file, long maxAgeMillis, @NonNull Executor ioExecutor, @NonNull Metrics metrics,
+                   @NonNull LongSupplier clockMillis) {
+        this.file = file;
+        this.maxAgeMillis = maxAgeMillis;
+        this.ioExecutor = ioExecutor;
+        this.metrics = metrics;
+        this.clockMillis = clockMillis;
+    }
+
+    /**
+     * Reads the journal, on the I/O executor, and hands the session it describes to the callback.
+     * Call before recording anything.
+     */
+    public void recover(@NonNull Executor callbackExecutor, @NonNull RecoveryCallback callback) {
+        ioExecutor.execute(() -> {
+            long startNanos = System.nanoTime();
+            Session recovered = read();
+            metrics.recordSince("session.recover", startNanos);
+            if (recovered != null && clockMillis.getAsLong() - recovered.updatedAtMillis > maxAgeMillis) {
+                metrics.counter("session.expired").increment();
+                delete();
+                recovered = null;
+            }
+            session = recovered;
+            Session result = recovered;
+            callbackExecutor.execute(() -> callback.onRecovered(result));
+        });
+    }
+
+    /**
+     * Starts a new session, replacing whatever the journal held.
+     */
+    public void start(@NonNull RouteRequest request, @NonNull String routeHandle, long startedAtMillis) {
+        lastLegIndex = -1;
+        lastStepIndex = -1;
+        ioExecutor.execute(() -> {
+            delete();
+            session = new Session(request, routeHandle, startedAtMillis, 0, 0, Double.NaN, Double.NaN,
+                    startedAtMillis);
+            compact();
+        });
+    }
+
+    /**
+     * Goes on recording a session this journal isn't following, i.e. in a screen recreated after the
+     * process died: picks the journal back up if it is still on the given route, or else starts over
+     * from it. Does nothing if the journal already follows a session.
+     */
+    public void reattach(@NonNull RouteRequest request, @NonNull String routeHandle, long startedAtMillis) {
+        ioExecutor.execute(() -> {
+            if (session != null) {
+                return;
+            }
+            Session recovered = read();
+            if (recovered != null && recovered.routeHandle.equals(routeHandle)) {
+                session = recovered;
+                metrics.counter("session.reattached").increment();
+                return;
+            }
+            delete();
+            session = new Session(request, routeHandle, startedAtMillis, 0, 0, Double.NaN, Double.NaN,
+                    startedAtMillis);
+            compact();
+        });
+    }
+
+    /**
+     * The session goes on on another route, e.g. after a reroute, from its first step. Put the route in
+     * the {@link RouteStore} first, so it is on disk before the journal refers to it.
+     */
+    public void updateRoute(@NonNull String routeHandle) {
+        lastLegIndex = -1;
+        lastStepIndex = -1;
+        ioExecutor.execute(() -> {
+            if (session == null) {
+                return;
+            }
+            session = session.withRoute(routeHandle);
+            append(ROUTE, payload -> payload.writeUTF(routeHandle));
+        });
+    }
+
+    /**
+     * Records where the driver is, at most every {@value #PROGRESS_INTERVAL_MILLIS} ms unless the step
+     * changed. Called from one thread at a time.
+     */
+    public void updateProgress(int legIndex, int stepIndex, double longitude, double latitude) {
+        long nowMillis = clockMillis.getAsLong();
+        if (legIndex == lastLegIndex && stepIndex == lastStepIndex
+                && nowMillis - lastProgressMillis < PROGRESS_INTERVAL_MILLIS) {
+            return;
+        }
+        lastLegIndex = legIndex;
+        lastStepIndex = stepIndex;
+        lastProgressMillis = nowMillis;
+        ioExecutor.execute(() -> {
+            if (session == null) {
+                return;
+            }
+            session = session.withProgress(legIndex, stepIndex, longitude, latitude, nowMillis);
+            append(PROGRESS, payload -> writeProgress(payload, session));
+        });
+    }
+
+    /**
+     * The session is over, there is nothing to resume.
+     */
+    public void end() {
+        ioExecutor.execute(() -> {
+            session = null;
+            delete();
+        });
+    }
+
+    private interface PayloadWriter {
+        void write(DataOutputStream payload) throws IOException;
+    }
+
+    private void append(byte type, PayloadWriter writer) {
+        try {
+            if (out == null || records >= COMPACT_AFTER_RECORDS) {
+                compact();
+                return;
+            }
+            writeRecord(out, type, writer);
+            out.flush();
+            records++;
+        } catch (IOException exception) {
+            // The next record starts over with a compacted journal
+            metrics.counter("session.write_failures").increment();
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Replaces the journal with one holding only the current session.
+     */
+    private void compact() {
+        Session current = session;
+        if (current == null) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        closeQuietly();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+                DataOutputStream data = new DataOutputStream(fileOut);
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                writeRecord(data, START, payload -> writeStart(payload, current));
+                if (current.hasLocation()) {
+                    writeRecord(data, PROGRESS, payload -> writeProgress(payload, current));
+                }
+                data.flush();
+                fileOut.getFD().sync();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            out = new DataOutputStream(new FileOutputStream(file, true));
+            records = 0;
+            metrics.recordSince("session.compact", startNanos);
+        } catch (IOException exception) {
+            metrics.counter("session.write_failures").increment();
+            temp.delete();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream data, byte type, PayloadWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(type);
+        writer.write(payload);
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        data.writeInt(record.length);
+        data.writeInt((int) crc.getValue());
+        data.write(record);
+    }
+
+    private static void writeStart(DataOutputStream payload, Session session) throws IOException {
+        payload.writeLong(session.startedAtMillis);
+        payload.writeUTF(session.routeHandle);
+        List<Point> waypoints = session.request.getWaypoints();
+        payload.writeInt(waypoints.size());
+        for (Point waypoint : waypoints) {
+            payload.writeDouble(waypoint.longitude());
+            payload.writeDouble(waypoint.latitude());
+        }
+    }
+
+    private static void writeProgress(DataOutputStream payload, Session session) throws IOException {
+        payload.writeLong(session.updatedAtMillis);
+        payload.writeInt(session.legIndex);
+        payload.writeInt(session.stepIndex);
+        payload.writeDouble(session.longitude);
+        payload.writeDouble(session.latitude);
+    }
+
+    /**
+     * @return the session the journal describes, cutting off a record that was only partly written
+     */
+    @Nullable
+    private Session read() {
+        if (!file.isFile()) {
+            return null;
+        }
+        Session recovered = null;
+        long validLength = 0;
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                delete();
+                return null;
+            }
+            validLength = 8;
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException exception) {
+                    break;
+                }
+                int expectedCrc = in.readInt();
+                if (length <= 0 || length > file.length()) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != expectedCrc) {
+                    break;
+                }
+                recovered = apply(recovered, record);
+                validLength += 8 + length;
+                count++;
+            }
+        } catch (IOException exception) {
+            // A record cut short, what was read before it stands
+        }
+        if (validLength < file.length()) {
+            metrics.counter("session.torn_records").increment();
+            try (RandomAccessFile truncate = new RandomAccessFile(file, "rw")) {
+                truncate.setLength(validLength);
+            } catch (IOException exception) {
+                // Compacting on the next write starts a clean file anyway
+                count = COMPACT_AFTER_RECORDS;
+            }
+        }
+        if (recovered != null) {
+            try {
+                out = new DataOutputStream(new FileOutputStream(file, true));
+                records = count;
+            } catch (IOException exception) {
+                out = null;
+            }
+        }
+        return recovered;
+    }
+
+    @Nullable
+    private static Session apply(@Nullable Session current, byte[] record) throws IOException {
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(record));
+        switch (payload.readByte()) {
+            case START: {
+                long startedAtMillis = payload.readLong();
+                String routeHandle = payload.readUTF();
+                int count = payload.readInt();
+                if (count < 2 || count > record.length / 16) {
+                    throw new IOException("Malformed journal record");
+                }
+                List<Point> waypoints = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    double longitude = payload.readDouble();
+                    waypoints.add(Point.fromLngLat(longitude, payload.readDouble()));
+                }
+                return new Session(new RouteRequest(waypoints), routeHandle, startedAtMillis, 0, 0,
+                        Double.NaN, Double.NaN, startedAtMillis);
+            }
+            case ROUTE:
+                return current == null ? null : current.withRoute(payload.readUTF());
+            case PROGRESS: {
+                long timeMillis = payload.readLong();
+                int legIndex = payload.readInt();
+                int stepIndex = payload.readInt();
+                double longitude = payload.readDouble();
+                double latitude = payload.readDouble();
+                return current == null ? null
+                        : current.withProgress(legIndex, stepIndex, longitude, latitude, timeMillis);
+            }
+            default:
+                throw new IOException("Unknown journal record");
+        }
+    }
+
+    private void delete() {
+        closeQuietly();
+        records = 0;
+        if (file.exists() && !file.delete()) {
+            metrics.counter("session.write_failures").increment();
+        }
+    }
+
+    private void closeQuietly() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException exception) {
+                // Everything was flushed after each record
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The app's settings, loaded once in the background when the process starts and read from memory
+ * after that. Changes take effect in memory right away and go to the {@link Backend} in batches on
+ * the I/O executor, so no screen does preference I/O on the main thread.
+ * <p>
+ * A read before loading finished waits for it, counted in {@code settings.blocked_reads}; loading
+ * starts with the process, so that should only happen on the very first frames.
+ */
+public class SettingsStore {
+
+    /**
+     * A typed setting and its value when none was stored.
+     */
+    public static final class Key<T> {
+        @NonNull
+        final String name;
+        @NonNull
+        final Class<T> type;
+        @NonNull
+        final T defaultValue;
+
+        private Key(@NonNull String name, @NonNull Class<T> type, @NonNull T defaultValue) {
+            this.name = name;
+            this.type = type;
+            this.defaultValue = defaultValue;
+        }
+
+        @NonNull
+        public static Key<Integer> ofInt(@NonNull String name, int defaultValue) {
+            return new Key<>(name, Integer.class, defaultValue);
+        }
+
+        @NonNull
+        public static Key<Long> ofLong(@NonNull String name, long defaultValue) {
+            return new Key<>(name, Long.class, defaultValue);
+        }
+
+        @NonNull
+        public static Key<Float> ofFloat(@NonNull String name, float defaultValue) {
+            return new Key<>(name, Float.class, defaultValue);
+        }
+
+        @NonNull
+        public static Key<Boolean> ofBoolean(@NonNull String name, boolean defaultValue) {
+            return new Key<>(name, Boolean.class, defaultValue);
+        }
+
+        @NonNull
+        public static Key<String> ofString(@NonNull String name, @NonNull String defaultValue) {
+            return new Key<>(name, String.class, defaultValue);
+        }
+
+        @NonNull
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Where the settings are kept, e.g. {@link SharedPreferencesBackend}. Only called on the executors
+     * the store was given.
+     */
+    public interface Backend {
+        @NonNull
+        Map<String, ?> load();
+
+        /**
+         * @param changes the latest value of every setting that changed since the last write
+         */
+        void write(@NonNull Map<String, Object> changes);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the thread that changed the setting, once it holds the new value.
+         */
+        void onSettingChanged(@NonNull Key<?> key);
+    }
+
+    private final Backend backend;
+    private final Executor ioExecutor;
+    private final Metrics metrics;
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final AtomicBoolean loadStarted = new AtomicBoolean();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by itself
+    private final Map<String, Object> pendingWrites = new HashMap<>();
+    private final AtomicBoolean writeQueued = new AtomicBoolean();
+    private final Runnable writeTask = this::writePending;
+
+    public SettingsStore(@NonNull Backend backend, @NonNull Executor ioExecutor, @NonNull Metrics metrics) {
+        this.backend = backend;
+        this.ioExecutor = ioExecutor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts loading the stored settings on the given executor. Only the first call does anything.
+     */
+    public void load(@NonNull Executor executor) {
+        if (!loadStarted.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            long startNanos = System.nanoTime();
+            try {
+                for (Map.Entry<String, ?> entry : backend.load().entrySet()) {
+                    if (entry.getValue() != null) {
+                        values.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            } catch (RuntimeException exception) {
+                // Going on with the defaults beats not starting at all
+                metrics.counter("settings.load_failures").increment();
+            } finally {
+                loaded.countDown();
+            }
+            metrics.recordSince("settings.load", startNanos);
+        });
+    }
+
+    /**
+     * @return the setting's value, or its default if it was never set or was stored with another type
+     */
+    @NonNull
+    public <T> T get(@NonNull Key<T> key) {
+        awaitLoaded();
+        Object value = values.get(key.name);
+        return key.type.isInstance(value) ? key.type.cast(value) : key.defaultValue;
+    }
+
+    /**
+     * Changes a setting in memory and queues writing it out. Listeners hear about it only if the
+     * value actually changed.
+     */
+    public <T> void set(@NonNull Key<T> key, @NonNull T value) {
+        if (value.equals(get(key))) {
+            return;
+        }
+        values.put(key.name, value);
+        synchronized (pendingWrites) {
+            pendingWrites.put(key.name, value);
+        }
+        if (writeQueued.compareAndSet(false, true)) {
+            ioExecutor.execute(writeTask);
+        }
+        for (Listener listener : listeners) {
+            listener.onSettingChanged(key);
+        }
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void awaitLoaded() {
+        if (loaded.getCount() == 0) {
+            return;
+        }
+        metrics.counter("settings.blocked_reads").increment();
+        load(Runnable::run);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loaded.await();
+                break;
+            } catch (InterruptedException exception) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs on the I/O executor.
+     */
+    private void writePending() {
+        writeQueued.set(false);
+        Map<String, Object> changes;
+        synchronized (pendingWrites) {
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            changes = new HashMap<>(pendingWrites);
+            pendingWrites.clear();
+        }
+        long startNanos = System.nanoTime();
+        try {
+            backend.write(changes);
+            metrics.counter("settings.writes").increment();
+        } catch (RuntimeException exception) {
+            // Still in memory, and written with the next change
+            metrics.counter("settings.write_failures").increment();
+            synchronized (pendingWrites) {
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    pendingWrites.putIfAbsent(change.getKey(), change.getValue());
+                }
+            }
+        }
+        metrics.recordSince("settings.write", startNanos);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.mapboxrepro;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import androidx.annotation.NonNull;
+
+import java.util.Map;
+
+/**
+ * Keeps a {@link SettingsStore}'s settings in the default shared preferences, where they were before
+ * there was a store, so nothing a user set is lost. The preferences are opened on first use, off the
+ * main thread.
+ */
+class SharedPreferencesBackend implements SettingsStore.Backend {
+    private final Context context;
+    private SharedPreferences preferences;
+
+    SharedPreferencesBackend(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    private synchronized SharedPreferences preferences() {
+        if (preferences == null) {
+            preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        }
+        return preferences;
+    }
+
+    @NonNull
+    @Override
+    public Map<String, ?> load() {
+        return preferences().getAll();
+    }
+
+    /**
+     * Commits on the calling thread, the store's I/O executor. {@code apply()} would queue the write
+     * where the activity lifecycle waits for it on the main thread.
+     */
+    @Override
+    public void write(@NonNull Map<String, Object> changes) {
+        SharedPreferences.Editor editor = preferences().edit();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            String key = change.getKey();
+            Object value = change.getValue();
+            if (value instanceof Integer) {
+                editor.putInt(key, (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(key, (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(key, (Float) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(key, (Boolean) value);
+            } else {
+                editor.putString(key, String.valueOf(value));
+            }
+        }
+        if (!editor.commit()) {
+            throw new IllegalStateException("Could not write settings");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Turns location speeds into the text shown in the speed widget, without going through
+ * {@link String#format(String, Object...)}.
+ */
+final class SpeedFormatter {
+    static final String UNIT_LABEL = "MPH";
+    private static final double MILES_PER_HOUR_PER_METER_PER_SECOND = 2.2369;
+
+    private SpeedFormatter() {
+    }
+
+    static int toMilesPerHour(float metersPerSecond) {
+        return (int) (metersPerSecond * MILES_PER_HOUR_PER_METER_PER_SECOND);
+    }
+
+    /**
+     * Appends the speed and unit on separate lines, e.g. "42\nMPH".
+     */
+    static void appendSpeedText(@NonNull StringBuilder out, int milesPerHour) {
+        out.append(milesPerHour).append('\n').append(UNIT_LABEL);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.mapboxrepro;
+
+import android.content.res.Resources;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.text.style.AbsoluteSizeSpan;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Renders the current speed into the speed widget. This runs on every progress update, so the text
+ * sizes are resolved once, the size spans are shared, and the styled text for each speed is built
+ * the first time it is shown and reused after that. Nothing is touched when the displayed speed
+ * doesn't change.
+ */
+class SpeedWidgetRenderer {
+    private static final int MAX_CACHED_SPEED = 200;
+
+    private final TextView view;
+    private final AbsoluteSizeSpan speedSpan;
+    private final AbsoluteSizeSpan unitSpan;
+    private final SpannedString[] texts = new SpannedString[MAX_CACHED_SPEED + 1];
+    private final StringBuilder textBuffer = new StringBuilder(8);
+    private int displayedSpeed = -1;
+
+    SpeedWidgetRenderer(@NonNull TextView view) {
+        this.view = view;
+        Resources resources = view.getResources();
+        speedSpan = new AbsoluteSizeSpan(resources.getDimensionPixelSize(R.dimen.speed_text_size));
+        unitSpan = new AbsoluteSizeSpan(resources.getDimensionPixelSize(R.dimen.mph_text_size));
+    }
+
+    void setMilesPerHour(int speed) {
+        if (speed == displayedSpeed) {
+            return;
+        }
+        displayedSpeed = speed;
+        // TextView keeps a SpannedString as is instead of copying it
+        view.setText(textFor(speed));
+    }
+
+    private SpannedString textFor(int speed) {
+        if (speed < 0 || speed > MAX_CACHED_SPEED) {
+            return buildText(speed);
+        }
+        SpannedString text = texts[speed];
+        if (text == null) {
+            text = buildText(speed);
+            texts[speed] = text;
+        }
+        return text;
+    }
+
+    private SpannedString buildText(int speed) {
+        textBuffer.setLength(0);
+        SpeedFormatter.appendSpeedText(textBuffer, speed);
+        int length = textBuffer.length();
+        int unitLength = SpeedFormatter.UNIT_LABEL.length();
+        SpannableString text = new SpannableString(textBuffer);
+        text.setSpan(unitSpan, length - unitLength - 1, length, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        text.setSpan(speedSpan, 0, length - unitLength, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        return new SpannedString(text);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+/**
+ * Orders the work of bringing a screen up by what it waits for instead of by where it is written.
+ * Each piece of work marks a named milestone when it is done and work that needs others only runs
+ * once all of their milestones are marked, so independent work can run side by side, on whatever
+ * thread suits it.
+ * <p>
+ * The time from the start to each milestone goes to a histogram named after it, e.g.
+ * {@code startup.cold.first_frame}; work run with {@link #runInBackground} also records how long it
+ * took itself in {@code <prefix>.task.<milestone>}.
+ */
+public class StartupPipeline {
+    public static final String FIRST_FRAME = "first_frame";
+    public static final String MAP_READY = "map_ready";
+    public static final String STYLE_LOADED = "style_loaded";
+    public static final String ROUTE = "route";
+    /**
+     * The route is there and so is the map to tap on.
+     */
+    public static final String INTERACTIVE = "interactive";
+
+    private final String metricPrefix;
+    private final long startNanos;
+    private final Metrics metrics;
+    private final Executor callbackExecutor;
+    private final LongSupplier nanoClock;
+
+    private final Set<String> reached = new HashSet<>();
+    private final List<Join> pending = new ArrayList<>();
+    private boolean cancelled;
+
+    private static final class Join {
+        final Set<String> waitingFor;
+        final Runnable action;
+
+        Join(Set<String> waitingFor, Runnable action) {
+            this.waitingFor = waitingFor;
+            this.action = action;
+        }
+    }
+
+    /**
+     * @param startNanos       where the clock of every milestone starts, as returned by
+     *                         {@link System#nanoTime()}
+     * @param callbackExecutor runs the work passed to {@link #when}, whichever thread marked the
+     *                         last milestone it waited for
+     */
+    public StartupPipeline(@NonNull String metricPrefix, long startNanos, @NonNull Metrics metrics,
+                           @NonNull Executor callbackExecutor) {
+        this(metricPrefix, startNanos, metrics, callbackExecutor, System::nanoTime);
+    }
+
+    StartupPipeline(@NonNull String metricPrefix, long startNanos, @NonNull Metrics metrics,
+                    @NonNull Executor callbackExecutor, @NonNull LongSupplier nanoClock) {
+        this.metricPrefix = metricPrefix;
+        this.startNanos = startNanos;
+        this.metrics = metrics;
+        this.callbackExecutor = callbackExecutor;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Marks a milestone as reached. Only the first time counts, marking it again does nothing.
+     */
+    public void mark(@NonNull String milestone) {
+        long nowNanos = nanoClock.getAsLong();
+        List<Runnable> ready = new ArrayList<>();
+        synchronized (this) {
+            if (cancelled || !reached.add(milestone)) {
+                return;
+            }
+            for (Iterator<Join> iterator = pending.iterator(); iterator.hasNext(); ) {
+                Join join = iterator.next();
+                join.waitingFor.remove(milestone);
+                if (join.waitingFor.isEmpty()) {
+                    iterator.remove();
+                    ready.add(join.action);
+                }
+            }
+        }
+        metrics.histogram(metricPrefix + "." + milestone).record(nowNanos - startNanos);
+        for (Runnable action : ready) {
+            callbackExecutor.execute(action);
+        }
+    }
+
+    public synchronized boolean isReached(@NonNull String milestone) {
+        return reached.contains(milestone);
+    }
+
+    /**
+     * Runs {@code action} on the callback executor once every milestone is reached, which may be
+     * right away.
+     */
+    public void when(@NonNull Runnable action, @NonNull String... milestones) {
+        Set<String> waitingFor = new HashSet<>(Arrays.asList(milestones));
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            waitingFor.removeAll(reached);
+            if (!waitingFor.isEmpty()) {
+                pending.add(new Join(waitingFor, action));
+                return;
+            }
+        }
+        callbackExecutor.execute(action);
+    }
+
+    /**
+     * Runs {@code task} on {@code executor} and marks {@code milestone} when it is done, unless it throws.
+     */
+    public void runInBackground(@NonNull String milestone, @NonNull Executor executor, @NonNull Runnable task) {
+        executor.execute(() -> {
+            long taskStartNanos = nanoClock.getAsLong();
+            task.run();
+            metrics.histogram(metricPrefix + ".task." + milestone).record(nanoClock.getAsLong() - taskStartNanos);
+            mark(milestone);
+        });
+    }
+
+    /**
+     * Drops the work still waiting and ignores milestones from now on, e.g. when the screen goes away
+     * before it was up.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        pending.clear();
+    }
+}
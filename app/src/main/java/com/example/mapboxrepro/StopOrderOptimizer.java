@@ -0,0 +1,336 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.geojson.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Puts the stops of a job in an order that keeps the total driving time low, before the job is
+ * routed. The first stop is where the driver starts and stays first; the last can be kept last too,
+ * e.g. for a depot.
+ * <p>
+ * Finding the best order is the travelling salesman problem, so this settles for a good one: several
+ * tours are started from a nearest neighbour walk, one greedy and the rest randomized, and improved
+ * with 2-opt (reversing a stretch of the tour) and Or-opt (moving one to three consecutive stops
+ * elsewhere) until neither finds an improvement. The starts run in parallel on a fork join pool and
+ * the shortest tour wins. Durations don't have to be symmetric; one way streets make them differ.
+ * <p>
+ * Not used by the app's own screens, which route from one origin to one destination; it's for
+ * integrations that plan multi-stop jobs, with a {@link MatrixApiDurationSource} or, offline, a
+ * {@link StraightLineDurationSource}.
+ */
+public class StopOrderOptimizer {
+    static final int DEFAULT_STARTS = 8;
+    // How many of the closest unvisited stops a randomized walk picks from
+    private static final int RANDOM_CANDIDATES = 3;
+    private static final int MAX_SEGMENT_MOVE = 3;
+    // Below this, in seconds, a move is rounding noise and could make the search go in circles
+    private static final double MIN_GAIN = 1e-6;
+
+    public interface Callback {
+        void onRequest(@NonNull RouteRequest request);
+
+        void onFailure(@NonNull Throwable throwable);
+    }
+
+    private final DurationMatrixSource durations;
+    private final ForkJoinPool pool;
+    private final int starts;
+
+    public StopOrderOptimizer(@NonNull DurationMatrixSource durations, @NonNull ForkJoinPool pool) {
+        this(durations, pool, DEFAULT_STARTS);
+    }
+
+    StopOrderOptimizer(@NonNull DurationMatrixSource durations, @NonNull ForkJoinPool pool, int starts) {
+        this.durations = durations;
+        this.pool = pool;
+        this.starts = starts;
+    }
+
+    /**
+     * Fetches the durations between the stops and answers with a request that visits them in a good
+     * order, starting at the first stop.
+     *
+     * @param keepLast whether the last stop has to stay last
+     */
+    public void optimize(@NonNull List<Point> stops, boolean keepLast, @NonNull Callback callback) {
+        if (stops.size() < 2) {
+            callback.onFailure(new IllegalArgumentException("A route needs at least two stops"));
+            return;
+        }
+        durations.fetchDurations(stops, new DurationMatrixSource.Callback() {
+            @Override
+            public void onDurations(@NonNull double[][] seconds) {
+                pool.execute(() -> {
+                    int[] order = order(seconds, keepLast);
+                    List<Point> ordered = new ArrayList<>(order.length);
+                    for (int stop : order) {
+                        ordered.add(stops.get(stop));
+                    }
+                    callback.onRequest(new RouteRequest(ordered));
+                });
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable throwable) {
+                callback.onFailure(throwable);
+            }
+        });
+    }
+
+    /**
+     * @return the stop indices in visiting order, starting at 0 and, if {@code keepLast}, ending at
+     * the last one
+     */
+    @NonNull
+    int[] order(@NonNull double[][] seconds, boolean keepLast) {
+        List<Search> searches = new ArrayList<>(starts);
+        for (int start = 0; start < starts; start++) {
+            searches.add(new Search(seconds, keepLast, start));
+        }
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(searches);
+        } else {
+            pool.invoke(new RecursiveTask<Void>() {
+                @Override
+                protected Void compute() {
+                    ForkJoinTask.invokeAll(searches);
+                    return null;
+                }
+            });
+        }
+        Tour best = null;
+        for (Search search : searches) {
+            Tour tour = search.join();
+            if (best == null || tour.cost() < best.cost()) {
+                best = tour;
+            }
+        }
+        return best.stops;
+    }
+
+    /**
+     * One start: a nearest neighbour walk, greedy for start 0 and randomized after that, then local search.
+     */
+    private static final class Search extends RecursiveTask<Tour> {
+        private static final long serialVersionUID = 1L;
+
+        private final double[][] seconds;
+        private final boolean keepLast;
+        private final int start;
+
+        Search(double[][] seconds, boolean keepLast, int start) {
+            this.seconds = seconds;
+            this.keepLast = keepLast;
+            this.start = start;
+        }
+
+        @Override
+        protected Tour compute() {
+            Tour tour = new Tour(seconds, nearestNeighbour(seconds, keepLast, start == 0 ? null : new Random(start)),
+                    keepLast);
+            tour.improve();
+            return tour;
+        }
+    }
+
+    static int[] nearestNeighbour(double[][] seconds, boolean keepLast, Random random) {
+        int count = seconds.length;
+        int[] tour = new int[count];
+        boolean[] visited = new boolean[count];
+        visited[0] = true;
+        int last = keepLast ? count - 1 : -1;
+        if (keepLast) {
+            visited[last] = true;
+            tour[count - 1] = last;
+        }
+        int free = keepLast ? count - 1 : count;
+        int[] candidates = new int[RANDOM_CANDIDATES];
+        for (int position = 1; position < free; position++) {
+            int from = tour[position - 1];
+            int found = 0;
+            // The closest few unvisited stops, closest first
+            for (int stop = 0; stop < count; stop++) {
+                if (visited[stop]) {
+                    continue;
+                }
+                int slot;
+                if (found < candidates.length) {
+                    slot = found++;
+                } else if (seconds[from][stop] < seconds[from][candidates[found - 1]]) {
+                    slot = found - 1;
+                } else {
+                    continue;
+                }
+                candidates[slot] = stop;
+                for (int i = slot; i > 0 && seconds[from][candidates[i]] < seconds[from][candidates[i - 1]]; i--) {
+                    int swap = candidates[i];
+                    candidates[i] = candidates[i - 1];
+                    candidates[i - 1] = swap;
+                }
+            }
+            int next = random == null ? candidates[0] : candidates[random.nextInt(found)];
+            tour[position] = next;
+            visited[next] = true;
+        }
+        return tour;
+    }
+
+    /**
+     * An open tour, i.e. without the way back to the start, with the running costs of its legs in
+     * both directions, so a 2-opt reversal can be priced without walking the reversed stretch.
+     */
+    static final class Tour {
+        final double[][] seconds;
+        final int[] stops;
+        // Index of the last stop a move may touch
+        private final int lastMovable;
+        private final double[] forward;
+        private final double[] backward;
+
+        Tour(double[][] seconds, int[] stops, boolean keepLast) {
+            this.seconds = seconds;
+            this.stops = stops;
+            this.lastMovable = keepLast ? stops.length - 2 : stops.length - 1;
+            this.forward = new double[stops.length];
+            this.backward = new double[stops.length];
+            updateCosts();
+        }
+
+        double cost() {
+            return forward[stops.length - 1];
+        }
+
+        void improve() {
+            boolean improved = true;
+            while (improved) {
+                improved = twoOpt() | orOpt();
+            }
+        }
+
+        /**
+         * Reverses stretches of the tour as long as that makes it shorter.
+         *
+         * @return whether it changed anything
+         */
+        boolean twoOpt() {
+            boolean changed = false;
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int i = 1; i < lastMovable; i++) {
+                    for (int j = i + 1; j <= lastMovable; j++) {
+                        if (reversalGain(i, j) > MIN_GAIN) {
+                            reverse(i, j);
+                            updateCosts();
+                            improved = true;
+                        }
+                    }
+                }
+                changed |= improved;
+            }
+            return changed;
+        }
+
+        /**
+         * Moves runs of one to three stops to other places in the tour as long as that makes it shorter.
+         *
+         * @return whether it changed anything
+         */
+        boolean orOpt() {
+            boolean changed = false;
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int length = 1; length <= MAX_SEGMENT_MOVE; length++) {
+                    for (int i = 1; i + length - 1 <= lastMovable; i++) {
+                        int end = i + length - 1;
+                        for (int after = 0; after <= lastMovable; after++) {
+                            // Right where the run already is
+                            if (after >= i - 1 && after <= end) {
+                                continue;
+                            }
+                            if (moveGain(i, end, after) > MIN_GAIN) {
+                                move(i, end, after);
+                                updateCosts();
+                                improved = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+                changed |= improved;
+            }
+            return changed;
+        }
+
+        private double reversalGain(int i, int j) {
+            double before = seconds[stops[i - 1]][stops[i]] + (forward[j] - forward[i]);
+            double after = seconds[stops[i - 1]][stops[j]] + (backward[j] - backward[i]);
+            if (j + 1 < stops.length) {
+                before += seconds[stops[j]][stops[j + 1]];
+                after += seconds[stops[i]][stops[j + 1]];
+            }
+            return before - after;
+        }
+
+        /**
+         * @return how much shorter the tour gets by moving the stops from {@code i} to {@code end} to
+         * right after position {@code after}
+         */
+        private double moveGain(int i, int end, int after) {
+            int previous = stops[i - 1];
+            int first = stops[i];
+            int last = stops[end];
+            double removed = seconds[previous][first];
+            double closed = 0;
+            if (end + 1 < stops.length) {
+                removed += seconds[last][stops[end + 1]];
+                closed = seconds[previous][stops[end + 1]];
+            }
+            int before = stops[after];
+            double inserted = seconds[before][first];
+            double opened = 0;
+            if (after + 1 < stops.length) {
+                inserted += seconds[last][stops[after + 1]];
+                opened = seconds[before][stops[after + 1]];
+            }
+            return (removed - closed) - (inserted - opened);
+        }
+
+        private void reverse(int i, int j) {
+            for (; i < j; i++, j--) {
+                int swap = stops[i];
+                stops[i] = stops[j];
+                stops[j] = swap;
+            }
+        }
+
+        private void move(int i, int end, int after) {
+            int length = end - i + 1;
+            int[] segment = new int[length];
+            System.arraycopy(stops, i, segment, 0, length);
+            if (after < i) {
+                System.arraycopy(stops, after + 1, stops, after + 1 + length, i - after - 1);
+                System.arraycopy(segment, 0, stops, after + 1, length);
+            } else {
+                System.arraycopy(stops, end + 1, stops, i, after - end);
+                System.arraycopy(segment, 0, stops, after - length + 1, length);
+            }
+        }
+
+        private void updateCosts() {
+            for (int k = 1; k < stops.length; k++) {
+                forward[k] = forward[k - 1] + seconds[stops[k - 1]][stops[k]];
+                backward[k] = backward[k - 1] + seconds[stops[k]][stops[k - 1]];
+            }
+        }
+    }
+}
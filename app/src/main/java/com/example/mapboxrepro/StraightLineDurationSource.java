@@ -0,0 +1,57 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.geojson.Point;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Local stand-in for the Matrix API which estimates driving times from great circle distances, a
+ * detour factor for the road network not going in straight lines, and an average speed. Good enough
+ * to order stops without a network connection, and to test and measure the optimizer.
+ */
+public class StraightLineDurationSource implements DurationMatrixSource {
+    private static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    private final double metersPerSecond;
+    private final double detourFactor;
+    private final Executor executor;
+
+    public StraightLineDurationSource(double metersPerSecond, double detourFactor, @NonNull Executor executor) {
+        this.metersPerSecond = metersPerSecond;
+        this.detourFactor = detourFactor;
+        this.executor = executor;
+    }
+
+    @Override
+    public void fetchDurations(@NonNull List<Point> points, @NonNull Callback callback) {
+        executor.execute(() -> callback.onDurations(durationsOf(points, metersPerSecond, detourFactor)));
+    }
+
+    @NonNull
+    static double[][] durationsOf(@NonNull List<Point> points, double metersPerSecond, double detourFactor) {
+        int count = points.size();
+        double[][] seconds = new double[count][count];
+        for (int from = 0; from < count; from++) {
+            for (int to = from + 1; to < count; to++) {
+                double duration = distanceMeters(points.get(from), points.get(to)) * detourFactor / metersPerSecond;
+                seconds[from][to] = duration;
+                seconds[to][from] = duration;
+            }
+        }
+        return seconds;
+    }
+
+    static double distanceMeters(@NonNull Point from, @NonNull Point to) {
+        double fromLatitude = Math.toRadians(from.latitude());
+        double toLatitude = Math.toRadians(to.latitude());
+        double latitudeDelta = toLatitude - fromLatitude;
+        double longitudeDelta = Math.toRadians(to.longitude() - from.longitude());
+        double a = Math.sin(latitudeDelta / 2) * Math.sin(latitudeDelta / 2)
+                + Math.cos(fromLatitude) * Math.cos(toLatitude)
+                * Math.sin(longitudeDelta / 2) * Math.sin(longitudeDelta / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
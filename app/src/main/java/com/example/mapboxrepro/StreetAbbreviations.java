@@ -0,0 +1,79 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.api.directions.v5.models.BannerComponents;
+import com.mapbox.api.directions.v5.models.BannerInstructions;
+import com.mapbox.api.directions.v5.models.BannerText;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shortens street types in banners, "Main Street" to "Main St", so more of a road name fits the
+ * instruction view. The first word of a name is left alone, since "Court Street" is not "Ct Street".
+ * Voice instructions keep the full words.
+ */
+class StreetAbbreviations implements InstructionPipeline.Transform {
+    private static final String TEXT_COMPONENT = "text";
+    private static final Map<String, String> ABBREVIATIONS = new HashMap<>();
+
+    static {
+        ABBREVIATIONS.put("Avenue", "Ave");
+        ABBREVIATIONS.put("Boulevard", "Blvd");
+        ABBREVIATIONS.put("Court", "Ct");
+        ABBREVIATIONS.put("Drive", "Dr");
+        ABBREVIATIONS.put("Expressway", "Expy");
+        ABBREVIATIONS.put("Highway", "Hwy");
+        ABBREVIATIONS.put("Lane", "Ln");
+        ABBREVIATIONS.put("Parkway", "Pkwy");
+        ABBREVIATIONS.put("Place", "Pl");
+        ABBREVIATIONS.put("Road", "Rd");
+        ABBREVIATIONS.put("Street", "St");
+        ABBREVIATIONS.put("Turnpike", "Tpke");
+    }
+
+    @NonNull
+    @Override
+    public BannerInstructions transform(@NonNull BannerInstructions instructions) {
+        return instructions.toBuilder()
+                .primary(abbreviate(instructions.primary()))
+                .secondary(abbreviate(instructions.secondary()))
+                .sub(abbreviate(instructions.sub()))
+                .build();
+    }
+
+    @Nullable
+    private static BannerText abbreviate(@Nullable BannerText text) {
+        if (text == null) {
+            return null;
+        }
+        BannerText.Builder builder = text.toBuilder().text(abbreviate(text.text()));
+        if (text.components() != null) {
+            List<BannerComponents> components = new ArrayList<>(text.components().size());
+            for (BannerComponents component : text.components()) {
+                components.add(TEXT_COMPONENT.equals(component.type())
+                        ? component.toBuilder().text(abbreviate(component.text())).build() : component);
+            }
+            builder.components(components);
+        }
+        return builder.build();
+    }
+
+    @NonNull
+    static String abbreviate(@NonNull String text) {
+        String[] words = text.split(" ", -1);
+        boolean changed = false;
+        for (int i = 1; i < words.length; i++) {
+            String abbreviation = ABBREVIATIONS.get(words[i]);
+            if (abbreviation != null && !words[i - 1].isEmpty()) {
+                words[i] = abbreviation;
+                changed = true;
+            }
+        }
+        return changed ? String.join(" ", words) : text;
+    }
+}
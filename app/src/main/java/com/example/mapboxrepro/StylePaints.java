@@ -0,0 +1,96 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The paint properties of every layer in a Mapbox style JSON, by layer id. Day and night variants of
+ * a style share their sources and layer ids and mostly differ in paint, which is what makes it
+ * possible to switch between them by setting properties on the layers already on the map.
+ * <p>
+ * Also keeps the Mapbox tilesets of the style's vector sources, which is what prefetching tiles for
+ * the style needs to know.
+ */
+final class StylePaints {
+    private static final String MAPBOX_SOURCE_PREFIX = "mapbox://";
+
+    private final Map<String, Map<String, JsonElement>> layers;
+    private final List<String> vectorTilesets;
+
+    private StylePaints(Map<String, Map<String, JsonElement>> layers, List<String> vectorTilesets) {
+        this.layers = layers;
+        this.vectorTilesets = vectorTilesets;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the JSON isn't a style
+     */
+    @NonNull
+    static StylePaints parse(@NonNull String styleJson) {
+        Map<String, Map<String, JsonElement>> layers = new LinkedHashMap<>();
+        List<String> vectorTilesets = new ArrayList<>();
+        try {
+            JsonObject style = new JsonParser().parse(styleJson).getAsJsonObject();
+            JsonObject sources = style.getAsJsonObject("sources");
+            if (sources != null) {
+                for (Map.Entry<String, JsonElement> entry : sources.entrySet()) {
+                    JsonObject source = entry.getValue().getAsJsonObject();
+                    String url = source.has("url") ? source.get("url").getAsString() : null;
+                    if (source.has("type") && "vector".equals(source.get("type").getAsString())
+                            && url != null && url.startsWith(MAPBOX_SOURCE_PREFIX)) {
+                        // e.g. mapbox.mapbox-streets-v8,mapbox.mapbox-traffic-v1 for a composite source
+                        vectorTilesets.add(url.substring(MAPBOX_SOURCE_PREFIX.length()));
+                    }
+                }
+            }
+            for (JsonElement element : style.getAsJsonArray("layers")) {
+                JsonObject layer = element.getAsJsonObject();
+                JsonObject paint = layer.getAsJsonObject("paint");
+                Map<String, JsonElement> properties = new LinkedHashMap<>();
+                if (paint != null) {
+                    for (Map.Entry<String, JsonElement> property : paint.entrySet()) {
+                        properties.put(property.getKey(), property.getValue());
+                    }
+                }
+                layers.put(layer.get("id").getAsString(), properties);
+            }
+        } catch (RuntimeException exception) {
+            throw new IllegalArgumentException("Not a style", exception);
+        }
+        return new StylePaints(layers, vectorTilesets);
+    }
+
+    /**
+     * @return the tileset ids of the style's vector sources hosted by Mapbox, in the order of the
+     * sources, one comma separated entry per source
+     */
+    @NonNull
+    List<String> vectorTilesets() {
+        return Collections.unmodifiableList(vectorTilesets);
+    }
+
+    @NonNull
+    Set<String> layerIds() {
+        return Collections.unmodifiableSet(layers.keySet());
+    }
+
+    /**
+     * @return the layer's paint properties by name, or null if the style has no such layer
+     */
+    @Nullable
+    Map<String, JsonElement> paintOf(@NonNull String layerId) {
+        Map<String, JsonElement> paint = layers.get(layerId);
+        return paint != null ? Collections.unmodifiableMap(paint) : null;
+    }
+}
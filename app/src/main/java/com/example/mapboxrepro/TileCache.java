@@ -0,0 +1,194 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Directory of map tiles capped at a total size, evicting the least recently used tiles first.
+ * Each tile expires after the max-age it was put with, capped at the cache's maximum age, and is
+ * treated as missing after that, so data like traffic, which is only good for minutes, doesn't go
+ * stale. The expiry is kept as the file's modification time to survive a restart; recency is only
+ * tracked in memory, so after a restart tiles are ordered by when they expire.
+ * <p>
+ * The index is guarded by the cache's lock but file reads and writes happen outside it, so several
+ * threads can read tiles at once. A read racing an eviction just comes back as a miss.
+ */
+public class TileCache implements MemoryPressureManager.Trimmable {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+
+    public TileCache(@NonNull File directory, long maxBytes, long maxAgeMillis) {
+        this(directory, maxBytes, maxAgeMillis, System::currentTimeMillis);
+    }
+
+    TileCache(@NonNull File directory, long maxBytes, long maxAgeMillis, @NonNull LongSupplier clock) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the tile's bytes, or null if it isn't cached or is too old
+     */
+    @Nullable
+    public byte[] get(@NonNull String key) {
+        synchronized (this) {
+            ensureLoaded();
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (clock.getAsLong() > entry.expiresAtMillis) {
+                removeLocked(key);
+                return null;
+            }
+        }
+        try {
+            return Files.readAllBytes(fileFor(key).toPath());
+        } catch (IOException exception) {
+            synchronized (this) {
+                removeLocked(key);
+            }
+            return null;
+        }
+    }
+
+    public synchronized boolean contains(@NonNull String key) {
+        ensureLoaded();
+        Entry entry = entries.get(key);
+        return entry != null && clock.getAsLong() <= entry.expiresAtMillis;
+    }
+
+    public void put(@NonNull String key, @NonNull byte[] bytes) throws IOException {
+        put(key, bytes, maxAgeMillis);
+    }
+
+    /**
+     * @param maxAgeMillis how long the tile may be served for, e.g. the max-age of its response; a
+     *                     tile that may not be kept at all isn't stored
+     */
+    public void put(@NonNull String key, @NonNull byte[] bytes, long maxAgeMillis) throws IOException {
+        if (bytes.length > maxBytes || maxAgeMillis <= 0) {
+            return;
+        }
+        long now = clock.getAsLong();
+        long keepForMillis = Math.min(maxAgeMillis, this.maxAgeMillis);
+        long expiresAtMillis = keepForMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + keepForMillis;
+        synchronized (this) {
+            // Before writing, since loading the index clears out leftover temporary files
+            ensureLoaded();
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File file = fileFor(key);
+        File temp = File.createTempFile("tile", TEMP_SUFFIX, directory);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+        }
+        // If the file system won't take it the tile just expires early after a restart
+        temp.setLastModified(expiresAtMillis);
+        synchronized (this) {
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not move " + temp + " to " + file);
+            }
+            Entry previous = entries.put(key, new Entry(bytes.length, expiresAtMillis));
+            if (previous != null) {
+                totalBytes -= previous.bytes;
+            }
+            totalBytes += bytes.length;
+            trimLocked();
+        }
+    }
+
+    public synchronized long sizeBytes() {
+        ensureLoaded();
+        return totalBytes;
+    }
+
+    /**
+     * Forgets the index of the directory, which is read again on the next access. The recency of use
+     * is lost with it.
+     */
+    @Override
+    public synchronized void trimMemory(@NonNull MemoryPressureManager.Tier tier) {
+        if (tier == MemoryPressureManager.Tier.CRITICAL) {
+            entries.clear();
+            totalBytes = 0;
+            loaded = false;
+        }
+    }
+
+    private void trimLocked() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Entry> entry = eldest.next();
+            totalBytes -= entry.getValue().bytes;
+            eldest.remove();
+            fileFor(entry.getKey()).delete();
+        }
+    }
+
+    private void removeLocked(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.bytes;
+        }
+        fileFor(key).delete();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            entries.put(file.getName(), new Entry(file.length(), file.lastModified()));
+            totalBytes += file.length();
+        }
+        trimLocked();
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, key);
+    }
+
+    private static class Entry {
+        final long bytes;
+        final long expiresAtMillis;
+
+        Entry(long bytes, long expiresAtMillis) {
+            this.bytes = bytes;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
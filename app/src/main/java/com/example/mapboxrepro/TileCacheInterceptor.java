@@ -0,0 +1,94 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Answers the map's tile requests from the {@link TileCache} when it can, and stores the tiles it
+ * had to download, so a corridor that was prefetched or driven before renders without the network.
+ * Installed on the OkHttp client the map SDK uses for all of its requests. Tiles are only kept as
+ * long as their response's Cache-Control allows, which for traffic is a matter of minutes.
+ */
+public class TileCacheInterceptor implements Interceptor {
+    private static final MediaType TILE_MEDIA_TYPE = MediaType.parse("application/x-protobuf");
+
+    private final TileCache cache;
+    private final Metrics metrics;
+
+    public TileCacheInterceptor(@NonNull TileCache cache, @NonNull Metrics metrics) {
+        this.cache = cache;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String key = CorridorTilePrefetcher.tileKey(request.url().toString());
+        if (key == null) {
+            return chain.proceed(request);
+        }
+        byte[] cached = cache.get(key);
+        if (cached != null) {
+            metrics.counter("tiles.cache.hits").increment();
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create(TILE_MEDIA_TYPE, cached))
+                    .build();
+        }
+        metrics.counter("tiles.cache.misses").increment();
+        Response response = chain.proceed(request);
+        ResponseBody body = response.body();
+        long maxAgeMillis = maxAgeMillis(response.headers());
+        if (response.code() != 200 || body == null || maxAgeMillis == 0) {
+            return response;
+        }
+        MediaType mediaType = body.contentType();
+        byte[] bytes = body.bytes();
+        try {
+            cache.put(key, bytes, maxAgeMillis);
+        } catch (IOException exception) {
+            // The map still gets its tile, only the next drive has to download it again
+        }
+        return response.newBuilder()
+                .body(ResponseBody.create(mediaType, bytes))
+                .build();
+    }
+
+    /**
+     * @return how much longer the response's Cache-Control lets it be served, less the Age it already
+     * has, {@link Long#MAX_VALUE} if it doesn't say, or 0 if it mustn't be served from a cache
+     */
+    static long maxAgeMillis(@NonNull Headers headers) {
+        CacheControl cacheControl = CacheControl.parse(headers);
+        if (cacheControl.noStore() || cacheControl.noCache()) {
+            return 0;
+        }
+        if (cacheControl.maxAgeSeconds() < 0) {
+            return Long.MAX_VALUE;
+        }
+        long ageSeconds = 0;
+        String age = headers.get("Age");
+        if (age != null) {
+            try {
+                ageSeconds = Long.parseLong(age.trim());
+            } catch (NumberFormatException exception) {
+                // Treated as fresh from the origin
+            }
+        }
+        return TimeUnit.SECONDS.toMillis(Math.max(0, cacheControl.maxAgeSeconds() - ageSeconds));
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.geojson.Point;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Web Mercator tile math: how many map tiles an area takes at each zoom level, and which tiles a
+ * route line passes through. Tiles are packed into a single long, see {@link #tile(int, int, int)}.
+ */
+final class TileCover {
+    static final double MAX_LATITUDE = 85.05112878;
+
+    // Sampling a segment every quarter tile can only miss tiles it clips by a corner, which the
+    // buffer around the line picks up anyway
+    private static final double SAMPLE_STEP_TILES = 0.25;
+
+    private TileCover() {
+    }
+
+    static long tile(int zoom, int x, int y) {
+        return (long) zoom << 58 | (long) x << 29 | y;
+    }
+
+    static int zoomOf(long tile) {
+        return (int) (tile >>> 58);
+    }
+
+    static int xOf(long tile) {
+        return (int) (tile >>> 29 & 0x1fffffff);
+    }
+
+    static int yOf(long tile) {
+        return (int) (tile & 0x1fffffff);
+    }
+
+    static int tileX(double longitude, int zoom) {
+        return clampTile(worldX(longitude, zoom), zoom);
+    }
+
+    static int tileY(double latitude, int zoom) {
+        return clampTile(worldY(latitude, zoom), zoom);
+    }
+
+    /**
+     * @return the number of tiles needed to cover the bounds at the given zoom level
+     */
+    static long tileCount(double south, double west, double north, double east, int zoom) {
+        long columns = tileX(east, zoom) - tileX(west, zoom) + 1;
+        long rows = tileY(south, zoom) - tileY(north, zoom) + 1;
+        return columns * rows;
+    }
+
+    /**
+     * @return the highest zoom level up to {@code maxZoom} for which covering the bounds at every level
+     * from {@code minZoom} up takes no more than {@code maxTiles} tiles, or {@code minZoom - 1} if even
+     * {@code minZoom} alone takes more
+     */
+    static int maxZoomWithinBudget(double south, double west, double north, double east,
+                                   int minZoom, int maxZoom, long maxTiles) {
+        long total = 0;
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            total += tileCount(south, west, north, east, zoom);
+            if (total > maxTiles) {
+                return zoom - 1;
+            }
+        }
+        return maxZoom;
+    }
+
+    /**
+     * Finds the tiles a line passes through at one zoom level, plus {@code bufferTiles} tiles on
+     * every side of those, in the order the line reaches them.
+     */
+    @NonNull
+    static Set<Long> corridor(@NonNull List<Point> line, int zoom, int bufferTiles) {
+        Set<Long> tiles = new LinkedHashSet<>();
+        int previousX = -1;
+        int previousY = -1;
+        for (int i = 0; i < line.size(); i++) {
+            double x1 = worldX(line.get(i).longitude(), zoom);
+            double y1 = worldY(line.get(i).latitude(), zoom);
+            double x0 = i == 0 ? x1 : worldX(line.get(i - 1).longitude(), zoom);
+            double y0 = i == 0 ? y1 : worldY(line.get(i - 1).latitude(), zoom);
+            int samples = (int) Math.ceil(Math.hypot(x1 - x0, y1 - y0) / SAMPLE_STEP_TILES);
+            for (int sample = i == 0 ? 0 : 1; sample <= samples; sample++) {
+                double fraction = samples == 0 ? 1 : (double) sample / samples;
+                int x = clampTile(x0 + (x1 - x0) * fraction, zoom);
+                int y = clampTile(y0 + (y1 - y0) * fraction, zoom);
+                if (x != previousX || y != previousY) {
+                    addWithBuffer(tiles, zoom, x, y, bufferTiles);
+                    previousX = x;
+                    previousY = y;
+                }
+            }
+        }
+        return tiles;
+    }
+
+    private static void addWithBuffer(Set<Long> tiles, int zoom, int x, int y, int bufferTiles) {
+        int max = (1 << zoom) - 1;
+        for (int dx = -bufferTiles; dx <= bufferTiles; dx++) {
+            for (int dy = -bufferTiles; dy <= bufferTiles; dy++) {
+                int bufferX = x + dx;
+                int bufferY = y + dy;
+                if (bufferX >= 0 && bufferX <= max && bufferY >= 0 && bufferY <= max) {
+                    tiles.add(tile(zoom, bufferX, bufferY));
+                }
+            }
+        }
+    }
+
+    private static double worldX(double longitude, int zoom) {
+        return (longitude + 180) / 360 * (1 << zoom);
+    }
+
+    private static double worldY(double latitude, int zoom) {
+        double radians = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        return (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2 * (1 << zoom);
+    }
+
+    private static int clampTile(double world, int zoom) {
+        return Math.max(0, Math.min((1 << zoom) - 1, (int) Math.floor(world)));
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.mapboxrepro;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mapbox.android.core.location.LocationEngine;
+import com.mapbox.android.core.location.LocationEngineCallback;
+import com.mapbox.android.core.location.LocationEngineRequest;
+import com.mapbox.android.core.location.LocationEngineResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * {@link LocationEngine} that feeds the navigation session from a recorded trace instead of the GPS,
+ * so GPS jitter, tunnels, high update rates and off-route excursions can be reproduced run after
+ * run. The trace file is read when the first listener registers and played by a {@link TracePlayer},
+ * both on a thread of the engine's own, so nothing else scheduled in the app can delay a fix. Fixes go
+ * to callbacks on their looper, and to pending intents the way the platform's location manager
+ * sends them.
+ * <p>
+ * Each location is stamped with the real time it was handed over, so how long it took to come out
+ * of {@code onProgressChange} can be measured from {@link Location#getElapsedRealtimeNanos()}.
+ */
+public class TraceLocationEngine implements LocationEngine, TracePlayer.Listener {
+    private static final String TAG = "TraceLocationEngine";
+    static final String PROVIDER = "trace";
+
+    private final Context context;
+    private final File file;
+    private final double speedFactor;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Metrics metrics;
+    private final List<Registration> registrations = new ArrayList<>();
+
+    private TracePlayer player;
+    private boolean started;
+    private boolean released;
+    private Location lastLocation;
+
+    private static final class Registration {
+        final LocationEngineCallback<LocationEngineResult> callback;
+        final Handler handler;
+        final PendingIntent pendingIntent;
+
+        Registration(LocationEngineCallback<LocationEngineResult> callback, Handler handler) {
+            this.callback = callback;
+            this.handler = handler;
+            this.pendingIntent = null;
+        }
+
+        Registration(PendingIntent pendingIntent) {
+            this.callback = null;
+            this.handler = null;
+            this.pendingIntent = pendingIntent;
+        }
+    }
+
+    /**
+     * @see TracePlayer#TracePlayer
+     */
+    public TraceLocationEngine(@NonNull Context context, @NonNull File file, double speedFactor,
+                               long intervalMillis, @NonNull Metrics metrics) {
+        this.context = context.getApplicationContext();
+        this.file = file;
+        this.speedFactor = speedFactor;
+        this.intervalMillis = intervalMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, "TraceReplay"));
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void getLastLocation(@NonNull LocationEngineCallback<LocationEngineResult> callback) {
+        Location location;
+        synchronized (this) {
+            location = lastLocation;
+        }
+        if (location != null) {
+            callback.onSuccess(LocationEngineResult.create(location));
+        } else {
+            callback.onFailure(new IllegalStateException("Trace hasn't started yet"));
+        }
+    }
+
+    @Override
+    public void requestLocationUpdates(@NonNull LocationEngineRequest request,
+                                       @NonNull LocationEngineCallback<LocationEngineResult> callback,
+                                       @Nullable Looper looper) {
+        register(new Registration(callback, new Handler(looper != null ? looper : Looper.getMainLooper())));
+    }
+
+    @Override
+    public void requestLocationUpdates(@NonNull LocationEngineRequest request, PendingIntent pendingIntent) {
+        register(new Registration(pendingIntent));
+    }
+
+    @Override
+    public void removeLocationUpdates(@NonNull LocationEngineCallback<LocationEngineResult> callback) {
+        synchronized (this) {
+            for (int i = registrations.size() - 1; i >= 0; i--) {
+                if (registrations.get(i).callback == callback) {
+                    registrations.remove(i);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removeLocationUpdates(PendingIntent pendingIntent) {
+        synchronized (this) {
+            for (int i = registrations.size() - 1; i >= 0; i--) {
+                if (pendingIntent.equals(registrations.get(i).pendingIntent)) {
+                    registrations.remove(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the playback for good.
+     */
+    public void release() {
+        TracePlayer stopping;
+        synchronized (this) {
+            released = true;
+            registrations.clear();
+            stopping = player;
+        }
+        if (stopping != null) {
+            stopping.stop();
+        }
+        scheduler.shutdownNow();
+    }
+
+    private void register(Registration registration) {
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            registrations.add(registration);
+            if (started) {
+                return;
+            }
+            started = true;
+        }
+        scheduler.execute(this::load);
+    }
+
+    private void load() {
+        LocationTrace trace;
+        long startNanos = System.nanoTime();
+        try {
+            trace = LocationTrace.read(file);
+        } catch (IOException exception) {
+            Log.e(TAG, "Could not read trace " + file, exception);
+            fail(exception);
+            return;
+        }
+        metrics.recordSince("replay.load", startNanos);
+        TracePlayer loaded = new TracePlayer(trace, speedFactor, intervalMillis, scheduler, metrics, this);
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            player = loaded;
+            // Inside the lock, release() could shut the thread down in between otherwise
+            loaded.start();
+        }
+    }
+
+    @Override
+    public void onFix(@NonNull LocationTrace.Fix fix) {
+        Location location = locationOf(fix);
+        List<Registration> targets;
+        synchronized (this) {
+            lastLocation = location;
+            targets = new ArrayList<>(registrations);
+        }
+        LocationEngineResult result = LocationEngineResult.create(location);
+        for (Registration registration : targets) {
+            if (registration.pendingIntent != null) {
+                send(registration, location);
+            } else {
+                registration.handler.post(() -> registration.callback.onSuccess(result));
+            }
+        }
+    }
+
+    private void send(Registration registration, Location location) {
+        // Where LocationEngineResult.extractResult looks for it
+        Intent fillIn = new Intent().putExtra(LocationManager.KEY_LOCATION_CHANGED, location);
+        try {
+            registration.pendingIntent.send(context, 0, fillIn);
+        } catch (PendingIntent.CanceledException exception) {
+            synchronized (this) {
+                registrations.remove(registration);
+            }
+        }
+    }
+
+    @Override
+    public void onTraceEnd() {
+        Log.i(TAG, "Trace " + file.getName() + " finished");
+    }
+
+    private void fail(Exception exception) {
+        List<Registration> targets;
+        synchronized (this) {
+            targets = new ArrayList<>(registrations);
+        }
+        for (Registration registration : targets) {
+            // A pending intent has no way to hear about it, the log has to do
+            if (registration.callback != null) {
+                registration.handler.post(() -> registration.callback.onFailure(exception));
+            }
+        }
+    }
+
+    private static Location locationOf(LocationTrace.Fix fix) {
+        Location location = new Location(PROVIDER);
+        location.setLongitude(fix.getLongitude());
+        location.setLatitude(fix.getLatitude());
+        if (!Double.isNaN(fix.getAltitude())) {
+            location.setAltitude(fix.getAltitude());
+        }
+        if (!Double.isNaN(fix.getSpeed())) {
+            location.setSpeed((float) fix.getSpeed());
+        }
+        if (!Double.isNaN(fix.getBearing())) {
+            location.setBearing((float) fix.getBearing());
+        }
+        if (!Double.isNaN(fix.getAccuracy())) {
+            location.setAccuracy((float) fix.getAccuracy());
+        }
+        // Now rather than when it was recorded, or the navigation SDK takes it for a stale location
+        location.setTime(System.currentTimeMillis());
+        location.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
+        return location;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Plays a {@link LocationTrace} back on a scheduler, at the speed it was recorded or faster. Either
+ * every recorded fix is played, or fixes are interpolated at a fixed update interval, e.g. to see how
+ * the app copes with 10 Hz from a 1 Hz recording. Gaps in the recording longer than
+ * {@value #MAX_GAP_MILLIS} ms, like tunnels, stay gaps.
+ * <p>
+ * Ticks are scheduled against the start time rather than the previous tick, so a slow listener
+ * makes the following ticks late but never drops one or stretches the trace: the same trace and
+ * settings always produce the same fixes. How late each tick fired is recorded in
+ * {@code replay.tick_lag}, and how long the listener took in {@code replay.tick}.
+ */
+public class TracePlayer {
+    static final long MAX_GAP_MILLIS = 5000;
+
+    public interface Listener {
+        void onFix(@NonNull LocationTrace.Fix fix);
+
+        void onTraceEnd();
+    }
+
+    private final LocationTrace trace;
+    private final double speedFactor;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Listener listener;
+    private final LongSupplier nanoClock;
+    private final LatencyHistogram tickLag;
+    private final LatencyHistogram tickLatency;
+    private final LongAdder fixes;
+    private final LongAdder gaps;
+
+    private ScheduledFuture<?> scheduled;
+    private boolean started;
+    private boolean stopped;
+    private long startNanos;
+    private int tick;
+
+    /**
+     * @param speedFactor 1 for real time, 10 to play ten times as fast
+     * @param intervalMillis trace time between fixes, 0 to play the recorded fixes
+     */
+    public TracePlayer(@NonNull LocationTrace trace, double speedFactor, long intervalMillis,
+                       @NonNull ScheduledExecutorService scheduler, @NonNull Metrics metrics,
+                       @NonNull Listener listener) {
+        this(trace, speedFactor, intervalMillis, scheduler, metrics, listener, System::nanoTime);
+    }
+
+    TracePlayer(@NonNull LocationTrace trace, double speedFactor, long intervalMillis,
+                @NonNull ScheduledExecutorService scheduler, @NonNull Metrics metrics,
+                @NonNull Listener listener, @NonNull LongSupplier nanoClock) {
+        if (speedFactor <= 0 || intervalMillis < 0) {
+            throw new IllegalArgumentException("Bad speed factor " + speedFactor + " or interval " + intervalMillis);
+        }
+        this.trace = trace;
+        this.speedFactor = speedFactor;
+        this.intervalMillis = intervalMillis;
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.nanoClock = nanoClock;
+        this.tickLag = metrics.histogram("replay.tick_lag");
+        this.tickLatency = metrics.histogram("replay.tick");
+        this.fixes = metrics.counter("replay.fixes");
+        this.gaps = metrics.counter("replay.gaps");
+    }
+
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        startNanos = nanoClock.getAsLong();
+        scheduled = scheduler.schedule(this::tick, 0, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+
+    private void tick() {
+        int index;
+        long offsetMillis;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            index = tick;
+            offsetMillis = offsetOf(index);
+            tickLag.record(nanoClock.getAsLong() - dueNanos(offsetMillis));
+        }
+        LocationTrace.Fix fix = intervalMillis == 0 ? trace.getFixes().get(index)
+                : trace.at(offsetMillis, MAX_GAP_MILLIS);
+        if (fix == null) {
+            gaps.increment();
+        } else {
+            long fixStartNanos = nanoClock.getAsLong();
+            listener.onFix(fix);
+            tickLatency.record(nanoClock.getAsLong() - fixStartNanos);
+            fixes.increment();
+        }
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            tick++;
+            long nextOffsetMillis = offsetOf(tick);
+            if (nextOffsetMillis >= 0) {
+                scheduled = scheduler.schedule(this::tick,
+                        Math.max(0, dueNanos(nextOffsetMillis) - nanoClock.getAsLong()), TimeUnit.NANOSECONDS);
+                return;
+            }
+            stopped = true;
+        }
+        listener.onTraceEnd();
+    }
+
+    /**
+     * @return the trace time of a tick, or -1 once the trace is over
+     */
+    long offsetOf(int tick) {
+        if (intervalMillis == 0) {
+            return tick < trace.getFixes().size() ? trace.getFixes().get(tick).getOffsetMillis() : -1;
+        }
+        long offsetMillis = tick * intervalMillis;
+        return offsetMillis <= trace.getDurationMillis() ? offsetMillis : -1;
+    }
+
+    private long dueNanos(long offsetMillis) {
+        return startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(offsetMillis) / speedFactor);
+    }
+}
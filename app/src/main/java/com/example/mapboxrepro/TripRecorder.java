@@ -0,0 +1,256 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records what happens during a trip, for looking at fleet trips offline: every location with the
+ * distance left, leaving the route, reroutes and the arrival.
+ * <p>
+ * Recording an event only copies a few numbers into a ring buffer allocated up front, without
+ * locks, allocations or I/O, so it can be called from the navigation loop on every tick. A
+ * background writer empties the buffer in batches, every {@value #FLUSH_INTERVAL_MILLIS} ms or
+ * sooner when it fills up, into compressed segment files (see {@link TripSegmentWriter}). If it
+ * can't keep up, new events are dropped and counted in {@code trip.dropped} rather than waited for.
+ * <p>
+ * The {@code record} methods have to be called from one thread at a time, normally the main thread.
+ */
+public class TripRecorder {
+    static final long FLUSH_INTERVAL_MILLIS = 5000;
+
+    public static final byte LOCATION = 1;
+    public static final byte OFF_ROUTE = 2;
+    public static final byte REROUTE = 3;
+    public static final byte FAILED_REROUTE = 4;
+    public static final byte ARRIVAL = 5;
+
+    /**
+     * The new route was ready before the driver left the old one.
+     */
+    public static final int FLAG_PREFETCHED = 1;
+    /**
+     * The navigation SDK rerouted by itself instead of our {@link RerouteEngine}.
+     */
+    public static final int FLAG_SDK = 2;
+
+    // Stands for a value the event doesn't have, e.g. a location without a bearing
+    static final int ABSENT = -1;
+
+    private final int mask;
+    private final byte[] types;
+    private final long[] times;
+    private final int[] longitudes;
+    private final int[] latitudes;
+    private final int[] speeds;
+    private final int[] bearings;
+    private final int[] accuracies;
+    private final int[] distances;
+    private final byte[] flags;
+    // Written by the recording thread only, read by the writer
+    private volatile long head;
+    // Written by the writer only
+    private volatile long tail;
+
+    private final TripSegmentWriter writer;
+    private final Executor ioExecutor;
+    private final ScheduledFuture<?> flushTick;
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final Runnable flushTask = this::drain;
+    private final Metrics metrics;
+    private final LongAdder recorded;
+    private final LongAdder dropped;
+    private boolean closed;
+
+    /**
+     * @param capacity       events the buffer holds, rounded up to a power of two
+     * @param tripStartMillis identifies the trip in its segments, the same for every recorder of one trip
+     */
+    public TripRecorder(@NonNull File directory, long tripStartMillis, int capacity, long maxSegmentBytes,
+                        long maxTotalBytes, @NonNull ScheduledExecutorService scheduler,
+                        @NonNull Executor ioExecutor, @NonNull Metrics metrics) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        types = new byte[size];
+        times = new long[size];
+        longitudes = new int[size];
+        latitudes = new int[size];
+        speeds = new int[size];
+        bearings = new int[size];
+        accuracies = new int[size];
+        distances = new int[size];
+        flags = new byte[size];
+        this.writer = new TripSegmentWriter(directory, tripStartMillis, maxSegmentBytes, maxTotalBytes, metrics);
+        this.ioExecutor = ioExecutor;
+        this.metrics = metrics;
+        recorded = metrics.counter("trip.events");
+        dropped = metrics.counter("trip.dropped");
+        flushTick = scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param speed             meters per second, NaN if unknown
+     * @param bearing           degrees, NaN if unknown
+     * @param accuracy          meters, NaN if unknown
+     * @param distanceRemaining meters to the end of the route
+     */
+    public void recordLocation(long timeMillis, double longitude, double latitude, double speed, double bearing,
+                               double accuracy, double distanceRemaining) {
+        int slot = claim();
+        if (slot < 0) {
+            return;
+        }
+        types[slot] = LOCATION;
+        times[slot] = timeMillis;
+        longitudes[slot] = toE7(longitude);
+        latitudes[slot] = toE7(latitude);
+        speeds[slot] = scaled(speed, 100);
+        bearings[slot] = scaled(bearing, 10);
+        accuracies[slot] = scaled(accuracy, 10);
+        distances[slot] = scaled(distanceRemaining, 10);
+        flags[slot] = 0;
+        publish();
+    }
+
+    public void recordOffRoute(long timeMillis, double longitude, double latitude) {
+        int slot = claim();
+        if (slot < 0) {
+            return;
+        }
+        types[slot] = OFF_ROUTE;
+        times[slot] = timeMillis;
+        longitudes[slot] = toE7(longitude);
+        latitudes[slot] = toE7(latitude);
+        flags[slot] = 0;
+        publish();
+    }
+
+    /**
+     * @param routeDistance meters of the new route
+     * @param eventFlags    {@link #FLAG_PREFETCHED} and {@link #FLAG_SDK}
+     */
+    public void recordReroute(long timeMillis, double routeDistance, int eventFlags) {
+        int slot = claim();
+        if (slot < 0) {
+            return;
+        }
+        types[slot] = REROUTE;
+        times[slot] = timeMillis;
+        distances[slot] = scaled(routeDistance, 10);
+        flags[slot] = (byte) eventFlags;
+        publish();
+    }
+
+    public void recordFailedReroute(long timeMillis, int eventFlags) {
+        recordPlain(FAILED_REROUTE, timeMillis, eventFlags);
+    }
+
+    public void recordArrival(long timeMillis) {
+        recordPlain(ARRIVAL, timeMillis, 0);
+    }
+
+    private void recordPlain(byte type, long timeMillis, int eventFlags) {
+        int slot = claim();
+        if (slot < 0) {
+            return;
+        }
+        types[slot] = type;
+        times[slot] = timeMillis;
+        flags[slot] = (byte) eventFlags;
+        publish();
+    }
+
+    /**
+     * @return the slot for the next event, or -1 if the buffer is full or the recorder closed
+     */
+    private int claim() {
+        long next = head;
+        if (closed) {
+            return -1;
+        }
+        if (next - tail > mask) {
+            dropped.increment();
+            return -1;
+        }
+        return (int) (next & mask);
+    }
+
+    private void publish() {
+        long next = head + 1;
+        head = next;
+        recorded.increment();
+        // Half full, don't wait for the next tick
+        if (next - tail > (mask >> 1)) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes out what was recorded so far, in the background. Can be called from any thread.
+     */
+    public void flush() {
+        if (flushQueued.compareAndSet(false, true)) {
+            ioExecutor.execute(flushTask);
+        }
+    }
+
+    /**
+     * Writes out what was recorded and finishes the current segment. Events recorded after this are
+     * dropped; a new recorder for the same trip continues it in new segments.
+     */
+    public void close() {
+        closed = true;
+        flushTick.cancel(false);
+        ioExecutor.execute(() -> {
+            drain();
+            try {
+                writer.close();
+            } catch (IOException exception) {
+                metrics.counter("trip.write_failures").increment();
+            }
+        });
+    }
+
+    /**
+     * Runs on the I/O executor.
+     */
+    private void drain() {
+        flushQueued.set(false);
+        long from = tail;
+        long to = head;
+        if (from == to) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            for (long sequence = from; sequence < to; sequence++) {
+                int slot = (int) (sequence & mask);
+                writer.append(types[slot], times[slot], longitudes[slot], latitudes[slot], speeds[slot],
+                        bearings[slot], accuracies[slot], distances[slot], flags[slot]);
+            }
+            writer.flush();
+        } catch (IOException exception) {
+            // The batch is lost, but the recorder keeps going with a fresh segment
+            metrics.counter("trip.write_failures").increment();
+            writer.abandonSegment();
+        }
+        tail = to;
+        metrics.recordSince("trip.flush", startNanos);
+    }
+
+    private static int toE7(double degrees) {
+        return (int) Math.round(degrees * 1e7);
+    }
+
+    private static int scaled(double value, int scale) {
+        return Double.isNaN(value) || value < 0 ? ABSENT : (int) Math.min(Integer.MAX_VALUE, Math.round(value * scale));
+    }
+}
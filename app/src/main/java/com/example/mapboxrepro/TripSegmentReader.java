@@ -0,0 +1,168 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads back the segments a {@link TripSegmentWriter} wrote, for analysing trips off the device. A
+ * segment that was never finished, because its process died, is read up to its last complete batch.
+ */
+public final class TripSegmentReader {
+
+    private TripSegmentReader() {
+    }
+
+    public static final class Event {
+        public final byte type;
+        public final long timeMillis;
+        /**
+         * Degrees, NaN for events without a position.
+         */
+        public final double longitude;
+        public final double latitude;
+        /**
+         * Meters per second, NaN if unknown.
+         */
+        public final double speed;
+        /**
+         * Degrees, NaN if unknown.
+         */
+        public final double bearing;
+        /**
+         * Meters, NaN if unknown.
+         */
+        public final double accuracy;
+        /**
+         * Meters left on the route for a location, the new route's length for a reroute, NaN otherwise.
+         */
+        public final double distance;
+        public final int flags;
+
+        Event(byte type, long timeMillis, double longitude, double latitude, double speed, double bearing,
+              double accuracy, double distance, int flags) {
+            this.type = type;
+            this.timeMillis = timeMillis;
+            this.longitude = longitude;
+            this.latitude = latitude;
+            this.speed = speed;
+            this.bearing = bearing;
+            this.accuracy = accuracy;
+            this.distance = distance;
+            this.flags = flags;
+        }
+    }
+
+    public static final class Segment {
+        public final long tripStartMillis;
+        public final long segmentStartMillis;
+        @NonNull
+        public final List<Event> events;
+
+        Segment(long tripStartMillis, long segmentStartMillis, List<Event> events) {
+            this.tripStartMillis = tripStartMillis;
+            this.segmentStartMillis = segmentStartMillis;
+            this.events = Collections.unmodifiableList(events);
+        }
+    }
+
+    @NonNull
+    public static Segment read(@NonNull File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    @NonNull
+    public static Segment read(@NonNull InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+        if (data.readInt() != TripSegmentWriter.MAGIC) {
+            throw new IOException("Not a trip segment");
+        }
+        long version = readVarLong(data);
+        if (version != TripSegmentWriter.VERSION) {
+            throw new IOException("Unsupported trip segment version " + version);
+        }
+        long tripStartMillis = readVarLong(data);
+        long segmentStartMillis = readVarLong(data);
+
+        List<Event> events = new ArrayList<>();
+        long timeMillis = segmentStartMillis;
+        long longitude = 0;
+        long latitude = 0;
+        while (true) {
+            try {
+                int type = data.read();
+                if (type < 0) {
+                    break;
+                }
+                timeMillis += unZigZag(readVarLong(data));
+                switch (type) {
+                    case TripRecorder.LOCATION:
+                        longitude += unZigZag(readVarLong(data));
+                        latitude += unZigZag(readVarLong(data));
+                        events.add(new Event((byte) type, timeMillis, longitude / 1e7, latitude / 1e7,
+                                readScaled(data, 100), readScaled(data, 10), readScaled(data, 10),
+                                readScaled(data, 10), 0));
+                        break;
+                    case TripRecorder.OFF_ROUTE:
+                        longitude += unZigZag(readVarLong(data));
+                        latitude += unZigZag(readVarLong(data));
+                        events.add(new Event((byte) type, timeMillis, longitude / 1e7, latitude / 1e7,
+                                Double.NaN, Double.NaN, Double.NaN, Double.NaN, 0));
+                        break;
+                    case TripRecorder.REROUTE:
+                        double distance = readScaled(data, 10);
+                        events.add(new Event((byte) type, timeMillis, Double.NaN, Double.NaN,
+                                Double.NaN, Double.NaN, Double.NaN, distance, data.readUnsignedByte()));
+                        break;
+                    case TripRecorder.FAILED_REROUTE:
+                        events.add(new Event((byte) type, timeMillis, Double.NaN, Double.NaN,
+                                Double.NaN, Double.NaN, Double.NaN, Double.NaN, data.readUnsignedByte()));
+                        break;
+                    case TripRecorder.ARRIVAL:
+                        events.add(new Event((byte) type, timeMillis, Double.NaN, Double.NaN,
+                                Double.NaN, Double.NaN, Double.NaN, Double.NaN, 0));
+                        break;
+                    default:
+                        throw new IOException("Unknown trip event type " + type);
+                }
+            } catch (EOFException exception) {
+                // An unfinished segment, or one that ends in the middle of an event
+                break;
+            }
+        }
+        return new Segment(tripStartMillis, segmentStartMillis, events);
+    }
+
+    private static double readScaled(DataInputStream data, int scale) throws IOException {
+        long value = readVarLong(data) - 1;
+        return value == TripRecorder.ABSENT ? Double.NaN : (double) value / scale;
+    }
+
+    private static long readVarLong(DataInputStream data) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = data.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the events of a {@link TripRecorder} to gzip compressed segment files, starting a new one
+ * when the current one reaches its size limit and deleting the oldest segments, of any trip, when all
+ * of them together go over their budget.
+ * <p>
+ * A segment starts with {@link #MAGIC}, the {@link #VERSION}, the trip's start and the segment's
+ * start in milliseconds. Each event follows as its type, the milliseconds since the previous event
+ * and the values of its type. Coordinates are in 1e-7 degrees relative to the previous position in
+ * the segment, the other values are scaled to integers and stored one above their value, so that
+ * {@link TripRecorder#ABSENT} becomes 0. All numbers except the header's magic are varints, signed
+ * ones zigzag encoded.
+ * <p>
+ * Each batch is flushed through the compressor, so a segment whose process died before it was
+ * finished can still be read up to its last batch. Segments are named after the trip and their own
+ * start, which sorts them oldest first. Only used on one thread at a time.
+ */
+class TripSegmentWriter {
+    static final int MAGIC = 0x54525031; // "TRP1"
+    static final int VERSION = 1;
+    static final String EXTENSION = ".trip";
+
+    private final File directory;
+    private final long tripStartMillis;
+    private final long maxSegmentBytes;
+    private final long maxTotalBytes;
+    private final LongSupplier clockMillis;
+    private final Metrics metrics;
+    private final AtomicLong diskBytes;
+
+    private byte[] batch = new byte[4096];
+    private int batchSize;
+
+    @Nullable
+    private File segmentFile;
+    @Nullable
+    private FileOutputStream segmentFileOut;
+    @Nullable
+    private GZIPOutputStream segmentOut;
+    private long previousTimeMillis;
+    private int previousLongitude;
+    private int previousLatitude;
+
+    TripSegmentWriter(@NonNull File directory, long tripStartMillis, long maxSegmentBytes, long maxTotalBytes,
+                      @NonNull Metrics metrics) {
+        this(directory, tripStartMillis, maxSegmentBytes, maxTotalBytes, metrics, System::currentTimeMillis);
+    }
+
+    TripSegmentWriter(@NonNull File directory, long tripStartMillis, long maxSegmentBytes, long maxTotalBytes,
+                      @NonNull Metrics metrics, @NonNull LongSupplier clockMillis) {
+        this.directory = directory;
+        this.tripStartMillis = tripStartMillis;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.metrics = metrics;
+        this.clockMillis = clockMillis;
+        this.diskBytes = metrics.gauge("trip.disk_bytes");
+    }
+
+    /**
+     * Adds an event to the current batch, opening a new segment first if there is none.
+     */
+    void append(byte type, long timeMillis, int longitude, int latitude, int speed, int bearing, int accuracy,
+                int distance, byte flags) throws IOException {
+        if (segmentOut == null) {
+            openSegment();
+        }
+        writeByte(type);
+        writeVarLong(zigZag(timeMillis - previousTimeMillis));
+        previousTimeMillis = timeMillis;
+        switch (type) {
+            case TripRecorder.LOCATION:
+                writePosition(longitude, latitude);
+                writeVarLong(speed + 1L);
+                writeVarLong(bearing + 1L);
+                writeVarLong(accuracy + 1L);
+                writeVarLong(distance + 1L);
+                break;
+            case TripRecorder.OFF_ROUTE:
+                writePosition(longitude, latitude);
+                break;
+            case TripRecorder.REROUTE:
+                writeVarLong(distance + 1L);
+                writeByte(flags);
+                break;
+            case TripRecorder.FAILED_REROUTE:
+                writeByte(flags);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes the batch to the current segment and starts a new segment next time if this one is full.
+     */
+    void flush() throws IOException {
+        if (segmentOut == null || batchSize == 0) {
+            return;
+        }
+        segmentOut.write(batch, 0, batchSize);
+        segmentOut.flush();
+        metrics.counter("trip.bytes_uncompressed").add(batchSize);
+        batchSize = 0;
+        if (segmentFileOut.getChannel().position() >= maxSegmentBytes) {
+            close();
+        }
+    }
+
+    /**
+     * Finishes the current segment, if any. The next event starts a new one.
+     */
+    void close() throws IOException {
+        if (segmentOut == null) {
+            return;
+        }
+        GZIPOutputStream out = segmentOut;
+        segmentOut = null;
+        segmentFileOut = null;
+        segmentFile = null;
+        out.close();
+        enforceBudget();
+    }
+
+    /**
+     * Gives up on the current segment after a failed write, keeping what made it to disk.
+     */
+    void abandonSegment() {
+        batchSize = 0;
+        try {
+            close();
+        } catch (IOException exception) {
+            // Whatever was flushed before can still be read
+        }
+    }
+
+    private void openSegment() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        long segmentStartMillis = clockMillis.getAsLong();
+        File file = fileOf(segmentStartMillis);
+        // Another recorder of the same trip may have started one in the same millisecond
+        while (file.exists()) {
+            file = fileOf(++segmentStartMillis);
+        }
+        segmentFileOut = new FileOutputStream(file);
+        segmentOut = new GZIPOutputStream(segmentFileOut, 8192, true);
+        segmentFile = file;
+        previousTimeMillis = segmentStartMillis;
+        previousLongitude = 0;
+        previousLatitude = 0;
+        batchSize = 0;
+        writeByte(MAGIC >>> 24);
+        writeByte(MAGIC >>> 16);
+        writeByte(MAGIC >>> 8);
+        writeByte(MAGIC);
+        writeVarLong(VERSION);
+        writeVarLong(tripStartMillis);
+        writeVarLong(segmentStartMillis);
+        metrics.counter("trip.segments").increment();
+        enforceBudget();
+    }
+
+    private File fileOf(long segmentStartMillis) {
+        return new File(directory, String.format(Locale.US, "%013d-%013d%s", tripStartMillis, segmentStartMillis,
+                EXTENSION));
+    }
+
+    /**
+     * Deletes the oldest segments until all of them fit the budget, except the one being written.
+     */
+    private void enforceBudget() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        for (File file : files) {
+            if (total <= maxTotalBytes) {
+                break;
+            }
+            if (file.equals(segmentFile)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                metrics.counter("trip.segments_deleted").increment();
+            }
+        }
+        diskBytes.set(total);
+    }
+
+    private void writePosition(int longitude, int latitude) {
+        writeVarLong(zigZag((long) longitude - previousLongitude));
+        writeVarLong(zigZag((long) latitude - previousLatitude));
+        previousLongitude = longitude;
+        previousLatitude = latitude;
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        batch[batchSize++] = (byte) value;
+    }
+
+    private void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7fL) != 0) {
+            batch[batchSize++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        batch[batchSize++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (batchSize + extra > batch.length) {
+            batch = Arrays.copyOf(batch, Math.max(batchSize + extra, batch.length * 2));
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
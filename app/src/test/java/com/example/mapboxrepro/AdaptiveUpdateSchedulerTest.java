@@ -0,0 +1,87 @@
+package com.example.mapboxrepro;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveUpdateSchedulerTest {
+    private static final double HIGHWAY_SPEED = 30;
+
+    private final Metrics metrics = new Metrics();
+    private final List<Long> intervals = new ArrayList<>();
+    private long nowMillis;
+    private AdaptiveUpdateScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new AdaptiveUpdateScheduler(metrics, intervals::add, () -> nowMillis);
+    }
+
+    @Test
+    public void interval_followsTheDistanceToTheNextManeuver() {
+        scheduler.onProgress(10000, HIGHWAY_SPEED);
+        assertEquals(AdaptiveUpdateScheduler.Mode.STRAIGHT, scheduler.getMode());
+
+        scheduler.onProgress(2000, HIGHWAY_SPEED);
+        assertEquals(AdaptiveUpdateScheduler.Mode.CRUISE, scheduler.getMode());
+
+        // 20 seconds out at highway speed
+        scheduler.onProgress(600, HIGHWAY_SPEED);
+        assertEquals(AdaptiveUpdateScheduler.Mode.MANEUVER, scheduler.getMode());
+
+        assertEquals(Arrays.asList(3000L, 1000L, 500L), intervals);
+        assertEquals(500, metrics.gauge("location.interval_ms").get());
+    }
+
+    @Test
+    public void thresholds_haveHysteresis() {
+        scheduler.onProgress(240, 10);
+        assertEquals(AdaptiveUpdateScheduler.Mode.MANEUVER, scheduler.getMode());
+        // Going back and forth around the entry threshold, e.g. from GPS jitter, doesn't flap
+        scheduler.onProgress(260, 10);
+        scheduler.onProgress(240, 10);
+        scheduler.onProgress(300, 10);
+        assertEquals(AdaptiveUpdateScheduler.Mode.MANEUVER, scheduler.getMode());
+        scheduler.onProgress(400, 10);
+        assertEquals(AdaptiveUpdateScheduler.Mode.CRUISE, scheduler.getMode());
+        assertEquals(2, metrics.counter("location.mode_changes").sum());
+    }
+
+    @Test
+    public void screenOff_slowsDownExceptNearManeuvers() {
+        scheduler.onProgress(1000, 10);
+        scheduler.setScreenOn(false);
+        assertEquals(AdaptiveUpdateScheduler.Mode.SCREEN_OFF, scheduler.getMode());
+
+        scheduler.onProgress(150, 10);
+        assertEquals(AdaptiveUpdateScheduler.Mode.CRUISE, scheduler.getMode());
+
+        scheduler.setScreenOn(true);
+        assertEquals(AdaptiveUpdateScheduler.Mode.MANEUVER, scheduler.getMode());
+    }
+
+    @Test
+    public void standingStill_doesNotCountAsNearAManeuver() {
+        scheduler.onProgress(1000, 0);
+        assertEquals(AdaptiveUpdateScheduler.Mode.CRUISE, scheduler.getMode());
+    }
+
+    @Test
+    public void metrics_bookTimeAndSavedUpdatesToTheModes() {
+        scheduler.onProgress(10000, HIGHWAY_SPEED);
+        nowMillis += 60000;
+        scheduler.onProgress(600, HIGHWAY_SPEED);
+        nowMillis += 10000;
+        scheduler.account();
+
+        assertEquals(60000, metrics.counter("location.mode.straight_ms").sum());
+        assertEquals(10000, metrics.counter("location.mode.maneuver_ms").sum());
+        // 60 s at a third of the updates saves 40, 10 s at twice as many costs 10
+        assertEquals(30, metrics.gauge("location.updates_saved").get());
+    }
+}
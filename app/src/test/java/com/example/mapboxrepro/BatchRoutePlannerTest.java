@@ -0,0 +1,244 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.utils.PolylineUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.mapbox.core.constants.Constants.PRECISION_6;
+import static org.junit.Assert.*;
+
+public class BatchRoutePlannerTest {
+    private ExecutorService network;
+    private StandInRouteSource source;
+    private BatchRoutePlanner planner;
+
+    @Before
+    public void setUp() {
+        network = Executors.newFixedThreadPool(4);
+        source = new StandInRouteSource();
+        planner = new BatchRoutePlanner(source, 10, 2, Runnable::run, new Metrics(), () -> 0);
+    }
+
+    @After
+    public void tearDown() {
+        network.shutdownNow();
+    }
+
+    @Test
+    public void chunks_shareTheirBoundaryWaypointsAndSkipCachedLegs() {
+        BatchRoutePlanner.CachedLeg[] legs = new BatchRoutePlanner.CachedLeg[7];
+        legs[3] = new BatchRoutePlanner.CachedLeg(source.route.legs().get(0), source.route, 0);
+
+        List<BatchRoutePlanner.Chunk> chunks = BatchRoutePlanner.chunksOf(legs, 3);
+
+        assertEquals(4, chunks.size());
+        assertChunk(chunks.get(0), 0, 2);
+        assertChunk(chunks.get(1), 2, 1);
+        assertChunk(chunks.get(2), 4, 2);
+        assertChunk(chunks.get(3), 6, 1);
+    }
+
+    @Test
+    public void longStopLists_areFetchedInBoundedParallelChunksAndStitched() throws Exception {
+        List<Point> stops = stops(30);
+
+        DirectionsRoute route = await(new RouteRequest(stops));
+
+        assertEquals(4, source.requests.size());
+        for (RouteRequest request : source.requests) {
+            assertTrue(request.getWaypoints().size() <= 10);
+        }
+        assertTrue(source.maxInFlight.get() <= 2);
+        assertEquals(29, route.legs().size());
+        assertEquals(29 * source.route.distance(), route.distance(), 1e-6);
+        assertEquals(stops, route.routeOptions().coordinates());
+        List<Point> line = PolylineUtils.decode(route.geometry(), PRECISION_6);
+        assertEquals(line.get(0), PolylineUtils.decode(source.route.geometry(), PRECISION_6).get(0));
+    }
+
+    @Test
+    public void editingOneStop_onlyFetchesTheLegsAroundIt() throws Exception {
+        List<Point> stops = stops(30);
+        await(new RouteRequest(stops));
+        source.requests.clear();
+
+        stops.set(15, Point.fromLngLat(-77.4, 37.5));
+        DirectionsRoute route = await(new RouteRequest(stops));
+
+        assertEquals(1, source.requests.size());
+        assertEquals(stops.subList(14, 17), source.requests.get(0).getWaypoints());
+        assertEquals(29, route.legs().size());
+    }
+
+    @Test
+    public void singleRequests_getTheDelegatesRouteAsItIs() throws Exception {
+        DirectionsRoute route = await(new RouteRequest(stops(2)));
+
+        assertSame(source.route, route);
+    }
+
+    @Test
+    public void stitchedRoutes_dontClaimTheFirstRequestsUuid() throws Exception {
+        DirectionsRoute route = await(new RouteRequest(stops(30)));
+
+        assertEquals(BatchRoutePlanner.STITCHED_REQUEST_UUID, route.routeOptions().requestUuid());
+    }
+
+    @Test
+    public void everyCallback_comesOnTheWorker() throws Exception {
+        ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "worker"));
+        try {
+            planner = new BatchRoutePlanner(source, 10, 2, worker, new Metrics(), () -> 0);
+            List<String> threads = new CopyOnWriteArrayList<>();
+            CountDownLatch done = new CountDownLatch(3);
+            RouteSource.Callback callback = new RouteSource.Callback() {
+                @Override
+                public void onRoute(@NonNull DirectionsRoute route) {
+                    threads.add(Thread.currentThread().getName());
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(@NonNull Throwable throwable) {
+                    threads.add(Thread.currentThread().getName());
+                    done.countDown();
+                }
+            };
+
+            planner.fetchRoute(new RouteRequest(stops(2)), callback);
+            planner.fetchRoute(new RouteRequest(stops(30)), callback);
+            source.failing = true;
+            planner.fetchRoute(new RouteRequest(stops(3)), callback);
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("worker", "worker", "worker"), threads);
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noConcurrentRequests_isRejected() {
+        new BatchRoutePlanner(source, 10, 0, Runnable::run, new Metrics(), () -> 0);
+    }
+
+    @Test
+    public void aFailedChunk_failsTheWholeRequestOnce() throws Exception {
+        source.failing = true;
+        CountDownLatch failed = new CountDownLatch(1);
+        AtomicInteger failures = new AtomicInteger();
+        planner.fetchRoute(new RouteRequest(stops(30)), new RouteSource.Callback() {
+            @Override
+            public void onRoute(@NonNull DirectionsRoute route) {
+                fail();
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable throwable) {
+                failures.incrementAndGet();
+                failed.countDown();
+            }
+        });
+
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, failures.get());
+        // The chunks that were still queued are never fetched
+        assertTrue(source.requests.size() <= 2);
+    }
+
+    private DirectionsRoute await(RouteRequest request) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Object> result = new AtomicReference<>();
+        planner.fetchRoute(request, new RouteSource.Callback() {
+            @Override
+            public void onRoute(@NonNull DirectionsRoute route) {
+                result.set(route);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable throwable) {
+                result.set(throwable);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        if (result.get() instanceof Throwable) {
+            throw new AssertionError((Throwable) result.get());
+        }
+        return (DirectionsRoute) result.get();
+    }
+
+    private static List<Point> stops(int count) {
+        List<Point> stops = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            stops.add(Point.fromLngLat(-77.56 + i * 0.001, 37.6));
+        }
+        return stops;
+    }
+
+    private static void assertChunk(BatchRoutePlanner.Chunk chunk, int firstLeg, int legCount) {
+        assertEquals(firstLeg, chunk.firstLeg);
+        assertEquals(legCount, chunk.legCount);
+    }
+
+    /**
+     * Answers every request with the fixture route driven once per leg, from a pool of threads.
+     */
+    private class StandInRouteSource implements RouteSource {
+        final DirectionsRoute route;
+        final List<RouteRequest> requests = new CopyOnWriteArrayList<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        volatile boolean failing;
+
+        StandInRouteSource() {
+            try {
+                route = RouteFixtures.route();
+            } catch (IOException exception) {
+                throw new IllegalStateException(exception);
+            }
+        }
+
+        @Override
+        public void fetchRoute(@NonNull RouteRequest request, @NonNull Callback callback) {
+            requests.add(request);
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            network.execute(() -> {
+                try {
+                    Thread.sleep(20);
+                    int legs = request.getWaypoints().size() - 1;
+                    DirectionsRoute answer = legs == 1 ? route : RouteFixtures.multiLegRoute(legs);
+                    inFlight.decrementAndGet();
+                    if (failing) {
+                        callback.onFailure(new IOException("Injected failure"));
+                    } else {
+                        callback.onRoute(answer);
+                    }
+                } catch (InterruptedException | IOException exception) {
+                    inFlight.decrementAndGet();
+                    callback.onFailure(exception);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.mapboxrepro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CoalescingDispatcherTest {
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    @Test
+    public void burstOfUpdates_isDeliveredOncePerFrame() {
+        CoalescingDispatcher<Integer> dispatcher = new CoalescingDispatcher<>();
+        List<Integer> received = new ArrayList<>();
+        dispatcher.addListener(received::add, 0);
+
+        assertTrue(dispatcher.submit(1));
+        assertFalse(dispatcher.submit(2));
+        assertFalse(dispatcher.submit(3));
+        dispatcher.dispatch(FRAME_NANOS);
+        dispatcher.dispatch(2 * FRAME_NANOS);
+
+        assertEquals(1, received.size());
+        assertEquals(Integer.valueOf(3), received.get(0));
+        assertTrue(dispatcher.submit(4));
+    }
+
+    @Test
+    public void rateLimitedListener_getsLatestUpdateOnceIntervalPassed() {
+        CoalescingDispatcher<Integer> dispatcher = new CoalescingDispatcher<>();
+        List<Integer> everyFrame = new ArrayList<>();
+        List<Integer> limited = new ArrayList<>();
+        dispatcher.addListener(everyFrame::add, 0);
+        dispatcher.addListener(limited::add, 100);
+
+        long frameTime = 0;
+        long nextDue = CoalescingDispatcher.NONE_WAITING;
+        for (int update = 0; update < 10; update++) {
+            frameTime += FRAME_NANOS;
+            dispatcher.submit(update);
+            nextDue = dispatcher.dispatch(frameTime);
+        }
+        assertEquals(10, everyFrame.size());
+        assertEquals(2, limited.size());
+        // Delivered at frames 1 and 8, so due again 100 ms after the second
+        assertEquals(8 * FRAME_NANOS + TimeUnit.MILLISECONDS.toNanos(100), nextDue);
+
+        // No more updates, the limited listener catches up with the last one on the frame it is due
+        assertEquals(CoalescingDispatcher.NONE_WAITING, dispatcher.dispatch(nextDue));
+        assertEquals(3, limited.size());
+        assertEquals(Integer.valueOf(9), limited.get(2));
+        assertEquals(10, everyFrame.size());
+    }
+
+    @Test
+    public void removedListener_getsNothing() {
+        CoalescingDispatcher<Integer> dispatcher = new CoalescingDispatcher<>();
+        List<Integer> received = new ArrayList<>();
+        CoalescingDispatcher.Listener<Integer> listener = received::add;
+        dispatcher.addListener(listener, 0);
+        dispatcher.removeListener(listener);
+
+        dispatcher.submit(1);
+        dispatcher.dispatch(FRAME_NANOS);
+
+        assertTrue(received.isEmpty());
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.geojson.Point;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CorridorTilePrefetcherTest {
+    private static final List<Point> LINE = Arrays.asList(
+            Point.fromLngLat(-77.5659408569336, 37.605369567871094),
+            Point.fromLngLat(-77.5505277, 37.461559));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private TileCache cache;
+    private CorridorTilePrefetcher prefetcher;
+    private List<String> templates;
+
+    @Before
+    public void setUp() throws Exception {
+        // Local stand-in for the tile server, answering with the tile's path, or 404 for zoom 13
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v4/", exchange -> {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = path.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(path.contains("/13/") ? 404 : 200, path.contains("/13/") ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if (!path.contains("/13/")) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        cache = new TileCache(new File(folder.getRoot(), "tiles"), 1024 * 1024, Long.MAX_VALUE);
+        templates = Collections.singletonList("http://127.0.0.1:" + server.getAddress().getPort()
+                + "/v4/mapbox.mapbox-streets-v8/{z}/{x}/{y}.vector.pbf?access_token=test");
+        prefetcher = new CorridorTilePrefetcher(cache, 3, new Metrics());
+    }
+
+    @After
+    public void tearDown() {
+        prefetcher.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void tileKey_ignoresQueryAndRejectsOtherUrls() {
+        assertEquals("mapbox.mapbox-streets-v8_mapbox.mapbox-traffic-v1_16_18355_25393.vector.pbf",
+                CorridorTilePrefetcher.tileKey("https://api.mapbox.com/v4/mapbox.mapbox-streets-v8,"
+                        + "mapbox.mapbox-traffic-v1/16/18355/25393.vector.pbf?access_token=pk.a&sku=b"));
+        assertEquals("mapbox.satellite_3_1_2@2x.webp",
+                CorridorTilePrefetcher.tileKey("https://api.mapbox.com/v4/mapbox.satellite/3/1/2@2x.webp"));
+        assertNull(CorridorTilePrefetcher.tileKey("https://api.mapbox.com/styles/v1/mapbox/streets-v11"));
+        assertNull(CorridorTilePrefetcher.tileKey("https://api.mapbox.com/v4/mapbox.mapbox-streets-v8.json"));
+    }
+
+    @Test
+    public void prefetch_downloadsCorridorIntoCache() throws Exception {
+        CorridorTilePrefetcher.Prefetch prefetch = prefetcher.prefetch(LINE, templates, 14, 16, 1);
+
+        assertTrue(prefetch.await(10, TimeUnit.SECONDS));
+        assertEquals(prefetch.getTileCount(), prefetch.getDownloaded());
+        long tile = TileCover.corridor(LINE, 16, 1).iterator().next();
+        String url = CorridorTilePrefetcher.tileUrl(templates.get(0), tile);
+        byte[] cached = cache.get(CorridorTilePrefetcher.tileKey(url));
+        assertNotNull(cached);
+        assertTrue(url.contains(new String(cached, StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void prefetch_skipsCachedTilesAndCountsFailures() throws Exception {
+        assertTrue(prefetcher.prefetch(LINE, templates, 14, 14, 0).await(10, TimeUnit.SECONDS));
+        int firstRequests = requests.get();
+
+        CorridorTilePrefetcher.Prefetch again = prefetcher.prefetch(LINE, templates, 13, 14, 0);
+        assertTrue(again.await(10, TimeUnit.SECONDS));
+        int zoom13Tiles = TileCover.corridor(LINE, 13, 0).size();
+        assertEquals(firstRequests, again.getSkipped());
+        assertEquals(zoom13Tiles, again.getFailed());
+        assertEquals(firstRequests + zoom13Tiles, requests.get());
+    }
+}
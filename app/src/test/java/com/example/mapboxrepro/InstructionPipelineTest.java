@@ -0,0 +1,106 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.api.directions.v5.models.BannerInstructions;
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.api.directions.v5.models.LegStep;
+import com.mapbox.api.directions.v5.models.VoiceInstructions;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InstructionPipelineTest {
+    private DirectionsRoute route;
+    private Metrics metrics;
+    private List<Runnable> queued;
+    private InstructionPipeline pipeline;
+
+    @Before
+    public void setUp() throws Exception {
+        route = RouteFixtures.route();
+        metrics = new Metrics();
+        queued = new ArrayList<>();
+        pipeline = new InstructionPipeline(Collections.singletonList(new StreetAbbreviations()),
+                queued::add, metrics);
+    }
+
+    @Test
+    public void preparedBanners_areLookedUpWithoutTransformingAgain() {
+        pipeline.prepare(route);
+        runQueued();
+
+        for (BannerInstructions banner : banners(route)) {
+            BannerInstructions first = pipeline.banner(banner);
+            assertSame(first, pipeline.banner(banner));
+            assertFalse(first.primary().text().endsWith(" Street"));
+        }
+        assertEquals(0, metrics.counter("instructions.misses").sum());
+    }
+
+    @Test
+    public void copiesOfTheRoute_areFoundByContents() {
+        pipeline.prepare(route);
+        runQueued();
+
+        DirectionsRoute copy = DirectionsRoute.fromJson(route.toJson());
+        for (BannerInstructions banner : banners(copy)) {
+            pipeline.banner(banner);
+        }
+        assertEquals(0, metrics.counter("instructions.misses").sum());
+    }
+
+    @Test
+    public void bannersBeforePreparing_areTransformedOnTheSpot() {
+        BannerInstructions banner = banners(route).get(0);
+
+        assertEquals(pipeline.transform(banner), pipeline.banner(banner));
+        assertEquals(1, metrics.counter("instructions.misses").sum());
+    }
+
+    @Test
+    public void invalidate_dropsPreparedAndInFlightWork() {
+        pipeline.prepare(route);
+        runQueued();
+        BannerInstructions banner = banners(route).get(0);
+        VoiceInstructions voice = route.legs().get(0).steps().get(0).voiceInstructions().get(0);
+        assertNotNull(pipeline.voice(voice.announcement()));
+
+        pipeline.invalidate();
+        assertNull(pipeline.voice(voice.announcement()));
+
+        pipeline.prepare(route);
+        pipeline.invalidate();
+        runQueued();
+        assertNull(pipeline.voice(voice.announcement()));
+        pipeline.banner(banner);
+        assertEquals(1, metrics.counter("instructions.misses").sum());
+    }
+
+    @Test
+    public void abbreviations_onlyFollowAName() {
+        assertEquals("West Broad St", StreetAbbreviations.abbreviate("West Broad Street"));
+        assertEquals("Cary St Rd", StreetAbbreviations.abbreviate("Cary Street Road"));
+        assertEquals("Court St", StreetAbbreviations.abbreviate("Court Street"));
+        assertEquals("Interstate 64 East", StreetAbbreviations.abbreviate("Interstate 64 East"));
+    }
+
+    private void runQueued() {
+        for (Runnable task : queued) {
+            task.run();
+        }
+        queued.clear();
+    }
+
+    private static List<BannerInstructions> banners(DirectionsRoute route) {
+        List<BannerInstructions> banners = new ArrayList<>();
+        for (LegStep step : route.legs().get(0).steps()) {
+            banners.addAll(step.bannerInstructions());
+        }
+        return banners;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.mapboxrepro;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void percentiles_areWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000_000, histogram.getMax());
+        assertEquals(50_000_000, histogram.getValueAtPercentile(50), 50_000_000 * 0.04);
+        assertEquals(99_000_000, histogram.getValueAtPercentile(99), 99_000_000 * 0.04);
+        assertEquals(50_000_500, histogram.getMean(), 1);
+    }
+
+    @Test
+    public void bucketUpperBound_coversEveryValueInTheBucket() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int bucket = LatencyHistogram.bucketIndex(value);
+            assertTrue(value <= LatencyHistogram.bucketUpperBound(bucket));
+            assertTrue(bucket == 0 || value > LatencyHistogram.bucketUpperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void emptyHistogram_reportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+}
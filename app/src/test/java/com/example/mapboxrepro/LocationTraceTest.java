@@ -0,0 +1,119 @@
+package com.example.mapboxrepro;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LocationTraceTest {
+    private static final double EPSILON = 1e-6;
+
+    @Test
+    public void gpx_readsTrackPointsWithTheirTimes() throws IOException {
+        String gpx = "<?xml version=\"1.0\"?>\n"
+                + "<gpx version=\"1.1\" xmlns=\"http://www.topografix.com/GPX/1/1\""
+                + " xmlns:gpxtpx=\"http://www.garmin.com/xmlschemas/TrackPointExtension/v2\"><trk><trkseg>\n"
+                + "<trkpt lat=\"37.5\" lon=\"-77.4\"><ele>52.5</ele><time>2020-05-01T10:00:00Z</time></trkpt>\n"
+                + "<trkpt lat=\"37.501\" lon=\"-77.401\"><time>2020-05-01T10:00:01.500Z</time>"
+                + "<extensions><gpxtpx:TrackPointExtension><gpxtpx:speed>12.5</gpxtpx:speed>"
+                + "<gpxtpx:course>270</gpxtpx:course></gpxtpx:TrackPointExtension></extensions></trkpt>\n"
+                + "</trkseg></trk></gpx>";
+
+        List<LocationTrace.Fix> fixes = read("drive.gpx", gpx).getFixes();
+
+        assertEquals(2, fixes.size());
+        assertEquals(0, fixes.get(0).getOffsetMillis());
+        assertEquals(-77.4, fixes.get(0).getLongitude(), EPSILON);
+        assertEquals(52.5, fixes.get(0).getAltitude(), EPSILON);
+        assertTrue(Double.isNaN(fixes.get(0).getSpeed()));
+        assertEquals(1500, fixes.get(1).getOffsetMillis());
+        assertEquals(12.5, fixes.get(1).getSpeed(), EPSILON);
+        assertEquals(270, fixes.get(1).getBearing(), EPSILON);
+    }
+
+    @Test
+    public void nmea_mergesSentencesOfTheSameFixAndSkipsBadOnes() throws IOException {
+        String nmea = "$GPGGA,235959.00,4807.0380,N,01131.0000,E,1,08,0.9,545.4,M,46.9,M,,*65\n"
+                + "$GPRMC,235959.00,A,4807.0380,N,01131.0000,E,022.4,084.4,230394,003.1,W*48\n"
+                // Checksum doesn't match
+                + "$GPRMC,000000.00,A,4807.0500,N,01131.0200,E,022.4,084.4,240394,003.1,W*00\n"
+                // No fix
+                + "$GPRMC,000001.00,V,,,,,,,240394,,*16\n"
+                + "$GPRMC,000002.00,A,4807.0600,S,01131.0400,W,010.0,090.0,240394,003.1,W*4E\n";
+
+        List<LocationTrace.Fix> fixes = read("drive.nmea", nmea).getFixes();
+
+        assertEquals(2, fixes.size());
+        assertEquals(48 + 7.038 / 60, fixes.get(0).getLatitude(), EPSILON);
+        assertEquals(11 + 31.0 / 60, fixes.get(0).getLongitude(), EPSILON);
+        assertEquals(545.4, fixes.get(0).getAltitude(), EPSILON);
+        assertEquals(4.5, fixes.get(0).getAccuracy(), EPSILON);
+        assertEquals(22.4 * 1852 / 3600, fixes.get(0).getSpeed(), EPSILON);
+        // Past midnight, so the date moved on too
+        assertEquals(3000, fixes.get(1).getOffsetMillis());
+        assertEquals(-(48 + 7.06 / 60), fixes.get(1).getLatitude(), EPSILON);
+        assertEquals(-(11 + 31.04 / 60), fixes.get(1).getLongitude(), EPSILON);
+        assertTrue(Double.isNaN(fixes.get(1).getAltitude()));
+    }
+
+    @Test
+    public void json_readsOptionalValuesAndDropsFixesGoingBackInTime() throws IOException {
+        String json = "[{\"time\":1000,\"latitude\":37.5,\"longitude\":-77.4,\"accuracy\":3},"
+                + "{\"time\":900,\"latitude\":37.6,\"longitude\":-77.5},"
+                + "{\"time\":2000,\"latitude\":37.7,\"longitude\":-77.6,\"speed\":8,\"bearing\":null}]";
+
+        List<LocationTrace.Fix> fixes = read("drive.json", json).getFixes();
+
+        assertEquals(2, fixes.size());
+        assertEquals(3, fixes.get(0).getAccuracy(), EPSILON);
+        assertEquals(1000, fixes.get(1).getOffsetMillis());
+        assertEquals(8, fixes.get(1).getSpeed(), EPSILON);
+        assertTrue(Double.isNaN(fixes.get(1).getBearing()));
+    }
+
+    @Test(expected = IOException.class)
+    public void jsonFixWithoutPosition_fails() throws IOException {
+        read("drive.json", "[{\"time\":1000,\"latitude\":37.5}]");
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownFormat_fails() throws IOException {
+        read("drive.kml", "<kml/>");
+    }
+
+    @Test
+    public void at_interpolatesBetweenFixesButNotAcrossGaps() {
+        LocationTrace trace = new LocationTrace(Arrays.asList(
+                fix(0, 0, 0, 350),
+                fix(1000, 1, 2, 10),
+                // Tunnel
+                fix(20000, 5, 5, 10)));
+
+        LocationTrace.Fix halfway = trace.at(500, 5000);
+        assertEquals(0.5, halfway.getLongitude(), EPSILON);
+        assertEquals(1, halfway.getLatitude(), EPSILON);
+        assertEquals(0, halfway.getBearing(), EPSILON);
+        assertEquals(1, trace.at(1000, 5000).getLongitude(), EPSILON);
+        assertNull(trace.at(10000, 5000));
+        assertNull(trace.at(-1, 5000));
+        assertNull(trace.at(20001, 5000));
+        assertEquals(3, trace.at(10500, 20000).getLongitude(), EPSILON);
+    }
+
+    static LocationTrace.Fix fix(long offsetMillis, double longitude, double latitude, double bearing) {
+        return new LocationTrace.Fix(offsetMillis, longitude, latitude, Double.NaN, Double.NaN, bearing,
+                Double.NaN);
+    }
+
+    private static LocationTrace read(String fileName, String content) throws IOException {
+        try (InputStream in = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))) {
+            return LocationTrace.read(fileName, in);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MarkerSetTest {
+    private final MarkerSet markers = new MarkerSet();
+
+    @Test
+    public void replaceAll_diffsAgainstTheMarkersBefore() {
+        MarkerSet.Diff first = markers.replaceAll(Arrays.asList(marker("a", 0), marker("b", 1), marker("c", 2)));
+        assertEquals(3, first.added);
+
+        MarkerSet.Diff second = markers.replaceAll(Arrays.asList(marker("a", 0), marker("b", 5), marker("d", 3)));
+        assertEquals(1, second.added);
+        assertEquals(1, second.removed);
+        assertEquals(1, second.changed);
+
+        assertTrue(markers.replaceAll(Arrays.asList(marker("a", 0), marker("b", 5), marker("d", 3))).isEmpty());
+        assertEquals(3, markers.size());
+    }
+
+    @Test
+    public void replaceAll_countsAChangedIconAsAChange() {
+        markers.replaceAll(Collections.singletonList(marker("a", 0)));
+        MarkerSet.Diff diff = markers.replaceAll(Collections.singletonList(
+                new MarkerSet.Marker("a", Point.fromLngLat(0, 0), "depot")));
+        assertEquals(1, diff.changed);
+    }
+
+    @Test
+    public void toJson_isTheFeatureCollectionOfTheMarkers() {
+        markers.replaceAll(Arrays.asList(marker("a", 0), marker("b", 1)));
+        markers.put(marker("c", 2));
+        markers.put(marker("a", 4));
+        markers.remove("b");
+
+        List<Feature> features = FeatureCollection.fromJson(markers.toJson()).features();
+        assertEquals(2, features.size());
+        List<String> ids = new ArrayList<>();
+        for (Feature feature : features) {
+            ids.add(feature.id());
+            assertEquals("endpoint", feature.getStringProperty(MarkerSet.ICON_PROPERTY));
+        }
+        assertEquals(Arrays.asList("a", "c"), ids);
+        assertEquals(4, ((Point) features.get(0).geometry()).longitude(), 0);
+    }
+
+    @Test
+    public void toJson_ofNoMarkersIsAnEmptyCollection() {
+        assertEquals(0, FeatureCollection.fromJson(markers.toJson()).features().size());
+        markers.put(marker("a", 0));
+        markers.remove("a");
+        assertEquals(0, FeatureCollection.fromJson(markers.toJson()).features().size());
+    }
+
+    @Test
+    public void put_andRemove_sayWhetherAnythingChanged() {
+        assertTrue(markers.put(marker("a", 0)));
+        assertFalse(markers.put(marker("a", 0)));
+        assertTrue(markers.put(marker("a", 1)));
+        assertTrue(markers.remove("a"));
+        assertFalse(markers.remove("a"));
+    }
+
+    private static MarkerSet.Marker marker(String id, double longitude) {
+        return new MarkerSet.Marker(id, Point.fromLngLat(longitude, 37.5), "endpoint");
+    }
+}
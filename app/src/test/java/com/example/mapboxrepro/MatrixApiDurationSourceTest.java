@@ -0,0 +1,53 @@
+package com.example.mapboxrepro;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MatrixApiDurationSourceTest {
+    @Test
+    public void smallMatrices_takeOneRequest() {
+        List<MatrixApiDurationSource.Block> blocks = MatrixApiDurationSource.blocksOf(25);
+
+        assertEquals(1, blocks.size());
+        assertEquals(25, blocks.get(0).sourceCount);
+        assertEquals(25, blocks.get(0).destinationCount);
+    }
+
+    @Test
+    public void largeMatrices_areCoveredByBlocksThatFitARequest() {
+        int points = 40;
+        int[][] covered = new int[points][points];
+        for (MatrixApiDurationSource.Block block : MatrixApiDurationSource.blocksOf(points)) {
+            assertTrue(block.sourceCount + block.destinationCount <= MatrixApiDurationSource.MAX_COORDINATES);
+            for (int i = 0; i < block.sourceCount; i++) {
+                for (int j = 0; j < block.destinationCount; j++) {
+                    covered[block.firstSource + i][block.firstDestination + j]++;
+                }
+            }
+        }
+
+        for (int[] row : covered) {
+            for (int count : row) {
+                assertEquals(1, count);
+            }
+        }
+    }
+
+    @Test
+    public void merge_putsTheBlockInPlaceWithMissingRoutesInfinite() {
+        double[][] seconds = new double[4][4];
+        MatrixApiDurationSource.Block block = new MatrixApiDurationSource.Block(2, 2, 1, 2);
+
+        MatrixApiDurationSource.merge(seconds, block, Arrays.asList(new Double[]{10.0, 20.0}, new Double[]{null, 40.0}));
+
+        assertEquals(10, seconds[2][1], 0);
+        assertEquals(20, seconds[2][2], 0);
+        assertEquals(Double.POSITIVE_INFINITY, seconds[3][1], 0);
+        assertEquals(40, seconds[3][2], 0);
+        assertEquals(0, seconds[0][0], 0);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.mapboxrepro;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MemoryPressureManagerTest {
+    private final Metrics metrics = new Metrics();
+    private long heapUsedBytes = 64 * 1024 * 1024;
+    private final MemoryPressureManager manager = new MemoryPressureManager(metrics, () -> heapUsedBytes);
+
+    @Test
+    public void levels_mapToTiers() {
+        assertEquals(MemoryPressureManager.Tier.LIGHT,
+                MemoryPressureManager.tierOf(MemoryPressureManager.TRIM_MEMORY_RUNNING_MODERATE));
+        assertEquals(MemoryPressureManager.Tier.LIGHT,
+                MemoryPressureManager.tierOf(MemoryPressureManager.TRIM_MEMORY_UI_HIDDEN));
+        assertEquals(MemoryPressureManager.Tier.MODERATE,
+                MemoryPressureManager.tierOf(MemoryPressureManager.TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(MemoryPressureManager.Tier.MODERATE,
+                MemoryPressureManager.tierOf(MemoryPressureManager.TRIM_MEMORY_BACKGROUND));
+        assertEquals(MemoryPressureManager.Tier.CRITICAL,
+                MemoryPressureManager.tierOf(MemoryPressureManager.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertEquals(MemoryPressureManager.Tier.CRITICAL,
+                MemoryPressureManager.tierOf(MemoryPressureManager.TRIM_MEMORY_MODERATE));
+        assertEquals(MemoryPressureManager.Tier.CRITICAL,
+                MemoryPressureManager.tierOf(MemoryPressureManager.TRIM_MEMORY_COMPLETE));
+    }
+
+    @Test
+    public void trim_reachesRegisteredCachesAndRecordsTheHeap() {
+        List<MemoryPressureManager.Tier> trimmed = new ArrayList<>();
+        MemoryPressureManager.Trimmable cache = tier -> {
+            trimmed.add(tier);
+            heapUsedBytes -= 16 * 1024 * 1024;
+        };
+        manager.register(cache);
+
+        manager.onTrimMemory(MemoryPressureManager.TRIM_MEMORY_BACKGROUND);
+        manager.onLowMemory();
+        manager.unregister(cache);
+        manager.onTrimMemory(MemoryPressureManager.TRIM_MEMORY_COMPLETE);
+
+        assertEquals(Arrays.asList(MemoryPressureManager.Tier.MODERATE, MemoryPressureManager.Tier.CRITICAL),
+                trimmed);
+        assertEquals(1, metrics.counter("memory.trims.moderate").sum());
+        assertEquals(2, metrics.counter("memory.trims.critical").sum());
+        assertEquals(3, metrics.counter("memory.trims_measured").sum());
+        assertEquals((64 + 48 + 32) * 1024, metrics.counter("memory.heap_before_trim_kb").sum());
+        assertEquals((48 + 32 + 32) * 1024, metrics.counter("memory.heap_after_trim_kb").sum());
+        assertEquals(32 * 1024, metrics.counter("memory.trim_released_kb").sum());
+    }
+
+    @Test
+    public void trim_measuresTheHeapOnceWorkOnOtherThreadsHasFinished() {
+        List<Runnable> queued = new ArrayList<>();
+        manager.register(new MemoryPressureManager.Trimmable() {
+            @Override
+            public void trimMemory(MemoryPressureManager.Tier tier) {
+                queued.add(() -> heapUsedBytes -= 16 * 1024 * 1024);
+            }
+
+            @Override
+            public void afterTrim(Runnable task) {
+                queued.add(task);
+            }
+        });
+        manager.register(tier -> heapUsedBytes -= 8 * 1024 * 1024);
+
+        manager.onLowMemory();
+        assertEquals(0, metrics.counter("memory.trims_measured").sum());
+        for (Runnable task : queued) {
+            task.run();
+        }
+
+        assertEquals(1, metrics.counter("memory.trims_measured").sum());
+        assertEquals(64 * 1024, metrics.counter("memory.heap_before_trim_kb").sum());
+        assertEquals(40 * 1024, metrics.counter("memory.heap_after_trim_kb").sum());
+        assertEquals(24 * 1024, metrics.counter("memory.trim_released_kb").sum());
+    }
+}
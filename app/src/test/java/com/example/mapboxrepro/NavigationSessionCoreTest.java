@@ -0,0 +1,65 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.geojson.Point;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NavigationSessionCoreTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+    private final Metrics metrics = new Metrics();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void leavingTheRoute_reroutesOnASharedPool() throws Exception {
+        DirectionsRoute route = RouteFixtures.route();
+        DirectionsRoute newRoute = RouteFixtures.multiLegRoute(1);
+        RouteSource source = (request, callback) -> callback.onRoute(newRoute);
+        CountDownLatch rerouted = new CountDownLatch(1);
+        NavigationSessionCore[] core = new NavigationSessionCore[1];
+        RerouteEngine engine = new RerouteEngine(source, scheduler, Runnable::run, metrics,
+                new RerouteEngine.Listener() {
+                    @Override
+                    public void onReroute(@NonNull DirectionsRoute route, boolean prefetched) {
+                        core[0].onReroute(0, route, prefetched);
+                        rerouted.countDown();
+                    }
+
+                    @Override
+                    public void onRerouteFailed(@NonNull Throwable throwable) {
+                        fail(throwable.getMessage());
+                    }
+                }, 1, new SerialExecutor(pool));
+        core[0] = new NavigationSessionCore(engine, new InstructionPipeline(Collections.emptyList(), pool, metrics),
+                new AdaptiveUpdateScheduler(metrics, null), null, null, metrics);
+        core[0].start(route);
+
+        Point origin = RouteFixtures.route().legs().get(0).steps().get(0).maneuver().location();
+        core[0].onProgress(0, origin.longitude(), origin.latitude(), 10, Double.NaN, Double.NaN, 0, 0, 100, 1000);
+        core[0].onOffRoute(1000, Point.fromLngLat(origin.longitude() + 0.01, origin.latitude()));
+
+        assertTrue(rerouted.await(5, TimeUnit.SECONDS));
+        assertSame(newRoute, core[0].getRoute());
+        assertEquals(1, metrics.counter("navigation.off_route").sum());
+        assertEquals(1, metrics.counter("navigation.reroutes").sum());
+        core[0].release();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.mapboxrepro;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class NightModeStylesTest {
+    private static final String STYLE = "{\"version\":8,\"sources\":{},\"layers\":[{\"id\":\"background\","
+            + "\"type\":\"background\",\"paint\":{\"background-color\":\"#000\"}}]}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile boolean online;
+    private long now = 1_000_000;
+    private NightModeStyles styles;
+
+    @Before
+    public void setUp() throws Exception {
+        // Local stand-in for the Styles API, failing with 503 while offline
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            byte[] body = STYLE.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(online ? 200 : 503, online ? body.length : -1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                if (online) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        styles = new NightModeStyles(folder.getRoot(), base + "/day.json", base + "/night.json", "pk.test",
+                () -> now);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void failedDownload_isNotRetriedUntilTheDelayIsUp() {
+        assertNull(styles.load(false));
+        assertNull(styles.load(false));
+        assertEquals(1, requests.get());
+
+        online = true;
+        now += NightModeStyles.MIN_RETRY_DELAY_MILLIS - 1;
+        assertNull(styles.load(false));
+        assertEquals(1, requests.get());
+
+        now += 1;
+        assertNotNull(styles.load(false));
+        assertNotNull(styles.load(false));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void retryDelay_doublesWhileOffline() {
+        styles.load(true);
+        now += NightModeStyles.MIN_RETRY_DELAY_MILLIS;
+        styles.load(true);
+        assertEquals(2, requests.get());
+
+        now += NightModeStyles.MIN_RETRY_DELAY_MILLIS;
+        styles.load(true);
+        assertEquals(2, requests.get());
+        now += NightModeStyles.MIN_RETRY_DELAY_MILLIS;
+        styles.load(true);
+        assertEquals(3, requests.get());
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.api.directions.v5.models.LegStep;
+import com.mapbox.api.directions.v5.models.RouteLeg;
+import com.mapbox.api.directions.v5.models.RouteOptions;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.utils.PolylineUtils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.mapbox.core.constants.Constants.PRECISION_6;
+import static org.junit.Assert.*;
+
+public class RemainingRouteTest {
+
+    @Test
+    public void routeFromTheFirstStep_isTheRouteItself() throws Exception {
+        DirectionsRoute route = RouteFixtures.multiLegRoute(2);
+        assertSame(route, RemainingRoute.of(route, 0, 0));
+        assertSame(route, RemainingRoute.of(route, 2, 0));
+        assertSame(route, RemainingRoute.of(route, 0, 10_000));
+    }
+
+    @Test
+    public void remainingRoute_startsAtTheStepAndAddsUp() throws Exception {
+        DirectionsRoute route = RouteFixtures.multiLegRoute(3);
+        RouteLeg leg = route.legs().get(1);
+        int stepIndex = leg.steps().size() / 2;
+        LegStep step = leg.steps().get(stepIndex);
+
+        DirectionsRoute remaining = RemainingRoute.of(route, 1, stepIndex);
+
+        assertEquals(2, remaining.legs().size());
+        List<LegStep> steps = remaining.legs().get(0).steps();
+        assertEquals(leg.steps().size() - stepIndex, steps.size());
+        assertEquals(step, steps.get(0));
+        assertEquals(route.legs().get(2), remaining.legs().get(1));
+
+        double distance = 0;
+        for (RouteLeg remainingLeg : remaining.legs()) {
+            for (LegStep remainingStep : remainingLeg.steps()) {
+                distance += remainingStep.distance();
+            }
+        }
+        assertEquals(distance, remaining.distance(), 1);
+        assertTrue(remaining.distance() < route.distance());
+        assertTrue(remaining.duration() < route.duration());
+        assertEquals(route.routeOptions(), remaining.routeOptions());
+
+        List<Point> line = PolylineUtils.decode(remaining.geometry(), PRECISION_6);
+        List<Point> stepLine = PolylineUtils.decode(step.geometry(), PRECISION_6);
+        assertEquals(stepLine.get(0), line.get(0));
+        List<Point> routeLine = PolylineUtils.decode(route.geometry(), PRECISION_6);
+        assertEquals(routeLine.get(routeLine.size() - 1), line.get(line.size() - 1));
+    }
+
+    @Test
+    public void remainingRoute_startsItsOptionsWhereItStarts() throws Exception {
+        DirectionsRoute fixture = RouteFixtures.multiLegRoute(3);
+        List<Point> stops = Arrays.asList(Point.fromLngLat(-77.56, 37.6), Point.fromLngLat(-77.55, 37.55),
+                Point.fromLngLat(-77.54, 37.5), Point.fromLngLat(-77.53, 37.45));
+        RouteOptions options = fixture.routeOptions();
+        DirectionsRoute route = fixture.toBuilder()
+                .routeOptions(RouteOptions.builder()
+                        .baseUrl(options.baseUrl())
+                        .user(options.user())
+                        .profile(options.profile())
+                        .coordinates(stops)
+                        .geometries(options.geometries())
+                        .accessToken(options.accessToken())
+                        .requestUuid(options.requestUuid())
+                        .bearings("0,45;90,45;180,45;270,45")
+                        .waypointNames("Home;Depot;Shop;Office")
+                        .build())
+                .build();
+        int stepIndex = route.legs().get(1).steps().size() / 2;
+
+        DirectionsRoute remaining = RemainingRoute.of(route, 1, stepIndex);
+
+        Point start = PolylineUtils.decode(remaining.geometry(), PRECISION_6).get(0);
+        assertEquals(Arrays.asList(start, stops.get(2), stops.get(3)), remaining.routeOptions().coordinates());
+        assertEquals(remaining.legs().size() + 1, remaining.routeOptions().coordinates().size());
+        assertEquals(";180,45;270,45", remaining.routeOptions().bearings());
+        assertEquals(";Shop;Office", remaining.routeOptions().waypointNames());
+        assertEquals(options.requestUuid(), remaining.routeOptions().requestUuid());
+    }
+}
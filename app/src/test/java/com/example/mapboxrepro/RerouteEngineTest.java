@@ -0,0 +1,245 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.utils.PolylineUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.mapbox.core.constants.Constants.PRECISION_6;
+import static org.junit.Assert.*;
+
+public class RerouteEngineTest {
+    private ScheduledExecutorService scheduler;
+    private DirectionsRoute route;
+    private RouteGeometryIndex index;
+    private RecordingListener listener;
+    private RerouteEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        route = RouteFixtures.route();
+        index = new RouteGeometryIndex(PolylineUtils.decode(route.geometry(), PRECISION_6));
+        listener = new RecordingListener();
+    }
+
+    @After
+    public void tearDown() {
+        if (engine != null) {
+            engine.release();
+        }
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void decisionPoints_haveAnExitPointForEveryUntakenEntry() {
+        List<RerouteEngine.DecisionPoint> decisionPoints = RerouteEngine.decisionPointsOf(route, index);
+
+        assertFalse(decisionPoints.isEmpty());
+        for (RerouteEngine.DecisionPoint decisionPoint : decisionPoints) {
+            assertFalse(decisionPoint.exits.isEmpty());
+            for (Point exit : decisionPoint.exits) {
+                double distance = index.distanceTo(exit.longitude(), exit.latitude(), 100);
+                assertTrue(distance > 5 && distance <= RerouteEngine.EXIT_OFFSET_METERS + 1);
+            }
+        }
+    }
+
+    @Test
+    public void leavingTheRouteDownAPrefetchedExit_reroutesWithoutFetching() throws Exception {
+        StandInRouteSource source = new StandInRouteSource();
+        engine = new RerouteEngine(source, scheduler, Runnable::run, new Metrics(), listener, 1);
+        engine.setRoute(route);
+        source.awaitRequests(1);
+
+        // Answer the first candidate with a road heading straight out of its exit
+        Call first = source.calls.get(0);
+        Point start = first.request.getOrigin();
+        Point farther = Point.fromLngLat(start.longitude() + (start.longitude() - routeNear(start).longitude()) * 8,
+                start.latitude() + (start.latitude() - routeNear(start).latitude()) * 8);
+        DirectionsRoute candidate = lineRoute(start, farther);
+        first.callback.onRoute(candidate);
+        int requestsBefore = source.calls.size();
+
+        Point driven = Point.fromLngLat((start.longitude() + farther.longitude()) / 2,
+                (start.latitude() + farther.latitude()) / 2);
+        assertTrue(index.distanceTo(driven.longitude(), driven.latitude(), 1000)
+                > RerouteEngine.OFF_ROUTE_THRESHOLD_METERS);
+        engine.onLocation(driven.longitude(), driven.latitude(), 0);
+        engine.onLocation(driven.longitude(), driven.latitude(), RerouteEngine.OFF_ROUTE_MIN_DURATION_MILLIS);
+
+        listener.await();
+        assertSame(candidate, listener.route);
+        assertTrue(listener.prefetched);
+        assertEquals(requestsBefore, source.calls.size());
+    }
+
+    @Test
+    public void singleStrayFix_doesNotReroute() throws Exception {
+        StandInRouteSource source = new StandInRouteSource();
+        engine = new RerouteEngine(source, scheduler, Runnable::run, new Metrics(), listener, 1);
+        engine.setRoute(route);
+        Point onRoute = PolylineUtils.decode(route.geometry(), PRECISION_6).get(5);
+
+        engine.onLocation(onRoute.longitude() + 0.01, onRoute.latitude(), 0);
+        engine.onLocation(onRoute.longitude(), onRoute.latitude(), 5000);
+        engine.onLocation(onRoute.longitude() + 0.01, onRoute.latitude(), 6000);
+
+        assertFalse(listener.done.await(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failedReroute_isRetriedFromTheLatestLocation() throws Exception {
+        Point lost = Point.fromLngLat(-77.40, 37.40);
+        AtomicInteger attempts = new AtomicInteger();
+        DirectionsRoute reroute = lineRoute(lost, Point.fromLngLat(-77.5505277, 37.461559));
+        engine = new RerouteEngine((request, callback) -> {
+            if (!request.getOrigin().equals(lost)) {
+                callback.onFailure(new IllegalStateException("No routes found"));
+            } else if (attempts.incrementAndGet() < 3) {
+                callback.onFailure(new IOException("Offline"));
+            } else {
+                callback.onRoute(reroute);
+            }
+        }, scheduler, Runnable::run, new Metrics(), listener, 1);
+        engine.setRoute(route);
+
+        engine.onOffRoute(lost);
+
+        listener.await();
+        assertSame(reroute, listener.route);
+        assertFalse(listener.prefetched);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void rerouteWithNoRoute_failsWithoutRetrying() throws Exception {
+        Point lost = Point.fromLngLat(-77.40, 37.40);
+        AtomicInteger attempts = new AtomicInteger();
+        engine = new RerouteEngine((request, callback) -> {
+            if (request.getOrigin().equals(lost)) {
+                attempts.incrementAndGet();
+            }
+            callback.onFailure(new IllegalStateException("No routes found"));
+        }, scheduler, Runnable::run, new Metrics(), listener, 1);
+        engine.setRoute(route);
+
+        engine.onOffRoute(lost);
+
+        listener.await();
+        assertNull(listener.route);
+        assertNotNull(listener.failure);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void abandonedReroute_letsTheNextDeviationRerouteAgain() throws Exception {
+        Point lost = Point.fromLngLat(-77.40, 37.40);
+        AtomicInteger fetches = new AtomicInteger();
+        engine = new RerouteEngine((request, callback) -> {
+            if (request.getOrigin().equals(lost)) {
+                fetches.incrementAndGet();
+                callback.onRoute(lineRoute(lost, Point.fromLngLat(-77.5505277, 37.461559)));
+            } else {
+                callback.onFailure(new IllegalStateException("No routes found"));
+            }
+        }, scheduler, Runnable::run, new Metrics(), listener, 1);
+        engine.setRoute(route);
+
+        engine.onOffRoute(lost);
+        listener.await();
+        engine.onOffRoute(lost);
+        engine.abandonReroute();
+        engine.onOffRoute(lost);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fetches.get() < 2) {
+            assertTrue("Timed out waiting for the second reroute", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        assertEquals(2, fetches.get());
+    }
+
+    private Point routeNear(Point point) {
+        List<Point> line = PolylineUtils.decode(route.geometry(), PRECISION_6);
+        int segment = index.nearestSegment(point.longitude(), point.latitude(), 100);
+        return line.get(segment);
+    }
+
+    private static DirectionsRoute lineRoute(Point from, Point to) {
+        List<Point> line = new ArrayList<>(Arrays.asList(from, to));
+        return DirectionsRoute.builder()
+                .distance(1.0)
+                .duration(1.0)
+                .geometry(PolylineUtils.encode(line, PRECISION_6))
+                .build();
+    }
+
+    private static class Call {
+        final RouteRequest request;
+        final RouteSource.Callback callback;
+
+        Call(RouteRequest request, RouteSource.Callback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+    }
+
+    private static class StandInRouteSource implements RouteSource {
+        final List<Call> calls = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void fetchRoute(@NonNull RouteRequest request, @NonNull Callback callback) {
+            calls.add(new Call(request, callback));
+        }
+
+        void awaitRequests(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (calls.size() < count) {
+                assertTrue("Timed out waiting for requests", System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    private static class RecordingListener implements RerouteEngine.Listener {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile DirectionsRoute route;
+        volatile boolean prefetched;
+        volatile Throwable failure;
+
+        @Override
+        public void onReroute(@NonNull DirectionsRoute route, boolean prefetched) {
+            this.route = route;
+            this.prefetched = prefetched;
+            done.countDown();
+        }
+
+        @Override
+        public void onRerouteFailed(@NonNull Throwable throwable) {
+            failure = throwable;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Timed out waiting for a reroute", done.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.geojson.Point;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RouteCodecTest {
+    private static final RouteRequest REQUEST = new RouteRequest(
+            Point.fromLngLat(-77.5659408569336, 37.605369567871094),
+            Point.fromLngLat(-77.5505277, 37.461559));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void route_roundTripsUnchanged() throws IOException {
+        DirectionsRoute route = RouteFixtures.route();
+
+        RouteCodec.Record record = RouteCodec.decode(ByteBuffer.wrap(RouteCodec.encode(REQUEST, route)));
+
+        assertEquals(route, record.getRoute());
+        assertEquals(REQUEST, record.getRequest());
+    }
+
+    @Test
+    public void requestWithStops_roundTrips() throws IOException {
+        RouteRequest request = new RouteRequest(Arrays.asList(REQUEST.getOrigin(),
+                Point.fromLngLat(-77.53, 37.55), Point.fromLngLat(-77.52, 37.5), REQUEST.getDestination()));
+
+        RouteCodec.Record record = RouteCodec.decode(
+                ByteBuffer.wrap(RouteCodec.encode(request, RouteFixtures.route())));
+
+        assertEquals(request, record.getRequest());
+    }
+
+    @Test
+    public void recordWithoutRequest_roundTrips() throws IOException {
+        DirectionsRoute route = RouteFixtures.route();
+
+        RouteCodec.Record record = RouteCodec.decode(ByteBuffer.wrap(RouteCodec.encode(null, route)));
+
+        assertEquals(route, record.getRoute());
+        assertNull(record.getRequest());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedRecord_isRejected() throws IOException {
+        byte[] bytes = RouteCodec.encode(REQUEST, RouteFixtures.route());
+
+        RouteCodec.decode(ByteBuffer.wrap(bytes, 0, bytes.length / 2));
+    }
+
+    @Test
+    public void polyline_unpacksToDeltasAndRejectsNonPolylines() {
+        // The canonical example from the polyline algorithm docs: 38.5, -120.2 zig-zagged at 1e5
+        assertArrayEquals(new long[] {7700000, 24039999}, RouteCodec.unpackPolyline("_p~iF~ps|U"));
+        assertNull(RouteCodec.unpackPolyline("not a polyline {}"));
+        assertNull(RouteCodec.unpackPolyline("_"));
+    }
+
+    @Test
+    public void diskCache_reloadsThroughMemoryMap() throws IOException {
+        RouteDiskCache cache = new RouteDiskCache(folder.getRoot());
+        DirectionsRoute route = RouteFixtures.route();
+        String key = RouteDiskCache.keyFor(REQUEST);
+
+        cache.put(key, REQUEST, route);
+        RouteCodec.Record record = new RouteDiskCache(folder.getRoot()).get(key);
+
+        assertNotNull(record);
+        assertEquals(route, record.getRoute());
+        assertEquals(REQUEST, record.getRequest());
+    }
+
+    @Test(expected = IOException.class)
+    public void recordFromAnOlderVersion_isRejected() throws IOException {
+        byte[] bytes = RouteCodec.encode(REQUEST, RouteFixtures.route());
+        bytes[4] = RouteCodec.VERSION - 1;
+
+        RouteCodec.decode(ByteBuffer.wrap(bytes));
+    }
+
+    @Test
+    public void compactFormat_isSmallerThanJavaSerialization() throws Exception {
+        DirectionsRoute route = RouteFixtures.multiLegRoute(10);
+
+        byte[] serialized = javaSerialize(route);
+        byte[] compact = RouteCodec.encode(REQUEST, route);
+
+        assertEquals(route, javaDeserialize(serialized));
+        assertEquals(route, RouteCodec.decode(ByteBuffer.wrap(compact)).getRoute());
+        assertTrue(compact.length * 2 < serialized.length);
+    }
+
+    private static byte[] javaSerialize(DirectionsRoute route) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(route);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DirectionsRoute javaDeserialize(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (DirectionsRoute) in.readObject();
+        }
+    }
+}
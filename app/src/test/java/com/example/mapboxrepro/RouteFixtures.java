@@ -0,0 +1,61 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.api.directions.v5.models.DirectionsResponse;
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.api.directions.v5.models.RouteLeg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Directions responses for the ORIGIN to DESTINATION corridor used by the app. They are generated in
+ * the Directions API's shape rather than recorded from it, so the geometry and instructions are made up.
+ */
+final class RouteFixtures {
+    static final String DIRECTIONS_RESPONSE = "directions_response.json";
+
+    private RouteFixtures() {
+    }
+
+    static String read(String name) throws IOException {
+        try (InputStream in = RouteFixtures.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static DirectionsRoute route() throws IOException {
+        return DirectionsResponse.fromJson(read(DIRECTIONS_RESPONSE)).routes().get(0);
+    }
+
+    /**
+     * @return the fixture route driven {@code legs} times over, to stand in for a long multi-leg route
+     */
+    static DirectionsRoute multiLegRoute(int legs) throws IOException {
+        DirectionsRoute route = route();
+        List<RouteLeg> allLegs = new ArrayList<>();
+        for (int i = 0; i < legs; i++) {
+            for (RouteLeg leg : route.legs()) {
+                // Fresh copies, so Java serialization can't get away with back references
+                allLegs.add(RouteLeg.fromJson(leg.toJson()));
+            }
+        }
+        return route.toBuilder()
+                .legs(allLegs)
+                .distance(route.distance() * legs)
+                .duration(route.duration() * legs)
+                .build();
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.utils.PolylineUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.mapbox.core.constants.Constants.PRECISION_6;
+import static org.junit.Assert.*;
+
+public class RouteGeometryIndexTest {
+    private List<Point> line;
+    private RouteGeometryIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        line = PolylineUtils.decode(RouteFixtures.route().geometry(), PRECISION_6);
+        index = new RouteGeometryIndex(line);
+    }
+
+    @Test
+    public void pointsOnTheLine_areZeroDistanceAway() {
+        for (int i = 0; i < line.size(); i++) {
+            Point point = line.get(i);
+            assertEquals(0, index.distanceTo(point.longitude(), point.latitude(), 10), 1e-6);
+        }
+    }
+
+    @Test
+    public void nearestSegment_matchesBruteForce() {
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            Point near = line.get(random.nextInt(line.size()));
+            double longitude = near.longitude() + (random.nextDouble() - 0.5) * 0.004;
+            double latitude = near.latitude() + (random.nextDouble() - 0.5) * 0.004;
+
+            double bruteForce = Double.POSITIVE_INFINITY;
+            for (int segment = 0; segment < index.segmentCount(); segment++) {
+                bruteForce = Math.min(bruteForce, index.distanceToSegment(segment, longitude, latitude));
+            }
+            double indexed = index.distanceTo(longitude, latitude, 150);
+            if (bruteForce <= 150) {
+                assertEquals(bruteForce, indexed, 1e-9);
+            } else {
+                assertEquals(Double.POSITIVE_INFINITY, indexed, 0);
+            }
+        }
+    }
+
+    @Test
+    public void distances_areInMeters() {
+        RouteGeometryIndex eastward = new RouteGeometryIndex(Arrays.asList(
+                Point.fromLngLat(-77.56, 37.6), Point.fromLngLat(-77.55, 37.6)));
+        // 0.001 degrees of latitude is about 111 meters
+        assertEquals(111.2, eastward.distanceTo(-77.555, 37.601, 200), 0.5);
+        assertEquals(Double.POSITIVE_INFINITY, eastward.distanceTo(-77.555, 37.601, 100), 0);
+    }
+
+    @Test
+    public void distances_holdUpFarFromTheFirstPointsLatitude() {
+        RouteGeometryIndex northThenEast = new RouteGeometryIndex(Arrays.asList(
+                Point.fromLngLat(-100, 40), Point.fromLngLat(-100, 49), Point.fromLngLat(-99.99, 49)));
+
+        // 0.01 degrees of longitude at 49 degrees north, against 852 m at 40
+        assertEquals(729.6, northThenEast.length() - northThenEast.distanceAlong(1), 0.5);
+        assertEquals(111.2, northThenEast.distanceTo(-99.995, 49.001, 200), 0.5);
+    }
+
+    @Test
+    public void snap_prefersTheGivenStretchWhereTheRouteCrossesItself() {
+        // Out east, back west a little further north, then south across the first segment
+        RouteGeometryIndex loop = new RouteGeometryIndex(Arrays.asList(
+                Point.fromLngLat(-77.56, 37.6), Point.fromLngLat(-77.55, 37.6), Point.fromLngLat(-77.55, 37.602),
+                Point.fromLngLat(-77.555, 37.602), Point.fromLngLat(-77.555, 37.59)));
+
+        RouteGeometryIndex.Snap nearest = loop.snap(-77.5551, 37.6, 50);
+        RouteGeometryIndex.Snap onTheWayBack = loop.snap(-77.5551, 37.6, 50,
+                loop.distanceAlong(3), loop.length());
+
+        assertNotNull(nearest);
+        assertNotNull(onTheWayBack);
+        assertEquals(3, onTheWayBack.segment);
+        assertTrue(onTheWayBack.distanceAlong > nearest.distanceAlong + 1000);
+        // Nothing in the stretch, so the closest point anywhere
+        RouteGeometryIndex.Snap elsewhere = loop.snap(-77.558, 37.6, 50, loop.distanceAlong(3), loop.length());
+        assertNotNull(elsewhere);
+        assertEquals(0, elsewhere.segment);
+    }
+
+    @Test
+    public void snap_measuresDistanceAlongTheRoute() {
+        RouteGeometryIndex lShaped = new RouteGeometryIndex(Arrays.asList(
+                Point.fromLngLat(-77.56, 37.6), Point.fromLngLat(-77.55, 37.6), Point.fromLngLat(-77.55, 37.61)));
+        double firstLeg = lShaped.distanceAlong(1);
+
+        RouteGeometryIndex.Snap snap = lShaped.snap(-77.5499, 37.605, 50);
+
+        assertNotNull(snap);
+        assertEquals(1, snap.segment);
+        assertEquals(0.5, snap.fraction, 0.01);
+        assertEquals(firstLeg + 556, snap.distanceAlong, 2);
+        assertEquals(1112, lShaped.length() - firstLeg, 2);
+        assertNull(lShaped.snap(-77.54, 37.605, 50));
+    }
+
+    @Test
+    public void pointAt_landsBackOnTheSnappedSpot() {
+        Random random = new Random(11);
+        for (int i = 0; i < 200; i++) {
+            double distanceAlong = random.nextDouble() * index.length();
+            Point point = index.pointAt(distanceAlong);
+
+            RouteGeometryIndex.Snap snap = index.snap(point.longitude(), point.latitude(), 10);
+
+            assertNotNull(snap);
+            assertEquals(0, snap.distanceFromRoute, 0.01);
+            assertEquals(index.segmentAt(distanceAlong), index.segmentAt(snap.distanceAlong));
+        }
+    }
+
+    @Test
+    public void segmentAt_clampsToTheEnds() {
+        assertEquals(0, index.segmentAt(-10));
+        assertEquals(0, index.segmentAt(0));
+        assertEquals(index.segmentCount() - 1, index.segmentAt(index.length()));
+        assertEquals(index.segmentCount() - 1, index.segmentAt(index.length() + 10));
+    }
+}
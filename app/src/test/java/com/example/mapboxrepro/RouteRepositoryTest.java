@@ -0,0 +1,158 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.geojson.Point;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RouteRepositoryTest {
+    private static final RouteRequest REQUEST = new RouteRequest(
+            Point.fromLngLat(-77.5659408569336, 37.605369567871094),
+            Point.fromLngLat(-77.5505277, 37.461559));
+    private static final RouteRequest OTHER_REQUEST = new RouteRequest(
+            Point.fromLngLat(-77.5505277, 37.461559),
+            Point.fromLngLat(-77.5659408569336, 37.605369567871094));
+
+    private StandInRouteSource source;
+    private long now;
+    private RouteRepository repository;
+
+    @Before
+    public void setUp() {
+        source = new StandInRouteSource();
+        now = 0;
+        repository = new RouteRepository(source, 2, 1000, () -> now);
+    }
+
+    @Test
+    public void concurrentRequests_shareOneFetch() {
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        repository.getRoute(REQUEST, first);
+        repository.getRoute(REQUEST, second);
+
+        assertEquals(1, source.pending.size());
+        DirectionsRoute route = route(1);
+        source.complete(0, route);
+
+        assertSame(route, first.route);
+        assertSame(route, second.route);
+    }
+
+    @Test
+    public void finishedRoute_isServedFromCacheUntilItExpires() {
+        repository.getRoute(REQUEST, new RecordingCallback());
+        source.complete(0, route(1));
+
+        now = 1000;
+        RecordingCallback cached = new RecordingCallback();
+        repository.getRoute(REQUEST, cached);
+        assertNotNull(cached.route);
+        assertEquals(1, source.requests.size());
+
+        now = 1001;
+        repository.getRoute(REQUEST, new RecordingCallback());
+        assertEquals(2, source.requests.size());
+    }
+
+    @Test
+    public void trimMemory_dropsExpiredRoutesFirstAndEverythingUnderMorePressure() {
+        repository.getRoute(REQUEST, new RecordingCallback());
+        source.complete(0, route(1));
+        now = 600;
+        repository.getRoute(OTHER_REQUEST, new RecordingCallback());
+        source.complete(1, route(2));
+
+        now = 1200;
+        repository.trimMemory(MemoryPressureManager.Tier.LIGHT);
+        assertNull(repository.peek(REQUEST));
+        assertNotNull(repository.peek(OTHER_REQUEST));
+
+        repository.trimMemory(MemoryPressureManager.Tier.MODERATE);
+        assertNull(repository.peek(OTHER_REQUEST));
+    }
+
+    @Test
+    public void failure_isDeliveredToEveryWaiterAndNotCached() {
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        repository.getRoute(REQUEST, first);
+        repository.getRoute(REQUEST, second);
+        source.fail(0, new IllegalStateException("No routes found"));
+
+        assertNotNull(first.failure);
+        assertNotNull(second.failure);
+        assertNull(repository.peek(REQUEST));
+
+        repository.getRoute(REQUEST, new RecordingCallback());
+        assertEquals(2, source.requests.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedRoute_isEvicted() {
+        RouteRequest third = new RouteRequest(REQUEST.getOrigin(), REQUEST.getOrigin());
+        repository.getRoute(REQUEST, new RecordingCallback());
+        source.complete(0, route(1));
+        repository.getRoute(OTHER_REQUEST, new RecordingCallback());
+        source.complete(1, route(2));
+        repository.peek(REQUEST);
+        repository.getRoute(third, new RecordingCallback());
+        source.complete(2, route(3));
+
+        assertNotNull(repository.peek(REQUEST));
+        assertNull(repository.peek(OTHER_REQUEST));
+        assertNotNull(repository.peek(third));
+    }
+
+    private static DirectionsRoute route(double distance) {
+        return DirectionsRoute.builder()
+                .distance(distance)
+                .duration(distance)
+                .build();
+    }
+
+    /**
+     * Stand-in for the Directions endpoint which only answers when the test tells it to.
+     */
+    private static class StandInRouteSource implements RouteSource {
+        final List<RouteRequest> requests = new ArrayList<>();
+        final List<Callback> pending = new ArrayList<>();
+
+        @Override
+        public void fetchRoute(@NonNull RouteRequest request, @NonNull Callback callback) {
+            requests.add(request);
+            pending.add(callback);
+        }
+
+        void complete(int index, DirectionsRoute route) {
+            pending.get(index).onRoute(route);
+        }
+
+        void fail(int index, Throwable throwable) {
+            pending.get(index).onFailure(throwable);
+        }
+    }
+
+    private static class RecordingCallback implements RouteSource.Callback {
+        DirectionsRoute route;
+        Throwable failure;
+
+        @Override
+        public void onRoute(@NonNull DirectionsRoute route) {
+            this.route = route;
+        }
+
+        @Override
+        public void onFailure(@NonNull Throwable throwable) {
+            failure = throwable;
+        }
+    }
+}
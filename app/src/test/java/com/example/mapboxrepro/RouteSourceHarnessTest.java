@@ -0,0 +1,159 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.geojson.Point;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs route fetching against fixture responses, with injected latency and failures, so retry
+ * behaviour and time to route can be measured without a network connection.
+ */
+public class RouteSourceHarnessTest {
+    private static final RouteRequest REQUEST = new RouteRequest(
+            Point.fromLngLat(-77.5659408569336, 37.605369567871094),
+            Point.fromLngLat(-77.5505277, 37.461559));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService scheduler;
+    private File fixtures;
+
+    @Before
+    public void setUp() throws IOException {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        fixtures = folder.newFolder("fixtures");
+        Files.write(new File(fixtures, FixtureRouteSource.DEFAULT_FIXTURE).toPath(),
+                RouteFixtures.read(RouteFixtures.DIRECTIONS_RESPONSE).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void fixtureSource_servesRecordedRouteForRequestBeforeDefault() throws Exception {
+        FixtureRouteSource source = new FixtureRouteSource(fixtures, Runnable::run);
+        DirectionsRoute recorded = RouteFixtures.route().toBuilder().distance(1.0).build();
+        source.record(REQUEST, recorded);
+
+        assertEquals(1.0, fetch(source, REQUEST).route.distance(), 0);
+        RouteRequest other = new RouteRequest(REQUEST.getDestination(), REQUEST.getOrigin());
+        assertEquals(RouteFixtures.route().distance(), fetch(source, other).route.distance(), 0);
+    }
+
+    @Test
+    public void fixtureSource_failsWithoutFixtures() throws Exception {
+        FixtureRouteSource source = new FixtureRouteSource(folder.newFolder("empty"), Runnable::run);
+
+        assertTrue(fetch(source, REQUEST).failure instanceof FileNotFoundException);
+    }
+
+    @Test
+    public void retryingSource_retriesNetworkFailuresOnly() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        RouteSource flaky = (request, callback) -> {
+            if (attempts.incrementAndGet() < 3) {
+                callback.onFailure(new IOException("Offline"));
+            } else {
+                callback.onFailure(new IllegalStateException("No routes found"));
+            }
+        };
+        RetryingRouteSource source = new RetryingRouteSource(flaky, scheduler, 5, 1, 1);
+
+        assertTrue(fetch(source, REQUEST).failure instanceof IllegalStateException);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void retryingSource_givesUpAfterMaxAttempts() throws Exception {
+        FaultInjectingRouteSource failing = new FaultInjectingRouteSource(
+                new FixtureRouteSource(fixtures, Runnable::run), scheduler, 0, 0, 1.0, new Random(1));
+        RetryingRouteSource source = new RetryingRouteSource(failing, scheduler, 3, 1, 1);
+
+        assertTrue(fetch(source, REQUEST).failure instanceof IOException);
+        RetryingRouteSource backoff = new RetryingRouteSource(failing, scheduler, 10, 250, 1000);
+        assertEquals(250, backoff.backoffMillis(1));
+        assertEquals(500, backoff.backoffMillis(2));
+        assertEquals(1000, backoff.backoffMillis(4));
+    }
+
+    @Test
+    public void replay_everyRequestReachesARouteDespiteInjectedFailures() throws Exception {
+        FaultInjectingRouteSource faulty = new FaultInjectingRouteSource(
+                new FixtureRouteSource(fixtures, Runnable::run), scheduler, 2, 3, 0.2, new Random(42));
+        RouteRepository repository = new RouteRepository(new RetryingRouteSource(faulty, scheduler, 6, 1, 8));
+        LatencyHistogram timeToRoute = new LatencyHistogram();
+
+        for (int i = 0; i < 40; i++) {
+            // Distinct requests, so each one goes through the whole stack instead of the cache
+            RouteRequest request = new RouteRequest(
+                    Point.fromLngLat(REQUEST.getOrigin().longitude() + i * 0.001, REQUEST.getOrigin().latitude()),
+                    REQUEST.getDestination());
+            long start = System.nanoTime();
+            RecordingCallback result = new RecordingCallback();
+            repository.getRoute(request, result);
+            result.await();
+            timeToRoute.record(System.nanoTime() - start);
+            assertNull(result.failure);
+            assertNotNull(result.route);
+        }
+
+        assertEquals(40, timeToRoute.getCount());
+        // Never quicker than the injected latency, and well within what six attempts with their
+        // backoffs add up to, about 40 ms, plus room for a slow machine
+        assertTrue(timeToRoute.getValueAtPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(2));
+        assertTrue(timeToRoute.getMax() < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private static RecordingCallback fetch(RouteSource source, RouteRequest request) throws InterruptedException {
+        RecordingCallback callback = new RecordingCallback();
+        source.fetchRoute(request, callback);
+        callback.await();
+        return callback;
+    }
+
+    private static class RecordingCallback implements RouteSource.Callback {
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile DirectionsRoute route;
+        volatile Throwable failure;
+
+        @Override
+        public void onRoute(@NonNull DirectionsRoute route) {
+            this.route = route;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(@NonNull Throwable throwable) {
+            failure = throwable;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Timed out waiting for a route", done.await(10, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RouteStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void handle_resolvesToTheSameRouteInProcess() {
+        RouteStore store = new RouteStore(folder.getRoot(), Runnable::run);
+        DirectionsRoute route = route();
+
+        String handle = store.put(route);
+
+        assertSame(route, store.get(handle));
+    }
+
+    @Test
+    public void handle_survivesProcessDeath() {
+        File directory = folder.getRoot();
+        DirectionsRoute route = route();
+        String handle = new RouteStore(directory, Runnable::run).put(route);
+
+        RouteStore restarted = new RouteStore(directory, Runnable::run);
+
+        assertEquals(route, restarted.get(handle));
+    }
+
+    @Test
+    public void releasedHandle_isGone() {
+        File directory = folder.getRoot();
+        RouteStore store = new RouteStore(directory, Runnable::run);
+        String handle = store.put(route());
+
+        store.release(handle);
+
+        assertNull(store.get(handle));
+        assertNull(new RouteStore(directory, Runnable::run).get(handle));
+    }
+
+    @Test
+    public void trimmedHandle_isReadBackFromDisk() {
+        RouteStore store = new RouteStore(folder.getRoot(), Runnable::run);
+        DirectionsRoute route = route();
+        String handle = store.put(route);
+
+        store.trimMemory(MemoryPressureManager.Tier.MODERATE);
+        DirectionsRoute reread = store.get(handle);
+        store.trimMemory(MemoryPressureManager.Tier.MODERATE);
+
+        assertNotSame(route, reread);
+        assertEquals(route, reread);
+        assertNotSame(reread, store.get(handle));
+    }
+
+    @Test
+    public void handleReleasedBeforeItWasWritten_isGone() {
+        List<Runnable> io = new ArrayList<>();
+        File directory = folder.getRoot();
+        RouteStore store = new RouteStore(directory, io::add);
+        String handle = store.put(route());
+
+        store.release(handle);
+        for (Runnable task : io) {
+            task.run();
+        }
+        store.trimMemory(MemoryPressureManager.Tier.MODERATE);
+
+        assertNull(store.get(handle));
+        assertNull(new RouteStore(directory, Runnable::run).get(handle));
+    }
+
+    private static DirectionsRoute route() {
+        return DirectionsRoute.builder()
+                .distance(16235.2)
+                .duration(1021.4)
+                .geometry("_izlhA~rlgdF_{geC~ywl@")
+                .build();
+    }
+}
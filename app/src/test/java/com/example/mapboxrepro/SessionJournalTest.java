@@ -0,0 +1,163 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.geojson.Point;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SessionJournalTest {
+    private static final long START = 1_600_000_000_000L;
+    private static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(6);
+    private static final RouteRequest REQUEST = new RouteRequest(Arrays.asList(
+            Point.fromLngLat(-77.5659408, 37.6053695),
+            Point.fromLngLat(-77.56, 37.5),
+            Point.fromLngLat(-77.5505277, 37.461559)));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Metrics metrics = new Metrics();
+    private final long[] now = {START};
+
+    private SessionJournal journal(File file) {
+        return new SessionJournal(file, MAX_AGE_MILLIS, Runnable::run, metrics, () -> now[0]);
+    }
+
+    private SessionJournal.Session recover(File file) {
+        SessionJournal.Session[] recovered = new SessionJournal.Session[1];
+        journal(file).recover(Runnable::run, session -> recovered[0] = session);
+        return recovered[0];
+    }
+
+    @Test
+    public void session_comesBackAsLastRecorded() throws IOException {
+        File file = new File(folder.getRoot(), "session.journal");
+        SessionJournal journal = journal(file);
+        journal.recover(Runnable::run, session -> assertNull(session));
+        journal.start(REQUEST, "first", START);
+        now[0] += 1000;
+        journal.updateProgress(0, 3, -77.561, 37.55);
+        journal.updateRoute("second");
+        now[0] += 1000;
+        journal.updateProgress(1, 2, -77.559, 37.49);
+
+        SessionJournal.Session session = recover(file);
+        assertEquals(REQUEST, session.request);
+        assertEquals("second", session.routeHandle);
+        assertEquals(START, session.startedAtMillis);
+        assertEquals(1, session.legIndex);
+        assertEquals(2, session.stepIndex);
+        assertEquals(-77.559, session.longitude, 1e-9);
+        assertEquals(37.49, session.latitude, 1e-9);
+        assertEquals(START + 2000, session.updatedAtMillis);
+    }
+
+    @Test
+    public void progress_isThrottledWithinAStep() {
+        File file = new File(folder.getRoot(), "session.journal");
+        SessionJournal journal = journal(file);
+        journal.start(REQUEST, "route", START);
+        journal.updateProgress(0, 0, -77.5, 37.5);
+        long length = file.length();
+        now[0] += SessionJournal.PROGRESS_INTERVAL_MILLIS / 2;
+        journal.updateProgress(0, 0, -77.6, 37.6);
+        assertEquals(length, file.length());
+
+        journal.updateProgress(0, 1, -77.7, 37.7);
+        assertTrue(file.length() > length);
+        assertEquals(1, recover(file).stepIndex);
+    }
+
+    @Test
+    public void tornRecord_isCutOff() throws IOException {
+        File file = new File(folder.getRoot(), "session.journal");
+        SessionJournal journal = journal(file);
+        journal.start(REQUEST, "route", START);
+        journal.updateProgress(0, 4, -77.5, 37.5);
+        long length = file.length();
+        journal.updateProgress(0, 5, -77.6, 37.6);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 3);
+        }
+
+        SessionJournal.Session session = recover(file);
+        assertEquals(4, session.stepIndex);
+        assertEquals(length, file.length());
+        assertEquals(1, metrics.counter("session.torn_records").sum());
+    }
+
+    @Test
+    public void journal_isCompactedIntoTheCurrentState() {
+        File file = new File(folder.getRoot(), "session.journal");
+        SessionJournal journal = journal(file);
+        journal.start(REQUEST, "route", START);
+        journal.updateProgress(0, 0, -77.5, 37.5);
+        long compacted = file.length();
+        for (int step = 1; step < SessionJournal.COMPACT_AFTER_RECORDS; step++) {
+            journal.updateProgress(0, step, -77.5, 37.5);
+        }
+        assertTrue(file.length() > compacted);
+        journal.updateProgress(1, 0, -77.4, 37.4);
+        assertEquals(compacted, file.length());
+
+        SessionJournal.Session session = recover(file);
+        assertEquals(1, session.legIndex);
+        assertEquals(-77.4, session.longitude, 1e-9);
+    }
+
+    @Test
+    public void screenRecreatedAfterProcessDeath_goesOnRecording() {
+        File file = new File(folder.getRoot(), "session.journal");
+        SessionJournal journal = journal(file);
+        journal.start(REQUEST, "first", START);
+        journal.updateProgress(0, 2, -77.561, 37.55);
+
+        // A new process, where the recreated screen neither starts nor recovers a session
+        SessionJournal restarted = journal(file);
+        restarted.reattach(REQUEST, "first", START);
+        now[0] += 1000;
+        restarted.updateProgress(0, 3, -77.562, 37.54);
+        restarted.updateRoute("second");
+        SessionJournal.Session session = recover(file);
+        assertEquals("second", session.routeHandle);
+        assertEquals(START, session.startedAtMillis);
+        assertEquals(1, metrics.counter("session.reattached").sum());
+
+        // The journal lost track of the route the screen is on, so it starts over from that
+        SessionJournal another = journal(file);
+        another.reattach(REQUEST, "third", START);
+        another.updateProgress(1, 1, -77.55, 37.5);
+        session = recover(file);
+        assertEquals("third", session.routeHandle);
+        assertEquals(1, session.legIndex);
+        assertEquals(1, session.stepIndex);
+
+        // Already following a session, nothing changes
+        another.reattach(REQUEST, "fourth", START);
+        assertEquals("third", recover(file).routeHandle);
+    }
+
+    @Test
+    public void endedOrStaleSessions_areNotResumed() {
+        File file = new File(folder.getRoot(), "session.journal");
+        SessionJournal journal = journal(file);
+        journal.start(REQUEST, "route", START);
+        journal.end();
+        assertFalse(file.exists());
+        assertNull(recover(file));
+
+        journal.start(REQUEST, "route", START);
+        now[0] += MAX_AGE_MILLIS + 1;
+        assertNull(recover(file));
+        assertFalse(file.exists());
+    }
+}
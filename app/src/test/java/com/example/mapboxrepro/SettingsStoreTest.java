@@ -0,0 +1,87 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SettingsStoreTest {
+    private static final SettingsStore.Key<Integer> NIGHT_MODE = SettingsStore.Key.ofInt("night_mode", -1);
+    private static final SettingsStore.Key<Boolean> VOICE = SettingsStore.Key.ofBoolean("voice", true);
+
+    private final Metrics metrics = new Metrics();
+    private final List<Runnable> ioQueue = new ArrayList<>();
+    private final FakeBackend backend = new FakeBackend();
+
+    private static class FakeBackend implements SettingsStore.Backend {
+        final Map<String, Object> stored = new HashMap<>();
+        final List<Map<String, Object>> writes = new ArrayList<>();
+        int loads;
+
+        @NonNull
+        @Override
+        public Map<String, ?> load() {
+            loads++;
+            return new HashMap<>(stored);
+        }
+
+        @Override
+        public void write(@NonNull Map<String, Object> changes) {
+            writes.add(changes);
+            stored.putAll(changes);
+        }
+    }
+
+    @Test
+    public void storedValues_areReadFromMemoryOnceLoaded() {
+        backend.stored.put("night_mode", 2);
+        backend.stored.put("voice", "not a boolean");
+        SettingsStore store = new SettingsStore(backend, ioQueue::add, metrics);
+        List<Runnable> loadQueue = new ArrayList<>();
+        store.load(loadQueue::add);
+        store.load(loadQueue::add);
+        assertEquals(1, loadQueue.size());
+        loadQueue.get(0).run();
+
+        assertEquals(2, (int) store.get(NIGHT_MODE));
+        assertTrue(store.get(VOICE));
+        assertEquals(1, backend.loads);
+        assertEquals(0, metrics.counter("settings.blocked_reads").sum());
+    }
+
+    @Test
+    public void readBeforeLoading_loadsOnTheSpot() {
+        backend.stored.put("night_mode", 1);
+        SettingsStore store = new SettingsStore(backend, ioQueue::add, metrics);
+        assertEquals(1, (int) store.get(NIGHT_MODE));
+        assertEquals(1, metrics.counter("settings.blocked_reads").sum());
+    }
+
+    @Test
+    public void changes_areWrittenInOneBatchAndHeardAboutRightAway() {
+        SettingsStore store = new SettingsStore(backend, ioQueue::add, metrics);
+        store.load(Runnable::run);
+        List<String> changed = new ArrayList<>();
+        store.addListener(key -> changed.add(key.getName()));
+
+        store.set(NIGHT_MODE, 2);
+        store.set(VOICE, false);
+        store.set(NIGHT_MODE, 1);
+        store.set(NIGHT_MODE, 1);
+        assertEquals(1, (int) store.get(NIGHT_MODE));
+        assertEquals(3, changed.size());
+        assertTrue(backend.writes.isEmpty());
+
+        assertEquals(1, ioQueue.size());
+        ioQueue.remove(0).run();
+        assertEquals(1, backend.writes.size());
+        assertEquals(1, backend.writes.get(0).get("night_mode"));
+        assertEquals(false, backend.writes.get(0).get("voice"));
+    }
+}
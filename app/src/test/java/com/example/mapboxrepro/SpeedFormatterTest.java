@@ -0,0 +1,18 @@
+package com.example.mapboxrepro;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpeedFormatterTest {
+    @Test
+    public void speedText_matchesTheOldFormatString() {
+        StringBuilder text = new StringBuilder();
+        for (float metersPerSecond = 0; metersPerSecond < 60; metersPerSecond += 0.37f) {
+            text.setLength(0);
+            SpeedFormatter.appendSpeedText(text, SpeedFormatter.toMilesPerHour(metersPerSecond));
+
+            assertEquals(String.format("%d\nMPH", (int) (metersPerSecond * 2.2369)), text.toString());
+        }
+    }
+}
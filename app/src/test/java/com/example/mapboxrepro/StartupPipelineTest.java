@@ -0,0 +1,83 @@
+package com.example.mapboxrepro;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StartupPipelineTest {
+    private final Metrics metrics = new Metrics();
+    private final List<String> ran = new ArrayList<>();
+    private long nowNanos;
+    private StartupPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        pipeline = new StartupPipeline("startup.cold", 0, metrics, Runnable::run, () -> nowNanos);
+    }
+
+    @Test
+    public void when_waitsForEveryMilestone() {
+        pipeline.when(() -> ran.add("join"), StartupPipeline.STYLE_LOADED, StartupPipeline.ROUTE);
+
+        pipeline.mark(StartupPipeline.ROUTE);
+        assertTrue(ran.isEmpty());
+        pipeline.mark(StartupPipeline.STYLE_LOADED);
+        assertEquals(Collections.singletonList("join"), ran);
+
+        // Reached milestones don't run it again
+        pipeline.mark(StartupPipeline.ROUTE);
+        assertEquals(1, ran.size());
+    }
+
+    @Test
+    public void when_runsRightAwayIfEverythingIsReached() {
+        pipeline.mark(StartupPipeline.FIRST_FRAME);
+        pipeline.when(() -> ran.add("now"), StartupPipeline.FIRST_FRAME);
+        pipeline.when(() -> ran.add("nothing to wait for"));
+        assertEquals(Arrays.asList("now", "nothing to wait for"), ran);
+    }
+
+    @Test
+    public void mark_recordsTheTimeSinceTheStartOnce() {
+        nowNanos = TimeUnit.MILLISECONDS.toNanos(300);
+        pipeline.mark(StartupPipeline.FIRST_FRAME);
+        nowNanos = TimeUnit.MILLISECONDS.toNanos(900);
+        pipeline.mark(StartupPipeline.FIRST_FRAME);
+
+        LatencyHistogram firstFrame = metrics.histogram("startup.cold.first_frame");
+        assertEquals(1, firstFrame.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(300), firstFrame.getMax(), TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(pipeline.isReached(StartupPipeline.FIRST_FRAME));
+    }
+
+    @Test
+    public void runInBackground_marksWhenDoneAndTimesTheTask() {
+        List<Runnable> queued = new ArrayList<>();
+        pipeline.when(() -> ran.add("after"), "decode");
+        pipeline.runInBackground("decode", queued::add, () -> nowNanos += TimeUnit.MILLISECONDS.toNanos(40));
+        assertFalse(pipeline.isReached("decode"));
+
+        queued.get(0).run();
+        assertEquals(Collections.singletonList("after"), ran);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(40), metrics.histogram("startup.cold.task.decode").getMax(),
+                TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void cancel_dropsWaitingWorkAndLaterMilestones() {
+        pipeline.when(() -> ran.add("join"), StartupPipeline.ROUTE);
+        pipeline.cancel();
+        pipeline.mark(StartupPipeline.ROUTE);
+        pipeline.when(() -> ran.add("late"));
+
+        assertTrue(ran.isEmpty());
+        assertEquals(0, metrics.histogram("startup.cold.route").getCount());
+    }
+}
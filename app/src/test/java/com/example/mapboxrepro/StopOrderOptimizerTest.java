@@ -0,0 +1,161 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.geojson.Point;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StopOrderOptimizerTest {
+    private ForkJoinPool pool;
+    private StopOrderOptimizer optimizer;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(2);
+        optimizer = new StopOrderOptimizer(new StraightLineDurationSource(10, 1.3, Runnable::run), pool);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void smallJobs_getTheBestOrder() {
+        for (int seed = 0; seed < 5; seed++) {
+            double[][] seconds = durationsOf(stops(8, seed));
+            for (boolean keepLast : new boolean[]{false, true}) {
+                int[] order = optimizer.order(seconds, keepLast);
+
+                assertEquals(bruteForce(seconds, keepLast), costOf(seconds, order), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void order_keepsTheFirstAndLastStopsAndVisitsEveryStopOnce() {
+        double[][] seconds = durationsOf(stops(100, 1));
+
+        int[] order = optimizer.order(seconds, true);
+
+        assertEquals(0, order[0]);
+        assertEquals(99, order[99]);
+        HashSet<Integer> visited = new HashSet<>();
+        for (int stop : order) {
+            visited.add(stop);
+        }
+        assertEquals(100, visited.size());
+    }
+
+    @Test
+    public void order_beatsTheNearestNeighbourWalk() {
+        double[][] seconds = durationsOf(stops(200, 2));
+
+        double greedy = costOf(seconds, StopOrderOptimizer.nearestNeighbour(seconds, false, null));
+        double optimized = costOf(seconds, optimizer.order(seconds, false));
+
+        assertTrue(optimized < greedy * 0.95);
+    }
+
+    @Test
+    public void order_takesOneWayDurationsIntoAccount() {
+        // Going up the indices is cheap and going down expensive; the greedy walk jumps to 4 first
+        // and then has to come back down
+        double[][] seconds = new double[5][5];
+        for (int from = 0; from < 5; from++) {
+            for (int to = 0; to < 5; to++) {
+                seconds[from][to] = from == to ? 0 : to > from ? 10 * (to - from) : 100;
+            }
+        }
+        seconds[0][4] = 1;
+        assertEquals(4, StopOrderOptimizer.nearestNeighbour(seconds, false, null)[1]);
+
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, optimizer.order(seconds, false));
+    }
+
+    @Test
+    public void optimize_answersWithARequestThroughEveryStop() throws Exception {
+        List<Point> stops = stops(50, 3);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<RouteRequest> result = new AtomicReference<>();
+
+        optimizer.optimize(stops, false, new StopOrderOptimizer.Callback() {
+            @Override
+            public void onRequest(@NonNull RouteRequest request) {
+                result.set(request);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable throwable) {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(stops.get(0), result.get().getOrigin());
+        assertEquals(new HashSet<>(stops), new HashSet<>(result.get().getWaypoints()));
+    }
+
+    private static List<Point> stops(int count, int seed) {
+        Random random = new Random(seed);
+        List<Point> stops = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            stops.add(Point.fromLngLat(-77.6 + random.nextDouble() * 0.3, 37.4 + random.nextDouble() * 0.3));
+        }
+        return stops;
+    }
+
+    private static double[][] durationsOf(List<Point> stops) {
+        return StraightLineDurationSource.durationsOf(stops, 10, 1.3);
+    }
+
+    private static double costOf(double[][] seconds, int[] order) {
+        double cost = 0;
+        for (int i = 1; i < order.length; i++) {
+            cost += seconds[order[i - 1]][order[i]];
+        }
+        return cost;
+    }
+
+    private static double bruteForce(double[][] seconds, boolean keepLast) {
+        int[] order = new int[seconds.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        return bruteForce(seconds, order, 1, keepLast ? order.length - 1 : order.length);
+    }
+
+    private static double bruteForce(double[][] seconds, int[] order, int position, int free) {
+        if (position >= free) {
+            return costOf(seconds, order);
+        }
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = position; i < free; i++) {
+            swap(order, position, i);
+            best = Math.min(best, bruteForce(seconds, order, position + 1, free));
+            swap(order, position, i);
+        }
+        return best;
+    }
+
+    private static void swap(int[] order, int i, int j) {
+        int swap = order[i];
+        order[i] = order[j];
+        order[j] = swap;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.mapboxrepro;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class StylePaintsTest {
+    private static final String STYLE = "{\"version\":8,\"sources\":{"
+            + "\"composite\":{\"type\":\"vector\","
+            + "\"url\":\"mapbox://mapbox.mapbox-streets-v8,mapbox.mapbox-traffic-v1\"},"
+            + "\"hillshade\":{\"type\":\"raster-dem\",\"url\":\"mapbox://mapbox.terrain-rgb\"},"
+            + "\"local\":{\"type\":\"vector\",\"tiles\":[\"https://example.com/{z}/{x}/{y}.pbf\"]}"
+            + "},\"layers\":["
+            + "{\"id\":\"background\",\"type\":\"background\",\"paint\":{\"background-color\":\"hsl(0, 0%, 10%)\"}},"
+            + "{\"id\":\"road\",\"type\":\"line\",\"source\":\"composite\",\"paint\":{"
+            + "\"line-width\":[\"interpolate\",[\"linear\"],[\"zoom\"],10,1,16,4],\"line-opacity\":0.8}},"
+            + "{\"id\":\"labels\",\"type\":\"symbol\",\"source\":\"composite\"}]}";
+
+    @Test
+    public void parse_keepsPaintPerLayerInStyleOrder() {
+        StylePaints paints = StylePaints.parse(STYLE);
+
+        assertArrayEquals(new Object[]{"background", "road", "labels"}, paints.layerIds().toArray());
+        assertEquals("hsl(0, 0%, 10%)", paints.paintOf("background").get("background-color").getAsString());
+        assertTrue(paints.paintOf("road").get("line-width").isJsonArray());
+        assertEquals(0.8, paints.paintOf("road").get("line-opacity").getAsDouble(), 0);
+        assertTrue(paints.paintOf("labels").isEmpty());
+        assertNull(paints.paintOf("missing"));
+    }
+
+    @Test
+    public void tileUrlTemplates_comeFromTheMapboxVectorSources() {
+        StylePaints paints = StylePaints.parse(STYLE);
+
+        assertEquals(Collections.singletonList("mapbox.mapbox-streets-v8,mapbox.mapbox-traffic-v1"),
+                paints.vectorTilesets());
+        assertEquals("https://api.mapbox.com/v4/mapbox.mapbox-streets-v8,mapbox.mapbox-traffic-v1"
+                        + "/{z}/{x}/{y}.vector.pbf?access_token=pk.test",
+                NightModeStyles.tileUrlTemplate(paints.vectorTilesets().get(0), "pk.test"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsNonStyles() {
+        StylePaints.parse("{\"routes\":[]}");
+    }
+
+    @Test
+    public void httpUrl_resolvesMapboxStyleUrls() {
+        assertEquals("https://api.mapbox.com/styles/v1/mapbox/navigation-guidance-night-v4?access_token=pk.test",
+                NightModeStyles.httpUrl("mapbox://styles/mapbox/navigation-guidance-night-v4", "pk.test"));
+        assertEquals("https://example.com/style.json",
+                NightModeStyles.httpUrl("https://example.com/style.json", "pk.test"));
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.mapboxrepro;
+
+import org.junit.Test;
+
+import okhttp3.Headers;
+
+import static org.junit.Assert.*;
+
+public class TileCacheInterceptorTest {
+    @Test
+    public void maxAge_comesFromCacheControlLessAge() {
+        assertEquals(300_000, TileCacheInterceptor.maxAgeMillis(Headers.of("Cache-Control", "max-age=300")));
+        assertEquals(60_000, TileCacheInterceptor.maxAgeMillis(
+                Headers.of("Cache-Control", "public, max-age=300", "Age", "240")));
+        assertEquals(0, TileCacheInterceptor.maxAgeMillis(
+                Headers.of("Cache-Control", "max-age=300", "Age", "400")));
+    }
+
+    @Test
+    public void responsesThatMustNotBeCached_haveNoMaxAge() {
+        assertEquals(0, TileCacheInterceptor.maxAgeMillis(Headers.of("Cache-Control", "no-store")));
+        assertEquals(0, TileCacheInterceptor.maxAgeMillis(Headers.of("Cache-Control", "no-cache")));
+        assertEquals(0, TileCacheInterceptor.maxAgeMillis(Headers.of("Pragma", "no-cache")));
+    }
+
+    @Test
+    public void responsesWithoutCacheControl_areLeftToTheCachesOwnMaximum() {
+        assertEquals(Long.MAX_VALUE, TileCacheInterceptor.maxAgeMillis(Headers.of()));
+    }
+}
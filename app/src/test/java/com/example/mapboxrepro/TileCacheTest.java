@@ -0,0 +1,86 @@
+package com.example.mapboxrepro;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class TileCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private long now;
+    private TileCache cache;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), "tiles");
+        now = 0;
+        cache = new TileCache(directory, 300, 1000, () -> now);
+    }
+
+    @Test
+    public void put_thenGet_returnsTile() throws Exception {
+        cache.put("a", new byte[]{1, 2, 3});
+
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get("a"));
+        assertTrue(cache.contains("a"));
+        assertNull(cache.get("b"));
+        assertEquals(3, cache.sizeBytes());
+    }
+
+    @Test
+    public void leastRecentlyUsedTiles_areEvictedOverTheSizeCap() throws Exception {
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[100]);
+        cache.put("c", new byte[100]);
+        cache.get("a");
+        cache.put("d", new byte[100]);
+
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertFalse(new File(directory, "b").exists());
+        assertEquals(300, cache.sizeBytes());
+    }
+
+    @Test
+    public void oldTiles_areMisses() throws Exception {
+        cache.put("a", new byte[10]);
+        now = 1001;
+
+        assertFalse(cache.contains("a"));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.sizeBytes());
+    }
+
+    @Test
+    public void tiles_expireAfterTheirOwnMaxAge() throws Exception {
+        cache.put("streets", new byte[10]);
+        cache.put("traffic", new byte[10], 300);
+        cache.put("live", new byte[10], 0);
+        now = 301;
+
+        assertTrue(cache.contains("streets"));
+        assertFalse(cache.contains("traffic"));
+        assertNull(cache.get("traffic"));
+        assertFalse(cache.contains("live"));
+        assertEquals(10, cache.sizeBytes());
+    }
+
+    @Test
+    public void tilesSurviveRestart() throws Exception {
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[20], 300);
+        now = 500;
+
+        TileCache reopened = new TileCache(directory, 300, 1000, () -> now);
+        assertEquals(30, reopened.sizeBytes());
+        assertArrayEquals(new byte[10], reopened.get("a"));
+        assertNull(reopened.get("b"));
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.geojson.Point;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TileCoverTest {
+    // Bounds of the ORIGIN to DESTINATION corridor used by the app
+    private static final double SOUTH = 37.461559;
+    private static final double WEST = -77.5659408569336;
+    private static final double NORTH = 37.605369567871094;
+    private static final double EAST = -77.5505277;
+
+    @Test
+    public void tileCoordinates_matchKnownTiles() {
+        assertEquals(0, TileCover.tileX(-180, 0));
+        assertEquals(0, TileCover.tileY(0, 0));
+        // Richmond, VA at zoom 12
+        assertEquals(1165, TileCover.tileX(-77.56, 12));
+        assertEquals(1587, TileCover.tileY(37.5, 12));
+    }
+
+    @Test
+    public void tileCount_growsFourfoldPerZoomForLargeAreas() {
+        long atTen = TileCover.tileCount(-60, -120, 60, 120, 10);
+        long atEleven = TileCover.tileCount(-60, -120, 60, 120, 11);
+        assertEquals(4.0, (double) atEleven / atTen, 0.05);
+        assertEquals(1, TileCover.tileCount(SOUTH, WEST, NORTH, EAST, 8));
+    }
+
+    @Test
+    public void maxZoomWithinBudget_stopsBeforeExceedingBudget() {
+        int maxZoom = TileCover.maxZoomWithinBudget(SOUTH, WEST, NORTH, EAST, 10, 16, 200);
+        long total = 0;
+        for (int zoom = 10; zoom <= maxZoom; zoom++) {
+            total += TileCover.tileCount(SOUTH, WEST, NORTH, EAST, zoom);
+        }
+        assertTrue(total <= 200);
+        assertTrue(total + TileCover.tileCount(SOUTH, WEST, NORTH, EAST, maxZoom + 1) > 200);
+        assertEquals(16, TileCover.maxZoomWithinBudget(SOUTH, WEST, NORTH, EAST, 10, 16, 100_000));
+        assertEquals(9, TileCover.maxZoomWithinBudget(-60, -120, 60, 120, 10, 16, 10));
+    }
+
+    @Test
+    public void tile_packsZoomAndCoordinates() {
+        long tile = TileCover.tile(22, (1 << 22) - 1, 12345);
+        assertEquals(22, TileCover.zoomOf(tile));
+        assertEquals((1 << 22) - 1, TileCover.xOf(tile));
+        assertEquals(12345, TileCover.yOf(tile));
+    }
+
+    @Test
+    public void corridor_coversEveryTileAlongTheLineInOrder() {
+        List<Point> line = Arrays.asList(Point.fromLngLat(WEST, NORTH), Point.fromLngLat(EAST, SOUTH));
+        Set<Long> tiles = TileCover.corridor(line, 16, 0);
+
+        List<Long> ordered = new ArrayList<>(tiles);
+        assertEquals(TileCover.tile(16, TileCover.tileX(WEST, 16), TileCover.tileY(NORTH, 16)),
+                (long) ordered.get(0));
+        assertEquals(TileCover.tile(16, TileCover.tileX(EAST, 16), TileCover.tileY(SOUTH, 16)),
+                (long) ordered.get(ordered.size() - 1));
+        // A mostly north-south line needs at least one tile per row, and far fewer than its bounds
+        long rows = TileCover.tileY(SOUTH, 16) - TileCover.tileY(NORTH, 16) + 1;
+        assertTrue(tiles.size() >= rows);
+        assertTrue(tiles.size() < TileCover.tileCount(SOUTH, WEST, NORTH, EAST, 16));
+        for (int i = 1; i < ordered.size(); i++) {
+            long previous = ordered.get(i - 1);
+            long tile = ordered.get(i);
+            assertTrue(Math.abs(TileCover.xOf(tile) - TileCover.xOf(previous)) <= 1);
+            assertTrue(Math.abs(TileCover.yOf(tile) - TileCover.yOf(previous)) <= 1);
+        }
+    }
+
+    @Test
+    public void corridor_bufferAddsNeighbours() {
+        List<Point> point = Arrays.asList(Point.fromLngLat(WEST, NORTH), Point.fromLngLat(WEST, NORTH));
+        assertEquals(1, TileCover.corridor(point, 14, 0).size());
+        assertEquals(9, TileCover.corridor(point, 14, 1).size());
+        assertEquals(4, TileCover.corridor(Arrays.asList(Point.fromLngLat(-180, 89), Point.fromLngLat(-180, 89)),
+                14, 1).size());
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.mapboxrepro.LocationTraceTest.fix;
+import static org.junit.Assert.*;
+
+public class TracePlayerTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Metrics metrics = new Metrics();
+    private final LocationTrace trace = new LocationTrace(Arrays.asList(
+            fix(0, 0, 0, 0),
+            fix(1000, 1, 0, 0),
+            fix(2000, 2, 0, 0),
+            // Tunnel
+            fix(10000, 10, 0, 0)));
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void recordedFixes_arePlayedInOrder() throws InterruptedException {
+        Recorder recorder = new Recorder();
+
+        new TracePlayer(trace, 1000, 0, scheduler, metrics, recorder).start();
+
+        assertTrue(recorder.ended.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0L, 1000L, 2000L, 10000L), recorder.offsets);
+        assertEquals(4, metrics.counter("replay.fixes").sum());
+        assertEquals(4, metrics.histogram("replay.tick_lag").getCount());
+    }
+
+    @Test
+    public void fixedInterval_interpolatesAndLeavesGapsOut() throws InterruptedException {
+        Recorder recorder = new Recorder();
+
+        new TracePlayer(trace, 1000, 250, scheduler, metrics, recorder).start();
+
+        assertTrue(recorder.ended.await(5, TimeUnit.SECONDS));
+        // 0 to 2000 every 250 ms, then nothing until the tunnel's exit at 10000
+        assertEquals(10, recorder.offsets.size());
+        assertEquals(2000L, (long) recorder.offsets.get(8));
+        assertEquals(10000L, (long) recorder.offsets.get(9));
+        assertEquals(1.25, recorder.longitudes.get(5), 1e-9);
+        assertEquals(31, metrics.counter("replay.gaps").sum());
+    }
+
+    @Test
+    public void stop_endsPlaybackWithoutCallingBack() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        TracePlayer player = new TracePlayer(trace, 1, 0, scheduler, metrics, recorder);
+
+        player.start();
+        Thread.sleep(100);
+        player.stop();
+
+        assertFalse(recorder.ended.await(1500, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList(0L), recorder.offsets);
+    }
+
+    private static final class Recorder implements TracePlayer.Listener {
+        final List<Long> offsets = new ArrayList<>();
+        final List<Double> longitudes = new ArrayList<>();
+        final CountDownLatch ended = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onFix(@NonNull LocationTrace.Fix fix) {
+            offsets.add(fix.getOffsetMillis());
+            longitudes.add(fix.getLongitude());
+        }
+
+        @Override
+        public void onTraceEnd() {
+            ended.countDown();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.mapboxrepro;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class TripRecorderTest {
+    private static final long TRIP_START = 1_600_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Metrics metrics = new Metrics();
+    private final List<Runnable> ioQueue = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void events_comeBackFromTheSegment() throws IOException {
+        TripRecorder recorder = new TripRecorder(folder.getRoot(), TRIP_START, 64, 1 << 20, 1 << 20, scheduler,
+                Runnable::run, metrics);
+        recorder.recordLocation(TRIP_START + 1000, -77.5659408, 37.6053695, 13.4, 271.5, 4, 15234.7);
+        recorder.recordLocation(TRIP_START + 2000, -77.5660001, 37.6052, Double.NaN, Double.NaN, Double.NaN, 15220);
+        recorder.recordOffRoute(TRIP_START + 2500, -77.567, 37.605);
+        recorder.recordReroute(TRIP_START + 2600, 16000, TripRecorder.FLAG_PREFETCHED);
+        recorder.recordFailedReroute(TRIP_START + 2700, TripRecorder.FLAG_SDK);
+        recorder.recordArrival(TRIP_START + 900000);
+        recorder.close();
+
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        TripSegmentReader.Segment segment = TripSegmentReader.read(files[0]);
+        assertEquals(TRIP_START, segment.tripStartMillis);
+        List<TripSegmentReader.Event> events = segment.events;
+        assertEquals(6, events.size());
+
+        TripSegmentReader.Event first = events.get(0);
+        assertEquals(TripRecorder.LOCATION, first.type);
+        assertEquals(TRIP_START + 1000, first.timeMillis);
+        assertEquals(-77.5659408, first.longitude, 1e-7);
+        assertEquals(37.6053695, first.latitude, 1e-7);
+        assertEquals(13.4, first.speed, 0.01);
+        assertEquals(271.5, first.bearing, 0.1);
+        assertEquals(4, first.accuracy, 0.1);
+        assertEquals(15234.7, first.distance, 0.1);
+
+        TripSegmentReader.Event second = events.get(1);
+        assertEquals(-77.5660001, second.longitude, 1e-7);
+        assertTrue(Double.isNaN(second.speed));
+        assertTrue(Double.isNaN(second.bearing));
+
+        assertEquals(TripRecorder.OFF_ROUTE, events.get(2).type);
+        assertEquals(-77.567, events.get(2).longitude, 1e-7);
+        assertEquals(TripRecorder.REROUTE, events.get(3).type);
+        assertEquals(16000, events.get(3).distance, 0.1);
+        assertEquals(TripRecorder.FLAG_PREFETCHED, events.get(3).flags);
+        assertEquals(TripRecorder.FLAG_SDK, events.get(4).flags);
+        assertEquals(TripRecorder.ARRIVAL, events.get(5).type);
+        assertEquals(TRIP_START + 900000, events.get(5).timeMillis);
+    }
+
+    @Test
+    public void fullBuffer_dropsNewEventsUntilTheWriterCatchesUp() {
+        TripRecorder recorder = new TripRecorder(folder.getRoot(), TRIP_START, 8, 1 << 20, 1 << 20, scheduler,
+                ioQueue::add, metrics);
+        for (int i = 0; i < 20; i++) {
+            recorder.recordLocation(TRIP_START + i * 1000, -77.5, 37.5, 10, 90, 5, 1000 - i);
+        }
+        assertEquals(8, metrics.counter("trip.events").sum());
+        assertEquals(12, metrics.counter("trip.dropped").sum());
+        // Half full asked for one flush, and only one
+        assertEquals(1, ioQueue.size());
+
+        ioQueue.remove(0).run();
+        recorder.recordArrival(TRIP_START + 30000);
+        assertEquals(9, metrics.counter("trip.events").sum());
+    }
+
+    @Test
+    public void unfinishedSegment_isReadUpToItsLastBatch() throws IOException {
+        TripSegmentWriter writer = new TripSegmentWriter(folder.getRoot(), TRIP_START, 1 << 20, 1 << 20, metrics,
+                () -> TRIP_START);
+        writer.append(TripRecorder.OFF_ROUTE, TRIP_START + 10, -775000000, 375000000, 0, 0, 0, 0, (byte) 0);
+        writer.flush();
+        writer.append(TripRecorder.ARRIVAL, TRIP_START + 20, 0, 0, 0, 0, 0, 0, (byte) 0);
+
+        TripSegmentReader.Segment segment = TripSegmentReader.read(folder.getRoot().listFiles()[0]);
+        assertEquals(1, segment.events.size());
+        assertEquals(-77.5, segment.events.get(0).longitude, 1e-7);
+    }
+
+    @Test
+    public void segments_rotateAndStayWithinTheBudget() throws IOException {
+        long[] now = {TRIP_START};
+        // Every flushed batch fills a segment, and the budget holds about three of them
+        TripSegmentWriter writer = new TripSegmentWriter(folder.getRoot(), TRIP_START, 1, 150, metrics,
+                () -> now[0]);
+        for (int batch = 0; batch < 10; batch++) {
+            now[0] += 1000;
+            for (int i = 0; i < 5; i++) {
+                writer.append(TripRecorder.LOCATION, now[0] + i, -775000000 + batch * 1000 + i, 375000000,
+                        1000, 900, 50, 100000 - i, (byte) 0);
+            }
+            writer.flush();
+        }
+
+        File[] files = folder.getRoot().listFiles();
+        Arrays.sort(files);
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        assertTrue(total <= 150);
+        assertEquals(10, metrics.counter("trip.segments").sum());
+        assertEquals(10 - files.length, metrics.counter("trip.segments_deleted").sum());
+        // The newest ones are kept
+        assertEquals(TRIP_START + 10000, TripSegmentReader.read(files[files.length - 1]).segmentStartMillis);
+    }
+}
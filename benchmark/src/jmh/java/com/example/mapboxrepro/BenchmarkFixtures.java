@@ -0,0 +1,19 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.geojson.Point;
+
+/**
+ * Inputs shared by the benchmarks for the corridor of the generated Directions response in
+ * {@link RouteFixtures}, which the app's unit tests use as well.
+ */
+final class BenchmarkFixtures {
+    static final Point ORIGIN = Point.fromLngLat(-77.5659408569336, 37.605369567871094);
+    static final Point DESTINATION = Point.fromLngLat(-77.5505277, 37.461559);
+
+    private BenchmarkFixtures() {
+    }
+
+    static RouteRequest request() {
+        return new RouteRequest(ORIGIN, DESTINATION);
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.models.BannerInstructions;
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+import com.mapbox.api.directions.v5.models.LegStep;
+import com.mapbox.api.directions.v5.models.RouteLeg;
+import com.mapbox.api.directions.v5.models.VoiceInstructions;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.utils.PolylineUtils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.mapbox.core.constants.Constants.PRECISION_6;
+
+/**
+ * Drives hundreds of headless {@link NavigationSessionCore}s at once over the fixture route, to see
+ * how progress handling, off-route checks, reroutes and instructions scale with the number of
+ * sessions on a plain JVM. Every vehicle drives a synthetic trace along the route at its own speed
+ * with some GPS noise, a share of them with a detour that makes them reroute. The Directions API is
+ * stood in for by the fixture route, answered a fixed latency later on the vehicle's own clock, since
+ * the drives run much faster than real time.
+ * <p>
+ * Vehicles tick as fast as they can on a work-stealing pool; each one's ticks and its reroute engine
+ * run one at a time through a {@link SerialExecutor}, as they would on a device. A tick is measured
+ * until the lane has also run what it handed the reroute engine, i.e. snapping, the off-route check
+ * and prefetching. Reported are the tick latency percentiles, how many sessions updating once a
+ * second one core could carry going by the CPU time the run took, and what a tick allocates.
+ * <p>
+ * Run with {@code ./gradlew :benchmark:fleetSimulation -PfleetArgs="vehicles=500 threads=8"}; the
+ * other settings are {@code detours}, the share of vehicles taking a detour, and {@code latency}, the
+ * stand-in Directions API's in milliseconds of driving.
+ */
+public final class FleetSimulator {
+    private static final double EARTH_RADIUS_METERS = 6371008.8;
+    private static final long TICK_MILLIS = 1000;
+    private static final double GPS_NOISE_METERS = 3;
+    private static final double DETOUR_LENGTH_METERS = 600;
+    private static final double DETOUR_OFFSET_METERS = 150;
+
+    private final int vehicles;
+    private final int threads;
+    private final double detours;
+    private final long latencyMillis;
+
+    private final Metrics metrics = new Metrics();
+    private final LatencyHistogram tickLatency = metrics.histogram("fleet.tick");
+    private final LongAdder ticks = new LongAdder();
+    private final LongAdder tickBytes = new LongAdder();
+    private final LongAdder measuredTicks = new LongAdder();
+    private final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private long allocationOverheadBytes;
+
+    private FleetSimulator(int vehicles, int threads, double detours, long latencyMillis) {
+        this.vehicles = vehicles;
+        this.threads = threads;
+        this.detours = detours;
+        this.latencyMillis = latencyMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected name=value, got " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        new FleetSimulator(
+                Integer.parseInt(options.getOrDefault("vehicles", "500")),
+                Integer.parseInt(options.getOrDefault("threads",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                Double.parseDouble(options.getOrDefault("detours", "0.1")),
+                Long.parseLong(options.getOrDefault("latency", "500"))).run();
+    }
+
+    private void run() throws Exception {
+        Course course = new Course(RouteFixtures.route());
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        // Async mode keeps the queues first in first out, so vehicles take turns instead of one
+        // running its whole drive before the next
+        ForkJoinPool pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        allocationOverheadBytes = measureAllocationOverhead();
+
+        CountDownLatch arrived = new CountDownLatch(vehicles);
+        Random random = new Random(42);
+        List<Vehicle> fleet = new ArrayList<>(vehicles);
+        for (int i = 0; i < vehicles; i++) {
+            double speed = 8 + random.nextDouble() * 8;
+            double detourAt = random.nextDouble() < detours
+                    ? course.length * (0.2 + random.nextDouble() * 0.6) : Double.NaN;
+            fleet.add(new Vehicle(course, speed, detourAt, random.nextLong(), pool, scheduler, arrived));
+        }
+
+        long cpuStartNanos = processCpuNanos();
+        long startNanos = System.nanoTime();
+        for (Vehicle vehicle : fleet) {
+            vehicle.start();
+        }
+        arrived.await();
+        long wallNanos = System.nanoTime() - startNanos;
+        long cpuNanos = processCpuNanos() - cpuStartNanos;
+        pool.shutdown();
+        scheduler.shutdownNow();
+        report(wallNanos, cpuNanos);
+    }
+
+    private void report(long wallNanos, long cpuNanos) {
+        long tickCount = ticks.sum();
+        double wallSeconds = wallNanos / 1e9;
+        double cpuSeconds = cpuNanos / 1e9;
+        System.out.println(String.format(Locale.US, "Fleet of %d vehicles on %d threads", vehicles, threads));
+        System.out.println(String.format(Locale.US, "  ticks:            %d in %.1f s, %.1f s of CPU, %.0f ticks/s",
+                tickCount, wallSeconds, cpuSeconds, tickCount / wallSeconds));
+        // Every session gets an update a second on a device
+        System.out.println(String.format(Locale.US, "  sessions per core: %.0f at one update a second",
+                tickCount / cpuSeconds * TICK_MILLIS / 1000));
+        System.out.println(String.format(Locale.US,
+                "  tick latency:     p50 %.1f us, p90 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                tickLatency.getValueAtPercentile(50) / 1e3, tickLatency.getValueAtPercentile(90) / 1e3,
+                tickLatency.getValueAtPercentile(99) / 1e3, tickLatency.getValueAtPercentile(99.9) / 1e3,
+                tickLatency.getMax() / 1e3));
+        System.out.println(String.format(Locale.US, "  allocation:       %.0f bytes per tick, %.1f MB/s",
+                (double) tickBytes.sum() / measuredTicks.sum(), tickBytes.sum() / wallSeconds / (1024 * 1024)));
+        System.out.println(String.format(Locale.US,
+                "  reroutes:         %d of them %d prefetched, %d fetched, %d failed",
+                metrics.counter("navigation.reroutes").sum(), metrics.counter("reroute.prefetched").sum(),
+                metrics.counter("reroute.fetches").sum(), metrics.counter("reroute.failures").sum()));
+    }
+
+    private long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    private long threadAllocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * What asking for the allocated bytes allocates by itself, taken off every tick's count.
+     */
+    private long measureAllocationOverhead() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long before = threadAllocatedBytes();
+            min = Math.min(min, threadAllocatedBytes() - before);
+        }
+        return min;
+    }
+
+    /**
+     * The route as driven: its line with the distance along it of every point, and where each step ends.
+     */
+    private static final class Course {
+        final DirectionsRoute route;
+        final double[] longitudes;
+        final double[] latitudes;
+        final double[] distances;
+        final double length;
+        final List<LegStep> steps = new ArrayList<>();
+        final int[] legIndices;
+        final int[] stepIndices;
+        final double[] stepEnds;
+
+        Course(DirectionsRoute route) {
+            this.route = route;
+            List<Point> line = PolylineUtils.decode(route.geometry(), PRECISION_6);
+            longitudes = new double[line.size()];
+            latitudes = new double[line.size()];
+            distances = new double[line.size()];
+            for (int i = 0; i < line.size(); i++) {
+                longitudes[i] = line.get(i).longitude();
+                latitudes[i] = line.get(i).latitude();
+                if (i > 0) {
+                    distances[i] = distances[i - 1] + distance(longitudes[i - 1], latitudes[i - 1],
+                            longitudes[i], latitudes[i]);
+                }
+            }
+            length = distances[distances.length - 1];
+
+            List<Integer> legs = new ArrayList<>();
+            List<Integer> stepsOfLeg = new ArrayList<>();
+            for (int leg = 0; leg < route.legs().size(); leg++) {
+                RouteLeg routeLeg = route.legs().get(leg);
+                for (int step = 0; step < routeLeg.steps().size(); step++) {
+                    steps.add(routeLeg.steps().get(step));
+                    legs.add(leg);
+                    stepsOfLeg.add(step);
+                }
+            }
+            legIndices = new int[steps.size()];
+            stepIndices = new int[steps.size()];
+            stepEnds = new double[steps.size()];
+            double end = 0;
+            for (int i = 0; i < steps.size(); i++) {
+                legIndices[i] = legs.get(i);
+                stepIndices[i] = stepsOfLeg.get(i);
+                end += steps.get(i).distance();
+                stepEnds[i] = end;
+            }
+            // The steps' distances don't quite add up to the line's length
+            for (int i = 0; i < stepEnds.length; i++) {
+                stepEnds[i] *= length / end;
+            }
+        }
+    }
+
+    /**
+     * One session driving the course. Its ticks and its reroute engine's work go through one
+     * {@link SerialExecutor}, so the core is only ever called from one thread at a time.
+     */
+    private final class Vehicle implements RerouteEngine.Listener, RouteSource, Runnable {
+        private final Course course;
+        private final double speed;
+        private final double detourAt;
+        private final Random random;
+        private final Executor pool;
+        private final Executor lane;
+        private final CountDownLatch arrived;
+        private final NavigationSessionCore core;
+        private final Runnable next;
+        private final Runnable finishTick = this::finishTick;
+        // Fetches still on their way, as the time they're answered at and their callback
+        private final ArrayDeque<Long> answerTimes = new ArrayDeque<>();
+        private final ArrayDeque<Callback> answers = new ArrayDeque<>();
+
+        private long timeMillis = 1_600_000_000_000L;
+        private double along;
+        private int segment;
+        private int step = -1;
+        private boolean done;
+        // The tick being measured, only touched on the lane
+        private Thread tickThread;
+        private long tickStartNanos;
+        private long tickAllocatedBefore;
+
+        Vehicle(Course course, double speed, double detourAt, long seed, Executor pool,
+                ScheduledExecutorService scheduler, CountDownLatch arrived) {
+            this.course = course;
+            this.speed = speed;
+            this.detourAt = detourAt;
+            this.random = new Random(seed);
+            this.pool = pool;
+            this.lane = new SerialExecutor(pool);
+            this.arrived = arrived;
+            RerouteEngine rerouteEngine = new RerouteEngine(this, scheduler, lane, metrics, this,
+                    RerouteEngine.INITIAL_BACKOFF_MILLIS, lane);
+            InstructionPipeline instructionPipeline = new InstructionPipeline(
+                    Collections.singletonList(new StreetAbbreviations()), pool, metrics);
+            core = new NavigationSessionCore(rerouteEngine, instructionPipeline,
+                    new AdaptiveUpdateScheduler(metrics, null, () -> timeMillis), null, null, metrics);
+            // Back through the pool's queue, so every other vehicle gets its turn first
+            next = () -> lane.execute(this);
+        }
+
+        void start() {
+            lane.execute(() -> core.start(course.route));
+            pool.execute(next);
+        }
+
+        @Override
+        public void run() {
+            if (done) {
+                return;
+            }
+            tickThread = Thread.currentThread();
+            tickAllocatedBefore = threadAllocatedBytes();
+            tickStartNanos = System.nanoTime();
+            tick();
+            // Behind the reroute engine's work for this tick, which the tick queued on the lane
+            lane.execute(finishTick);
+        }
+
+        private void finishTick() {
+            tickLatency.record(System.nanoTime() - tickStartNanos);
+            // The lane drains on one thread, unless a task failed and it went on on another
+            if (Thread.currentThread() == tickThread) {
+                tickBytes.add(Math.max(0, threadAllocatedBytes() - tickAllocatedBefore - allocationOverheadBytes));
+                measuredTicks.increment();
+            }
+            ticks.increment();
+            if (done) {
+                arrived.countDown();
+            } else {
+                pool.execute(next);
+            }
+        }
+
+        @Override
+        public void fetchRoute(@NonNull RouteRequest request, @NonNull Callback callback) {
+            synchronized (answers) {
+                answerTimes.add(timeMillis + latencyMillis);
+                answers.add(callback);
+            }
+        }
+
+        private void tick() {
+            timeMillis += TICK_MILLIS;
+            synchronized (answers) {
+                while (!answerTimes.isEmpty() && answerTimes.peek() <= timeMillis) {
+                    answerTimes.poll();
+                    answers.poll().onRoute(course.route);
+                }
+            }
+            along = Math.min(course.length, along + speed * TICK_MILLIS / 1000);
+            while (segment < course.distances.length - 2 && course.distances[segment + 1] < along) {
+                segment++;
+            }
+            double segmentLength = course.distances[segment + 1] - course.distances[segment];
+            double fraction = segmentLength == 0 ? 0 : (along - course.distances[segment]) / segmentLength;
+            double longitude = course.longitudes[segment]
+                    + (course.longitudes[segment + 1] - course.longitudes[segment]) * fraction;
+            double latitude = course.latitudes[segment]
+                    + (course.latitudes[segment + 1] - course.latitudes[segment]) * fraction;
+
+            // Off to the side of the route, furthest halfway through the detour
+            double offset = random.nextGaussian() * GPS_NOISE_METERS;
+            if (along > detourAt && along < detourAt + DETOUR_LENGTH_METERS) {
+                double progress = (along - detourAt) / DETOUR_LENGTH_METERS;
+                offset += DETOUR_OFFSET_METERS * (1 - Math.abs(2 * progress - 1));
+            }
+            double bearing = bearing(course.longitudes[segment], course.latitudes[segment],
+                    course.longitudes[segment + 1], course.latitudes[segment + 1]);
+            double sideways = Math.toRadians(bearing + 90);
+            latitude += Math.toDegrees(offset * Math.cos(sideways) / EARTH_RADIUS_METERS);
+            longitude += Math.toDegrees(offset * Math.sin(sideways) / EARTH_RADIUS_METERS)
+                    / Math.cos(Math.toRadians(latitude));
+
+            int current = step < 0 ? 0 : step;
+            while (current < course.stepEnds.length - 1 && course.stepEnds[current] < along) {
+                current++;
+            }
+            if (current != step) {
+                step = current;
+                announce(course.steps.get(step));
+            }
+            core.onProgress(timeMillis, longitude, latitude, speed, bearing, GPS_NOISE_METERS,
+                    course.legIndices[step], course.stepIndices[step], course.stepEnds[step] - along,
+                    course.length - along);
+            if (along >= course.length) {
+                core.onArrival(timeMillis);
+                core.release();
+                done = true;
+            }
+        }
+
+        private void announce(LegStep legStep) {
+            List<BannerInstructions> banners = legStep.bannerInstructions();
+            if (banners != null && !banners.isEmpty()) {
+                core.banner(banners.get(0));
+            }
+            List<VoiceInstructions> voices = legStep.voiceInstructions();
+            if (voices != null && !voices.isEmpty() && voices.get(0).announcement() != null) {
+                core.voice(voices.get(0).announcement());
+            }
+        }
+
+        @Override
+        public void onReroute(@NonNull DirectionsRoute route, boolean prefetched) {
+            if (!done) {
+                // Every route the stand-in hands out is the course, so the drive goes on as it was
+                core.onReroute(timeMillis, route, prefetched);
+            }
+        }
+
+        @Override
+        public void onRerouteFailed(@NonNull Throwable throwable) {
+            core.onRerouteFailed(timeMillis);
+        }
+    }
+
+    private static double distance(double fromLongitude, double fromLatitude, double toLongitude,
+                                    double toLatitude) {
+        double dLatitude = Math.toRadians(toLatitude - fromLatitude);
+        double dLongitude = Math.toRadians(toLongitude - fromLongitude)
+                * Math.cos(Math.toRadians((fromLatitude + toLatitude) / 2));
+        return EARTH_RADIUS_METERS * Math.sqrt(dLatitude * dLatitude + dLongitude * dLongitude);
+    }
+
+    private static double bearing(double fromLongitude, double fromLatitude, double toLongitude,
+                                  double toLatitude) {
+        double dLongitude = Math.toRadians(toLongitude - fromLongitude)
+                * Math.cos(Math.toRadians((fromLatitude + toLatitude) / 2));
+        double dLatitude = Math.toRadians(toLatitude - fromLatitude);
+        return (Math.toDegrees(Math.atan2(dLongitude, dLatitude)) + 360) % 360;
+    }
+}
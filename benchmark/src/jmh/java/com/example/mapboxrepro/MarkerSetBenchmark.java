@@ -0,0 +1,87 @@
+package com.example.mapboxrepro;
+
+import com.google.gson.JsonObject;
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the GeoJSON for 1000 to 10000 synthetic job markers when 1% of them moved, as
+ * {@link MarkerLayerController} does off the main thread: the {@link MarkerSet} diff, the full
+ * rebuild it replaces, and a diff that finds nothing changed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MarkerSetBenchmark {
+    private static final double MOVED_FRACTION = 0.01;
+
+    @Param({"1000", "5000", "10000"})
+    public int markers;
+
+    // Two versions of the markers, 1% of them in other places, to switch between
+    private List<MarkerSet.Marker> before;
+    private List<MarkerSet.Marker> after;
+    private MarkerSet markerSet;
+    private boolean flip;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        before = new ArrayList<>(markers);
+        after = new ArrayList<>(markers);
+        for (int i = 0; i < markers; i++) {
+            MarkerSet.Marker marker = new MarkerSet.Marker("stop-" + i, randomPoint(random), "endpoint");
+            before.add(marker);
+            after.add(random.nextDouble() < MOVED_FRACTION
+                    ? new MarkerSet.Marker(marker.id, randomPoint(random), marker.icon)
+                    : marker);
+        }
+        markerSet = new MarkerSet();
+        markerSet.replaceAll(before);
+    }
+
+    private static Point randomPoint(Random random) {
+        // Around 30 by 30 kilometers
+        return Point.fromLngLat(-77.7 + random.nextDouble() * 0.35, 37.4 + random.nextDouble() * 0.27);
+    }
+
+    @Benchmark
+    public String incremental() {
+        flip = !flip;
+        markerSet.replaceAll(flip ? after : before);
+        return markerSet.toJson();
+    }
+
+    @Benchmark
+    public String fullRebuild() {
+        flip = !flip;
+        List<MarkerSet.Marker> next = flip ? after : before;
+        List<Feature> features = new ArrayList<>(next.size());
+        for (MarkerSet.Marker marker : next) {
+            JsonObject properties = new JsonObject();
+            properties.addProperty(MarkerSet.ICON_PROPERTY, marker.icon);
+            features.add(Feature.fromGeometry(marker.point, properties, marker.id));
+        }
+        return FeatureCollection.fromFeatures(features).toJson();
+    }
+
+    @Benchmark
+    public MarkerSet.Diff unchanged() {
+        return markerSet.replaceAll(before);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.mapboxrepro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the instrumentation left on in release builds, uncontended and with four recording threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+    private final Metrics metrics = new Metrics();
+    private final LatencyHistogram histogram = metrics.histogram("progress.tick");
+
+    @Benchmark
+    public void histogramRecord() {
+        histogram.record(System.nanoTime() & 0xfffff);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void histogramRecordContended() {
+        histogram.record(System.nanoTime() & 0xfffff);
+    }
+
+    @Benchmark
+    public void counterIncrementByName() {
+        metrics.counter("navigation.off_route").increment();
+    }
+}
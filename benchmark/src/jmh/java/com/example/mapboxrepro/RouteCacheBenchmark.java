@@ -0,0 +1,77 @@
+package com.example.mapboxrepro;
+
+import androidx.annotation.NonNull;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The caching layers in front of the Directions API: a memory hit in {@link RouteRepository} and a
+ * memory mapped read from {@link RouteDiskCache}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RouteCacheBenchmark {
+    private final RouteSource.Callback sink = new RouteSource.Callback() {
+        @Override
+        public void onRoute(@NonNull DirectionsRoute route) {
+            lastRoute = route;
+        }
+
+        @Override
+        public void onFailure(@NonNull Throwable throwable) {
+            throw new IllegalStateException(throwable);
+        }
+    };
+
+    private RouteRequest request;
+    private RouteRepository repository;
+    private RouteDiskCache diskCache;
+    private String diskKey;
+    private File directory;
+    private DirectionsRoute lastRoute;
+
+    @Setup
+    public void setUp() throws IOException {
+        request = BenchmarkFixtures.request();
+        DirectionsRoute route = RouteFixtures.route();
+        repository = new RouteRepository((request, callback) -> callback.onRoute(route));
+        repository.getRoute(request, sink);
+
+        directory = Files.createTempDirectory("route-cache-benchmark").toFile();
+        diskCache = new RouteDiskCache(directory);
+        diskKey = RouteDiskCache.keyFor(request);
+        diskCache.put(diskKey, request, route);
+    }
+
+    @TearDown
+    public void tearDown() {
+        diskCache.removeOlderThan(Long.MAX_VALUE);
+        directory.delete();
+    }
+
+    @Benchmark
+    public DirectionsRoute repositoryHit() {
+        repository.getRoute(request, sink);
+        return lastRoute;
+    }
+
+    @Benchmark
+    public RouteCodec.Record diskCacheRead() {
+        return diskCache.get(diskKey);
+    }
+}
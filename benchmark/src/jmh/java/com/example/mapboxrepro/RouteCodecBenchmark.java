@@ -0,0 +1,87 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.api.directions.v5.models.DirectionsRoute;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading a route with {@link RouteCodec} against Java serialization, which is what the
+ * route used to travel through, and the plain Directions JSON.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RouteCodecBenchmark {
+    @Param({"1", "10"})
+    public int legs;
+
+    private RouteRequest request;
+    private DirectionsRoute route;
+    private byte[] encoded;
+    private byte[] serialized;
+    private String json;
+
+    @Setup
+    public void setUp() throws IOException {
+        request = BenchmarkFixtures.request();
+        route = RouteFixtures.multiLegRoute(legs);
+        encoded = RouteCodec.encode(request, route);
+        serialized = javaSerialize(route);
+        json = route.toJson();
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return RouteCodec.encode(request, route);
+    }
+
+    @Benchmark
+    public DirectionsRoute codecDecode() throws IOException {
+        return RouteCodec.decode(ByteBuffer.wrap(encoded)).getRoute();
+    }
+
+    @Benchmark
+    public byte[] javaSerialization() throws IOException {
+        return javaSerialize(route);
+    }
+
+    @Benchmark
+    public Object javaDeserialization() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public String jsonEncode() {
+        return route.toJson();
+    }
+
+    @Benchmark
+    public DirectionsRoute jsonDecode() {
+        return DirectionsRoute.fromJson(json);
+    }
+
+    private static byte[] javaSerialize(DirectionsRoute route) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(route);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.geojson.Point;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapping a location to routes from a city drive to a cross country one, through
+ * {@link RouteGeometryIndex} and by walking every segment. The indexed queries should take about the
+ * same time whatever the number of points; the linear scan grows with it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RouteGeometryIndexBenchmark {
+    private static final int QUERIES = 1024;
+    private static final double SPACING_METERS = 20;
+    private static final double METERS_PER_DEGREE = 111195;
+    // RerouteEngine's off route threshold and lookahead
+    private static final double SEARCH_METERS = 50;
+    private static final double LOOKAHEAD_METERS = 2000;
+
+    @Param({"1000", "10000", "100000"})
+    public int points;
+
+    private RouteGeometryIndex index;
+    private double[] longitudes;
+    private double[] latitudes;
+    private double[] distancesAlong;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        // A road that wanders a little, heading roughly east
+        List<Point> line = new ArrayList<>(points);
+        double longitude = -100;
+        double latitude = 40;
+        double heading = Math.PI / 2;
+        double metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        for (int i = 0; i < points; i++) {
+            line.add(Point.fromLngLat(longitude, latitude));
+            heading += (random.nextDouble() - 0.5) * 0.3;
+            heading = Math.max(Math.PI / 4, Math.min(3 * Math.PI / 4, heading));
+            longitude += SPACING_METERS * Math.sin(heading) / metersPerDegreeLongitude;
+            latitude += SPACING_METERS * Math.cos(heading) / METERS_PER_DEGREE;
+        }
+        index = new RouteGeometryIndex(line);
+
+        // Locations up to 30 meters off random points of the route, as GPS noise would put them
+        longitudes = new double[QUERIES];
+        latitudes = new double[QUERIES];
+        distancesAlong = new double[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            Point near = line.get(random.nextInt(points));
+            longitudes[i] = near.longitude() + (random.nextDouble() - 0.5) * 60 / metersPerDegreeLongitude;
+            latitudes[i] = near.latitude() + (random.nextDouble() - 0.5) * 60 / METERS_PER_DEGREE;
+            distancesAlong[i] = random.nextDouble() * index.length();
+        }
+    }
+
+    @Benchmark
+    public RouteGeometryIndex.Snap indexedSnap() {
+        int query = nextQuery();
+        return index.snap(longitudes[query], latitudes[query], SEARCH_METERS);
+    }
+
+    @Benchmark
+    public Point lookahead() {
+        int query = nextQuery();
+        return index.pointAt(distancesAlong[query] + LOOKAHEAD_METERS);
+    }
+
+    @Benchmark
+    public int linearScan() {
+        int query = nextQuery();
+        int nearest = -1;
+        double nearestDistance = SEARCH_METERS;
+        for (int segment = 0; segment < index.segmentCount(); segment++) {
+            double distance = index.distanceToSegment(segment, longitudes[query], latitudes[query]);
+            if (distance < nearestDistance) {
+                nearest = segment;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    private int nextQuery() {
+        next = (next + 1) & (QUERIES - 1);
+        return next;
+    }
+}
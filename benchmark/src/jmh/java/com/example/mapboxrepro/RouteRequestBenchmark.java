@@ -0,0 +1,48 @@
+package com.example.mapboxrepro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RouteRequest is the key of every route cache, so its hashCode and equals sit on the lookup path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RouteRequestBenchmark {
+    private RouteRequest request;
+    private RouteRequest equalRequest;
+    private Map<RouteRequest, Object> map;
+
+    @Setup
+    public void setUp() {
+        request = BenchmarkFixtures.request();
+        equalRequest = BenchmarkFixtures.request();
+        map = new HashMap<>();
+        map.put(request, new Object());
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return request.hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsOfDistinctInstances() {
+        return request.equals(equalRequest);
+    }
+
+    @Benchmark
+    public Object hashMapLookup() {
+        return map.get(equalRequest);
+    }
+}
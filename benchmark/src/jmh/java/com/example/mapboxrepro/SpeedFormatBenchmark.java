@@ -0,0 +1,40 @@
+package com.example.mapboxrepro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The text work done for the speed widget on every progress update, before and after it stopped
+ * using String.format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpeedFormatBenchmark {
+    private final StringBuilder buffer = new StringBuilder(8);
+    private float metersPerSecond = 24.6f;
+
+    @Benchmark
+    public String stringFormat() {
+        metersPerSecond = next(metersPerSecond);
+        return String.format("%d\nMPH", (int) (metersPerSecond * 2.2369));
+    }
+
+    @Benchmark
+    public StringBuilder speedFormatter() {
+        metersPerSecond = next(metersPerSecond);
+        buffer.setLength(0);
+        SpeedFormatter.appendSpeedText(buffer, SpeedFormatter.toMilesPerHour(metersPerSecond));
+        return buffer;
+    }
+
+    private static float next(float metersPerSecond) {
+        return metersPerSecond > 40 ? 0 : metersPerSecond + 0.1f;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.mapboxrepro;
+
+import com.mapbox.geojson.Point;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordering jobs of 50 to 500 stops scattered over a city sized area with {@link StopOrderOptimizer}:
+ * all starts in parallel on every core, a single start for comparison, and the nearest neighbour walk
+ * the starts begin from.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StopOrderBenchmark {
+    @Param({"50", "100", "200", "500"})
+    public int stops;
+
+    private double[][] seconds;
+    private ForkJoinPool pool;
+    private StopOrderOptimizer parallel;
+    private StopOrderOptimizer singleStart;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<Point> points = new ArrayList<>(stops);
+        for (int i = 0; i < stops; i++) {
+            // Around 30 by 30 kilometers
+            points.add(Point.fromLngLat(-77.7 + random.nextDouble() * 0.35, 37.4 + random.nextDouble() * 0.27));
+        }
+        // City driving, with roads about a third longer than the straight line
+        seconds = StraightLineDurationSource.durationsOf(points, 10, 1.3);
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        StraightLineDurationSource durations = new StraightLineDurationSource(10, 1.3, Runnable::run);
+        parallel = new StopOrderOptimizer(durations, pool);
+        singleStart = new StopOrderOptimizer(durations, pool, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int[] optimize() {
+        return parallel.order(seconds, false);
+    }
+
+    @Benchmark
+    public int[] optimizeSingleStart() {
+        return singleStart.order(seconds, false);
+    }
+
+    @Benchmark
+    public int[] nearestNeighbour() {
+        return StopOrderOptimizer.nearestNeighbour(seconds, false, null);
+    }
+}